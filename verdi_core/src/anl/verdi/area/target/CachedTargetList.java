@@ -1,58 +1,114 @@
 package anl.verdi.area.target;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import ucar.unidata.geoloc.Projection;
 
+/**
+ * The areas of the grid cells overlapped by the targets of one shapefile,
+ * identified by one of its fields, on one grid. The lists are kept in
+ * memory up to the total size set by the {@value #MAX_SIZE_PROPERTY}
+ * system property, the least recently used evicted beyond that, and saved
+ * to disk by {@link TargetAreaFile} so that they are not computed again in
+ * later sessions.
+ */
 public class CachedTargetList {
-	
+
+	/**
+	 * System property that sets the maximum size of the cached area lists
+	 * in megabytes. The default is a sixteenth of the maximum heap size.
+	 */
+	public static final String MAX_SIZE_PROPERTY = "verdi.targetCache.maxMB";
+
+	static final Logger Logger = LogManager.getLogger(CachedTargetList.class.getName());
+
+	// bytes taken by a cached list and by each target in it, besides the arrays
+	private static final int LIST_OVERHEAD = 256;
+	private static final int ENTRY_OVERHEAD = 96;
+
+	// access ordered so that iteration starts from the least recently used
+	private static LinkedHashMap<String, CachedTargetList> CACHED_TARGET_LIST = new LinkedHashMap<String, CachedTargetList>(16, 0.75f, true);
+	private static long maxBytes = defaultMaxBytes();
+	private static long bytes = 0;
+
 	String filename = null;
-	int rows = 0;
-	int columns = 0;
-	double westEdge = 0;
-	double southEdge = 0;
-	double cellWidth = 0;
-	double cellHeight = 0;
+	String idField = null;
+	String gridString = null;
 	String idString = null;
-	
-	private static Map<String, CachedTargetList> CACHED_TARGET_LIST = new HashMap<String, CachedTargetList>();
-	
-	public synchronized static CachedTargetList getCachedTargetList(Target target, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
-		String sourcePath = target.getSource().getURL().getPath();
-		CachedTargetList listKey = new CachedTargetList(sourcePath, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
-		
-		if (CACHED_TARGET_LIST.containsKey(listKey.idString))
-			return CACHED_TARGET_LIST.get(listKey.idString);
-		CACHED_TARGET_LIST.put(listKey.idString, listKey);
-		Set<String> cachesForPath = FILE_ID_MAP.get(sourcePath);
-		if (cachesForPath == null) {
-			cachesForPath = new HashSet<String>();
-			FILE_ID_MAP.put(sourcePath,  cachesForPath);
+	private byte[] contentHash;
+	private Map<String, TargetAreaInfo> areaInfoMap = new HashMap<String, TargetAreaInfo>();
+	private long size = LIST_OVERHEAD;
+	private boolean dirty = false;
+
+	private static long defaultMaxBytes() {
+		long max = Runtime.getRuntime().maxMemory() / 16;
+		String val = System.getProperty(MAX_SIZE_PROPERTY);
+		if (val != null && !val.trim().isEmpty()) {
+			try {
+				max = Long.parseLong(val.trim()) * 1024 * 1024;
+			} catch (NumberFormatException ex) {
+				Logger.warn("Invalid value '" + val + "' for " + MAX_SIZE_PROPERTY + ", using " + (max >> 20) + " MB");
+			}
 		}
-		cachesForPath.add(listKey.idString);
-		
-		return listKey;				
+		return max;
 	}
-	
-	private CachedTargetList(String filename, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
-		this.filename = filename;
-		this.rows = rows;
-		this.columns = columns;
-		this.westEdge = westEdge;
-		this.southEdge = southEdge;
-		this.cellWidth = cellWidth;
-		this.cellHeight = cellHeight;
-		idString = filename + "." + rows + "." + columns + "." + westEdge + "." + southEdge + "." + cellWidth + "." + cellHeight;
 
+	/**
+	 * Gets the list for the target's shapefile and id field on the specified
+	 * grid, reading it from disk if it was saved by an earlier session and
+	 * the shapefile has not changed since.
+	 */
+	public synchronized static CachedTargetList getCachedTargetList(Target target, Projection projection, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
+		String sourcePath = new File(target.getSource().getURL().getPath()).getAbsolutePath();
+		String idField = target.getSource().getName();
+		String gridString = gridString(projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+		String idString = sourcePath + "." + idField + "." + gridString;
+
+		CachedTargetList list = CACHED_TARGET_LIST.get(idString);
+		if (list != null)
+			return list;
+		list = new CachedTargetList(sourcePath, idField, gridString, idString);
+		try {
+			list.contentHash = TargetAreaFile.hashShapefile(sourcePath);
+			int count = TargetAreaFile.read(list);
+			if (count > 0)
+				Logger.debug("Read the areas of " + count + " targets of " + sourcePath + " from the target cache");
+		} catch (IOException e) {
+			Logger.warn("Unable to read the target cache for " + sourcePath + ": " + e.getMessage());
+		}
+		CACHED_TARGET_LIST.put(idString, list);
+		bytes += list.size;
+		evict(list);
+		return list;
+	}
+
+	// the definition of the grid, including its projection
+	static String gridString(Projection projection, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
+		String projectionString = projection == null ? "none" : projection.getClassName() + " " + projection.paramsToString();
+		return projectionString + "." + rows + "." + columns + "." + westEdge + "." + southEdge + "." + cellWidth + "." + cellHeight;
+	}
+
+	CachedTargetList(String filename, String idField, String gridString, String idString) {
+		this.filename = filename;
+		this.idField = idField;
+		this.gridString = gridString;
+		this.idString = idString;
 	}
 
 	public int hashCode() {
 		return idString.hashCode();
 	}
-	
+
 	public boolean equals(Object obj) {
 		if (obj == null || !(obj instanceof CachedTargetList))
 			return false;
@@ -60,56 +116,118 @@ public class CachedTargetList {
 		return source.idString.equals(idString);
 	}
 
-	static Map<String, Map<String, TargetAreaInfo>> ID_TYPE_MAP = new HashMap<String, Map<String, TargetAreaInfo>>();
-	static Map<String, Set<String>> FILE_ID_MAP = new HashMap<String, Set<String>>();
-	
-	public TargetAreaInfo getCachedAreaInfo(Target target, Projection projection, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
-		
-		String mapPath = target.getSource().getURL().getPath();
-		String idField = target.getSource().getName();
-		String targetId = target.getName();
-		
-		Map<String, TargetAreaInfo> areaInfoMap = ID_TYPE_MAP.get(idField);
-		if (areaInfoMap == null) {
-			areaInfoMap = new HashMap<String, TargetAreaInfo>();
-			ID_TYPE_MAP.put(idField, areaInfoMap);
-			Set<String> fileMap = FILE_ID_MAP.get(mapPath);
-			if (fileMap == null) {
-				fileMap = new HashSet<String>();
-				FILE_ID_MAP.put(mapPath, fileMap);
+	/**
+	 * Gets the cached areas of the target.
+	 *
+	 * @return the areas of the target, or null if they are not cached.
+	 */
+	public TargetAreaInfo getCachedAreaInfo(Target target) {
+		synchronized (CachedTargetList.class) {
+			return areaInfoMap.get(target.getName());
+		}
+	}
+
+	/**
+	 * Removes the lists of the specified shapefile from memory, e.g. when
+	 * it is closed. Their copies on disk are kept.
+	 */
+	public synchronized static void closeFile(String path) {
+		String sourcePath = new File(path).getAbsolutePath();
+		for (Iterator<CachedTargetList> iter = CACHED_TARGET_LIST.values().iterator(); iter.hasNext();) {
+			CachedTargetList list = iter.next();
+			if (list.filename.equals(sourcePath)) {
+				iter.remove();
+				bytes -= list.size;
 			}
-			fileMap.add(idField);
 		}
-		
-		return areaInfoMap.get(targetId);
-		
-	}
-	
-	public static void closeFile(String path) {
-		Set<String> caches = FILE_ID_MAP.get(path);
-		if (caches == null)
-			return;
-		for (String id : caches) {
-			CACHED_TARGET_LIST.remove(id);
-			ID_TYPE_MAP.remove(id);
+	}
+
+	/**
+	 * Caches the areas of the target. The arrays are null if it does not
+	 * overlap the grid.
+	 */
+	public void cacheAreaInfo(Target target, int[] rowIndex, int[] colIndex, float[] overlapArea) {
+		synchronized (CachedTargetList.class) {
+			put(target.getName(), new TargetAreaInfo(target.area, rowIndex, colIndex, overlapArea));
+			dirty = true;
+			evict(this);
 		}
-		FILE_ID_MAP.remove(path);
 	}
-	
-    public void cacheAreaInfo(Target target, int[] rowIndex, int[] colIndex, float[] overlapArea) {
-		String idField = target.getSource().getName();
-		String targetId = target.getName();
-		
-		Map<String, TargetAreaInfo> areaInfoMap = ID_TYPE_MAP.get(idField);
-		if (areaInfoMap == null) {
-			areaInfoMap = new HashMap<String, TargetAreaInfo>();
-			ID_TYPE_MAP.put(idField, areaInfoMap);
+
+	// adds the target's areas, keeping the list's size up to date
+	void put(String targetId, TargetAreaInfo areaInfo) {
+		TargetAreaInfo old = areaInfoMap.put(targetId, areaInfo);
+		long change = sizeOf(areaInfo) - (old == null ? 0 : sizeOf(old));
+		size += change;
+		if (CACHED_TARGET_LIST.get(idString) == this)
+			bytes += change;
+	}
+
+	private static long sizeOf(TargetAreaInfo areaInfo) {
+		return ENTRY_OVERHEAD + (areaInfo.overlapArea == null ? 0 : 12L * areaInfo.overlapArea.length);
+	}
+
+	// evicts the least recently used lists until the cache fits, keeping the specified one
+	private static void evict(CachedTargetList keep) {
+		List<CachedTargetList> evicted = new ArrayList<CachedTargetList>();
+		for (Iterator<CachedTargetList> iter = CACHED_TARGET_LIST.values().iterator(); bytes > maxBytes && iter.hasNext();) {
+			CachedTargetList list = iter.next();
+			if (list == keep)
+				continue;
+			iter.remove();
+			bytes -= list.size;
+			evicted.add(list);
 		}
-		
-		TargetAreaInfo areaInfo = new TargetAreaInfo(target.area, rowIndex, colIndex, overlapArea);
-		
-		areaInfoMap.put(targetId, areaInfo);
-    }
+		// anything not yet on disk is saved before it is forgotten
+		for (CachedTargetList list : evicted)
+			list.save();
+	}
 
+	/**
+	 * Saves the list to disk if it has areas that are not yet saved.
+	 */
+	public void save() {
+		synchronized (CachedTargetList.class) {
+			if (!dirty || contentHash == null)
+				return;
+			dirty = false;
+			TargetAreaFile.write(this);
+		}
+	}
+
+	byte[] getContentHash() {
+		return contentHash;
+	}
+
+	Map<String, TargetAreaInfo> getAreaInfoMap() {
+		return areaInfoMap;
+	}
 
+	/**
+	 * Sets the maximum total size of the lists held in memory.
+	 *
+	 * @param max the maximum size in bytes
+	 */
+	public static synchronized void setMaxBytes(long max) {
+		maxBytes = max;
+		evict(null);
+	}
+
+	/**
+	 * Gets the total size of the lists held in memory.
+	 *
+	 * @return the total size in bytes.
+	 */
+	public static synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of lists held in memory.
+	 *
+	 * @return the number of lists held in memory.
+	 */
+	public static synchronized int getListCount() {
+		return CACHED_TARGET_LIST.size();
+	}
 }
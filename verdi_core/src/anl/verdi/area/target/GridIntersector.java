@@ -0,0 +1,400 @@
+package anl.verdi.area.target;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.area.LongTask;
+import anl.verdi.util.SharedPool;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Computes the areas of the cells of a regular grid that a polygon covers.
+ * The polygon is prepared once, so that the columns of cells wholly inside
+ * it are found with a fast contains test and their cells given their whole
+ * area, and the columns wholly outside it are skipped. The polygon's rings
+ * are clipped to each of the other columns in turn, and the clipped rings
+ * to each cell in the column, so that the area in a cell is found from a
+ * piece of the polygon rather than by an overlay with the whole polygon.
+ * The cells are visited column by column, as TargetCalculator always has,
+ * and the results kept in primitive arrays.
+ * <p>
+ * Several polygons are intersected in parallel by
+ * {@link #intersectAll(List, LongTask)}, as many at once as set by the
+ * {@value #PARALLELISM_PROPERTY} system property.
+ */
+public class GridIntersector {
+
+	/**
+	 * System property that sets the default number of threads
+	 * used to intersect targets with the grid.
+	 */
+	public static final String PARALLELISM_PROPERTY = "verdi.area.parallelism";
+
+	static final Logger Logger = LogManager.getLogger(GridIntersector.class.getName());
+
+	private static final SharedPool pool = new SharedPool("Grid intersector", PARALLELISM_PROPERTY, false);
+
+	private final int rows;
+	private final int columns;
+	private final double westEdge;
+	private final double southEdge;
+	private final double cellWidth;
+	private final double cellHeight;
+	private final GeometryFactory factory = TargetCalculator.getGeometryFactory();
+
+	/**
+	 * The cells a polygon overlaps, in the order visited, and the areas of
+	 * the overlaps in the units of the grid.
+	 */
+	public static class Overlaps {
+
+		private final int[] rowIndex;
+		private final int[] colIndex;
+		private final float[] area;
+
+		Overlaps(int[] rowIndex, int[] colIndex, float[] area) {
+			this.rowIndex = rowIndex;
+			this.colIndex = colIndex;
+			this.area = area;
+		}
+
+		public int size() {
+			return area.length;
+		}
+
+		public int[] getRowIndex() {
+			return rowIndex;
+		}
+
+		public int[] getColIndex() {
+			return colIndex;
+		}
+
+		public float[] getArea() {
+			return area;
+		}
+	}
+
+	/**
+	 * Gets the number of threads used to intersect targets with the grid.
+	 *
+	 * @return the number of threads used to intersect targets with the grid.
+	 */
+	public static int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to intersect targets with the grid. A
+	 * value of 1 intersects them serially on the calling thread.
+	 *
+	 * @param level the number of threads
+	 */
+	public static void setParallelism(int level) {
+		pool.setParallelism(level);
+	}
+
+	/**
+	 * Creates a GridIntersector for the specified grid.
+	 *
+	 * @param rows       the number of rows
+	 * @param columns    the number of columns
+	 * @param westEdge   the x coordinate of the western edge of the grid
+	 * @param southEdge  the y coordinate of the southern edge of the grid
+	 * @param cellWidth  the width of a cell
+	 * @param cellHeight the height of a cell
+	 */
+	public GridIntersector(int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
+		this.rows = rows;
+		this.columns = columns;
+		this.westEdge = westEdge;
+		this.southEdge = southEdge;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+	}
+
+	/**
+	 * Intersects each of the polygons with the grid, in parallel if the
+	 * parallelism level is greater than 1.
+	 *
+	 * @param polygons the polygons, in the coordinates of the grid
+	 * @param task     the task whose cancellation stops the work, or null
+	 * @return the overlaps of each polygon, or null if the task was canceled.
+	 */
+	public Overlaps[] intersectAll(final List<? extends Geometry> polygons, final LongTask task) {
+		final Overlaps[] result = new Overlaps[polygons.size()];
+		if (getParallelism() <= 1 || polygons.size() <= 1) {
+			for (int i = 0; i < result.length; i++) {
+				result[i] = intersect(polygons.get(i), task);
+				if (result[i] == null) return null;
+			}
+			return result;
+		}
+
+		pool.forEach(result.length, new SharedPool.Body() {
+			public void run(int index) {
+				result[index] = intersect(polygons.get(index), task);
+			}
+		});
+		for (Overlaps overlaps : result) {
+			if (overlaps == null) return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Intersects the polygon with the grid.
+	 *
+	 * @param polygon the polygon, in the coordinates of the grid
+	 * @param task    the task whose cancellation stops the work, or null
+	 * @return the overlaps of the polygon, or null if the task was canceled.
+	 */
+	public Overlaps intersect(Geometry polygon, LongTask task) {
+		Envelope env = polygon.getEnvelopeInternal();
+		// get the corresponding grid cells
+		int col1 = (int) Math.floor((env.getMinX() - westEdge) / cellWidth);
+		int col2 = (int) Math.floor((env.getMaxX() - westEdge) / cellWidth);
+		int row1 = (int) Math.floor((env.getMinY() - southEdge) / cellHeight);
+		int row2 = (int) Math.floor((env.getMaxY() - southEdge) / cellHeight);
+		if ((col1 < 0 && col2 < 0) || (row1 < 0 && row2 < 0))
+			return new Overlaps(new int[0], new int[0], new float[0]);
+		col1 = Math.max(col1, 0);
+		row1 = Math.max(row1, 0);
+		col2 = Math.min(col2, columns - 1);
+		row2 = Math.min(row2, rows - 1);
+
+		PreparedGeometry prepared = PreparedGeometryFactory.prepare(polygon);
+		Rings rings = Rings.create(polygon);
+		int count = 0;
+		int capacity = Math.max(16, Math.min((col2 - col1 + 1) * (row2 - row1 + 1), 1 << 16));
+		int[] rowIndex = new int[capacity];
+		int[] colIndex = new int[capacity];
+		float[] area = new float[capacity];
+
+		for (int i = col1; i <= col2; i++) {
+			if (task != null && task.isCanceled())
+				return null;
+			double west = i * cellWidth + westEdge;
+			double east = (i + 1) * cellWidth + westEdge;
+			Geometry column = factory.toGeometry(new Envelope(west, east,
+					row1 * cellHeight + southEdge,
+					(row2 + 1) * cellHeight + southEdge));
+			if (!prepared.intersects(column))
+				continue;
+			// a column inside the polygon is all whole cells
+			boolean inside = prepared.containsProperly(column);
+			if (!inside && rings != null)
+				rings.clipColumn(west, east);
+			for (int j = row1; j <= row2; j++) {
+				double south = j * cellHeight + southEdge;
+				double north = (j + 1) * cellHeight + southEdge;
+				Geometry cellPolygon = factory.toGeometry(new Envelope(west, east, south, north));
+				float intersectionArea;
+				if (inside) {
+					intersectionArea = (float) cellPolygon.getArea();
+				} else if (rings != null) {
+					intersectionArea = (float) rings.getArea(west, south, north);
+				} else if (prepared.intersects(cellPolygon)) {
+					intersectionArea = (float) TargetCalculator.calculateIntersection(polygon, cellPolygon).getArea();
+				} else {
+					continue;
+				}
+				if (intersectionArea > 0) {
+					if (count == area.length) {
+						rowIndex = Arrays.copyOf(rowIndex, count * 2);
+						colIndex = Arrays.copyOf(colIndex, count * 2);
+						area = Arrays.copyOf(area, count * 2);
+					}
+					rowIndex[count] = j;
+					colIndex[count] = i;
+					area[count] = intersectionArea;
+					count++;
+				}
+			}
+		}
+		return new Overlaps(Arrays.copyOf(rowIndex, count), Arrays.copyOf(colIndex, count), Arrays.copyOf(area, count));
+	}
+
+	/**
+	 * The rings of a polygonal geometry, clipped to a column of cells and
+	 * then to each cell in the column by Sutherland-Hodgman clipping against
+	 * one side at a time. Clipping a ring to a rectangle this way may leave
+	 * edges doubled back along the sides, but they enclose no area, so the
+	 * area of the polygon in a cell is the sum of the areas of its clipped
+	 * rings, those of the holes subtracted. The areas are computed relative
+	 * to the corner of the cell to keep their rounding to that of the cell.
+	 */
+	private static class Rings {
+
+		// the rings, without the closing point
+		private double[][] x, y;
+		// +1 or -1, to give the areas of shells as positive and of holes as negative
+		private double[] sign;
+		// the rings clipped to the current column
+		private double[][] columnX, columnY;
+		private int[] columnSize;
+		private double[] minY, maxY;
+		// scratch space for clipping to a cell
+		private double[] ax, ay, bx, by;
+
+		/**
+		 * Gets the rings of the geometry.
+		 *
+		 * @return the rings, or null if the geometry is not made of polygons.
+		 */
+		static Rings create(Geometry geometry) {
+			if (!(geometry instanceof Polygonal))
+				return null;
+			List<Coordinate[]> rings = new ArrayList<Coordinate[]>();
+			List<Boolean> shells = new ArrayList<Boolean>();
+			for (int n = 0; n < geometry.getNumGeometries(); n++) {
+				Polygon polygon = (Polygon) geometry.getGeometryN(n);
+				rings.add(polygon.getExteriorRing().getCoordinates());
+				shells.add(Boolean.TRUE);
+				for (int h = 0; h < polygon.getNumInteriorRing(); h++) {
+					rings.add(polygon.getInteriorRingN(h).getCoordinates());
+					shells.add(Boolean.FALSE);
+				}
+			}
+			Rings result = new Rings();
+			int count = rings.size();
+			result.x = new double[count][];
+			result.y = new double[count][];
+			result.sign = new double[count];
+			result.columnX = new double[count][];
+			result.columnY = new double[count][];
+			result.columnSize = new int[count];
+			result.minY = new double[count];
+			result.maxY = new double[count];
+			int longest = 0;
+			for (int r = 0; r < count; r++) {
+				Coordinate[] ring = rings.get(r);
+				int size = Math.max(0, ring.length - 1);
+				result.x[r] = new double[size];
+				result.y[r] = new double[size];
+				for (int k = 0; k < size; k++) {
+					result.x[r][k] = ring[k].x;
+					result.y[r][k] = ring[k].y;
+				}
+				double area = area(result.x[r], result.y[r], size, 0, 0);
+				result.sign[r] = (shells.get(r) ? 1 : -1) * (area < 0 ? -1 : 1);
+				result.columnX[r] = new double[2 * size + 2];
+				result.columnY[r] = new double[2 * size + 2];
+				longest = Math.max(longest, size);
+			}
+			result.ax = new double[2 * longest + 2];
+			result.ay = new double[2 * longest + 2];
+			result.bx = new double[4 * longest + 4];
+			result.by = new double[4 * longest + 4];
+			return result;
+		}
+
+		/**
+		 * Clips the rings to the column between the specified sides.
+		 */
+		void clipColumn(double west, double east) {
+			for (int r = 0; r < x.length; r++) {
+				int size = clip(x[r], y[r], x[r].length, ax, ay, true, west, true);
+				size = clip(ax, ay, size, bx, by, true, east, false);
+				if (size > columnX[r].length) {
+					columnX[r] = new double[size];
+					columnY[r] = new double[size];
+				}
+				System.arraycopy(bx, 0, columnX[r], 0, size);
+				System.arraycopy(by, 0, columnY[r], 0, size);
+				columnSize[r] = size;
+				double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+				for (int k = 0; k < size; k++) {
+					min = Math.min(min, by[k]);
+					max = Math.max(max, by[k]);
+				}
+				minY[r] = min;
+				maxY[r] = max;
+			}
+		}
+
+		/**
+		 * Gets the area of the polygon in the cell of the current column
+		 * between the specified latitudes.
+		 */
+		double getArea(double west, double south, double north) {
+			double area = 0;
+			for (int r = 0; r < x.length; r++) {
+				if (columnSize[r] < 3 || maxY[r] <= south || minY[r] >= north)
+					continue;
+				int size = clip(columnX[r], columnY[r], columnSize[r], ax, ay, false, south, true);
+				size = clip(ax, ay, size, bx, by, false, north, false);
+				area += sign[r] * area(bx, by, size, west, south);
+			}
+			return area;
+		}
+
+		// clips the ring to one side of a vertical or horizontal line,
+		// returning the size of the clipped ring
+		private int clip(double[] inX, double[] inY, int size, double[] outX, double[] outY,
+				boolean vertical, double line, boolean above) {
+			if (size == 0)
+				return 0;
+			if (2 * size > outX.length) {
+				// only the scratch arrays can be too small
+				if (outX == ax) {
+					ax = outX = new double[2 * size + 2];
+					ay = outY = new double[2 * size + 2];
+				} else {
+					bx = outX = new double[2 * size + 2];
+					by = outY = new double[2 * size + 2];
+				}
+			}
+			int count = 0;
+			double px = inX[size - 1], py = inY[size - 1];
+			double pv = vertical ? px : py;
+			boolean pin = above ? pv >= line : pv <= line;
+			for (int k = 0; k < size; k++) {
+				double cx = inX[k], cy = inY[k];
+				double cv = vertical ? cx : cy;
+				boolean cin = above ? cv >= line : cv <= line;
+				if (cin != pin) {
+					double t = (line - pv) / (cv - pv);
+					if (vertical) {
+						outX[count] = line;
+						outY[count] = py + t * (cy - py);
+					} else {
+						outX[count] = px + t * (cx - px);
+						outY[count] = line;
+					}
+					count++;
+				}
+				if (cin) {
+					outX[count] = cx;
+					outY[count] = cy;
+					count++;
+				}
+				px = cx;
+				py = cy;
+				pv = cv;
+				pin = cin;
+			}
+			return count;
+		}
+
+		// the signed area of the ring, relative to the specified origin
+		private static double area(double[] x, double[] y, int size, double originX, double originY) {
+			double sum = 0;
+			for (int k = 0, previous = size - 1; k < size; previous = k++)
+				sum += (x[previous] - originX) * (y[k] - originY) - (x[k] - originX) * (y[previous] - originY);
+			return sum / 2;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package anl.verdi.area.target;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.util.CacheFile;
+
+/**
+ * Saves the area lists of CachedTargetList to disk, one file for each
+ * shapefile, id field and grid, so that the intersections of the targets
+ * with a grid are computed only once across sessions. The files are kept
+ * in the directory set by the {@value #CACHE_DIR_PROPERTY} system property,
+ * by default verdi/cache in the user's home directory, and an empty value
+ * turns the cache off. Each file holds a hash of the contents of the
+ * shapefile, and is ignored, and later replaced, once the shapefile
+ * changes.
+ */
+class TargetAreaFile {
+
+	/**
+	 * System property that sets the directory of the saved area lists.
+	 */
+	public static final String CACHE_DIR_PROPERTY = "verdi.targetCache.dir";
+
+	static final Logger Logger = LogManager.getLogger(TargetAreaFile.class.getName());
+
+	private static final int MAGIC = 0x56544152; // "VTAR"
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// the parts of a shapefile that the targets and their names come from
+	private static final String[] SHAPEFILE_PARTS = {".shp", ".shx", ".dbf", ".prj"};
+
+	// the hashes of the shapefiles already hashed, with the sizes and times they were hashed at
+	private static Map<String, Object[]> hashes = new HashMap<String, Object[]>();
+
+	/**
+	 * Gets the directory of the saved area lists.
+	 *
+	 * @return the directory of the saved area lists, or null if the cache
+	 *         is turned off.
+	 */
+	static File getCacheDir() {
+		return CacheFile.getDir(CACHE_DIR_PROPERTY, CacheFile.getDefaultDir());
+	}
+
+	static File getCacheFile(File dir, CachedTargetList list) {
+		String name = new File(list.filename).getName();
+		String hash = toHex(digest(list.idString.getBytes(UTF8))).substring(0, 16);
+		return new File(dir, name + "." + hash + ".areas");
+	}
+
+	/**
+	 * Hashes the contents of the shapefile with the specified path, i.e. of
+	 * its .shp file and the files beside it with the same name.
+	 *
+	 * @param path the path of the .shp file
+	 * @return the hash of the shapefile.
+	 * @throws IOException if the shapefile cannot be read
+	 */
+	static synchronized byte[] hashShapefile(String path) throws IOException {
+		String base = path.toLowerCase().endsWith(".shp") ? path.substring(0, path.length() - 4) : path;
+		File[] parts = new File[SHAPEFILE_PARTS.length];
+		long[] stamp = new long[2 * parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = findPart(base, SHAPEFILE_PARTS[i]);
+			stamp[2 * i] = parts[i] == null ? -1 : parts[i].length();
+			stamp[2 * i + 1] = parts[i] == null ? -1 : parts[i].lastModified();
+		}
+		Object[] known = hashes.get(path);
+		if (known != null && Arrays.equals((long[]) known[0], stamp))
+			return (byte[]) known[1];
+
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[1 << 16];
+		for (int i = 0; i < parts.length; i++) {
+			if (parts[i] == null)
+				continue;
+			digest.update(SHAPEFILE_PARTS[i].getBytes(UTF8));
+			InputStream in = new FileInputStream(parts[i]);
+			try {
+				int count;
+				while ((count = in.read(buffer)) > 0)
+					digest.update(buffer, 0, count);
+			} finally {
+				in.close();
+			}
+		}
+		byte[] hash = digest.digest();
+		hashes.put(path, new Object[]{stamp, hash});
+		return hash;
+	}
+
+	// the part of the shapefile with the extension, in either case
+	private static File findPart(String base, String extension) {
+		File file = new File(base + extension);
+		if (file.isFile())
+			return file;
+		file = new File(base + extension.toUpperCase());
+		return file.isFile() ? file : null;
+	}
+
+	/**
+	 * Reads the saved areas of the list into it.
+	 *
+	 * @param list the list
+	 * @return the number of targets read, 0 if there is no up to date file.
+	 */
+	static int read(CachedTargetList list) {
+		File dir = getCacheDir();
+		if (dir == null)
+			return 0;
+		File file = getCacheFile(dir, list);
+		if (!file.isFile())
+			return 0;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					return 0;
+				if (!in.readUTF().equals(list.idString))
+					return 0;
+				int hashLength = in.readInt();
+				if (hashLength < 0 || hashLength > 64)
+					throw new IOException("Corrupt target cache file");
+				byte[] hash = new byte[hashLength];
+				in.readFully(hash);
+				if (!Arrays.equals(hash, list.getContentHash())) {
+					Logger.debug("Shapefile " + list.filename + " has changed since " + file + " was saved");
+					return 0;
+				}
+				int count = in.readInt();
+				// only added to the list once all are read
+				Map<String, TargetAreaInfo> read = new HashMap<String, TargetAreaInfo>();
+				for (int n = 0; n < count; n++) {
+					String targetId = in.readUTF();
+					double area = in.readDouble();
+					int size = in.readInt();
+					int[] rowIndex = null, colIndex = null;
+					float[] overlapArea = null;
+					if (size > file.length() / 12)
+						throw new IOException("Corrupt target cache file");
+					if (size >= 0) {
+						rowIndex = new int[size];
+						colIndex = new int[size];
+						overlapArea = new float[size];
+						for (int i = 0; i < size; i++) {
+							rowIndex[i] = in.readInt();
+							colIndex[i] = in.readInt();
+							overlapArea[i] = in.readFloat();
+						}
+					}
+					read.put(targetId, new TargetAreaInfo(area, rowIndex, colIndex, overlapArea));
+				}
+				for (Map.Entry<String, TargetAreaInfo> entry : read.entrySet())
+					list.put(entry.getKey(), entry.getValue());
+				return count;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Logger.warn("Error reading target areas from " + file + ": " + e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes the areas of the list. Errors are logged, leaving the list
+	 * unsaved.
+	 *
+	 * @param list the list
+	 */
+	static void write(final CachedTargetList list) {
+		File dir = getCacheDir();
+		if (dir == null)
+			return;
+		File file = getCacheFile(dir, list);
+		try {
+			CacheFile.write(file, new CacheFile.Contents() {
+				public void write(FileOutputStream out) throws IOException {
+					TargetAreaFile.write(new DataOutputStream(new BufferedOutputStream(out, 1 << 16)), list);
+				}
+			});
+		} catch (IOException e) {
+			Logger.warn("Error saving target areas of " + list.filename + " in " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static void write(DataOutputStream out, CachedTargetList list) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(list.idString);
+		out.writeInt(list.getContentHash().length);
+		out.write(list.getContentHash());
+		Map<String, TargetAreaInfo> areaInfoMap = list.getAreaInfoMap();
+		out.writeInt(areaInfoMap.size());
+		for (Map.Entry<String, TargetAreaInfo> entry : areaInfoMap.entrySet()) {
+			TargetAreaInfo areaInfo = entry.getValue();
+			out.writeUTF(entry.getKey());
+			out.writeDouble(areaInfo.area);
+			if (areaInfo.overlapArea == null) {
+				out.writeInt(-1);
+				continue;
+			}
+			out.writeInt(areaInfo.overlapArea.length);
+			for (int i = 0; i < areaInfo.overlapArea.length; i++) {
+				out.writeInt(areaInfo.rowIndex[i]);
+				out.writeInt(areaInfo.colIndex[i]);
+				out.writeFloat(areaInfo.overlapArea[i]);
+			}
+		}
+		out.flush();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] digest(byte[] bytes) {
+		return newDigest().digest(bytes);
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes)
+			hex.append(String.format("%02x", b & 0xff));
+		return hex.toString();
+	}
+}
@@ -22,6 +22,7 @@ import org.unitsofmeasurement.unit.Unit;
 
 import ucar.unidata.geoloc.Projection;
 import ucar.unidata.geoloc.projection.LatLonProjection;
+import anl.verdi.area.AreaFile;
 import anl.verdi.area.AreaTilePlot;
 import anl.verdi.area.LongTask;
 import anl.verdi.area.Units;
@@ -192,30 +193,34 @@ public class TargetCalculator extends LongTask {
 			Target.setCurrentGridInfo(plot.getGridInfo());
 			int num=Target.getCurrentGridNum();
 			
-			CachedTargetList cachedTargetList = CachedTargetList.getCachedTargetList((Target)targets.get(0), rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+			// the cached areas of each shapefile on this grid
+			Map<AreaFile, CachedTargetList> cachedTargetLists = new HashMap<AreaFile, CachedTargetList>();
 
-	      //  get all the selected target polygons
-			double squares = 0;
+	      //  get all the selected target polygons, projected to the grid
+	      List<Target> pending = new ArrayList<Target>();
+	      List<Geometry> polygons = new ArrayList<Geometry>();
 	      for (int targetNum = 0; targetNum < targets.size(); targetNum++) {
-	    	  long begin = System.currentTimeMillis();
-	    	  String dimension = "";
-	        
 	        current = targetNum;
 	        Target target = ((Target)targets.get(targetNum));
 	        // update the message
 	        statMessage = "Polygon " + target + " (" + (targetNum + 1) + " of " + targets.size() + ")";
 	        Logger.debug(statMessage);
-;
+
 	        Geometry obj = target.getGeometry(null, null);
 	        
 	        // if it hasn't been done yet
 	        if(!target.areaCalculatedForGrid(num)){
-	        	TargetAreaInfo areaInfo = null;
-	        	areaInfo = cachedTargetList.getCachedAreaInfo(target, projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+	        	CachedTargetList cachedTargetList = cachedTargetLists.get(target.getSource());
+	        	if (cachedTargetList == null) {
+	        		cachedTargetList = CachedTargetList.getCachedTargetList(target, projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+	        		cachedTargetLists.put(target.getSource(), cachedTargetList);
+	        	}
+	        	TargetAreaInfo areaInfo = cachedTargetList.getCachedAreaInfo(target);
 	        	if (areaInfo != null) {
-		        	areaInfo = cachedTargetList.getCachedAreaInfo(target, projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
 	        		target.setAreaInfo(num, areaInfo.getRowIndex(), areaInfo.getColIndex(), areaInfo.getOverlapArea());
 	        		target.area = areaInfo.getArea();
+	        		if (areaInfo.getOverlapArea() != null)
+	        			didCalcs = true;
 	        		continue;
 	        	}
 	        	target.setAreaInfo(num, null,null,null);
@@ -231,92 +236,46 @@ public class TargetCalculator extends LongTask {
 	      			poly.geometryChanged();
 	      			// convert the area
 		  	        target.area = poly.getArea() * areaConversion;
-		  	        
-	      			// get the bounding box of the geometry
-	      			Envelope env = poly.getEnvelopeInternal();
-	      			// get the corresponding grid cell 
-	      			int col1=(int)Math.floor((env.getMinX()-westEdge)/cellWidth);
-	      			int col2=(int)Math.floor((env.getMaxX()-westEdge)/cellWidth);
-	      			int row1=(int)Math.floor((env.getMinY()-southEdge)/cellHeight);
-	      			int row2=(int)Math.floor((env.getMaxY()-southEdge)/cellHeight);
-	      			
-	      			int w = col2 - col1;
-	      			int l = row2 - row1;
-	      			squares = w * l;
-	      			totalSquares += squares;
-	      			dimension = " size " + w + "x" + l + ", " + squares;
-	        		      			
-				// create the arrays to store the grid index data
-	            ArrayList<Integer> rowArray = new ArrayList<Integer>();
-	            ArrayList<Integer> colArray = new ArrayList<Integer>();
-	            ArrayList<Float> areas = new ArrayList<Float>();
-	            if(col1<0&&col2<0)
-	            	continue;
-	            if(row1<0&&row2<0)
-	            	continue;
-	            if(col1<0)
-	            	col1=0;
-	            if(row1<0)
-	            	row1=0;
-	            if(col2>=columns)
-	            	col2=columns-1;
-	            if(row2>=rows)
-	            	row2=rows-1;
-	            
-	            //TODO - this part scales with the size and complexity of the area covered by the area map.  Look for optimizations
-	            for (int i = col1; i <= col2; i++) {
-	              for (int j = row1; j <= row2; j++) {
-	                if (canceled)
-	                  return false;
-	                  
-	                // calculate the area of intersection
-	               Geometry cellPolygon=factory.toGeometry(new Envelope
-	            		   (i*cellWidth+westEdge,
-	            		   (i+1)*cellWidth+westEdge,
-	            		   j*cellHeight+southEdge,
-	            		   (j+1)*cellHeight+southEdge));
-	                
-	               Geometry intersection = calculateIntersection(poly, cellPolygon);
-	               
-	               //Geometry intersection = poly.intersection(cellPolygon);
-	               float intersectionArea=(float)intersection.getArea();
-	                if (intersectionArea > 0) {
-	                  // get the area of the intersection
-	                  rowArray.add(new Integer(j));
-	                  colArray.add(new Integer(i));
-	                  areas.add(new Float(intersectionArea));
-	                }
-
-	              }
-	            }
-	            // if there were some cells, make the arrays
-	            if (!rowArray.isEmpty()) {
-	            	
-	              int[] rowIndex = new int[rowArray.size()];
-	              int[] colIndex = new int[rowArray.size()];
-	              float[] overlapArea = new float[rowArray.size()];
-	              for (int i = 0; i < rowArray.size(); i++) {
-	                rowIndex[i] = ((Integer)rowArray.get(i)).intValue();
-	                colIndex[i] = ((Integer)colArray.get(i)).intValue();
-	                // convert the area
-	                overlapArea[i] = ((Float)areas.get(i)).floatValue() * (float)areaConversion;
-	                didCalcs = true;
-	              }
-	              // set the areas for that grid
-	              target.setAreaInfo(num, rowIndex, colIndex, overlapArea);
-	              cachedTargetList.cacheAreaInfo(target, rowIndex, colIndex, overlapArea);
-	            }
-	          }
-//	          didCalcs = true;	// 2014 moved to calculate overlapArea[i]
+		  	        pending.add(target);
+		  	        polygons.add(poly);
+	      		}
 	        }
 	        else
 	        	if (!didCalcs && target.overlapsGrid(num))
 	        		didCalcs = true;
-	        long total = System.currentTimeMillis() - begin;
-	        duration = System.currentTimeMillis() - start;
-	        if (duration > 30000)
-	        	System.err.println("Calculated target " + targetNum + " of " + targets.size() + ": " + target.getKeyName() + " " + dimension + " in " + total + "ms, " + (squares / total) + "squares/ms");
-	        }
+	      }
+
+	      // intersect the targets with the grid, several at a time
+	      statMessage = "Intersecting " + polygons.size() + " polygons with the grid";
+	      Logger.debug(statMessage);
+	      GridIntersector intersector = new GridIntersector(rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+	      GridIntersector.Overlaps[] overlaps = intersector.intersectAll(polygons, this);
+	      if (overlaps == null)
+	    	  return false;
+	      for (int targetNum = 0; targetNum < pending.size(); targetNum++) {
+	    	  Target target = pending.get(targetNum);
+	    	  GridIntersector.Overlaps overlap = overlaps[targetNum];
+	    	  CachedTargetList cachedTargetList = cachedTargetLists.get(target.getSource());
+	    	  totalSquares += overlap.size();
+	    	  // if there were some cells, set the areas for that grid
+	    	  if (overlap.size() > 0) {
+	    		  float[] overlapArea = new float[overlap.size()];
+	    		  for (int i = 0; i < overlapArea.length; i++) {
+	    			  // convert the area
+	    			  overlapArea[i] = overlap.getArea()[i] * (float)areaConversion;
+	    		  }
+	    		  target.setAreaInfo(num, overlap.getRowIndex(), overlap.getColIndex(), overlapArea);
+	    		  cachedTargetList.cacheAreaInfo(target, overlap.getRowIndex(), overlap.getColIndex(), overlapArea);
+	    		  didCalcs = true;
+	    	  } else {
+	    		  // remember that it misses the grid too
+	    		  cachedTargetList.cacheAreaInfo(target, null, null, null);
+	    	  }
+	      }
+	      current = targets.size();
+	      // keep the areas for later sessions
+	      for (CachedTargetList cachedTargetList : cachedTargetLists.values())
+	    	  cachedTargetList.save();
 	        
 	    } catch (Exception e) {
 	      Logger.error("An exception occurred here");
@@ -327,14 +286,12 @@ public class TargetCalculator extends LongTask {
 	    }
 	    
 	    duration = System.currentTimeMillis() - start;
-	    if (duration > 30000)
-	    	System.err.println("TargetCalculator calculated " + targets.size() + " areas in " + duration + "ms");
-		Logger.debug("TargetCalculator calculated " + targets.size() + " areas, " + totalSquares + " in " + duration + "ms, " + (totalSquares / duration) + " squares/ms");
+		Logger.debug("TargetCalculator calculated " + targets.size() + " areas, " + totalSquares + " cells in " + duration + "ms");
 	    return didCalcs;	// 2014 had returned true; now calling program can test for success
 	  }
   
  public static  Map<String, Map<Integer, MeshCellInfo>> intersectionList = new HashMap<String, Map<Integer, MeshCellInfo>>();
-  private static Geometry calculateIntersection(Geometry g1, Geometry g2) {
+  static Geometry calculateIntersection(Geometry g1, Geometry g2) {
 	  Geometry result = null;
 	  RuntimeException e = null;
 	  boolean isSuccess = false;
@@ -215,11 +215,13 @@ public class ScriptHandler {
 			public void run(ArrayList<String> args){
 				Logger.debug("ScriptHandler.constructMap.F");
 				try{
+					// load all the files of the option together so they are opened concurrently
+					List<File> files = new ArrayList<File>();
 					int i = 0;
 					while (++i < args.size() && !args.get(i).startsWith("-")) {
-						File[] f = {new File(args.get(i))};
-						verdiApp.loadDataset(f);
+						files.add(new File(args.get(i)));
 					}
+					verdiApp.loadDataset(files.toArray(new File[files.size()]));
 				}
 				catch(NullPointerException e){
 					Logger.error("Error in ScriptHandler.dataMap.put 'F'", e);
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.imageio.ImageIO;
 
@@ -22,6 +23,7 @@ import anl.verdi.data.Axes;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataFrameAxis;
 import anl.verdi.formula.Formula;
+import anl.verdi.formula.ParallelFormulaEvaluator;
 import anl.verdi.gui.DatasetListElement;
 import anl.verdi.gui.DatasetListModel;
 import anl.verdi.gui.FormulaListElement;
@@ -130,6 +132,14 @@ public class TilePlotTask implements AbstractTask {
 			}	
 			
 		}
+		String formulaThreads = map.get(VerdiConstants.FORMULA_THREADS);
+		if (formulaThreads != null && !formulaThreads.trim().isEmpty()) {
+			try {
+				ParallelFormulaEvaluator.setParallelism(Integer.parseInt(formulaThreads.trim()));
+			} catch (NumberFormatException e) {
+				Logger.error("Number Format Exception in TilePlotTask when setting formula threads", e);
+			}
+		}
 		createFormula();
 		FastTilePlot plot = null;
 
@@ -472,11 +482,21 @@ public class TilePlotTask implements AbstractTask {
 			((FastTilePlot) plot).exportEPSImage(filename, width, height);
 
 			return;
-		} else if (plot instanceof FastTilePlot) {
-			((FastTilePlot) plot).drawBatchImage(width, height);
 		}
 
-		BufferedImage image = plot.getBufferedImage(width, height);
+		BufferedImage image;
+		if (plot instanceof FastTilePlot) {
+			// draw it off screen at the time step and layer set in run, and wait for it
+			FastTilePlot tilePlot = (FastTilePlot) plot;
+			try {
+				image = tilePlot.render(tilePlot.getCurrentTimeStep(), tilePlot.getCurrentLayer(), width, height).get();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while drawing the plot", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Error drawing the plot", e.getCause());
+			}
+		} else
+			image = plot.getBufferedImage(width, height);
 		ImageIO.write(image, ext, file);
 	}
 
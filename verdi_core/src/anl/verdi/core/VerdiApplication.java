@@ -16,6 +16,8 @@ import java.util.TimeZone;
 
 import javax.swing.JList;
 import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 import javax.swing.event.ListSelectionEvent;
@@ -43,10 +45,12 @@ import anl.verdi.data.DataManager;
 import anl.verdi.data.DataUtilities;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.ObsEvaluator;
+import anl.verdi.data.ParallelDatasetLoader;
 import anl.verdi.data.Variable;
 import anl.verdi.data.VectorEvaluator;
 import anl.verdi.formula.Formula;
 import anl.verdi.formula.FormulaFactory;
+import anl.verdi.formula.FormulaResultCache;
 import anl.verdi.formula.FormulaValidator;
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.formula.ValidationResult;
@@ -440,8 +444,7 @@ FormulaElementCreator, ListDataListener {
 
 			if (success) {
 				boolean convertUnits = result.getProperty(FormulaValidator.UNITS_WARN) == null;
-				if (dateRange != null) formula.overrideTimeRange(dateRange);
-				frame = formula.evaluate(manager, ranges, convertUnits);
+				frame = evaluate(formula, type, strFormula, ranges, dateRange, convertUnits);
 			}
 
 		} catch (Throwable e) {
@@ -492,8 +495,7 @@ FormulaElementCreator, ListDataListener {
 
 			if (success) {
 				boolean convertUnits = result.getProperty(FormulaValidator.UNITS_WARN) == null;
-				if (dateRange != null) formula.overrideTimeRange(dateRange);
-				frame = formula.evaluate(manager, ranges, convertUnits);
+				frame = evaluate(formula, type, strFormula, ranges, dateRange, convertUnits);
 			}
 
 		} catch (IllegalFormulaException e) {
@@ -502,6 +504,22 @@ FormulaElementCreator, ListDataListener {
 		return frame;
 	}
 
+	// evaluates the validated formula, or gets the result of an earlier
+	// evaluation over the same datasets and ranges from the result cache
+	private DataFrame evaluate(Formula formula, Formula.Type type, String strFormula, List<AxisRange> ranges,
+					DateRange dateRange, boolean convertUnits) throws IllegalFormulaException {
+		FormulaResultCache cache = FormulaResultCache.getInstance();
+		FormulaResultCache.Key key = new FormulaResultCache.Key(type, strFormula, formula.getDatasets(), ranges,
+						dateRange, convertUnits);
+		DataFrame frame = cache.get(key);
+		if (frame == null) {
+			if (dateRange != null) formula.overrideTimeRange(dateRange);
+			frame = formula.evaluate(manager, ranges, convertUnits);
+			if (frame != null) frame = cache.put(key, frame);
+		}
+		return frame;
+	}
+
 	/**
 	 * Called whenever an area in a plot is being selected.
 	 *
@@ -617,48 +635,126 @@ FormulaElementCreator, ListDataListener {
 	}
 
 	/**
-	 * Loads the specified datasets.
+	 * Loads the specified datasets, opening the files concurrently and
+	 * waiting for them on the calling thread, as the batch and script tasks
+	 * need.
 	 *
 	 * @param files the datasets to load
 	 * @throws IllegalFormulaException 
 	 */
 	public void loadDataset(File[] files) throws Exception {
 		Logger.debug("in VerdiApplication.loadDataset");
+		List<URL> urls = getNewDatasetURLs(files);
+		LoadMonitor monitor = new LoadMonitor(null);
+		List<Dataset> datasets = manager.createDatasets(urls, monitor);
+		for (Dataset dataset : datasets) {
+			gui.loadDataset(dataset);
+		}
+		monitor.showFailures();
+	}
+
+	/**
+	 * Loads the specified datasets on a background thread, showing
+	 * the progress in a dialog that can cancel the load.
+	 *
+	 * @param files the datasets to load
+	 * @throws Exception if the project is not properly initialized
+	 */
+	public void loadDatasetInBackground(File[] files) throws Exception {
+		Logger.debug("in VerdiApplication.loadDatasetInBackground");
+		final List<URL> urls = getNewDatasetURLs(files);
+		if (urls.isEmpty()) return;
+		ProgressMonitor progress = new ProgressMonitor(gui.getFrame(), "Loading datasets", null, 0, urls.size());
+		progress.setMillisToDecideToPopup(250);
+		final LoadMonitor monitor = new LoadMonitor(progress);
+		gui.showBusyCursor();
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				final ParallelDatasetLoader.Opened opened = manager.openDatasets(urls, monitor);
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						// the manager is only changed on the event thread
+						for (Dataset dataset : opened.register()) {
+							gui.loadDataset(dataset);
+						}
+						monitor.close();
+						gui.restoreCursor();
+						monitor.showFailures();
+					}
+				});
+			}
+		}, "Dataset loading");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// the urls of the files that are not already loaded, in order
+	private List<URL> getNewDatasetURLs(File[] files) throws Exception {
 		if (project == null) 
 			throw new Exception("Project is not properly initialized.");
 
-		Set<URL> urls = new HashSet<URL>();
+		Set<URL> loaded = new HashSet<URL>();
 		for (DatasetListElement set : project.getDatasetsAsList()) {
-			urls.add(set.getDataset().getURL());
+			loaded.add(set.getDataset().getURL());
 		}
+		List<URL> urls = new ArrayList<URL>();
 		for (File file : files) {
 			try {
 				URL url = file.toURI().toURL();
-				if (urls.contains(url)) {
+				if (loaded.contains(url)) {
 					gui.showMessage("Dataset Loading Error", "'" + file.getAbsolutePath() +
 					"' is already loaded");
-				} else {
-					List<Dataset> datasets = DataManager.NULL_DATASETS;
-					try {
-						datasets = manager.createDatasets(url); // JIZHEN-JIZHEN
-					} catch (Exception e) {
-						gui.showMessage("Dataset Loading Error", "No dataset handler registered for '"
-								+ file.getAbsolutePath() + "':\n " + e.getMessage());
-						Logger.error("Dataset Loading Error", e);
-					}
-					if (datasets.equals(DataManager.NULL_DATASETS)) {
-						//gui.showMessage("Dataset Loading Error", "No dataset handler registered for '"
-						//				+ file.getAbsolutePath() + "'");
-					} else {
-						for (Dataset dataset : datasets) {
-							gui.loadDataset(dataset);
-						}
-					}
+				} else if (loaded.add(url)) {
+					urls.add(url);
 				}
 			} catch (MalformedURLException e) {
 				Logger.error("Error loading dataset", e);
 			}
 		}
+		return urls;
+	}
+
+	/**
+	 * Shows the progress of loading datasets, if there is a dialog to show it
+	 * in, and collects the failures to show once the load is done.
+	 */
+	private class LoadMonitor implements ParallelDatasetLoader.Monitor {
+
+		private ProgressMonitor progress;
+		private List<String> failures = new ArrayList<String>();
+
+		LoadMonitor(ProgressMonitor progress) {
+			this.progress = progress;
+		}
+
+		public boolean isCancelled() {
+			return progress != null && progress.isCanceled();
+		}
+
+		public void fileLoaded(final URL url, final int loaded, final int total) {
+			if (progress == null) return;
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					progress.setNote(loaded + " of " + total + ": " + url.getPath());
+					progress.setProgress(loaded);
+				}
+			});
+		}
+
+		public void loadFailed(URL url, Exception ex) {
+			failures.add("No dataset handler registered for '" + url.getPath() + "':\n " + ex.getMessage());
+			Logger.error("Dataset Loading Error", ex);
+		}
+
+		void close() {
+			if (progress != null) progress.close();
+		}
+
+		void showFailures() {
+			for (String failure : failures) {
+				gui.showMessage("Dataset Loading Error", failure);
+			}
+		}
 	}
 	
 	/**
@@ -701,12 +797,10 @@ FormulaElementCreator, ListDataListener {
 		File[] files = FileChooserUtilities.getOpenFiles(currentDatasetFile);
 		if (files.length > 0) {
 			try {
-				getGui().showBusyCursor();
-				loadDataset(files);
+				loadDatasetInBackground(files);
 			} catch (Exception e) {
 				Logger.error("Error adding dataset", e);
 			}
-			getGui().restoreCursor();
 			currentDatasetFile = files[0];
 		}
 	}
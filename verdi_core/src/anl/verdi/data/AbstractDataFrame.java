@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.List;
 
 import ucar.ma2.Array;
+import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
 
 /**
@@ -204,6 +205,128 @@ public abstract class AbstractDataFrame implements DataFrame {
 		return builder.createDataFrame();
 	}
 
+	/**
+	 * Copies the values in a slice of this DataFrame into the specified
+	 * array as floats. The values are stored by time step, then layer, then
+	 * row (or cell) and then column, with the column varying fastest.
+	 *
+	 * @param slice describes the values to copy
+	 * @param invertRows whether or not to copy the rows from last to first,
+	 * in which case the slice's y range counts from the last row
+	 * @param result the array to copy the values into
+	 */
+	public void copy(Slice slice, boolean invertRows, float[] result) {
+		copy(array, axes, slice, invertRows, result);
+	}
+
+	/**
+	 * Copies the values in a slice of the specified array into a float array.
+	 * The values are stored by time step, then layer, then row (or cell) and
+	 * then column, whatever the order of the dimensions in the source array.
+	 * Rather than going through an Index for each value, the offset of the
+	 * first value in the storage and the stride along each axis are worked
+	 * out once and each row is then copied with a primitive loop, or with
+	 * System.arraycopy when the row is contiguous.
+	 *
+	 * @param array the source array
+	 * @param axes describes the dimensions of the source array
+	 * @param slice describes the values to copy
+	 * @param invertRows whether or not to copy the rows from last to first,
+	 * in which case the slice's y range counts from the last row
+	 * @param result the array to copy the values into
+	 */
+	public static void copy(Array array, Axes<DataFrameAxis> axes, Slice slice, boolean invertRows, float[] result) {
+		int[] shape = array.getShape();
+		int[] counter = new int[shape.length];
+		// the array index, first value and extent of the axes in the
+		// order they are copied, time, layer, y, x or cell.
+		int[] dims = new int[5];
+		int[] extents = new int[5];
+		boolean[] reversed = new boolean[5];
+		int count = 0;
+		boolean cells = axes.getCellAxis() != null;
+		count = addDim(axes.getTimeAxis(), slice.getTimeRange(), false, shape, counter, dims, extents, reversed, count);
+		count = addDim(axes.getZAxis(), slice.getLayerRange(), false, shape, counter, dims, extents, reversed, count);
+		if (cells) {
+			count = addDim(axes.getCellAxis(), slice.getCellRange(), false, shape, counter, dims, extents, reversed, count);
+		} else {
+			count = addDim(axes.getYAxis(), slice.getYRange(), invertRows, shape, counter, dims, extents, reversed, count);
+			count = addDim(axes.getXAxis(), slice.getXRange(), false, shape, counter, dims, extents, reversed, count);
+		}
+
+		long size = 1;
+		for (int i = 0; i < count; i++) {
+			size *= extents[i];
+		}
+		if (size > result.length)
+			throw new IllegalArgumentException("Result array of length " + result.length + " is too small for " + size + " values");
+		if (size == 0) return;
+
+		// the storage offset of the first value and the stride along each axis
+		Index index = array.getIndex();
+		int start = index.set(counter).currentElement();
+		int[] strides = new int[count];
+		for (int i = 0; i < count; i++) {
+			int dim = dims[i];
+			if (shape[dim] > 1) {
+				int[] next = counter.clone();
+				next[dim] += counter[dim] + 1 < shape[dim] ? 1 : -1;
+				int stride = index.set(next).currentElement() - start;
+				strides[i] = next[dim] > counter[dim] ? stride : -stride;
+			}
+			if (reversed[i]) strides[i] = -strides[i];
+		}
+
+		int rowLength = count == 0 ? 1 : extents[count - 1];
+		int rowStride = count == 0 ? 0 : strides[count - 1];
+		Object storage = array.getStorage();
+		int[] pos = new int[Math.max(0, count - 1)];
+		for (int offset = 0; offset < size; offset += rowLength) {
+			int elem = start;
+			for (int i = 0; i < pos.length; i++) {
+				elem += pos[i] * strides[i];
+			}
+			if (storage instanceof float[]) {
+				float[] data = (float[]) storage;
+				if (rowStride == 1) {
+					System.arraycopy(data, elem, result, offset, rowLength);
+				} else {
+					for (int i = 0; i < rowLength; i++, elem += rowStride) result[offset + i] = data[elem];
+				}
+			} else if (storage instanceof double[]) {
+				double[] data = (double[]) storage;
+				for (int i = 0; i < rowLength; i++, elem += rowStride) result[offset + i] = (float) data[elem];
+			} else {
+				for (int i = 0; i < rowLength; i++, elem += rowStride) result[offset + i] = array.getFloat(elem);
+			}
+			// move on to the next row
+			for (int i = pos.length - 1; i >= 0; i--) {
+				if (++pos[i] < extents[i]) break;
+				pos[i] = 0;
+			}
+		}
+	}
+
+	// adds an axis to those to copy and sets the counter to its first value
+	private static int addDim(DataFrameAxis axis, Range range, boolean reverse, int[] shape, int[] counter,
+					int[] dims, int[] extents, boolean[] reversed, int count) {
+		if (axis == null) {
+			if (range != null && (range.getOrigin() != 0 || range.getExtent() > 1))
+				throw new IllegalArgumentException("Range " + range + " given for a missing axis");
+			return count;
+		}
+		int dim = axis.getArrayIndex();
+		int origin = range == null ? 0 : (int) range.getOrigin();
+		int extent = range == null ? shape[dim] : (int) range.getExtent();
+		if (origin < 0 || extent < 0 || origin + extent > shape[dim])
+			throw new IllegalArgumentException("Range " + origin + ", " + extent + " is outside the array extent " + shape[dim]);
+		counter[dim] = reverse ? shape[dim] - 1 - origin : origin;
+		dims[count] = dim;
+		extents[count] = extent;
+		reversed[count] = reverse;
+		return count + 1;
+	}
+
 	public static int[] createExtents(Slice slice, Axes<DataFrameAxis> axes) {
 		int size = axes.getAxes().size();
 		int[] extents = new int[size];
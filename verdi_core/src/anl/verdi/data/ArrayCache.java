@@ -0,0 +1,381 @@
+package anl.verdi.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+
+/**
+ * Cache of arrays read from datasets, shared by all the datasets that use it
+ * and bounded by the total size in bytes of the arrays it holds. When adding
+ * an array would exceed the bound the least recently used arrays are evicted.
+ * A request for a slice of a variable is served from any cached slice that
+ * contains it, so e.g. a single layer can be taken from a cached time step
+ * without going back to the file.
+ */
+public class ArrayCache {
+
+	/**
+	 * System property that sets the maximum size of the shared cache in
+	 * megabytes. The default is a quarter of the maximum heap size.
+	 */
+	public static final String MAX_SIZE_PROPERTY = "verdi.cache.maxMB";
+
+	static final Logger Logger = LogManager.getLogger(ArrayCache.class.getName());
+
+	private static ArrayCache instance;
+
+	private long maxBytes;
+	private long bytes = 0;
+	private long hits = 0, subsetHits = 0, misses = 0, evictions = 0;
+
+	// access ordered so that iteration starts from the least recently used
+	private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	// the cached slices of each variable, for finding a containing slice
+	private Map<VarKey, List<Entry>> slices = new HashMap<VarKey, List<Entry>>();
+
+	/**
+	 * Creates a cache that holds at most the specified number of bytes.
+	 *
+	 * @param maxBytes the maximum number of bytes to hold
+	 */
+	public ArrayCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets the cache shared by all datasets.
+	 *
+	 * @return the cache shared by all datasets.
+	 */
+	public static synchronized ArrayCache getInstance() {
+		if (instance == null) {
+			long max = Runtime.getRuntime().maxMemory() / 4;
+			String val = System.getProperty(MAX_SIZE_PROPERTY);
+			if (val != null && !val.trim().isEmpty()) {
+				try {
+					max = Long.parseLong(val.trim()) * 1024 * 1024;
+				} catch (NumberFormatException ex) {
+					Logger.warn("Invalid value '" + val + "' for " + MAX_SIZE_PROPERTY + ", using " + (max >> 20) + " MB");
+				}
+			}
+			instance = new ArrayCache(max);
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets the whole of the named variable.
+	 *
+	 * @param owner the object, typically a dataset, that the variable belongs to
+	 * @param name  the name of the variable
+	 * @return the cached array, or null if it is not in the cache.
+	 */
+	public synchronized Array get(Object owner, String name) {
+		Entry entry = entries.get(new Key(owner, name, null, null));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.array;
+	}
+
+	/**
+	 * Gets a slice of the named variable. If that exact slice is not
+	 * cached, but a slice that contains it is, a copy of the requested
+	 * section of the containing slice is returned.
+	 *
+	 * @param owner  the object, typically a dataset, that the variable belongs to
+	 * @param name   the name of the variable
+	 * @param origin the origin of the slice
+	 * @param shape  the shape of the slice
+	 * @return the cached array, or null if no cached slice contains the requested one.
+	 */
+	public synchronized Array get(Object owner, String name, int[] origin, int[] shape) {
+		Entry entry = entries.get(new Key(owner, name, origin, shape));
+		if (entry != null) {
+			hits++;
+			return entry.array;
+		}
+
+		List<Entry> list = slices.get(new VarKey(owner, name));
+		if (list != null) {
+			for (Entry slice : list) {
+				if (slice.contains(origin, shape)) {
+					try {
+						Array array = slice.section(origin, shape);
+						// touch it so it counts as recently used
+						entries.get(slice.key);
+						subsetHits++;
+						return array;
+					} catch (InvalidRangeException ex) {
+						Logger.error("Error taking section of cached array " + name, ex);
+					}
+				}
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Puts the whole of the named variable into the cache.
+	 *
+	 * @param owner the object, typically a dataset, that the variable belongs to
+	 * @param name  the name of the variable
+	 * @param array the variable's values
+	 */
+	public void put(Object owner, String name, Array array) {
+		put(new Key(owner, name, null, null), new int[array.getRank()], array);
+	}
+
+	/**
+	 * Puts a slice of the named variable into the cache.
+	 *
+	 * @param owner  the object, typically a dataset, that the variable belongs to
+	 * @param name   the name of the variable
+	 * @param origin the origin of the slice
+	 * @param shape  the shape of the slice
+	 * @param array  the slice's values
+	 */
+	public void put(Object owner, String name, int[] origin, int[] shape, Array array) {
+		put(new Key(owner, name, origin, shape), origin, array);
+	}
+
+	private synchronized void put(Key key, int[] origin, Array array) {
+		long size = array.getSizeBytes();
+		if (size > maxBytes) return;
+		Entry old = entries.remove(key);
+		if (old != null) removeSlice(old);
+		evict(maxBytes - size);
+
+		Entry entry = new Entry(key, origin.clone(), array.getShape(), array, size);
+		entries.put(key, entry);
+		VarKey varKey = new VarKey(key.owner, key.name);
+		List<Entry> list = slices.get(varKey);
+		if (list == null) {
+			list = new ArrayList<Entry>();
+			slices.put(varKey, list);
+		}
+		list.add(entry);
+		bytes += size;
+	}
+
+	// evicts the least recently used entries until at most max bytes are held
+	private void evict(long max) {
+		for (Iterator<Entry> iter = entries.values().iterator(); bytes > max && iter.hasNext();) {
+			Entry entry = iter.next();
+			iter.remove();
+			removeSlice(entry);
+			evictions++;
+		}
+	}
+
+	private void removeSlice(Entry entry) {
+		VarKey varKey = new VarKey(entry.key.owner, entry.key.name);
+		List<Entry> list = slices.get(varKey);
+		if (list != null) {
+			list.remove(entry);
+			if (list.isEmpty()) slices.remove(varKey);
+		}
+		bytes -= entry.size;
+	}
+
+	/**
+	 * Removes all the arrays that belong to the specified owner,
+	 * e.g. when a dataset is closed.
+	 *
+	 * @param owner the owner whose arrays should be removed
+	 */
+	public synchronized void clear(Object owner) {
+		for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+			Entry entry = iter.next();
+			if (entry.key.owner == owner) {
+				iter.remove();
+				removeSlice(entry);
+			}
+		}
+	}
+
+	/**
+	 * Removes all the arrays from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		slices.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Sets the maximum number of bytes the cache holds, evicting
+	 * arrays if it now holds more.
+	 *
+	 * @param maxBytes the maximum number of bytes to hold
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict(maxBytes);
+	}
+
+	/**
+	 * Gets the maximum number of bytes the cache holds.
+	 *
+	 * @return the maximum number of bytes the cache holds.
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets the number of bytes currently held.
+	 *
+	 * @return the number of bytes currently held.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of arrays currently held.
+	 *
+	 * @return the number of arrays currently held.
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of requests served with the exact array requested.
+	 *
+	 * @return the number of requests served with the exact array requested.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests served from a cached slice that
+	 * contains the requested one.
+	 *
+	 * @return the number of requests served from a containing slice.
+	 */
+	public synchronized long getSubsetHitCount() {
+		return subsetHits;
+	}
+
+	/**
+	 * Gets the number of requests that could not be served from the cache.
+	 *
+	 * @return the number of requests that could not be served from the cache.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Gets the number of arrays evicted to make room for others.
+	 *
+	 * @return the number of arrays evicted to make room for others.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ArrayCache[" + entries.size() + " arrays, " + (bytes >> 20) + " of " + (maxBytes >> 20) + " MB, hits="
+						+ hits + ", subset hits=" + subsetHits + ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+	private static class VarKey {
+
+		Object owner;
+		String name;
+
+		VarKey(Object owner, String name) {
+			this.owner = owner;
+			this.name = name;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == null || obj.getClass() != getClass()) return false;
+			VarKey other = (VarKey) obj;
+			return owner == other.owner && name.equals(other.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(owner) + name.hashCode();
+		}
+	}
+
+	private static class Key extends VarKey {
+
+		int[] origin, shape;
+
+		// a null origin and shape is the whole variable
+		Key(Object owner, String name, int[] origin, int[] shape) {
+			super(owner, name);
+			this.origin = origin == null ? null : origin.clone();
+			this.shape = shape == null ? null : shape.clone();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!super.equals(obj)) return false;
+			Key other = (Key) obj;
+			return Arrays.equals(origin, other.origin) && Arrays.equals(shape, other.shape);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * super.hashCode() + Arrays.hashCode(origin)) + Arrays.hashCode(shape);
+		}
+	}
+
+	private static class Entry {
+
+		Key key;
+		int[] origin, shape;
+		Array array;
+		long size;
+
+		Entry(Key key, int[] origin, int[] shape, Array array, long size) {
+			this.key = key;
+			this.origin = origin;
+			this.shape = shape;
+			this.array = array;
+			this.size = size;
+		}
+
+		boolean contains(int[] origin, int[] shape) {
+			if (origin == null || shape == null || origin.length != this.origin.length
+							|| shape.length != this.shape.length) return false;
+			for (int i = 0; i < origin.length; i++) {
+				if (origin[i] < this.origin[i] || origin[i] + shape[i] > this.origin[i] + this.shape[i]) return false;
+			}
+			return true;
+		}
+
+		// copied so that the caller gets a contiguous array it can
+		// modify without changing the cached one
+		Array section(int[] origin, int[] shape) throws InvalidRangeException {
+			int[] start = new int[origin.length];
+			for (int i = 0; i < start.length; i++) {
+				start[i] = origin[i] - this.origin[i];
+			}
+			return array.sectionNoReduce(start, shape, null).copy();
+		}
+	}
+}
@@ -138,4 +138,22 @@ public interface DataFrame {
 	 * of this DataFrame's dimensions.
 	 */
 	DataFrame sliceCopy(Slice slice) throws InvalidRangeException;
+
+	/**
+	 * Copies the values in a slice of this DataFrame into the specified
+	 * array as floats. The values are stored by time step, then layer, then
+	 * row (or cell) and then column, with the column varying fastest. So a
+	 * single layer and time step is stored row by row. The slice ranges
+	 * should be in terms of the array indices of the data frame, and a
+	 * range that is not set selects the whole of that axis.
+	 *
+	 * @param slice describes the values to copy
+	 * @param invertRows whether or not to copy the rows from last to first,
+	 * in which case the slice's y range counts from the last row
+	 * @param result the array to copy the values into, which must be at
+	 * least as large as the slice.
+	 * @throws IllegalArgumentException if the slice is not within the
+	 * range of this DataFrame's dimensions or the result array is too small.
+	 */
+	void copy(Slice slice, boolean invertRows, float[] result);
 }
@@ -17,6 +17,7 @@ import org.java.plugin.registry.Extension;
 import org.java.plugin.registry.ExtensionPoint;
 
 import anl.verdi.core.VerdiGUI;
+import anl.verdi.formula.FormulaResultCache;
 //import simphony.util.messages.MessageCenter;
 import anl.verdi.util.AliasGenerator;
 
@@ -87,7 +88,9 @@ public class DataManager {
 	 * Creates a Dataset from the data at the specified URL. This DataManager
 	 * iterate through its collection of DataLoaders and use the first one
 	 * that can handle the data at the specified URL to create the Dataset. It
-	 * will also assign the Dataset an alias.
+	 * will also assign the Dataset an alias. The data is opened once, through
+	 * a FormatProbe shared by the loaders that implement ProbingDataLoader,
+	 * rather than once by each loader asked.
 	 *
 	 * @param url the url of the data
 	 * @return a Dataset created from the data at the specified URL. If no Dataset
@@ -96,23 +99,85 @@ public class DataManager {
 	 * @throws Exception 
 	 */
 	public List<Dataset> createDatasets(URL url) throws IOException {
+		Loaded loaded = open(url);
+		if (loaded == null) {
+			VerdiGUI.displayError("Error", "No loaders are available for the selected file.");
+			Logger.error("No loaders are available for the selected file.");
+			return NULL_DATASETS;
+		}
+		return register(loaded);
+	}
+
+	/**
+	 * Creates the Datasets from the data at the specified URLs, opening the
+	 * files concurrently, and assigns them aliases in the order of the URLs.
+	 *
+	 * @param urls    the urls of the data
+	 * @param monitor follows the progress of the load and can cancel it, may be null
+	 * @return the Datasets created, in the order of the URLs. Files that fail to
+	 *         load are reported to the monitor and skipped.
+	 * @see ParallelDatasetLoader
+	 */
+	public List<Dataset> createDatasets(List<URL> urls, ParallelDatasetLoader.Monitor monitor) {
+		return openDatasets(urls, monitor).register();
+	}
+
+	/**
+	 * Creates the Datasets from the data at the specified URLs, opening the
+	 * files concurrently, without registering them. This only reads the list
+	 * of loaders and so may be called off the thread that uses this
+	 * DataManager, with the result registered on that thread.
+	 *
+	 * @param urls    the urls of the data
+	 * @param monitor follows the progress of the load and can cancel it, may be null
+	 * @return the Datasets opened, to be registered in the order of the URLs.
+	 * @see ParallelDatasetLoader
+	 */
+	public ParallelDatasetLoader.Opened openDatasets(List<URL> urls, ParallelDatasetLoader.Monitor monitor) {
+		return ParallelDatasetLoader.open(this, urls, monitor);
+	}
+
+	/**
+	 * The Datasets created from a url and the loader that created them.
+	 */
+	static class Loaded {
+		final DataLoader loader;
+		final List<Dataset> datasets;
+
+		Loaded(DataLoader loader, List<Dataset> datasets) {
+			this.loader = loader;
+			this.datasets = datasets;
+		}
+	}
+
+	/**
+	 * Creates the Datasets from the data at the specified URL with the first
+	 * loader that can handle it, without registering them. This only reads
+	 * the list of loaders and so may be called from several threads at once.
+	 *
+	 * @return the datasets and their loader, or null if no loader can handle the data.
+	 */
+	Loaded open(URL url) throws IOException {
+		FormatProbe probe = new FormatProbe(url);
+		try {
+			return open(probe);
+		} finally {
+			probe.close();
+		}
+	}
+
+	private Loaded open(FormatProbe probe) throws IOException {
+		URL url = probe.getURL();
 		Exception wrapper = null;
 		for (DataLoader loader : dataLoaders) {
 			//System.err.println( "DataManager.java:createDatasets() trying loader = " + loader );
 			try {
-				if (loader.canHandle(url)) {
+				if (canHandle(loader, probe)) {
 					try {
 						Logger.debug("Loader " +loader.getClass().getName() + " creating dataset " + url);
-						List<Dataset> data = loader.createDatasets(url);
+						List<Dataset> data = createDatasets(loader, probe);
 						Logger.debug("after creating dataset. Dataset list size: " + data.size());
-						for (Dataset dataset : data) {
-							setLoaderMap.put(dataset, loader);
-							String alias = aliasGenerator.getNextAlias();
-							dataset.setAlias(alias);
-							datasets.put(alias, dataset);
-							Logger.debug("alias: " + alias);
-						}
-						return data;
+						return new Loaded(loader, data);
 					} catch (IOException e) {
 						if (wrapper == null)
 							wrapper = e;
@@ -134,10 +199,31 @@ public class DataManager {
 		if ( wrapper != null ){	
 			throw new IOException(wrapper);
 		}
+		return null;
+	}
+
+	/**
+	 * Assigns aliases to opened Datasets and adds them to those managed.
+	 */
+	List<Dataset> register(Loaded loaded) {
+		for (Dataset dataset : loaded.datasets) {
+			setLoaderMap.put(dataset, loaded.loader);
+			String alias = aliasGenerator.getNextAlias();
+			dataset.setAlias(alias);
+			datasets.put(alias, dataset);
+			Logger.debug("alias: " + alias);
+		}
+		return loaded.datasets;
+	}
+
+	private boolean canHandle(DataLoader loader, FormatProbe probe) throws Exception {
+		if (loader instanceof ProbingDataLoader) return ((ProbingDataLoader) loader).canHandle(probe);
+		return loader.canHandle(probe.getURL());
+	}
 
-		VerdiGUI.displayError("Error", "No loaders are available for the selected file.");
-		Logger.error("No loaders are available for the selected file.");
-		return NULL_DATASETS;
+	private List<Dataset> createDatasets(DataLoader loader, FormatProbe probe) throws IOException {
+		if (loader instanceof ProbingDataLoader) return ((ProbingDataLoader) loader).createDatasets(probe);
+		return loader.createDatasets(probe.getURL());
 	}
 
 	/**
@@ -246,6 +332,7 @@ public class DataManager {
 	public void closeDataset(String alias) throws IOException {
 		Dataset set = datasets.remove(alias);
 		if (set != null) {
+			FormulaResultCache.getInstance().clear(set);
 			setLoaderMap.remove(set);
 			set.close();
 		}
@@ -259,6 +346,7 @@ public class DataManager {
 	 * @throws IOException if there is an error closing a dataset.
 	 */
 	public void closeAllDatasets() throws IOException {
+		FormulaResultCache.getInstance().clear();
 		for (Dataset set : datasets.values()) {
 			set.close();
 		}
@@ -0,0 +1,98 @@
+package anl.verdi.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * What has been found out about the data at a URL while deciding which
+ * DataLoader can handle it, shared by all the loaders asked. A loader that
+ * opens the data to inspect its header stores the open handle here, so
+ * the loaders asked after it inspect the same handle rather than opening
+ * the data again, and the loader that handles the data can take the handle
+ * rather than reopening it. Failures are stored too, so that data that
+ * cannot be opened is only tried once. Whatever has not been taken is
+ * closed when the probe is closed.
+ *
+ * @see ProbingDataLoader
+ */
+public class FormatProbe implements Closeable {
+
+	static final Logger Logger = LogManager.getLogger(FormatProbe.class.getName());
+
+	private URL url;
+	private Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+	/**
+	 * Creates a probe of the data at the specified URL.
+	 *
+	 * @param url the location of the data
+	 */
+	public FormatProbe(URL url) {
+		this.url = url;
+	}
+
+	/**
+	 * Gets the location of the data.
+	 *
+	 * @return the location of the data.
+	 */
+	public URL getURL() {
+		return url;
+	}
+
+	/**
+	 * Gets the value stored under the specified key.
+	 *
+	 * @param key the key the value was stored under
+	 * @return the value, or null if there is none.
+	 */
+	public synchronized Object get(String key) {
+		return values.get(key);
+	}
+
+	/**
+	 * Stores a value, e.g. an open file or the exception thrown
+	 * when opening it failed, under the specified key.
+	 *
+	 * @param key   the key to store it under
+	 * @param value the value to store
+	 */
+	public synchronized void put(String key, Object value) {
+		values.put(key, value);
+	}
+
+	/**
+	 * Removes the value stored under the specified key, so that it is
+	 * not closed with the probe.
+	 *
+	 * @param key the key the value was stored under
+	 * @return the value, or null if there is none.
+	 */
+	public synchronized Object take(String key) {
+		return values.remove(key);
+	}
+
+	/**
+	 * Closes the values that have not been taken.
+	 */
+	public synchronized void close() {
+		for (Iterator<Object> iter = values.values().iterator(); iter.hasNext();) {
+			Object value = iter.next();
+			iter.remove();
+			if (value instanceof Closeable) {
+				try {
+					((Closeable) value).close();
+				} catch (IOException e) {
+					Logger.warn("Error closing " + url + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -105,6 +105,11 @@ public class MPASPlotDataFrame implements DataFrame {
 	public long getLong(DataFrameIndex index) {
 		return array.getLong(index.index);
 	}
+
+	@Override
+	public void copy(Slice slice, boolean invertRows, float[] result) {
+		AbstractDataFrame.copy(array, axes, slice, invertRows, result);
+	}
 	
 	private Array sliceArray(Slice slice, Array srcArray, Axes<DataFrameAxis> fullAxes) throws InvalidRangeException {
 		int[] origin = AbstractDataFrame.createOrigins(slice, fullAxes);
@@ -0,0 +1,148 @@
+package anl.verdi.data;
+
+import java.util.BitSet;
+
+/**
+ * Uniform grid index over the bounding boxes of the cells of an
+ * unstructured mesh, for finding the cells that intersect a rectangle
+ * without testing every cell. The grid is packed into two int arrays:
+ * the ids of the cells overlapping each bucket are stored contiguously,
+ * with the start of each bucket's run in a second array, so the index
+ * holds no per-cell objects. Bounds are in the same units as
+ * MeshCellInfo.getMinLon() etc., i.e. radians.
+ */
+public class MeshCellIndex {
+
+	// average number of cells per bucket the grid is sized for
+	private static final int CELLS_PER_BUCKET = 4;
+
+	private double minLon, minLat, lonStep, latStep;
+	private int columns, rows;
+	private int[] bucketStart;
+	private int[] cellIds;
+
+	// bounds by cell id
+	private double[] cellMinLon, cellMaxLon, cellMinLat, cellMaxLat;
+	private int maxId;
+
+	/**
+	 * Creates an index over the specified cells.
+	 *
+	 * @param cells the cells to index, whose ids are small non negative ints
+	 */
+	public MeshCellIndex(MeshCellInfo[] cells) {
+		maxId = -1;
+		minLon = Double.POSITIVE_INFINITY;
+		minLat = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		for (MeshCellInfo cell : cells) {
+			maxId = Math.max(maxId, cell.getId());
+			minLon = Math.min(minLon, cell.getMinLon());
+			maxLon = Math.max(maxLon, cell.getMaxLon());
+			minLat = Math.min(minLat, cell.getMinLat());
+			maxLat = Math.max(maxLat, cell.getMaxLat());
+		}
+		cellMinLon = new double[maxId + 1];
+		cellMaxLon = new double[maxId + 1];
+		cellMinLat = new double[maxId + 1];
+		cellMaxLat = new double[maxId + 1];
+		if (cells.length == 0) {
+			columns = rows = 1;
+			lonStep = latStep = 1;
+			bucketStart = new int[2];
+			cellIds = new int[0];
+			return;
+		}
+
+		// buckets roughly square in lon/lat, about CELLS_PER_BUCKET cells each
+		double width = Math.max(maxLon - minLon, Double.MIN_NORMAL);
+		double height = Math.max(maxLat - minLat, Double.MIN_NORMAL);
+		double buckets = Math.max(1.0, (double) cells.length / CELLS_PER_BUCKET);
+		double side = Math.sqrt(width * height / buckets);
+		columns = (int) Math.max(1, Math.min(4096, Math.round(width / side)));
+		rows = (int) Math.max(1, Math.min(4096, Math.round(height / side)));
+		lonStep = width / columns;
+		latStep = height / rows;
+
+		// count the cells overlapping each bucket, then fill in their ids
+		bucketStart = new int[columns * rows + 1];
+		for (MeshCellInfo cell : cells) {
+			int id = cell.getId();
+			cellMinLon[id] = cell.getMinLon();
+			cellMaxLon[id] = cell.getMaxLon();
+			cellMinLat[id] = cell.getMinLat();
+			cellMaxLat[id] = cell.getMaxLat();
+			int lastRow = row(cellMaxLat[id]), lastColumn = column(cellMaxLon[id]);
+			for (int row = row(cellMinLat[id]); row <= lastRow; row++) {
+				for (int column = column(cellMinLon[id]); column <= lastColumn; column++) {
+					bucketStart[row * columns + column + 1]++;
+				}
+			}
+		}
+		for (int i = 1; i < bucketStart.length; i++) {
+			bucketStart[i] += bucketStart[i - 1];
+		}
+		cellIds = new int[bucketStart[bucketStart.length - 1]];
+		int[] next = new int[columns * rows];
+		System.arraycopy(bucketStart, 0, next, 0, next.length);
+		for (MeshCellInfo cell : cells) {
+			int id = cell.getId();
+			int lastRow = row(cellMaxLat[id]), lastColumn = column(cellMaxLon[id]);
+			for (int row = row(cellMinLat[id]); row <= lastRow; row++) {
+				for (int column = column(cellMinLon[id]); column <= lastColumn; column++) {
+					cellIds[next[row * columns + column]++] = id;
+				}
+			}
+		}
+	}
+
+	private int column(double lon) {
+		int column = (int) Math.floor((lon - minLon) / lonStep);
+		return column < 0 ? 0 : column >= columns ? columns - 1 : column;
+	}
+
+	private int row(double lat) {
+		int row = (int) Math.floor((lat - minLat) / latStep);
+		return row < 0 ? 0 : row >= rows ? rows - 1 : row;
+	}
+
+	/**
+	 * Sets the bit of the id of every cell whose bounding box intersects
+	 * the specified rectangle. Bits already set in the result are left set.
+	 *
+	 * @param minLon the minimum longitude of the rectangle
+	 * @param maxLon the maximum longitude of the rectangle
+	 * @param minLat the minimum latitude of the rectangle
+	 * @param maxLat the maximum latitude of the rectangle
+	 * @param result the set of ids to add the intersecting cells to
+	 * @return the number of cells found that were not already in the result.
+	 */
+	public int query(double minLon, double maxLon, double minLat, double maxLat, BitSet result) {
+		if (minLon > maxLon || minLat > maxLat || cellIds.length == 0) return 0;
+		int found = 0;
+		int lastRow = row(maxLat), lastColumn = column(maxLon);
+		for (int row = row(minLat); row <= lastRow; row++) {
+			for (int column = column(minLon); column <= lastColumn; column++) {
+				int bucket = row * columns + column;
+				for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++) {
+					int id = cellIds[i];
+					if (!result.get(id) && cellMinLon[id] <= maxLon && cellMaxLon[id] >= minLon
+									&& cellMinLat[id] <= maxLat && cellMaxLat[id] >= minLat) {
+						result.set(id);
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the largest cell id in the index.
+	 *
+	 * @return the largest cell id in the index, or -1 if it is empty.
+	 */
+	public int getMaxId() {
+		return maxId;
+	}
+}
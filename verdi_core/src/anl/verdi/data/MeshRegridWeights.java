@@ -0,0 +1,198 @@
+package anl.verdi.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Sparse weights for regridding the cells of an unstructured mesh onto a
+ * row of one degree boxes, such as the columns of a vertical cross section.
+ * The value of each box is the average of the values of the cells it
+ * overlaps, weighted by the area of the overlap. The overlaps are computed
+ * once, finding the candidate cells with an STR-tree over the cell bounds,
+ * and kept in compressed sparse row form: the weights of box i are
+ * weights[rowStart[i]] to weights[rowStart[i + 1] - 1], for the cells
+ * given by the matching entries of column, which index the cells that
+ * overlap any box. Regridding a time step is then reading the values of
+ * those cells once and a sparse matrix-vector product over primitive
+ * arrays.
+ * <p>
+ * Bounds are in the same units as MeshCellInfo.getMinLonValue() etc.,
+ * i.e. degrees.
+ */
+public class MeshRegridWeights {
+
+	static final Logger Logger = LogManager.getLogger(MeshRegridWeights.class.getName());
+
+	// trees by cell array, kept while the mesh keeps its cell array
+	private static final Map<MeshCellInfo[], STRtree> trees = new WeakHashMap<MeshCellInfo[], STRtree>();
+
+	private static final GeometryFactory factory = new GeometryFactory();
+
+	private MeshCellInfo[] cells;
+	private int[] rowStart;
+	private int[] column;
+	private double[] weights;
+	private double[] area;
+
+	/**
+	 * Creates the weights for the boxes along a row, i.e. for a constant
+	 * latitude.
+	 *
+	 * @param cells  the cells of the mesh, whose order sets the order in
+	 *               which each box's overlaps are summed
+	 * @param lat    the southern edge of the boxes
+	 * @param origin the western edge of the first box
+	 * @param extent the number of boxes
+	 * @return the weights
+	 */
+	public static MeshRegridWeights forRow(MeshCellInfo[] cells, int lat, int origin, int extent) {
+		Envelope[] boxes = new Envelope[extent];
+		for (int i = 0; i < extent; ++i)
+			boxes[i] = new Envelope(origin + i, origin + i + 1, lat, lat + 1);
+		return new MeshRegridWeights(cells, boxes);
+	}
+
+	/**
+	 * Creates the weights for the boxes along a column, i.e. for a constant
+	 * longitude.
+	 *
+	 * @param cells  the cells of the mesh, whose order sets the order in
+	 *               which each box's overlaps are summed
+	 * @param lon    the western edge of the boxes
+	 * @param origin the southern edge of the first box
+	 * @param extent the number of boxes
+	 * @return the weights
+	 */
+	public static MeshRegridWeights forColumn(MeshCellInfo[] cells, int lon, int origin, int extent) {
+		Envelope[] boxes = new Envelope[extent];
+		for (int i = 0; i < extent; ++i)
+			boxes[i] = new Envelope(lon, lon + 1, origin + i, origin + i + 1);
+		return new MeshRegridWeights(cells, boxes);
+	}
+
+	/**
+	 * Creates the weights for the specified boxes.
+	 *
+	 * @param cells the cells of the mesh
+	 * @param boxes the boxes to regrid onto
+	 */
+	public MeshRegridWeights(MeshCellInfo[] cells, Envelope[] boxes) {
+		STRtree tree = getTree(cells);
+		rowStart = new int[boxes.length + 1];
+		area = new double[boxes.length];
+		int[] indices = new int[64];
+		double[] overlaps = new double[64];
+		int count = 0;
+		for (int box = 0; box < boxes.length; ++box) {
+			Geometry env = factory.toGeometry(boxes[box]);
+			List<?> found = tree.query(boxes[box]);
+			int[] candidates = new int[found.size()];
+			for (int i = 0; i < candidates.length; ++i)
+				candidates[i] = (Integer) found.get(i);
+			// sum in the order of the cell array, whatever the tree's order
+			Arrays.sort(candidates);
+			for (int candidate : candidates) {
+				Geometry intersection;
+				try {
+					intersection = cells[candidate].toGeometry().intersection(env);
+				} catch (Throwable t) {
+					//This happens when splitting a cell results in incorrectly ordered line segments - geotools doesn't know how to calculate these areas.
+					Logger.debug("Non-compliant cell structure detected: " + t.getMessage());
+					continue;
+				}
+				double intersectionArea = (float) intersection.getArea();
+				if (intersectionArea == 0)
+					continue;
+				if (count == indices.length) {
+					indices = Arrays.copyOf(indices, count * 2);
+					overlaps = Arrays.copyOf(overlaps, count * 2);
+				}
+				indices[count] = candidate;
+				overlaps[count] = intersectionArea;
+				area[box] += intersectionArea;
+				++count;
+			}
+			rowStart[box + 1] = count;
+		}
+		weights = Arrays.copyOf(overlaps, count);
+
+		// the matrix columns are the distinct cells overlapped
+		int[] used = Arrays.copyOf(indices, count);
+		Arrays.sort(used);
+		int distinct = 0;
+		for (int i = 0; i < count; ++i) {
+			if (distinct == 0 || used[i] != used[distinct - 1])
+				used[distinct++] = used[i];
+		}
+		this.cells = new MeshCellInfo[distinct];
+		for (int i = 0; i < distinct; ++i)
+			this.cells[i] = cells[used[i]];
+		column = new int[count];
+		for (int k = 0; k < count; ++k)
+			column[k] = Arrays.binarySearch(used, 0, distinct, indices[k]);
+	}
+
+	private static STRtree getTree(MeshCellInfo[] cells) {
+		synchronized (trees) {
+			STRtree tree = trees.get(cells);
+			if (tree == null) {
+				tree = new STRtree();
+				for (int i = 0; i < cells.length; ++i) {
+					MeshCellInfo cell = cells[i];
+					tree.insert(new Envelope(cell.getMinLonValue(), cell.getMaxLonValue(),
+							cell.getMinLatValue(), cell.getMaxLatValue()), i);
+				}
+				tree.build();
+				trees.put(cells, tree);
+			}
+			return tree;
+		}
+	}
+
+	/**
+	 * Gets the number of boxes.
+	 *
+	 * @return the number of boxes.
+	 */
+	public int size() {
+		return area.length;
+	}
+
+	/**
+	 * Gets the number of cell overlaps over all the boxes.
+	 *
+	 * @return the number of cell overlaps over all the boxes.
+	 */
+	public int getOverlapCount() {
+		return weights.length;
+	}
+
+	/**
+	 * Regrids the values of the cells for the reader's current time step
+	 * and layer. A box that overlaps no cell gets NaN.
+	 *
+	 * @param reader the reader of the cell values
+	 * @param result the values of the boxes
+	 */
+	public void regrid(MeshDataReader reader, double[] result) {
+		double[] values = new double[cells.length];
+		for (int i = 0; i < cells.length; ++i)
+			values[i] = cells[i].getValue(reader);
+		for (int box = 0; box < area.length; ++box) {
+			double sum = 0;
+			for (int k = rowStart[box]; k < rowStart[box + 1]; ++k)
+				sum += weights[k] * values[column[k]];
+			result[box] = sum / area[box];
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package anl.verdi.data;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.util.SharedPool;
+
+/**
+ * Loads the datasets of several files at once on VERDI's shared threads.
+ * Opening a file, i.e. reading its header and building its coordinate axes,
+ * is done concurrently, while the datasets are registered with the
+ * DataManager, and so given their aliases, by {@link Opened#register()} in
+ * the order of the urls. A set of files therefore gets the same aliases
+ * however the loading threads happen to be scheduled. Registering changes
+ * the DataManager, which is not thread safe, so a load in the background
+ * opens the files off the Swing event thread and registers them on it.
+ * <p>
+ * Opening is mostly waiting on the file system, so the files are opened on
+ * the shared threads for waiting rather than those for computations.
+ */
+public class ParallelDatasetLoader {
+
+	/**
+	 * System property that sets the default number of threads
+	 * used to load datasets.
+	 */
+	public static final String PARALLELISM_PROPERTY = "verdi.load.parallelism";
+
+	static final Logger Logger = LogManager.getLogger(ParallelDatasetLoader.class.getName());
+
+	// how often the calling thread checks for cancellation while waiting
+	private static final long POLL_MILLIS = 100;
+
+	private static final SharedPool pool = new SharedPool("Dataset loader", PARALLELISM_PROPERTY, true);
+
+	/**
+	 * Follows the loading of a set of files and decides whether to go on.
+	 */
+	public interface Monitor {
+
+		/**
+		 * Returns whether the load should stop. Files not yet opened are
+		 * then skipped, and those opened but not yet registered are closed.
+		 *
+		 * @return true if the load should stop, otherwise false.
+		 */
+		boolean isCancelled();
+
+		/**
+		 * Called on a loading thread when a file has been opened, or has
+		 * failed to open.
+		 *
+		 * @param url    the url of the file
+		 * @param loaded the number of files opened so far
+		 * @param total  the number of files being loaded
+		 */
+		void fileLoaded(URL url, int loaded, int total);
+
+		/**
+		 * Called on the calling thread, in the order of the urls, for each
+		 * file whose datasets could not be created.
+		 *
+		 * @param url the url of the file
+		 * @param ex  the reason
+		 */
+		void loadFailed(URL url, Exception ex);
+	}
+
+	/**
+	 * Gets the number of threads used to load datasets.
+	 *
+	 * @return the number of threads used to load datasets.
+	 */
+	public static int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to load datasets. A value of 1
+	 * loads the files one after another on the calling thread.
+	 *
+	 * @param level the number of threads
+	 */
+	public static void setParallelism(int level) {
+		pool.setParallelism(level);
+	}
+
+	/**
+	 * The datasets of a load, opened but not yet registered with the
+	 * DataManager.
+	 */
+	public static class Opened {
+
+		private final DataManager manager;
+		private final List<DataManager.Loaded> loaded;
+
+		Opened(DataManager manager, List<DataManager.Loaded> loaded) {
+			this.manager = manager;
+			this.loaded = loaded;
+		}
+
+		/**
+		 * Registers the datasets with the DataManager, giving them their
+		 * aliases in the order of the urls. Call this on the thread that
+		 * uses the DataManager, i.e. the Swing event thread when VERDI is
+		 * running.
+		 *
+		 * @return the datasets, in the order of the urls.
+		 */
+		public List<Dataset> register() {
+			List<Dataset> result = new ArrayList<Dataset>();
+			for (DataManager.Loaded files : loaded)
+				result.addAll(manager.register(files));
+			return result;
+		}
+	}
+
+	/**
+	 * Creates the datasets of the files at the specified urls without
+	 * registering them. Returns when all the files have been opened, or when
+	 * the load is cancelled or the calling thread interrupted, in which case
+	 * the files opened so far, in the order of the urls, are returned.
+	 *
+	 * @param manager the manager to register the datasets with
+	 * @param urls    the urls of the files
+	 * @param monitor follows the load, may be null
+	 * @return the datasets opened, to be registered.
+	 */
+	static Opened open(DataManager manager, List<URL> urls, Monitor monitor) {
+		int total = urls.size();
+		Load load = new Load(total);
+		boolean parallel = total > 1 && getParallelism() > 1;
+		AtomicInteger loaded = new AtomicInteger();
+		List<OpenTask> tasks = new ArrayList<OpenTask>(total);
+		for (int i = 0; i < total; i++) {
+			OpenTask task = new OpenTask(manager, load, i, urls.get(i), monitor, loaded);
+			tasks.add(task);
+			if (parallel) pool.execute(task);
+		}
+
+		List<DataManager.Loaded> result = new ArrayList<DataManager.Loaded>();
+		try {
+			for (int i = 0; i < total; i++) {
+				if (!parallel && !isCancelled(monitor)) tasks.get(i).run();
+				if (!load.await(i, monitor)) {
+					Logger.info("Dataset loading cancelled after " + i + " of " + total + " files");
+					load.abandon(i);
+					break;
+				}
+				URL url = urls.get(i);
+				Exception error = load.errors[i];
+				if (error == null && load.opened[i] == null)
+					error = new IOException("No loaders are available for the selected file.");
+				if (error == null) {
+					result.add(load.opened[i]);
+				} else if (monitor != null) {
+					monitor.loadFailed(url, error);
+				} else {
+					Logger.error("Error loading dataset " + url, error);
+				}
+				load.opened[i] = null;
+			}
+		} catch (InterruptedException ex) {
+			load.abandon(0);
+			Thread.currentThread().interrupt();
+		}
+		return new Opened(manager, result);
+	}
+
+	private static boolean isCancelled(Monitor monitor) {
+		return monitor != null && monitor.isCancelled();
+	}
+
+	/**
+	 * The results of the files, handed from the loading threads
+	 * to the calling thread.
+	 */
+	private static class Load {
+
+		final DataManager.Loaded[] opened;
+		final Exception[] errors;
+		private final boolean[] done;
+		private boolean abandoned;
+
+		Load(int total) {
+			opened = new DataManager.Loaded[total];
+			errors = new Exception[total];
+			done = new boolean[total];
+		}
+
+		synchronized boolean isAbandoned() {
+			return abandoned;
+		}
+
+		synchronized void finished(int index, DataManager.Loaded loaded, Exception error) {
+			if (abandoned) {
+				close(loaded);
+				return;
+			}
+			opened[index] = loaded;
+			errors[index] = error;
+			done[index] = true;
+			notifyAll();
+		}
+
+		// waits for the file at index, returning false if the load is cancelled first
+		synchronized boolean await(int index, Monitor monitor) throws InterruptedException {
+			while (!done[index]) {
+				if (isCancelled(monitor)) return false;
+				wait(POLL_MILLIS);
+			}
+			return !isCancelled(monitor);
+		}
+
+		// closes the files from index on that have been opened and
+		// makes sure the ones still opening are closed when they are
+		synchronized void abandon(int index) {
+			abandoned = true;
+			for (int i = index; i < opened.length; i++) {
+				close(opened[i]);
+				opened[i] = null;
+			}
+		}
+
+		private void close(DataManager.Loaded loaded) {
+			if (loaded == null) return;
+			for (Dataset dataset : loaded.datasets) {
+				try {
+					dataset.close();
+				} catch (IOException e) {
+					Logger.warn("Error closing dataset " + dataset.getName() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private static class OpenTask implements Runnable {
+
+		private DataManager manager;
+		private Load load;
+		private int index;
+		private URL url;
+		private Monitor monitor;
+		private AtomicInteger loaded;
+
+		OpenTask(DataManager manager, Load load, int index, URL url, Monitor monitor, AtomicInteger loaded) {
+			this.manager = manager;
+			this.load = load;
+			this.index = index;
+			this.url = url;
+			this.monitor = monitor;
+			this.loaded = loaded;
+		}
+
+		public void run() {
+			if (load.isAbandoned()) return;
+			DataManager.Loaded result = null;
+			Exception error = null;
+			try {
+				result = manager.open(url);
+			} catch (Exception e) {
+				error = e;
+			} catch (Throwable t) {
+				error = new IOException(t);
+			}
+			if (monitor != null) monitor.fileLoaded(url, loaded.incrementAndGet(), load.opened.length);
+			load.finished(index, result, error);
+		}
+	}
+}
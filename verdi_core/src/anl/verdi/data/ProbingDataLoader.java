@@ -0,0 +1,35 @@
+package anl.verdi.data;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A DataLoader that can inspect data through a FormatProbe shared with the
+ * other loaders, so that the data is opened once however many loaders are
+ * asked whether they can handle it.
+ *
+ * @see FormatProbe
+ */
+public interface ProbingDataLoader extends DataLoader {
+
+	/**
+	 * Returns whether or not this DataLoader can handle
+	 * the data at the probe's url.
+	 *
+	 * @param probe the probe of the data
+	 * @return true if this DataLoader can handle loading the data, otherwise
+	 *         false.
+	 * @throws Exception
+	 */
+	boolean canHandle(FormatProbe probe) throws Exception;
+
+	/**
+	 * Creates a list of Datasets from the data at the probe's url, taking
+	 * any open handle to the data from the probe rather than opening it again.
+	 *
+	 * @param probe the probe of the data
+	 * @return a list Datasets created from the data.
+	 * @throws IOException if there is an error creating the Dataset.
+	 */
+	List<Dataset> createDatasets(FormatProbe probe) throws IOException;
+}
@@ -23,6 +23,7 @@ import anl.verdi.data.DataFrameAxis;
 import anl.verdi.data.DataFrameBuilder;
 import anl.verdi.data.DataManager;
 import anl.verdi.data.DataTransformer;
+import anl.verdi.data.Dataset;
 import anl.verdi.data.DefaultVariable;
 import anl.verdi.data.Range;
 import anl.verdi.data.Variable;
@@ -31,6 +32,7 @@ import anl.verdi.parser.ASTVar;
 import anl.verdi.parser.Node;
 import anl.verdi.util.DateRange;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.UnitConversion;
 import anl.verdi.util.VUnits;
 
 /**
@@ -50,6 +52,7 @@ public class DefaultFormula implements Formula {
 		DataFrame frame;
 		IndexIterator iter;
 		Unit unit;
+		UnitConversion conversion;
 
 		public VarFramePair(DataFrame frame, FormulaVariable var) {
 			this.frame = frame;
@@ -88,23 +91,13 @@ public class DefaultFormula implements Formula {
 				return null;
 			Logger.debug("var = " + var);
 			Logger.debug("units = " + var.getUnit());
-			// do the unit conversion
+			VarFramePair varFramePair = new VarFramePair(frame, var);
+			// the unit conversion is resolved once per variable and applied
+			// by the parser, either in place or as part of the evaluation
 			if (convertUnits && !var.getUnit().equals(commonUnit)) {
 				Logger.debug("performing unit conversion to commonUnit");
-				Array array = frame.getArray();
-				Unit unit = var.getUnit();
-//				for (IndexIterator iter = array.getIndexIteratorFast(); iter.hasNext();) {	// 2014 NetCDF library replaced getIndexIteratorFast
-				for (IndexIterator iter = array.getIndexIterator(); iter.hasNext();) {
-					double val = iter.getDoubleNext();
-					// 2014 I think that the next statement is trying to perform a unit conversion
-					// the current value for the current unit is recalculated to a new value for the "commonUnit"
-					// Needs to be changed to appropriately use org.eclipse.uomo methods
-//					iter.setDoubleCurrent(Measure.valueOf(val, unit).doubleValue(commonUnit));
-//					current method: double newValue = oldUnit.getConverterTo(newUnit).convert(oldValue);
-					iter.setDoubleCurrent(unit.getConverterTo(commonUnit).convert(val));
-				}
+				varFramePair.conversion = UnitConversion.create(var.getUnit(), commonUnit);
 			}
-			VarFramePair varFramePair = new VarFramePair(frame, var);
 			results.add(varFramePair);
 		}
 		return results;
@@ -169,6 +162,20 @@ public class DefaultFormula implements Formula {
 		}
 	}
 
+	/**
+	 * Gets the datasets of the formula's variables, in the order the
+	 * variables appear in. The formula must have been validated.
+	 *
+	 * @return the datasets of the formula's variables.
+	 */
+	public List<Dataset> getDatasets() {
+		List<Dataset> datasets = new ArrayList<Dataset>();
+		for (FormulaVariable var : variables) {
+			datasets.add(var.getDataset());
+		}
+		return datasets;
+	}
+
 	/**
 	 * Check if any variable is from an observational dataset for constructing a 
 	 * complex formula
@@ -304,7 +311,8 @@ public class DefaultFormula implements Formula {
 	private Array evaluateFormula(List<VarFramePair> results) throws IllegalFormulaException {
 		for (VarFramePair pair : results) {
 			String name = pair.var.getAliasedName();
-			parser.setVariable(name, pair.frame);
+			if (pair.conversion == null) parser.setVariable(name, pair.frame);
+			else parser.setVariable(name, pair.frame, pair.conversion);
 		}
 		FormulaArray array = parser.evaluate();
 		return array.getArray();
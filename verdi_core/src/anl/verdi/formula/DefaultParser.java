@@ -5,10 +5,12 @@ import java.io.StringReader;
 import anl.verdi.data.DataFrame;
 import anl.verdi.parser.ASTTreeInfo;
 import anl.verdi.parser.ASTstart;
+import anl.verdi.parser.CompiledFormula;
 import anl.verdi.parser.Frame;
 import anl.verdi.parser.ParseException;
 import anl.verdi.parser.Parser;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.UnitConversion;
 
 /**
  * @author Nick Collier
@@ -16,10 +18,16 @@ import anl.verdi.util.FormulaArray;
  */
 public class DefaultParser implements FormulaParser {
 
+	/**
+	 * System property that turns off compiled evaluation when set to false.
+	 */
+	public static final String COMPILED_EVALUATION_PROPERTY = "verdi.formula.compiled";
+
 	private String formula;
 	private Parser parser;
 	private Frame frame;
 	private ASTTreeInfo treeInfo;
+	private boolean compiled = Boolean.parseBoolean(System.getProperty(COMPILED_EVALUATION_PROPERTY, "true"));
 
 	public DefaultParser(String formula, Frame frame) {
 		this.formula = formula;
@@ -42,6 +50,24 @@ public class DefaultParser implements FormulaParser {
 	 */
 	public void setVariable(String name, DataFrame value) {
 		frame.setValue(name, value);
+		frame.setUnitConversion(name, null);
+	}
+
+	/**
+	 * Sets the value of the variable to the specified array, whose values
+	 * are to be converted with the specified conversion before use. Affine
+	 * conversions are applied during compiled evaluation, others convert the
+	 * array in place.
+	 *
+	 * @param name the name of the variable
+	 * @param value the array value
+	 * @param conversion the conversion to apply to the values
+	 */
+	public void setVariable(String name, DataFrame value, UnitConversion conversion) {
+		setVariable(name, value);
+		if (conversion == null || conversion.isIdentity()) return;
+		if (compiled && conversion.isAffine()) frame.setUnitConversion(name, conversion);
+		else conversion.convert(value.getArray());
 	}
 
 	/**
@@ -52,9 +78,35 @@ public class DefaultParser implements FormulaParser {
 	 */
 	public FormulaArray evaluate() throws IllegalFormulaException {
 		preprocess();
+		if (compiled) {
+			CompiledFormula kernel = CompiledFormula.compile(treeInfo.getStart(), frame);
+			if (kernel != null) return ParallelFormulaEvaluator.evaluate(kernel);
+		}
+		frame.applyUnitConversions();
 		return treeInfo.getStart().evaluate(frame);
 	}
 
+	/**
+	 * Sets whether or not the formula is evaluated as a single compiled
+	 * kernel rather than node by node through FormulaArray. Both produce
+	 * the same result.
+	 *
+	 * @param compiled true to use compiled evaluation, false to evaluate
+	 *                 node by node.
+	 */
+	public void setCompiledEvaluation(boolean compiled) {
+		this.compiled = compiled;
+	}
+
+	/**
+	 * Gets whether or not the formula is evaluated as a single compiled kernel.
+	 *
+	 * @return true if the formula is evaluated as a single compiled kernel.
+	 */
+	public boolean isCompiledEvaluation() {
+		return compiled;
+	}
+
 	public String getFormulaAsString() {
 		return formula;
 	}
@@ -5,6 +5,7 @@ import java.util.List;
 import anl.verdi.data.AxisRange;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataManager;
+import anl.verdi.data.Dataset;
 import anl.verdi.util.DateRange;
 
 /**
@@ -60,4 +61,12 @@ public interface Formula {
 	 * @return a ValidationResult containing the results of the validation.
 	 */
 	ValidationResult validate(DataManager manager, List<AxisRange> ranges);
+
+	/**
+	 * Gets the datasets of the formula's variables, in the order the
+	 * variables appear in. The formula must have been validated.
+	 *
+	 * @return the datasets of the formula's variables.
+	 */
+	List<Dataset> getDatasets();
 }
@@ -35,7 +35,7 @@ public class FormulaFactory {
 			return createTileFormula(formula, commonUnit);
 		}
 		
-		else if(type == Formula.Type.TIME_SERIES_LINE || type == Formula.Type.TIME_SERIES_BAR ) {
+		else if(isTimeStepFormula(type)) {
 			return createTimeStepFormula(formula,commonUnit);
 		}
 		
@@ -47,6 +47,17 @@ public class FormulaFactory {
 		return null;
 	}
 
+	/**
+	 * Gets whether formulas for the specified type of plot average the data
+	 * of each time step, rather than produce every value.
+	 *
+	 * @param type the type of plot
+	 * @return whether formulas for the type of plot average each time step.
+	 */
+	public static boolean isTimeStepFormula(Formula.Type type) {
+		return type == Formula.Type.TIME_SERIES_LINE || type == Formula.Type.TIME_SERIES_BAR;
+	}
+
 	/**
 	 * Creates a formula that produces data appropriate for a tile plot. The
 	 * data produced by the formula will contain individual values for each
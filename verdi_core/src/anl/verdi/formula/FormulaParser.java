@@ -3,6 +3,7 @@ package anl.verdi.formula;
 import anl.verdi.data.DataFrame;
 import anl.verdi.parser.ASTTreeInfo;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.UnitConversion;
 
 
 /**
@@ -49,6 +50,18 @@ public interface FormulaParser {
 	 */
 	void setVariable(String name, DataFrame value);
 
+	/**
+	 * Sets the value of the variable to the specified array, whose values
+	 * are to be converted with the specified conversion before use. The
+	 * parser may convert the array in place or apply the conversion as
+	 * part of evaluation.
+	 *
+	 * @param name the name of the variable
+	 * @param value the array value
+	 * @param conversion the conversion to apply to the values
+	 */
+	void setVariable(String name, DataFrame value, UnitConversion conversion);
+
 	/**
 	 * Evaluates the formula and returns the result as a FormulaArray.
 	 *
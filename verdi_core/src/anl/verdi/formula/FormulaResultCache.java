@@ -0,0 +1,415 @@
+package anl.verdi.formula;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import anl.verdi.data.Axes;
+import anl.verdi.data.AxisRange;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameAxis;
+import anl.verdi.data.DataFrameIndex;
+import anl.verdi.data.Dataset;
+import anl.verdi.data.Slice;
+import anl.verdi.data.Variable;
+import anl.verdi.util.DateRange;
+
+/**
+ * Cache of the results of evaluating formulas, so that opening several plots
+ * of the same formula over the same ranges evaluates it only once. Results
+ * are keyed by the formula, whether its plot type averages each time step,
+ * the datasets its variables come from, the ranges and time range it is
+ * evaluated over and whether units are converted, and bounded by the total
+ * size in bytes of their arrays, the least recently used evicted beyond that.
+ * <p>
+ * The cached frames are shared by every plot that asks for them, so the
+ * cache only hands out read-only views of them. A view reads its values
+ * from the cached frame, but its getArray returns a copy of the cached
+ * array, made the first time it is asked for, as arrays cannot be made read
+ * only. Reading values through the view's index or copy methods avoids
+ * that copy.
+ */
+public class FormulaResultCache {
+
+	/**
+	 * System property that sets the maximum size of the cached results in
+	 * megabytes. The default is an eighth of the maximum heap size.
+	 */
+	public static final String MAX_SIZE_PROPERTY = "verdi.formulaCache.maxMB";
+
+	static final Logger Logger = LogManager.getLogger(FormulaResultCache.class.getName());
+
+	private static FormulaResultCache instance;
+
+	private long maxBytes;
+	private long bytes = 0;
+	private long hits = 0, misses = 0, evictions = 0;
+
+	// access ordered so that iteration starts from the least recently used
+	private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	/**
+	 * Creates a cache that holds results of at most the specified number of
+	 * bytes.
+	 *
+	 * @param maxBytes the maximum number of bytes to hold
+	 */
+	public FormulaResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets the cache shared by all plots.
+	 *
+	 * @return the cache shared by all plots.
+	 */
+	public static synchronized FormulaResultCache getInstance() {
+		if (instance == null) {
+			long max = Runtime.getRuntime().maxMemory() / 8;
+			String val = System.getProperty(MAX_SIZE_PROPERTY);
+			if (val != null && !val.trim().isEmpty()) {
+				try {
+					max = Long.parseLong(val.trim()) * 1024 * 1024;
+				} catch (NumberFormatException ex) {
+					Logger.warn("Invalid value '" + val + "' for " + MAX_SIZE_PROPERTY + ", using " + (max >> 20) + " MB");
+				}
+			}
+			instance = new FormulaResultCache(max);
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets the result for the specified key.
+	 *
+	 * @param key the key of the result
+	 * @return a read-only view of the cached result, or null if it is not in
+	 *         the cache.
+	 */
+	public synchronized DataFrame get(Key key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		Logger.debug("Using the cached result of " + key.formula + ", " + this);
+		return new ReadOnlyFrame(entry.frame);
+	}
+
+	/**
+	 * Puts the result for the specified key into the cache.
+	 *
+	 * @param key   the key of the result
+	 * @param frame the result, which must not be changed afterwards
+	 * @return a read-only view of the result to use instead of it, or the
+	 *         result itself if it is too big to cache.
+	 */
+	public synchronized DataFrame put(Key key, DataFrame frame) {
+		long size = frame.getArray().getSizeBytes();
+		if (size > maxBytes) return frame;
+		Entry old = entries.remove(key);
+		if (old != null) bytes -= old.size;
+		evict(maxBytes - size);
+		entries.put(key, new Entry(frame, size));
+		bytes += size;
+		return new ReadOnlyFrame(frame);
+	}
+
+	// evicts the least recently used results until at most max bytes are held
+	private void evict(long max) {
+		for (Iterator<Entry> iter = entries.values().iterator(); bytes > max && iter.hasNext();) {
+			Entry entry = iter.next();
+			iter.remove();
+			bytes -= entry.size;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes all the results that use the specified dataset, e.g. when it
+	 * is closed.
+	 *
+	 * @param dataset the dataset whose results should be removed
+	 */
+	public synchronized void clear(Dataset dataset) {
+		for (Iterator<java.util.Map.Entry<Key, Entry>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+			java.util.Map.Entry<Key, Entry> entry = iter.next();
+			if (entry.getKey().uses(dataset)) {
+				iter.remove();
+				bytes -= entry.getValue().size;
+			}
+		}
+	}
+
+	/**
+	 * Removes all the results from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Sets the maximum number of bytes the cache holds, evicting
+	 * results if it now holds more.
+	 *
+	 * @param maxBytes the maximum number of bytes to hold
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict(maxBytes);
+	}
+
+	/**
+	 * Gets the maximum number of bytes the cache holds.
+	 *
+	 * @return the maximum number of bytes the cache holds.
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets the number of bytes currently held.
+	 *
+	 * @return the number of bytes currently held.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of results currently held.
+	 *
+	 * @return the number of results currently held.
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of requests served from the cache.
+	 *
+	 * @return the number of requests served from the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests that could not be served from the cache.
+	 *
+	 * @return the number of requests that could not be served from the cache.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Gets the number of results evicted to make room for others.
+	 *
+	 * @return the number of results evicted to make room for others.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Gets the fraction of requests served from the cache.
+	 *
+	 * @return the fraction of requests served from the cache, 0 if there
+	 *         have been none.
+	 */
+	public synchronized double getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FormulaResultCache[" + entries.size() + " results, " + (bytes >> 20) + " of " + (maxBytes >> 20)
+						+ " MB, hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+	/**
+	 * Identifies the result of evaluating a formula. The ranges and time
+	 * range are copied, so changing them later leaves the key alone.
+	 */
+	public static class Key {
+
+		private String formula;
+		private boolean timeStepAverage;
+		private List<Dataset> datasets;
+		// the type, origin and extent of each range, ordered by type
+		private int[] ranges;
+		private long start, end;
+		private boolean convertUnits;
+
+		/**
+		 * Creates the key of the result of evaluating a formula.
+		 *
+		 * @param type         the type of plot the formula is evaluated for
+		 * @param formula      the formula
+		 * @param datasets     the datasets of the formula's variables
+		 * @param ranges       the ranges that constrain the evaluation
+		 * @param dateRange    the time range that overrides the formula's,
+		 *                     or null
+		 * @param convertUnits whether units are converted
+		 */
+		public Key(Formula.Type type, String formula, List<Dataset> datasets, List<AxisRange> ranges,
+						DateRange dateRange, boolean convertUnits) {
+			this.formula = formula.replaceAll("\\s+", "");
+			this.timeStepAverage = FormulaFactory.isTimeStepFormula(type);
+			this.datasets = new ArrayList<Dataset>(datasets);
+			this.ranges = new int[3 * ranges.size()];
+			for (int i = 0; i < ranges.size(); i++) {
+				AxisRange range = ranges.get(i);
+				this.ranges[3 * i] = range.getAxisType().ordinal();
+				this.ranges[3 * i + 1] = range.getOrigin();
+				this.ranges[3 * i + 2] = range.getExtent();
+			}
+			sortRanges();
+			this.start = dateRange == null ? -1 : dateRange.getStart();
+			this.end = dateRange == null ? -1 : dateRange.getEnd();
+			this.convertUnits = convertUnits;
+		}
+
+		// the order the ranges were added in does not matter
+		private void sortRanges() {
+			for (int i = 1; i < ranges.length / 3; i++) {
+				for (int j = i; j > 0 && ranges[3 * j] < ranges[3 * (j - 1)]; j--) {
+					for (int k = 0; k < 3; k++) {
+						int swap = ranges[3 * j + k];
+						ranges[3 * j + k] = ranges[3 * (j - 1) + k];
+						ranges[3 * (j - 1) + k] = swap;
+					}
+				}
+			}
+		}
+
+		boolean uses(Dataset dataset) {
+			for (Dataset set : datasets) {
+				if (set == dataset) return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == null || obj.getClass() != getClass()) return false;
+			Key other = (Key) obj;
+			if (datasets.size() != other.datasets.size()) return false;
+			for (int i = 0; i < datasets.size(); i++) {
+				if (datasets.get(i) != other.datasets.get(i)) return false;
+			}
+			return formula.equals(other.formula) && timeStepAverage == other.timeStepAverage
+							&& Arrays.equals(ranges, other.ranges) && start == other.start && end == other.end
+							&& convertUnits == other.convertUnits;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = formula.hashCode();
+			for (Dataset set : datasets) {
+				hash = 31 * hash + System.identityHashCode(set);
+			}
+			hash = 31 * hash + Arrays.hashCode(ranges);
+			hash = 31 * hash + (int) (start ^ (start >>> 32));
+			hash = 31 * hash + (int) (end ^ (end >>> 32));
+			return 31 * hash + (timeStepAverage ? 2 : 0) + (convertUnits ? 1 : 0);
+		}
+	}
+
+	// a view of a cached result that leaves the result alone
+	private static class ReadOnlyFrame implements DataFrame {
+
+		private DataFrame frame;
+		private Array array;
+
+		ReadOnlyFrame(DataFrame frame) {
+			this.frame = frame;
+		}
+
+		public synchronized Array getArray() {
+			if (array == null)
+				array = frame.getArray().copy();
+			return array;
+		}
+
+		public Axes<DataFrameAxis> getAxes() {
+			return frame.getAxes();
+		}
+
+		public List<Dataset> getDataset() {
+			return frame.getDataset();
+		}
+
+		public Variable getVariable() {
+			return frame.getVariable();
+		}
+
+		public Class<?> getArrayType() {
+			return frame.getArrayType();
+		}
+
+		public long getSize() {
+			return frame.getSize();
+		}
+
+		public int[] getShape() {
+			return frame.getShape();
+		}
+
+		public DataFrameIndex getIndex() {
+			return frame.getIndex();
+		}
+
+		public double getDouble(DataFrameIndex index) {
+			return frame.getDouble(index);
+		}
+
+		public float getFloat(DataFrameIndex index) {
+			return frame.getFloat(index);
+		}
+
+		public int getInt(DataFrameIndex index) {
+			return frame.getInt(index);
+		}
+
+		public long getLong(DataFrameIndex index) {
+			return frame.getLong(index);
+		}
+
+		// a slice shares the cached values, so it is read only too
+		public DataFrame slice(Slice slice) throws InvalidRangeException {
+			return new ReadOnlyFrame(frame.slice(slice));
+		}
+
+		public DataFrame sliceCopy(Slice slice) throws InvalidRangeException {
+			return frame.sliceCopy(slice);
+		}
+
+		public void copy(Slice slice, boolean invertRows, float[] result) {
+			frame.copy(slice, invertRows, result);
+		}
+	}
+
+	private static class Entry {
+
+		DataFrame frame;
+		long size;
+
+		Entry(DataFrame frame, long size) {
+			this.frame = frame;
+			this.size = size;
+		}
+	}
+}
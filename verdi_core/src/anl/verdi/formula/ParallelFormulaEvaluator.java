@@ -0,0 +1,86 @@
+package anl.verdi.formula;
+
+import ucar.ma2.Array;
+import anl.verdi.parser.CompiledFormula;
+import anl.verdi.util.FormulaArray;
+import anl.verdi.util.SharedPool;
+
+/**
+ * Evaluates compiled formulas in parallel on VERDI's shared threads. The
+ * result is partitioned into chunks of whole time steps, or of whole
+ * layers when there are too few time steps to keep every thread busy.
+ * Each element is computed exactly as in the serial evaluation so the
+ * results are bit-identical.
+ */
+public class ParallelFormulaEvaluator {
+
+	/**
+	 * System property that sets the default number of threads
+	 * used to evaluate formulas.
+	 */
+	public static final String PARALLELISM_PROPERTY = "verdi.formula.parallelism";
+
+	// below this many elements the overhead of splitting is not worth it
+	private static final int MIN_PARALLEL_SIZE = 1 << 16;
+	// target number of chunks per thread, to even out the load
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static final SharedPool pool = new SharedPool("Formula evaluator", PARALLELISM_PROPERTY, false);
+
+	/**
+	 * Gets the number of threads used to evaluate formulas.
+	 *
+	 * @return the number of threads used to evaluate formulas.
+	 */
+	public static int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to evaluate formulas. A value of 1
+	 * evaluates formulas serially on the calling thread.
+	 *
+	 * @param level the number of threads
+	 */
+	public static void setParallelism(int level) {
+		pool.setParallelism(level);
+	}
+
+	/**
+	 * Evaluates the compiled formula, in parallel if the parallelism level
+	 * is greater than 1 and the result is large enough to be worth splitting.
+	 *
+	 * @param formula the formula to evaluate
+	 * @return the result of the evaluation
+	 */
+	public static FormulaArray evaluate(final CompiledFormula formula) {
+		int threads = getParallelism();
+		int size = formula.getSize();
+		if (threads <= 1 || size < MIN_PARALLEL_SIZE) return formula.evaluate();
+
+		int[] shape = formula.getShape();
+		final int chunk = chunkSize(shape, size, threads);
+		final double[] result = new double[size];
+		pool.forEach((size + chunk - 1) / chunk, new SharedPool.Body() {
+			public void run(int index) {
+				int start = index * chunk;
+				formula.evaluate(start, Math.min(result.length, start + chunk), result);
+			}
+		});
+		return new FormulaArray(Array.factory(double.class, shape, result), true);
+	}
+
+	// the number of elements in each chunk: whole time steps if there
+	// are enough of them, otherwise whole layers.
+	private static int chunkSize(int[] shape, int size, int threads) {
+		int target = threads * CHUNKS_PER_THREAD;
+		if (shape.length == 4) {
+			int timeStep = size / Math.max(1, shape[0]);
+			if (shape[0] >= target || shape[1] <= 1) return timeStep * Math.max(1, shape[0] / target);
+			int layer = timeStep / Math.max(1, shape[1]);
+			int layers = Math.max(1, size / layer / target);
+			return layer * layers;
+		}
+		return Math.max(CompiledFormula.BLOCK_SIZE, size / target);
+	}
+}
@@ -11,6 +11,7 @@ import java.util.StringTokenizer;
 import anl.verdi.data.DataFrame;
 import anl.verdi.parser.ASTTreeInfo;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.UnitConversion;
 
 /**
  * Simple parser just for testing.
@@ -55,6 +56,10 @@ public class SimpleParser implements FormulaParser {
 		//todo implement method
 	}
 
+	public void setVariable(String name, DataFrame value, UnitConversion conversion) {
+		//todo implement method
+	}
+
 	public String getFormulaAsString() {
 		return formula;
 	}
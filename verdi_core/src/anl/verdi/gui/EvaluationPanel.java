@@ -0,0 +1,72 @@
+package anl.verdi.gui;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.border.TitledBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import anl.verdi.formula.ParallelFormulaEvaluator;
+
+import com.jgoodies.forms.factories.DefaultComponentFactory;
+import com.jgoodies.forms.factories.FormFactory;
+import com.jgoodies.forms.layout.CellConstraints;
+import com.jgoodies.forms.layout.ColumnSpec;
+import com.jgoodies.forms.layout.FormLayout;
+import com.jgoodies.forms.layout.FormSpec;
+import com.jgoodies.forms.layout.RowSpec;
+import com.jgoodies.forms.layout.Sizes;
+
+/**
+ * Panel for the settings that control how formulas are evaluated.
+ */
+public class EvaluationPanel extends JPanel {
+
+	private static final long serialVersionUID = 2287561520187436431L;
+
+	public EvaluationPanel() {
+		initComponents();
+		threadSpinner.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				int val = ((SpinnerNumberModel) threadSpinner.getModel()).getNumber().intValue();
+				ParallelFormulaEvaluator.setParallelism(val);
+			}
+		});
+	}
+
+	private void initComponents() {
+		DefaultComponentFactory compFactory = DefaultComponentFactory.getInstance();
+		label1 = compFactory.createLabel("Threads:");
+		int max = Math.max(ParallelFormulaEvaluator.getParallelism(), Runtime.getRuntime().availableProcessors());
+		threadSpinner = new JSpinner(new SpinnerNumberModel(ParallelFormulaEvaluator.getParallelism(), 1, max, 1));
+		threadSpinner.setToolTipText("Number of threads used to evaluate formulas");
+		CellConstraints cc = new CellConstraints();
+
+		//======== this ========
+		setBorder(new TitledBorder("Evaluation"));
+
+		ColumnSpec[] aColumnSpec = ColumnSpec.decodeSpecs("max(default;10dlu)");
+		ColumnSpec[] bColumnSpec = ColumnSpec.decodeSpecs("max(pref;30dlu)");
+		ColumnSpec cColumnSpec = new ColumnSpec(ColumnSpec.FILL, Sizes.PREFERRED, FormSpec.DEFAULT_GROW);
+		setLayout(new FormLayout(
+				new ColumnSpec[] {
+						aColumnSpec[0],
+						FormFactory.DEFAULT_COLSPEC,
+						FormFactory.LABEL_COMPONENT_GAP_COLSPEC,
+						bColumnSpec[0],
+						FormFactory.LABEL_COMPONENT_GAP_COLSPEC,
+						cColumnSpec
+				},
+				new RowSpec[] {
+						FormFactory.DEFAULT_ROWSPEC
+				}));
+
+		add(label1, cc.xy(2, 1));
+		add(threadSpinner, cc.xy(4, 1));
+	}
+
+	private JLabel label1;
+	private JSpinner threadSpinner;
+}
@@ -183,6 +183,7 @@ public class FormulasPanel extends JPanel {
 		addFormulaPanel = new AddFormulaPanel();
 		timePanel1 = new TimePanel();
 		layerPanel1 = new LayerPanel();
+		evaluationPanel1 = new EvaluationPanel();
 		domainPanel1 = new DomainPanel();
 		CellConstraints cc = new CellConstraints();
 
@@ -201,6 +202,8 @@ public class FormulasPanel extends JPanel {
 										FormFactory.LINE_GAP_ROWSPEC,
 										FormFactory.PREF_ROWSPEC,
 										FormFactory.LINE_GAP_ROWSPEC,
+										FormFactory.PREF_ROWSPEC,
+										FormFactory.LINE_GAP_ROWSPEC,
 										aRowSpec[0]
 						}));
 //		setLayout(new FormLayout(
@@ -217,7 +220,8 @@ public class FormulasPanel extends JPanel {
 		add(addFormulaPanel, cc.xy(1, 1));
 		add(timePanel1, cc.xy(1, 3));
 		add(layerPanel1, cc.xy(1, 5));
-		add(domainPanel1, cc.xy(1, 7));
+		add(evaluationPanel1, cc.xy(1, 7));
+		add(domainPanel1, cc.xy(1, 9));
 		// JFormDesigner - End of component initialization  //GEN-END:initComponents
 	}
 
@@ -226,6 +230,7 @@ public class FormulasPanel extends JPanel {
 	private AddFormulaPanel addFormulaPanel;
 	private TimePanel timePanel1;
 	private LayerPanel layerPanel1;
+	private EvaluationPanel evaluationPanel1;
 	private DomainPanel domainPanel1;
 	// JFormDesigner - End of variables declaration  //GEN-END:variables
 }
@@ -45,6 +45,8 @@ public class ASTMax extends SimpleNode {
 		
 		if (rank == 4) {
 			Index index = array.getIndex();
+			// the copy is contiguous even when the array is a section
+			Index copyIndex = maxA.getIndex();
 
 			for (int i = 0; i < shape[2]; i++) {
 				for (int j = 0; j < shape[3]; j++) {
@@ -58,8 +60,8 @@ public class ASTMax extends SimpleNode {
 						}
 						
 						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							maxA.setDouble(index, max);
+							copyIndex.set(t, k, i, j);
+							maxA.setDouble(copyIndex, max);
 						}
 					}
 				}
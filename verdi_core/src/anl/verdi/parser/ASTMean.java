@@ -50,6 +50,8 @@ public class ASTMean extends AggregateFuncNode {
 		
 		if (rank == 4) {
 			Index index = array.getIndex();
+			// the copy is contiguous even when the array is a section
+			Index copyIndex = meanA.getIndex();
 
 			for (int i = 0; i < shape[2]; i++) {
 				for (int j = 0; j < shape[3]; j++) {
@@ -63,8 +65,8 @@ public class ASTMean extends AggregateFuncNode {
 						}
 						
 						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							meanA.setDouble(index, sum / shape[0]);
+							copyIndex.set(t, k, i, j);
+							meanA.setDouble(copyIndex, sum / shape[0]);
 						}
 					}
 				}
@@ -44,6 +44,8 @@ public class ASTMin extends SimpleNode {
 		
 		if (rank == 4) {
 			Index index = array.getIndex();
+			// the copy is contiguous even when the array is a section
+			Index copyIndex = minA.getIndex();
 
 			for (int i = 0; i < shape[2]; i++) {
 				for (int j = 0; j < shape[3]; j++) {
@@ -57,8 +59,8 @@ public class ASTMin extends SimpleNode {
 						}
 						
 						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							minA.setDouble(index, min);
+							copyIndex.set(t, k, i, j);
+							minA.setDouble(copyIndex, min);
 						}
 					}
 				}
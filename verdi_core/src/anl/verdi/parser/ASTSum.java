@@ -46,6 +46,8 @@ public class ASTSum extends AggregateFuncNode {
 		
 		if (rank == 4) {
 			Index index = array.getIndex();
+			// the copy is contiguous even when the array is a section
+			Index copyIndex = sumA.getIndex();
 
 			for (int i = 0; i < shape[2]; i++) {
 				for (int j = 0; j < shape[3]; j++) {
@@ -59,8 +61,8 @@ public class ASTSum extends AggregateFuncNode {
 						}
 						
 						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							sumA.setDouble(index, sum);
+							copyIndex.set(t, k, i, j);
+							sumA.setDouble(copyIndex, sum);
 						}
 					}
 				}
@@ -0,0 +1,231 @@
+package anl.verdi.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ucar.ma2.Array;
+import anl.verdi.formula.IllegalFormulaException;
+import anl.verdi.util.FormulaArray;
+import anl.verdi.util.UnitConversion;
+
+/**
+ * A formula parse tree compiled into a single fused element-wise kernel.
+ * Evaluation makes one pass over the inputs, writes one output array and
+ * keeps intermediate results in small block-sized scratch buffers rather
+ * than full size temporary arrays. Nodes that are not element-wise (the
+ * aggregates, min / max / mean / sum and the coordinate functions) are
+ * evaluated through the usual FormulaArray path and their results used
+ * as inputs to the kernel. Affine unit conversions set on the frame are
+ * applied to the variables' values as the kernel reads them; variables
+ * that a non element-wise node needs are converted in place instead.
+ */
+public class CompiledFormula {
+
+	/**
+	 * The number of elements each kernel evaluates per call.
+	 */
+	public static final int BLOCK_SIZE = 1024;
+
+	private FormulaKernel kernel;
+	private int slotCount;
+
+	private CompiledFormula(FormulaKernel kernel, int slotCount) {
+		this.kernel = kernel;
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 * Compiles the expression rooted at the specified node. The
+	 * tree must already have been preprocessed against the frame.
+	 *
+	 * @param root  the root of the expression
+	 * @param frame the frame containing the current variable values
+	 * @return the compiled formula, or null if the expression has nothing
+	 *         to fuse (e.g. it is a single variable or aggregate) and should be
+	 *         evaluated directly.
+	 * @throws IllegalFormulaException if there is an error evaluating
+	 *                                 a non element-wise node.
+	 */
+	public static CompiledFormula compile(SimpleNode root, Frame frame) throws IllegalFormulaException {
+		while (root instanceof ASTstart) {
+			root = (SimpleNode) root.jjtGetChild(0);
+		}
+		if (unaryOp(root) == -1 && binaryOp(root) == -1) return null;
+		Compiler compiler = new Compiler(frame);
+		FormulaKernel kernel = compiler.compile(root, 0);
+		// a variable may have been converted in place after some of its
+		// uses were compiled, so those that read its storage must no longer
+		// convert it. Those that read a copy of a section still must.
+		for (FormulaKernel.Converted converted : compiler.converted) {
+			if (frame.getUnitConversion(converted.getName()) == null && converted.readsStorage()) converted.disable();
+		}
+		return new CompiledFormula(kernel, compiler.slotCount);
+	}
+
+	/**
+	 * Gets the shape of the result.
+	 *
+	 * @return the shape of the result.
+	 */
+	public int[] getShape() {
+		return kernel.getShape();
+	}
+
+	/**
+	 * Gets the number of elements in the result.
+	 *
+	 * @return the number of elements in the result.
+	 */
+	public int getSize() {
+		return kernel.getSize();
+	}
+
+	/**
+	 * Evaluates the whole formula.
+	 *
+	 * @return the result of the evaluation.
+	 */
+	public FormulaArray evaluate() {
+		double[] result = new double[kernel.getSize()];
+		evaluate(0, result.length, result);
+		return new FormulaArray(Array.factory(double.class, kernel.getShape(), result), true);
+	}
+
+	/**
+	 * Evaluates the elements [start, end) of the formula into the
+	 * same positions in the result array. Each call uses its own scratch
+	 * buffers so distinct ranges may be evaluated concurrently.
+	 *
+	 * @param start  the index of the first element to evaluate
+	 * @param end    one past the index of the last element to evaluate
+	 * @param result the array to store the results in
+	 */
+	public void evaluate(int start, int end, double[] result) {
+		double[][] scratch = new double[slotCount][BLOCK_SIZE];
+		for (int i = start; i < end; i += BLOCK_SIZE) {
+			int len = Math.min(BLOCK_SIZE, end - i);
+			kernel.apply(i, len, result, i, scratch);
+		}
+	}
+
+	private static int unaryOp(SimpleNode node) {
+		if (node instanceof ASTAbs) return FormulaKernel.ABS;
+		if (node instanceof ASTNeg) return FormulaKernel.NEG;
+		if (node instanceof ASTSqrt) return FormulaKernel.SQRT;
+		if (node instanceof ASTSqr) return FormulaKernel.SQR;
+		if (node instanceof ASTExp) return FormulaKernel.EXP;
+		if (node instanceof ASTLn) return FormulaKernel.LN;
+		if (node instanceof ASTLog) return FormulaKernel.LOG;
+		if (node instanceof ASTSin) return FormulaKernel.SIN;
+		if (node instanceof ASTCos) return FormulaKernel.COS;
+		if (node instanceof ASTTan) return FormulaKernel.TAN;
+		if (node instanceof ASTSind) return FormulaKernel.SIND;
+		if (node instanceof ASTCosd) return FormulaKernel.COSD;
+		if (node instanceof ASTTand) return FormulaKernel.TAND;
+		return -1;
+	}
+
+	private static int binaryOp(SimpleNode node) {
+		if (node instanceof ASTAdd) return FormulaKernel.ADD;
+		if (node instanceof ASTSubtract) return FormulaKernel.SUBTRACT;
+		if (node instanceof ASTMul) return FormulaKernel.MUL;
+		if (node instanceof ASTDiv) return FormulaKernel.DIV;
+		if (node instanceof ASTMod) return FormulaKernel.MOD;
+		if (node instanceof ASTPow) return FormulaKernel.POW;
+		if (node instanceof ASTLessThan) return FormulaKernel.LESS_THAN;
+		if (node instanceof ASTLessEq) return FormulaKernel.LESS_EQ;
+		if (node instanceof ASTGreaterThan) return FormulaKernel.GREATER_THAN;
+		if (node instanceof ASTGreaterEq) return FormulaKernel.GREATER_EQ;
+		if (node instanceof ASTEqEqual) return FormulaKernel.EQUAL;
+		if (node instanceof ASTNotEqual) return FormulaKernel.NOT_EQUAL;
+		if (node instanceof ASTAnd) return FormulaKernel.AND;
+		if (node instanceof ASTOr) return FormulaKernel.OR;
+		return -1;
+	}
+
+	private static class Compiler {
+
+		private Frame frame;
+		private int slotCount = 0;
+		private List<FormulaKernel.Converted> converted = new ArrayList<FormulaKernel.Converted>();
+
+		Compiler(Frame frame) {
+			this.frame = frame;
+		}
+
+		// the left child of a binary node is evaluated before that node's
+		// scratch slot is written, so it can share the slot. The right child
+		// is evaluated while the slot is live and so uses the next one.
+		FormulaKernel compile(SimpleNode node, int slot) throws IllegalFormulaException {
+			int op = unaryOp(node);
+			if (op != -1) {
+				FormulaKernel child = compile((SimpleNode) node.jjtGetChild(0), slot);
+				if (child instanceof FormulaKernel.Constant) {
+					double val = FormulaKernel.Unary.apply(op, ((FormulaKernel.Constant) child).getValue());
+					return new FormulaKernel.Constant(val, child.getShape(), child.getSize());
+				}
+				return new FormulaKernel.Unary(op, child);
+			}
+
+			op = binaryOp(node);
+			if (op != -1) {
+				FormulaKernel left = compile((SimpleNode) node.jjtGetChild(0), slot);
+				FormulaKernel right = compile((SimpleNode) node.jjtGetChild(1), slot + 1);
+				if (left instanceof FormulaKernel.Constant && right instanceof FormulaKernel.Constant) {
+					double val = FormulaKernel.Binary.apply(op, ((FormulaKernel.Constant) left).getValue(),
+									((FormulaKernel.Constant) right).getValue());
+					return left.getSize() > 1 ? new FormulaKernel.Constant(val, left.getShape(), left.getSize())
+									: new FormulaKernel.Constant(val, right.getShape(), right.getSize());
+				}
+				if (left.getSize() > 1 && right.getSize() > 1 && left.getSize() != right.getSize()) {
+					// can't be fused element-wise, so let FormulaArray deal with it
+					return evaluate(node);
+				}
+				slotCount = Math.max(slotCount, slot + 1);
+				return new FormulaKernel.Binary(op, left, right, slot);
+			}
+
+			if (node instanceof ASTVar) {
+				String name = ((ASTVar) node).getName();
+				UnitConversion conversion = frame.getUnitConversion(name);
+				if (conversion != null) {
+					Array array = node.evaluate(frame).getArray();
+					FormulaKernel input = createInput(new FormulaArray(array));
+					if (input.getSize() > 1) {
+						FormulaKernel.Converted kernel = new FormulaKernel.Converted(input, name,
+										conversion.getScale(), conversion.getOffset(), input.getData() == array.getStorage());
+						converted.add(kernel);
+						return kernel;
+					}
+				}
+			}
+			return evaluate(node);
+		}
+
+		// evaluates the node through FormulaArray, after converting the
+		// values of any variables it uses in place
+		private FormulaKernel evaluate(SimpleNode node) throws IllegalFormulaException {
+			applyUnitConversions(node);
+			return createInput(node.evaluate(frame));
+		}
+
+		private void applyUnitConversions(SimpleNode node) {
+			if (node instanceof ASTVar) frame.applyUnitConversion(((ASTVar) node).getName());
+			for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+				applyUnitConversions((SimpleNode) node.jjtGetChild(i));
+			}
+		}
+
+		private FormulaKernel createInput(FormulaArray value) {
+			Array array = value.getArray();
+			int[] shape = array.getShape();
+			if (array.getSize() == 1) {
+				return new FormulaKernel.Constant(array.getIndexIterator().getDoubleNext(), shape, 1);
+			}
+			if (array.getElementType() == float.class) {
+				return new FormulaKernel.FloatInput((float[]) array.get1DJavaArray(float.class), shape);
+			}
+			return new FormulaKernel.DoubleInput((double[]) array.get1DJavaArray(double.class), shape);
+		}
+	}
+}
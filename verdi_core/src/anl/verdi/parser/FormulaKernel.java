@@ -0,0 +1,399 @@
+package anl.verdi.parser;
+
+/**
+ * Node in a compiled formula. A kernel evaluates its part of the
+ * expression over a contiguous block of elements at a time, so that the
+ * per-element work is a tight primitive loop and virtual dispatch only
+ * happens once per block.
+ */
+abstract class FormulaKernel {
+
+	// unary operators
+	static final int ABS = 0;
+	static final int NEG = 1;
+	static final int SQRT = 2;
+	static final int SQR = 3;
+	static final int EXP = 4;
+	static final int LN = 5;
+	static final int LOG = 6;
+	static final int SIN = 7;
+	static final int COS = 8;
+	static final int TAN = 9;
+	static final int SIND = 10;
+	static final int COSD = 11;
+	static final int TAND = 12;
+
+	// binary operators
+	static final int ADD = 0;
+	static final int SUBTRACT = 1;
+	static final int MUL = 2;
+	static final int DIV = 3;
+	static final int MOD = 4;
+	static final int POW = 5;
+	static final int LESS_THAN = 6;
+	static final int LESS_EQ = 7;
+	static final int GREATER_THAN = 8;
+	static final int GREATER_EQ = 9;
+	static final int EQUAL = 10;
+	static final int NOT_EQUAL = 11;
+	static final int AND = 12;
+	static final int OR = 13;
+
+	protected int[] shape;
+	protected int size;
+
+	protected FormulaKernel(int[] shape, int size) {
+		this.shape = shape;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the shape of the array this kernel produces.
+	 *
+	 * @return the shape of the array this kernel produces.
+	 */
+	int[] getShape() {
+		return shape;
+	}
+
+	/**
+	 * Gets the number of elements this kernel produces.
+	 *
+	 * @return the number of elements this kernel produces.
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the array of values this kernel reads directly.
+	 *
+	 * @return the array this kernel reads, or null if it reads none.
+	 */
+	Object getData() {
+		return null;
+	}
+
+	/**
+	 * Evaluates the elements [start, start + len) of this kernel's
+	 * result into out[offset, offset + len).
+	 *
+	 * @param start   the index of the first element to evaluate
+	 * @param len     the number of elements to evaluate
+	 * @param out     the array to write the results into
+	 * @param offset  the offset into out at which to start writing
+	 * @param scratch per evaluation scratch buffers, one per temporary slot
+	 */
+	abstract void apply(int start, int len, double[] out, int offset, double[][] scratch);
+
+	/**
+	 * A kernel that produces the same value for every element.
+	 */
+	static class Constant extends FormulaKernel {
+
+		private double value;
+
+		Constant(double value, int[] shape, int size) {
+			super(shape, size);
+			this.value = value;
+		}
+
+		double getValue() {
+			return value;
+		}
+
+		void apply(int start, int len, double[] out, int offset, double[][] scratch) {
+			double val = value;
+			for (int i = offset, n = offset + len; i < n; i++) {
+				out[i] = val;
+			}
+		}
+	}
+
+	/**
+	 * A kernel that reads directly from double storage.
+	 */
+	static class DoubleInput extends FormulaKernel {
+
+		private double[] data;
+
+		DoubleInput(double[] data, int[] shape) {
+			super(shape, data.length);
+			this.data = data;
+		}
+
+		Object getData() {
+			return data;
+		}
+
+		void apply(int start, int len, double[] out, int offset, double[][] scratch) {
+			System.arraycopy(data, start, out, offset, len);
+		}
+	}
+
+	/**
+	 * A kernel that reads directly from float storage, widening to double.
+	 */
+	static class FloatInput extends FormulaKernel {
+
+		private float[] data;
+
+		FloatInput(float[] data, int[] shape) {
+			super(shape, data.length);
+			this.data = data;
+		}
+
+		Object getData() {
+			return data;
+		}
+
+		void apply(int start, int len, double[] out, int offset, double[][] scratch) {
+			float[] in = data;
+			for (int i = 0; i < len; i++) {
+				out[offset + i] = in[start + i];
+			}
+		}
+	}
+
+	/**
+	 * Applies the affine unit conversion of a variable to its values
+	 * as they are read, so the converted copy is never materialized.
+	 * Float values are rounded back to float, as they are when the
+	 * variable is converted in place.
+	 */
+	static class Converted extends FormulaKernel {
+
+		private FormulaKernel child;
+		private String name;
+		private double scale, offset;
+		private boolean toFloat;
+		private boolean readsStorage;
+		private boolean enabled = true;
+
+		Converted(FormulaKernel child, String name, double scale, double offset, boolean readsStorage) {
+			super(child.shape, child.size);
+			this.child = child;
+			this.name = name;
+			this.scale = scale;
+			this.offset = offset;
+			this.readsStorage = readsStorage;
+			toFloat = child instanceof FloatInput;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets whether the values read are the variable's own storage,
+		 * rather than a copy of them, and so are changed when the
+		 * variable is converted in place.
+		 *
+		 * @return true if the values read are the variable's storage.
+		 */
+		boolean readsStorage() {
+			return readsStorage;
+		}
+
+		/**
+		 * Stops applying the conversion, because the variable's values
+		 * have been converted in place.
+		 */
+		void disable() {
+			enabled = false;
+		}
+
+		void apply(int start, int len, double[] out, int offset, double[][] scratch) {
+			child.apply(start, len, out, offset, scratch);
+			if (!enabled) return;
+			double a = scale, b = this.offset;
+			int n = offset + len;
+			if (!toFloat) {
+				for (int i = offset; i < n; i++) out[i] = out[i] * a + b;
+			} else if (b == 0) {
+				for (int i = offset; i < n; i++) out[i] = (float) (out[i] * a);
+			} else {
+				for (int i = offset; i < n; i++) out[i] = (float) (out[i] * a + b);
+			}
+		}
+	}
+
+	/**
+	 * Applies a unary function to its child in place.
+	 */
+	static class Unary extends FormulaKernel {
+
+		private int op;
+		private FormulaKernel child;
+
+		Unary(int op, FormulaKernel child) {
+			super(child.shape, child.size);
+			this.op = op;
+			this.child = child;
+		}
+
+		void apply(int start, int len, double[] out, int offset, double[][] scratch) {
+			child.apply(start, len, out, offset, scratch);
+			int n = offset + len;
+			switch (op) {
+				case ABS:
+					for (int i = offset; i < n; i++) out[i] = Math.abs(out[i]);
+					break;
+				case NEG:
+					for (int i = offset; i < n; i++) out[i] = -out[i];
+					break;
+				case SQRT:
+					for (int i = offset; i < n; i++) out[i] = Math.sqrt(out[i]);
+					break;
+				case SQR:
+					for (int i = offset; i < n; i++) out[i] = Math.pow(out[i], 2);
+					break;
+				case EXP:
+					for (int i = offset; i < n; i++) out[i] = Math.exp(out[i]);
+					break;
+				case LN:
+					for (int i = offset; i < n; i++) out[i] = Math.log(out[i]);
+					break;
+				case LOG:
+					for (int i = offset; i < n; i++) out[i] = Math.log10(out[i]);
+					break;
+				case SIN:
+					for (int i = offset; i < n; i++) out[i] = Math.sin(out[i]);
+					break;
+				case COS:
+					for (int i = offset; i < n; i++) out[i] = Math.cos(out[i]);
+					break;
+				case TAN:
+					for (int i = offset; i < n; i++) out[i] = Math.tan(out[i]);
+					break;
+				case SIND:
+					for (int i = offset; i < n; i++) out[i] = Math.sin(Math.toRadians(out[i]));
+					break;
+				case COSD:
+					for (int i = offset; i < n; i++) out[i] = Math.cos(Math.toRadians(out[i]));
+					break;
+				case TAND:
+					for (int i = offset; i < n; i++) out[i] = Math.tan(Math.toRadians(out[i]));
+					break;
+				default:
+					throw new IllegalStateException("Unknown unary operator: " + op);
+			}
+		}
+
+		static double apply(int op, double val) {
+			switch (op) {
+				case ABS: return Math.abs(val);
+				case NEG: return -val;
+				case SQRT: return Math.sqrt(val);
+				case SQR: return Math.pow(val, 2);
+				case EXP: return Math.exp(val);
+				case LN: return Math.log(val);
+				case LOG: return Math.log10(val);
+				case SIN: return Math.sin(val);
+				case COS: return Math.cos(val);
+				case TAN: return Math.tan(val);
+				case SIND: return Math.sin(Math.toRadians(val));
+				case COSD: return Math.cos(Math.toRadians(val));
+				case TAND: return Math.tan(Math.toRadians(val));
+				default:
+					throw new IllegalStateException("Unknown unary operator: " + op);
+			}
+		}
+	}
+
+	/**
+	 * Combines two children element-wise. The left child is evaluated
+	 * directly into the output and the right child into the scratch buffer
+	 * for this kernel's slot.
+	 */
+	static class Binary extends FormulaKernel {
+
+		private int op;
+		private FormulaKernel left, right;
+		private int slot;
+
+		Binary(int op, FormulaKernel left, FormulaKernel right, int slot) {
+			// mirrors FormulaArray: the result takes the shape of the
+			// left operand unless it is a single value
+			super(left.size > 1 ? left.shape : right.shape, left.size > 1 ? left.size : right.size);
+			this.op = op;
+			this.left = left;
+			this.right = right;
+			this.slot = slot;
+		}
+
+		void apply(int start, int len, double[] out, int offset, double[][] scratch) {
+			left.apply(start, len, out, offset, scratch);
+			double[] tmp = scratch[slot];
+			right.apply(start, len, tmp, 0, scratch);
+			int n = offset + len;
+			switch (op) {
+				case ADD:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] + tmp[j];
+					break;
+				case SUBTRACT:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] - tmp[j];
+					break;
+				case MUL:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] * tmp[j];
+					break;
+				case DIV:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] / tmp[j];
+					break;
+				case MOD:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] % tmp[j];
+					break;
+				case POW:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = Math.pow(out[i], tmp[j]);
+					break;
+				case LESS_THAN:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] < tmp[j] ? 1 : 0;
+					break;
+				case LESS_EQ:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] <= tmp[j] ? 1 : 0;
+					break;
+				case GREATER_THAN:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] > tmp[j] ? 1 : 0;
+					break;
+				case GREATER_EQ:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] >= tmp[j] ? 1 : 0;
+					break;
+				case EQUAL:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] == tmp[j] ? 1 : 0;
+					break;
+				case NOT_EQUAL:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] != tmp[j] ? 1 : 0;
+					break;
+				case AND:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] != 0 && tmp[j] != 0 ? 1 : 0;
+					break;
+				case OR:
+					for (int i = offset, j = 0; i < n; i++, j++) out[i] = out[i] != 0 || tmp[j] != 0 ? 1 : 0;
+					break;
+				default:
+					throw new IllegalStateException("Unknown binary operator: " + op);
+			}
+		}
+
+		static double apply(int op, double val1, double val2) {
+			switch (op) {
+				case ADD: return val1 + val2;
+				case SUBTRACT: return val1 - val2;
+				case MUL: return val1 * val2;
+				case DIV: return val1 / val2;
+				case MOD: return val1 % val2;
+				case POW: return Math.pow(val1, val2);
+				case LESS_THAN: return val1 < val2 ? 1 : 0;
+				case LESS_EQ: return val1 <= val2 ? 1 : 0;
+				case GREATER_THAN: return val1 > val2 ? 1 : 0;
+				case GREATER_EQ: return val1 >= val2 ? 1 : 0;
+				case EQUAL: return val1 == val2 ? 1 : 0;
+				case NOT_EQUAL: return val1 != val2 ? 1 : 0;
+				case AND: return val1 != 0 && val2 != 0 ? 1 : 0;
+				case OR: return val1 != 0 || val2 != 0 ? 1 : 0;
+				default:
+					throw new IllegalStateException("Unknown binary operator: " + op);
+			}
+		}
+	}
+}
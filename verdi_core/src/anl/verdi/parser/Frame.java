@@ -1,9 +1,11 @@
 package anl.verdi.parser;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 import anl.verdi.data.DataFrame;
+import anl.verdi.util.UnitConversion;
 
 /**
  * Contains the current execution context. This includes the
@@ -16,6 +18,7 @@ public class Frame {
 	// 2015 changed "level" to "layer" for consistency
 
 	private Map<String, DataFrame> varValues = new HashMap<String, DataFrame>();
+	private Map<String, UnitConversion> conversions = new HashMap<String, UnitConversion>();
 	private int timeStep, layer, x, y, nrows, ncols, nlayers;
 
 	/**
@@ -37,6 +40,52 @@ public class Frame {
 		return varValues.get(name);
 	}
 
+	/**
+	 * Sets the unit conversion that a compiled formula applies to the
+	 * named variable's values as it reads them. The values themselves
+	 * are left unconverted.
+	 *
+	 * @param name the name of the variable
+	 * @param conversion the conversion, or null for none
+	 */
+	public void setUnitConversion(String name, UnitConversion conversion) {
+		if (conversion == null) conversions.remove(name);
+		else conversions.put(name, conversion);
+	}
+
+	/**
+	 * Gets the unit conversion to apply to the named variable's values.
+	 *
+	 * @param name the name of the variable
+	 * @return the unit conversion to apply to the named variable's values,
+	 * or null if there is none.
+	 */
+	public UnitConversion getUnitConversion(String name) {
+		return conversions.get(name);
+	}
+
+	/**
+	 * Converts the named variable's values in place using its unit
+	 * conversion, if it has one, and then removes the conversion.
+	 *
+	 * @param name the name of the variable
+	 */
+	public void applyUnitConversion(String name) {
+		UnitConversion conversion = conversions.remove(name);
+		DataFrame val = varValues.get(name);
+		if (conversion != null && val != null) conversion.convert(val.getArray());
+	}
+
+	/**
+	 * Converts the values of every variable that has a unit
+	 * conversion in place, and then removes the conversions.
+	 */
+	public void applyUnitConversions() {
+		for (String name : new ArrayList<String>(conversions.keySet())) {
+			applyUnitConversion(name);
+		}
+	}
+
 	/**
 	 * Gets the current layer index.
 	 *
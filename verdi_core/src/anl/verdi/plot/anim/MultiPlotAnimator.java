@@ -6,9 +6,17 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.plot.gui.AbstractPlotPanel;
+import anl.verdi.plot.gui.OffscreenRenderer;
 import anl.verdi.plot.types.TimeAnimatablePlot;
 import anl.verdi.plot.util.AnimationListener;
 import anl.verdi.plot.util.WriteAnimatedGif;
@@ -20,15 +28,21 @@ import anl.verdi.plot.util.WriteAnimatedGif;
  * @version $Revision$ $Date$
  */
 public class MultiPlotAnimator {
+	static final Logger Logger = LogManager.getLogger(MultiPlotAnimator.class.getName());
 
 	private int index = 1;
 
 	private Timer timer = new Timer(500, null);
 	private List<AnimationListener> listeners = new ArrayList<AnimationListener>();
+	// plot panels exported to a GIF, drawn in parallel rather than on the timer
+	private List<UpdatePlotAction> exports = new ArrayList<UpdatePlotAction>();
+	private int exporting = 0;
 
 	/**
 	 * Adds the specified plot to animate. The animation will run
-	 * from the starting timestep to the ending timestep.
+	 * from the starting timestep to the ending timestep. Plot panels
+	 * exported to a GIF are drawn off screen as fast as they can be,
+	 * rather than a frame per timer tick.
 	 *
 	 * @param plot  the plot to animate
 	 * @param start the starting timestep
@@ -42,7 +56,11 @@ public class MultiPlotAnimator {
 			pathname = pathname.substring(0, index) + "-" + this.index++ + pathname.substring(index, pathname.length());
 			f = new File(pathname);
 		}
-		timer.addActionListener(new UpdatePlotAction(plot, start, end, f));
+		UpdatePlotAction action = new UpdatePlotAction(plot, start, end, f);
+		if (f != null && plot instanceof AbstractPlotPanel)
+			exports.add(action);
+		else
+			timer.addActionListener(action);
 	}
 
 	/**
@@ -59,7 +77,23 @@ public class MultiPlotAnimator {
 	 * Starts the animation.
 	 */
 	public void start() {
-		timer.start();
+		synchronized (this) {
+			exporting = exports.size();
+		}
+		for (final UpdatePlotAction action : exports) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					action.renderFrames();
+					exportStopped();
+				}
+			}, "Plot animator");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		if (timer.getActionListeners().length > 0)
+			timer.start();
+		else if (exports.isEmpty())
+			fireStopped();
 	}
 
 	private void fireStopped() {
@@ -68,10 +102,30 @@ public class MultiPlotAnimator {
 		}
 	}
 
+	private void exportStopped() {
+		synchronized (this) {
+			if (--exporting > 0 || timer.isRunning())
+				return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				fireStopped();
+			}
+		});
+	}
+
 	/**
 	 * Stops the animation.
 	 */
 	public void stop() {
+		for (UpdatePlotAction action : exports)
+			action.stopRendering();
+		stopTimer();
+	}
+
+	// stops the plots animated on the timer, and fires the animation
+	// stopped unless exports are still finishing
+	private void stopTimer() {
 		if (timer.isRunning()) {
 			timer.stop();
 			for (ActionListener listener : timer.getActionListeners()) {
@@ -80,6 +134,10 @@ public class MultiPlotAnimator {
 				}
 			}
 		}
+		synchronized (this) {
+			if (exporting > 0)
+				return;
+		}
 		fireStopped();
 	}
 
@@ -92,6 +150,10 @@ public class MultiPlotAnimator {
 		private TimeAnimatablePlot plot;
 //		private AnimatedGifEncoder gifEncoder;
 		private WriteAnimatedGif writeAnimatedGif;
+		// the frame of a plot panel being drawn off screen
+		private Future<BufferedImage> pending;
+		private volatile ParallelFrameRenderer renderer;
+		private volatile boolean stopped = false;
 
 		public UpdatePlotAction(TimeAnimatablePlot plot, int start, int end, File gifFile) {
 			this.end = end;
@@ -99,6 +161,8 @@ public class MultiPlotAnimator {
 			this.plot = plot;
 			if (gifFile != null) {
 				writeAnimatedGif = new WriteAnimatedGif();
+				if (plot instanceof AbstractPlotPanel)
+					writeAnimatedGif.setPalette(((AbstractPlotPanel) plot).getPaletteColors());
 				try {
 					writeAnimatedGif.start(gifFile);
 				} catch (Exception e) {
@@ -113,6 +177,11 @@ public class MultiPlotAnimator {
 		}
 
 		public void stopGif() {
+			if (pending != null) {
+				// this plot may be a frame behind the one that ended the animation
+				addFrame(pending);
+				pending = null;
+			}
 			if (writeAnimatedGif != null)
 				try {
 					writeAnimatedGif.finish();
@@ -122,20 +191,67 @@ public class MultiPlotAnimator {
 				}
 		}
 
+		// draws the frames of a plot panel in parallel on copies of
+		// the plot and writes them to the GIF in order
+		void renderFrames() {
+			AbstractPlotPanel panel = (AbstractPlotPanel)plot;
+			renderer = new ParallelFrameRenderer(panel, panel.getCurrentLayer(), panel.getWidth(), panel.getHeight(),
+					OffscreenRenderer.getParallelism());
+			try {
+				if (!stopped) {
+					renderer.render(current, end, new ParallelFrameRenderer.FrameListener() {
+						public void frameRendered(int timestep, BufferedImage image) {
+							addFrame(image);
+						}
+					});
+				}
+			} catch (Exception e) {
+				Logger.error("Error while animating plot", e);
+			}
+			stopGif();
+		}
+
+		void stopRendering() {
+			stopped = true;
+			if (renderer != null) renderer.stop();
+		}
+
 		public void actionPerformed(ActionEvent e) {
+			if (pending != null) {
+				if (!pending.isDone())
+					return;	// still drawing, so skip this tick
+				addFrame(pending);
+				pending = null;
+			}
 			if (current > end) {
-				stop();
+				stopTimer();
+			} else if (plot instanceof AbstractPlotPanel) {
+				AbstractPlotPanel panel = (AbstractPlotPanel)plot;
+				pending = panel.render(current++, panel.getCurrentLayer(), panel.getWidth(), panel.getHeight());
 			} else {
 				plot.updateTimeStep(current++);
-				BufferedImage bufferedImage = plot.getBufferedImage();
-				if (writeAnimatedGif != null)
-					try {
-						writeAnimatedGif.addFrame(bufferedImage, 50);
-					} catch (Exception e1) {
-						// TODO Auto-generated catch block
-						e1.printStackTrace();
-					}
+				addFrame(plot.getBufferedImage());
+			}
+		}
+
+		private void addFrame(Future<BufferedImage> frame) {
+			try {
+				addFrame(frame.get());
+			} catch (InterruptedException e) {
+				Logger.error("Interrupted while animating plot", e);
+			} catch (ExecutionException e) {
+				Logger.error("Error while animating plot", e.getCause());
 			}
 		}
+
+		private void addFrame(BufferedImage bufferedImage) {
+			if (writeAnimatedGif != null)
+				try {
+					writeAnimatedGif.addFrame(bufferedImage, 50);
+				} catch (Exception e1) {
+					// TODO Auto-generated catch block
+					e1.printStackTrace();
+				}
+		}
 	}
 }
@@ -0,0 +1,151 @@
+package anl.verdi.plot.anim;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.plot.gui.AbstractPlotPanel;
+
+/**
+ * Draws the frames of an animation of a plot panel in parallel and passes
+ * them on in time step order, for exporting animations. Each thread of
+ * the OffscreenRenderer draws on its own offscreen copy of the plot, since
+ * a plot draws one time step at a time, and the frames drawn or being
+ * drawn wait in a bounded queue for their turn to be encoded, so that
+ * drawing gets at most a few frames ahead of encoding. Plots that cannot
+ * be copied are drawn one frame at a time.
+ */
+public class ParallelFrameRenderer {
+	static final Logger Logger = LogManager.getLogger(ParallelFrameRenderer.class.getName());
+
+	// frames queued for each plot drawing them
+	private static final int FRAMES_PER_PLOT = 2;
+
+	/**
+	 * Receives the frames of an animation in time step order.
+	 */
+	public interface FrameListener {
+
+		/**
+		 * Called with each frame, on the thread that called render.
+		 *
+		 * @param timestep the time step of the frame
+		 * @param image    the frame
+		 * @throws IOException if the frame could not be encoded
+		 */
+		void frameRendered(int timestep, BufferedImage image) throws IOException;
+	}
+
+	private AbstractPlotPanel plot;
+	private int layer, width, height, threads;
+	private volatile boolean stopped = false;
+	private int frames;
+	private long elapsed;
+
+	/**
+	 * Creates a ParallelFrameRenderer for the specified plot.
+	 *
+	 * @param plot    the plot to animate
+	 * @param layer   the layer to draw, counted from the first layer of the plot
+	 * @param width   the width of the frames in pixels
+	 * @param height  the height of the frames in pixels
+	 * @param threads the number of plots to draw the frames on at once,
+	 *                usually OffscreenRenderer.getParallelism()
+	 */
+	public ParallelFrameRenderer(AbstractPlotPanel plot, int layer, int width, int height, int threads) {
+		this.plot = plot;
+		this.layer = layer;
+		this.width = width;
+		this.height = height;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Draws the frames for the start to the end time step and passes them
+	 * to the listener in order, until all are passed or stop is called.
+	 *
+	 * @param start    the first time step, counted from the first time step of the plot
+	 * @param end      the last time step
+	 * @param listener receives the frames
+	 * @return the number of frames passed to the listener.
+	 * @throws IOException if the listener could not encode a frame
+	 * @throws InterruptedException if interrupted while waiting for a frame
+	 * @throws ExecutionException if a frame could not be drawn
+	 */
+	public int render(int start, int end, FrameListener listener)
+			throws IOException, InterruptedException, ExecutionException {
+		final long begin = System.nanoTime();
+		final List<AbstractPlotPanel> plots = createPlots(Math.min(threads, end - start + 1));
+		final ArrayDeque<Future<BufferedImage>> queue = new ArrayDeque<Future<BufferedImage>>();
+		final int capacity = FRAMES_PER_PLOT * plots.size();
+		frames = 0;
+		int next = start;
+		try {
+			while (!stopped && start + frames <= end) {
+				// frames are assigned to the plots in turn, so each has
+				// about the same number queued
+				while (next <= end && queue.size() < capacity) {
+					AbstractPlotPanel renderer = plots.get((next - start) % plots.size());
+					queue.add(renderer.render(next++, layer, width, height));
+				}
+				listener.frameRendered(start + frames, queue.remove().get());
+				frames++;
+			}
+		} finally {
+			for (Future<BufferedImage> frame : queue)
+				frame.cancel(false);
+			elapsed = System.nanoTime() - begin;
+			Logger.info("Rendered " + frames + " frames on " + plots.size() + " plots at "
+					+ String.format("%.1f", getFramesPerSecond()) + " frames/s");
+		}
+		return frames;
+	}
+
+	// the plots to draw the frames on: copies of the plot if there are to
+	// be several and it can be copied, or else the plot itself
+	private List<AbstractPlotPanel> createPlots(int count) {
+		List<AbstractPlotPanel> plots = new ArrayList<AbstractPlotPanel>();
+		for (int i = 0; i < count && count > 1; i++) {
+			AbstractPlotPanel copy = plot.createOffscreenCopy();
+			if (copy == null)
+				break;
+			plots.add(copy);
+		}
+		if (plots.isEmpty())
+			plots.add(plot);
+		return plots;
+	}
+
+	/**
+	 * Stops rendering after the frame being passed to the listener.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Gets the number of frames passed to the listener by the last render.
+	 *
+	 * @return the number of frames passed to the listener.
+	 */
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Gets the rate at which the last render passed frames to the
+	 * listener, including the time the listener took to encode them.
+	 *
+	 * @return the number of frames per second.
+	 */
+	public double getFramesPerSecond() {
+		return elapsed > 0 ? frames * 1e9 / elapsed : 0;
+	}
+}
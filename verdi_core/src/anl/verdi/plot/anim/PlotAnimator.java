@@ -7,8 +7,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.media.protocol.FileTypeDescriptor;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 import org.apache.logging.log4j.LogManager;		// 2014
@@ -18,6 +20,7 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 
 import anl.verdi.plot.data.MinMaxLevelListener;
 import anl.verdi.plot.gui.AbstractPlotPanel;
+import anl.verdi.plot.gui.OffscreenRenderer;
 //import simphony.util.messages.MessageCenter;
 import anl.verdi.plot.types.TimeAnimatablePlot;
 import anl.verdi.plot.util.AnimationListener;
@@ -91,13 +94,18 @@ public class PlotAnimator {
 	 * @param delay delay between frames in milliseconds
 	 */
 	public void start(int start, int end, int delay) {
-		//MinMaxLevelListeners animate asynchronously, and must be drawn through callbacks, not through timers.  Also, since
-		//The plot is updated, THEN the image is stored, increase start so the 1st frame isn't duplicated and increase end
-		//so the animator doesn't stop before saving the last frame
+		//Plot panels are drawn off screen on a thread of their own rather than through a timer, several frames at
+		//a time when exporting, and each frame is encoded as soon as it and the frames before it are drawn
 		if (plot instanceof AbstractPlotPanel) {
-			action = new UpdatePlotAction(start + 1, end + 1);
-			((AbstractPlotPanel)plot).setAnimationHandler(action);
-			plot.updateTimeStep(start);
+			action = new UpdatePlotAction(start, end);
+			final AbstractPlotPanel panel = (AbstractPlotPanel)plot;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					action.renderFrames(panel);
+				}
+			}, "Plot animator");
+			thread.setDaemon(true);
+			thread.start();
 		}
 		else {
 			action = new UpdatePlotAction(start, end);
@@ -132,6 +140,8 @@ public class PlotAnimator {
 //			gifEncoder.start(animatedGifFile.getAbsolutePath());
 //			gifEncoder.setDelay(500);
 			writeAnimatedGif = new WriteAnimatedGif();
+			if (plot instanceof AbstractPlotPanel)
+				writeAnimatedGif.setPalette(((AbstractPlotPanel) plot).getPaletteColors());
 			try {
 				writeAnimatedGif.start(animatedGifFile);
 			} catch (Exception e) {
@@ -171,6 +181,13 @@ public class PlotAnimator {
 
 		private int end;
 		private int current;
+		private volatile boolean stopped = false;
+		private volatile ParallelFrameRenderer renderer;
+		// the encoders are kept here, as PlotAnimator.stop
+		// clears its own while the frames may still be drawn
+		private MovieMaker maker = PlotAnimator.this.maker;
+		private WriteAnimatedGif writeAnimatedGif = PlotAnimator.this.writeAnimatedGif;
+		private VideoMaker videoMaker = PlotAnimator.this.videoMaker;
 
 		public UpdatePlotAction(int start, int end) {
 			this.end = end;
@@ -178,10 +195,44 @@ public class PlotAnimator {
 		}
 
 		public void stop() {
-			if (timer != null)
+			if (timer != null) {
 				timer.stop();
-			else
-				((AbstractPlotPanel)plot).setAnimationHandler(null);
+				finish();
+			} else {
+				stopped = true;	// renderFrames finishes after the frame being encoded
+				if (renderer != null) renderer.stop();
+			}
+		}
+
+		// draws the frames of a plot panel off screen, in parallel on copies
+		// of the plot when exporting, and encodes them in order
+		void renderFrames(AbstractPlotPanel panel) {
+			int frameWidth = width > 0 ? width : panel.getWidth();
+			int frameHeight = height > 0 ? height : panel.getHeight();
+			boolean exporting = maker != null || writeAnimatedGif != null || videoMaker != null;
+			renderer = new ParallelFrameRenderer(panel, panel.getCurrentLayer(), frameWidth, frameHeight,
+					exporting ? OffscreenRenderer.getParallelism() : 1);
+			if (frameWidth <= 0 || frameHeight <= 0)
+				Logger.error("Cannot animate a plot that is not shown without an image size");
+			try {
+				if (!stopped && frameWidth > 0 && frameHeight > 0) {
+					renderer.render(current, end, new ParallelFrameRenderer.FrameListener() {
+						public void frameRendered(int timestep, BufferedImage image) {
+							addFrame(image);
+						}
+					});
+				}
+			} catch (IOException e) {
+				Logger.error("Error while making movie " + e.getMessage());
+			} catch (InterruptedException e) {
+				Logger.error("Interrupted while animating plot", e);
+			} catch (ExecutionException e) {
+				Logger.error("Error while animating plot", e.getCause());
+			}
+			finish();
+		}
+
+		private void finish() {
 			if (maker != null) maker.cleanUp();
 			if (writeAnimatedGif != null) {
 //			if (gifEncoder != null) {
@@ -195,41 +246,45 @@ public class PlotAnimator {
 				}
 			}
 			if (videoMaker != null) videoMaker.cleanUp();
-			fireStopped();
+			if (SwingUtilities.isEventDispatchThread())
+				fireStopped();
+			else
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						fireStopped();
+					}
+				});
 		}
 
 		public void actionPerformed(ActionEvent e) {
 			if (current > end) {
 				stop();
 			} else {
-				if (timer != null)
-					plot.updateTimeStep(current++);
-				try {
-					if (maker != null || writeAnimatedGif/*gifEncoder*/ != null || videoMaker != null) {
-						BufferedImage bufferedImage = (BufferedImage)e.getSource();
-						if (maker != null) maker.addImageAsFrame(bufferedImage);
-						if (writeAnimatedGif/*gifEncoder*/ != null) {
+				plot.updateTimeStep(current++);
+				if (maker != null || writeAnimatedGif/*gifEncoder*/ != null || videoMaker != null)
+					addFrame(plot.getBufferedImage());
+			}
+		}
+
+		private void addFrame(BufferedImage bufferedImage) {
+			try {
+				if (maker != null || writeAnimatedGif/*gifEncoder*/ != null || videoMaker != null) {
+					if (maker != null) maker.addImageAsFrame(bufferedImage);
+					if (writeAnimatedGif/*gifEncoder*/ != null) {
 //							bufferedImages[current - 1] = bufferedImage;
-							try {
-								writeAnimatedGif.addFrame(bufferedImage, 50);
-							} catch (Exception e1) {
-								// TODO Auto-generated catch block
-								e1.printStackTrace();
-							}
+						try {
+							writeAnimatedGif.addFrame(bufferedImage, 50);
+						} catch (Exception e1) {
+							// TODO Auto-generated catch block
+							e1.printStackTrace();
 						}
-						if (videoMaker != null) videoMaker.addImageAsFrame(bufferedImage);
 					}
-				} catch (IOException ex) {
-					maker = null;
-					videoMaker = null;
-					Logger.error("Error while making movie " + ex.getMessage());
-				}
-				if (timer == null) {
-					if (current == end)
-						stop();
-					else
-						plot.updateTimeStep(current++);
+					if (videoMaker != null) videoMaker.addImageAsFrame(bufferedImage);
 				}
+			} catch (IOException ex) {
+				maker = null;
+				videoMaker = null;
+				Logger.error("Error while making movie " + ex.getMessage());
 			}
 		}
 	}
@@ -1,9 +1,7 @@
 package anl.verdi.plot.data;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,18 +10,14 @@ import org.jfree.data.general.AbstractDataset;
 import org.jfree.data.general.DatasetChangeEvent;
 import org.jfree.data.xy.XYZDataset;
 
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.Geometry;
-
-import anl.verdi.area.target.TargetCalculator;
 import anl.verdi.data.ArrayReader;
 import anl.verdi.data.Axes;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataFrameIndex;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.MPASDataFrameIndex;
-import anl.verdi.data.MeshCellInfo;
 import anl.verdi.data.MeshDataReader;
+import anl.verdi.data.MeshRegridWeights;
 
 /**
  * JChart XYZDataset implemented in terms of a DataFrame for
@@ -99,7 +93,8 @@ public class CrossSectionXYZDataset extends AbstractDataset implements XYZDatase
 		
 		int currentRow = -1;
 		int currentStep = -1;
-		Map<String, Double[]> timestepCache = null;
+		MeshRegridWeights weights = null;
+		double[][] layerValues = null;
 
 		public RowSeriesData(DataFrame frame, int timeStep, int row) {
 			this.frame = frame;
@@ -145,58 +140,22 @@ public class CrossSectionXYZDataset extends AbstractDataset implements XYZDatase
 			int frameX = item % domainExtent;
 			int frameLayer = (item - frameX) / domainExtent;
 			if (meshInput) {
-				frameX = item % domainExtent;
-				frameX += domainOrigin;
-				if (rowWithOrigin != currentRow || currentStep != timeStep) {
+				if (weights == null || rowWithOrigin != currentRow) {
+					// the overlaps only depend on the row, so are kept across time steps
+					weights = MeshRegridWeights.forRow(ds.getLatSortedCellsArray(), rowWithOrigin, domainOrigin, domainExtent);
 					currentRow = rowWithOrigin;
+					layerValues = null;
+				}
+				if (layerValues == null || currentStep != timeStep) {
 					currentStep = timeStep;
-					timestepCache = new HashMap<String, Double[]>();
+					layerValues = new double[layerExtent][domainExtent];
+					reader.setTimestep(timeStep);
+					for (int i = 0; i < layerExtent; ++i) {
+						reader.setLayer(i);
+						weights.regrid(reader, layerValues[i]);
+					}
 				}
-				String imgLoc = currentRow + "." + frameX;
-				Double[] layerValues = timestepCache.get(imgLoc);
-				if (layerValues != null)
-					return layerValues[frameLayer];
-				layerValues = new Double[layerExtent];
-				timestepCache.put(imgLoc,  layerValues);
-	            MeshCellInfo[] cells = ds.getLatSortedCellsArray();
-	            
-	            reader.setTimestep(timeStep);
-	            double overlapArea = 0;
-	            double[] valueSum = new double[layerExtent];
-	            for (int i = 0; i < layerExtent; ++i)
-	            	valueSum[i] = 0;
-	            
-        		Geometry env = TargetCalculator.getGeometryFactory().toGeometry(new Envelope(frameX, frameX + 1, rowWithOrigin, rowWithOrigin + 1));
-
-	            for (int cellIdx = 0; cellIdx < cells.length && (rowWithOrigin + 1) >= cells[cellIdx].getMinLatValue(); ++cellIdx) {
-	            	MeshCellInfo cell = cells[cellIdx];
-	            	if (cell.getMaxLonValue() >= frameX && cell.getMinLonValue() <= frameX + 1){
-	            		Geometry cellPolygon = cell.toGeometry();
-	            		Geometry intersection = null;
-	            		try {
-	            			intersection = cellPolygon.intersection(env);
-	            		} catch (Throwable t) {
-	            			//This happens when splitting a cell results in incorrectly ordered line segments - geotools doesn't know how to calculate these areas.  Only happening to 2 cells in dataset currently
-	            			Logger.debug("Non-compliant cell structure detected: " + t.getMessage());
-	            			continue;
-	            		}
-	            		double intersectionArea=(float)intersection.getArea();
-            			if (intersectionArea == 0) {
-            				//This is normal - it happens when just a small piece of the cells is in the right latitiude and that pieces is in the wrong longitude
-            				continue;
-            			}
-	            		overlapArea += intersectionArea;
-	            		for (int i = 0; i < layerExtent; ++i) {
-	            			reader.setLayer(i);
-	            			valueSum[i] +=  intersectionArea * cell.getValue(reader);
-	            		}
-
-	            		//cell.getValue(reader);
-	            	}
-	            }
-	            for (int i = 0; i < layerExtent; ++i)
-	            	layerValues[i] = valueSum[i] / overlapArea; 
-				return layerValues[frameLayer];
+				return layerValues[frameLayer][frameX];
 			} else {
 				index.set(timeStep, frameLayer, frameX, row);
 				return frame.getDouble(index);
@@ -292,7 +251,8 @@ public class CrossSectionXYZDataset extends AbstractDataset implements XYZDatase
 		
 		int currentCol = -1;
 		int currentStep = -1;
-		Map<String, Double[]> timestepCache = null;
+		MeshRegridWeights weights = null;
+		double[][] layerValues = null;
 
 		public ColSeriesData(DataFrame frame, int timeStep, int col) {
 			this.frame = frame;
@@ -342,73 +302,22 @@ public class CrossSectionXYZDataset extends AbstractDataset implements XYZDatase
 			int frameY = item % domainExtent;
 			int frameLayer = (item - frameY) / domainExtent;
 			if (meshInput) {
-				frameY = item % domainExtent;
-				frameY += domainOrigin;
-				if (colWithOrigin != currentCol || currentStep != timeStep) {
+				if (weights == null || colWithOrigin != currentCol) {
+					// the overlaps only depend on the column, so are kept across time steps
+					weights = MeshRegridWeights.forColumn(ds.getLonSortedCellsArray(), colWithOrigin, domainOrigin, domainExtent);
 					currentCol = colWithOrigin;
+					layerValues = null;
+				}
+				if (layerValues == null || currentStep != timeStep) {
 					currentStep = timeStep;
-					timestepCache = new HashMap<String, Double[]>();
+					layerValues = new double[layerExtent][domainExtent];
+					reader.setTimestep(timeStep);
+					for (int i = layerOrigin; i < layerExtent; ++i) {
+						reader.setLayer(i);
+						weights.regrid(reader, layerValues[i]);
+					}
 				}
-				String imgLoc = currentCol + "." + frameY;
-				Double[] layerValues = timestepCache.get(imgLoc);
-				if (layerValues != null)
-					return layerValues[frameLayer];
-				layerValues = new Double[layerExtent];
-				timestepCache.put(imgLoc,  layerValues);
-				//System.err.println("getValue item " + item + " lon " + colWithOrigin + " lat " + frameY + " layer " + frameLayer);
-	            MeshCellInfo[] cells = ds.getLonSortedCellsArray();
-	            
-	            reader.setTimestep(timeStep);
-	            double overlapArea = 0;
-	            double[] valueSum = new double[layerExtent];
-	            for (int i = layerOrigin; i < layerExtent; ++i)
-	            	valueSum[i] = 0;
-	            
-        		Geometry env = TargetCalculator.getGeometryFactory().toGeometry(new Envelope(colWithOrigin, colWithOrigin + 1, frameY, frameY + 1));
-
-        		//This optimization won't work - if we're searching for column -178, we need any cell with min <= 177 and max >= 180.  We'd have to do
-        		//a 2 dimensional search including min and max, not a 1d search through only min or max lat.
-	            /*int idx = Arrays.binarySearch(cells, colWithOrigin, LonCellComparator.getInstance() );
-	            if (idx < 0)
-	            	idx *= -1;
-	            while (idx > 0 && cells[idx].getMinLonValue() >= colWithOrigin)
-	            	--idx;*/
-        		
-	            for (int cellIdx = 0; cellIdx < cells.length && (colWithOrigin + 1) >= cells[cellIdx].getMinLonValue(); ++cellIdx) {
-	            	MeshCellInfo cell = cells[cellIdx];
-	            	if (cell.getMaxLatValue() >= frameY && cell.getMinLatValue() <= frameY + 1){
-	            		Geometry cellPolygon = cell.toGeometry();
-	            		Geometry intersection = null;
-	            		try {
-	            			intersection = cellPolygon.intersection(env);
-	            		} catch (Throwable t) {
-	            			//This happens when splitting a cell results in incorrectly ordered line segments - geotools doesn't know how to calculate these areas.  Only happening to 2 cells in dataset currently
-	            			//Logger.debug("Non-compliant cell structure detected: " + t.getMessage());
-	            			continue;
-	            		}
-	            		double intersectionArea=(float)intersection.getArea();
-            			if (intersectionArea == 0) {
-            				//This is normal - it happens when just a small piece of the cells is in the right latitiude and that pieces is in the wrong longitude
-            				continue;
-            			}
-	            		overlapArea += intersectionArea;
-	            		for (int i = layerOrigin; i < layerExtent; ++i) {
-	            			reader.setLayer(i);
-	            			valueSum[i] +=  intersectionArea * cell.getValue(reader);
-	            		}
-
-	            		//cell.getValue(reader);
-	            	}
-	            }
-	            for (int i = layerOrigin; i < layerExtent; ++i)
-	            	layerValues[i] = valueSum[i] / overlapArea; 
-				/*if (avgValue != avgValue) {
-					for (int i = 0; i < cells.length; ++i)
-						if (cells[i].getId() == 82611)
-							System.err.println("Found undetected cell at " + i + " started idx " + idx);
-					System.err.println("No value found for " + frameY);
-				}*/
-				return layerValues[frameLayer];
+				return layerValues[frameLayer][frameY];
 			} else {
 				index.set(timeStep, frameLayer, col, frameY);
 				return frame.getDouble(index);
@@ -8,6 +8,7 @@ package anl.verdi.plot.data;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
@@ -24,6 +25,14 @@ public interface IMPASDataset extends Dataset {
 	 * @return - min max values for the given variable
 	 */
 	public MinMaxInfo getPlotMinMax(DataFrame variable, MinMaxLevelListener listener);
+
+	/**
+	 * Returns min / max values for the given variable over the entire dataset once they have all been calculated,
+	 * for callers that need the final values rather than updates.
+	 *
+	 * @return - the future min max values for the given variable
+	 */
+	public Future<MinMaxInfo> getFinalPlotMinMax(DataFrame variable);
 	
 	public MinMaxInfo getPlotMinMaxX(DataFrame variable, int timestep, double x, double sliceSize);
 
@@ -45,6 +54,12 @@ public interface IMPASDataset extends Dataset {
 	 * @return - min max values for the given variable within the layer and timestep
 	 */
 	public MinMaxInfo getTimestepMinMax(DataFrame variable, int layer, int timestep);
+
+	/**
+	 * Asks for the min / max values of the given layer to be calculated before those of the other layers,
+	 * starting with the given timestep, as they are the ones being displayed.
+	 */
+	public void prioritizeMinMax(DataFrame variable, int layer, int timestep);
 	
 	public double getAvgCellDiam();
 	
@@ -26,6 +26,16 @@ public class MinMaxInfo {
 		count += amount;
 	}
 	
+	/**
+	 * Visits the min and max of a part of the values, and counts that part
+	 * as calculated, atomically so parts can be merged from several threads.
+	 */
+	public synchronized void merge(double min, int minIndex, double max, int maxIndex, int amount) {
+		visitValue(min, minIndex);
+		visitValue(max, maxIndex);
+		count += amount;
+	}
+	
 	public void visitValue(double value, int index) {
 		if (value <= min && value > DataUtilities.BADVAL3 && value > DataUtilities.AMISS3 && value < DataUtilities.NC_FILL_FLOAT) {
 			min = value;
@@ -1,9 +1,13 @@
 package anl.verdi.plot.gui;
 
+import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.swing.JPanel;
 
@@ -66,6 +70,78 @@ public abstract class AbstractPlotPanel extends JPanel implements ComponentListe
 	public void setAnimationHandler(ActionListener listener) {
 		animationHandler = listener;
 	}
+	
+	/**
+	 * Draws the plot at the specified time step and layer into a new image,
+	 * off screen on a thread of the OffscreenRenderer. The plot is moved to
+	 * the time step and layer, as by updateTimeStep and updateLayer, so the
+	 * frames of an animation can be drawn one after another.
+	 *
+	 * @param timestep the time step, counted from the first time step of
+	 *                 the plot
+	 * @param layer    the layer, counted from the first layer of the plot
+	 * @param width    the width of the image in pixels
+	 * @param height   the height of the image in pixels
+	 * @return the future image of the plot.
+	 */
+	public Future<BufferedImage> render(final int timestep, final int layer, final int width, final int height) {
+		return OffscreenRenderer.submit(new Callable<BufferedImage>() {
+			public BufferedImage call() throws Exception {
+				return renderImage(timestep, layer, width, height);
+			}
+		});
+	}
+	
+	/**
+	 * Creates a copy of the plot that is only drawn with render, so that
+	 * frames of an animation can be drawn in parallel, each copy drawing
+	 * one at a time. By default plots are not copied and this returns
+	 * null.
+	 *
+	 * @return the copy, or null if the plot cannot be copied.
+	 */
+	public AbstractPlotPanel createOffscreenCopy() {
+		return null;
+	}
+	
+	/**
+	 * Gets the colors the plot draws with, such as its legend colors and
+	 * the colors of its lines and text, for the color table of an animated
+	 * GIF of the plot. By default this returns null, and the frames of an
+	 * animation are quantized one by one.
+	 *
+	 * @return the colors, or null if they are not known.
+	 */
+	public Color[] getPaletteColors() {
+		return null;
+	}
+	
+	/**
+	 * Draws the plot for render, on the calling thread.
+	 *
+	 * @param timestep the time step, counted from the first time step of
+	 *                 the plot
+	 * @param layer    the layer, counted from the first layer of the plot
+	 * @param width    the width of the image in pixels
+	 * @param height   the height of the image in pixels
+	 * @return the image of the plot.
+	 * @throws Exception if the plot could not be drawn
+	 */
+	protected abstract BufferedImage renderImage(int timestep, int layer, int width, int height) throws Exception;
+	
+	/**
+	 * Gets the time step shown, counted from the first time step of the plot.
+	 *
+	 * @return the time step shown.
+	 */
+	public abstract int getCurrentTimeStep();
+	
+	/**
+	 * Gets the layer shown, counted from the first layer of the plot.
+	 *
+	 * @return the layer shown.
+	 */
+	public abstract int getCurrentLayer();
 
 
 }
@@ -64,9 +64,9 @@ import anl.verdi.data.Axes;
 import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataFrameAxis;
-import anl.verdi.data.DataFrameIndex;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.DataUtilities.MinMax;
+import anl.verdi.data.Slice;
 import anl.verdi.data.Variable;
 import anl.verdi.formula.Formula;
 import anl.verdi.io.TableExporter;
@@ -571,16 +571,7 @@ public class FastAreaTilePlot extends FastTilePlot {
 
 		// Copy from dataFrame into subsetLayerData[ rows ][ columns ]:
 
-		final DataFrameIndex dataFrameIndex = dataFrame.getIndex();
-
-		for (int row = 0; row < rows; ++row) {
-
-			for (int column = 0; column < columns; ++column) {
-				dataFrameIndex.set(timestep-firstTimestep, layer-firstLayer, column, row);
-				final float value = dataFrame.getFloat(dataFrameIndex);
-				subsetLayerData[row][column] = value;
-			}
-		}
+		copyLayerData(dataFrame, timestep-firstTimestep, layer-firstLayer, subsetLayerData);
 		return subsetLayerData;
 	}
 
@@ -837,18 +828,25 @@ public class FastAreaTilePlot extends FastTilePlot {
 		float[][] subsetLayerData;
 
 		subsetLayerData = new float[rows][columns];
+		copyLayerData(dataFrame, timestep-firstTimestep, layer-firstLayer, subsetLayerData);
+		return subsetLayerData;
+	}
 
-		final DataFrameIndex dataFrameIndex = dataFrame.getIndex();
+	// copies a whole layer at a time step from the dataFrame into data[ rows ][ columns ]
+	private static void copyLayerData(DataFrame dataFrame, int timestep, int layer, float[][] data) {
+		final int rows = data.length;
+		final int columns = rows == 0 ? 0 : data[0].length;
+		final Slice slice = new Slice();
+		slice.setTimeRange(timestep, 1);
+		slice.setLayerRange(layer, 1);
+		slice.setYRange(0, rows);
+		slice.setXRange(0, columns);
+		final float[] buffer = new float[rows * columns];
+		dataFrame.copy(slice, false, buffer);
 
 		for (int row = 0; row < rows; ++row) {
-
-			for (int column = 0; column < columns; ++column) {
-				dataFrameIndex.set(timestep-firstTimestep, layer-firstLayer, column, row);
-				final float value = dataFrame.getFloat(dataFrameIndex);
-				subsetLayerData[row][column] = value;
-			}
+			System.arraycopy(buffer, row * columns, data[row], 0, columns);
 		}
-		return subsetLayerData;
 	}
 
 	private DepositionRange getGlobalDepositionRange() {
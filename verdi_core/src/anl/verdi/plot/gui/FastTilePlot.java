@@ -28,6 +28,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.ComponentListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -99,11 +100,12 @@ import anl.map.coordinates.Decidegrees;
 import anl.verdi.core.VerdiApplication;
 import anl.verdi.core.VerdiGUI;
 import anl.verdi.data.Axes;
+import anl.verdi.data.AxisRange;
 import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataFrameAxis;
-import anl.verdi.data.DataFrameIndex;
 import anl.verdi.data.DataManager;
+import anl.verdi.data.DataReader;
 import anl.verdi.data.DataUtilities;
 import anl.verdi.data.DataUtilities.MinMax;
 import anl.verdi.data.Dataset;
@@ -137,6 +139,7 @@ import gov.epa.emvl.GridShapefileWriter;
 import gov.epa.emvl.Mapper;
 import gov.epa.emvl.Numerics;
 import gov.epa.emvl.Projector;
+import gov.epa.emvl.StreamingCellStatistics;
 import gov.epa.emvl.TilePlot;
 import net.sf.epsgraphics.ColorMode;
 import net.sf.epsgraphics.Drawable;
@@ -235,16 +238,16 @@ public class FastTilePlot extends AbstractPlotPanel implements ActionListener, P
 	private Color axisColor = Color.darkGray;
 	private Color labelColor = Color.black;
 	
-	Graphics2D exportGraphics = null;
-
 
 	// subsetLayerData[ 1 + lastRow - firstRow ][ 1 + lastColumn - firstColumn ]
 	// at current timestep and layer.
 	private float[][] subsetLayerData = null;
 	private byte[][] colorIndexCache = null;
+	// values copied in bulk from the data frame, by timestep, row and column
+	private float[] layerBuffer = null;
 
-	// layerData[ rows ][ columns ][ timesteps ]
-	private float[][][] layerData = null;
+	// layerData[ ( timestep * rows + row ) * columns + column ]
+	private float[] layerData = null;
 	//private float[][][] layerDataLog = null;
 	private float[][][] statisticsData = null;
 	//private float[][][] statisticsDataLog = null;
@@ -325,9 +328,9 @@ public class FastTilePlot extends AbstractPlotPanel implements ActionListener, P
 	private final JPanel threadParent = this;
 	private BufferedImage bImage;
 	private boolean forceBufferedImage = false;
-	boolean rescaleBuffer = false;
-	int bufferedWidth, bufferedHeight;
-	private static final Object lock = new Object();
+	private final Object lock = new Object();
+	// whether this is a copy made by createOffscreenCopy, only drawn with render
+	private final boolean offscreenCopy;
 	protected java.util.List<JMenuItem> probeItems = new ArrayList<JMenuItem>();
 	private JPopupMenu popup;
 	protected Rectangle dataArea = new Rectangle();
@@ -435,63 +438,14 @@ Logger.debug("within drawMode != DRAW_NONE && !VerdiGUI.isHidden((Plot) threadPa
 Logger.debug("set up drawing space, titles, fonts, etc.");
 					int canvasWidth = getWidth();
 					int canvasHeight = getHeight();
-					if (canvasWidth == 0 && rescaleBuffer) {
-						canvasWidth = bufferedWidth;
-						canvasHeight = bufferedHeight;
-					}
 					if (canvasWidth > 0) {
 						canvasWidth *= 1;
 					}
-					float marginScale = 0.95f; // Controls whitespace margin around plot window.
-					String sTitle1 = config.getSubtitle1();
-					String sTitle2 = config.getSubtitle2();
-					Font tFont = config.getFont(PlotConfiguration.TITLE_FONT);
-					Font sFont1 = config.getFont(PlotConfiguration.SUBTITLE_1_FONT);
-					Font sFont2 = config.getFont(PlotConfiguration.SUBTITLE_2_FONT);
-					int fontSize = (tFont == null) ? 20 : tFont.getSize();
-					int yOffset = 20 + fontSize;
-					marginScale *= 20f / (fontSize - 20 < 0 ? 20 : 20 + fontSize / 10f);
-
-					if (sTitle1 != null && !sTitle1.trim().isEmpty()) {
-						fontSize = (sFont1 == null) ? 20 : sFont1.getSize();
-						yOffset += fontSize + 6;
-						marginScale *= 20f / (fontSize - 20 < 0 ? 20
-								: 20 + fontSize / 10f);
-					}
-
-					if (sTitle2 != null && !sTitle2.trim().isEmpty()) {
-						fontSize = (sFont2 == null) ? 20 : sFont2.getSize();
-
-						if (sTitle1 == null || sTitle1.trim().isEmpty()) {
-							yOffset += 26;
-							marginScale *= 20f / 22f;
-						}
-
-						yOffset += fontSize + 6;
-						marginScale *= 20f / (fontSize - 20 < 0 ? 20
-								: 20 + fontSize / 10f);
-					}
-
-					final int xOffset = 100;
-					final int legendWidth = 80 + xOffset;
-					
-					int availCanvasWidth = canvasWidth - legendWidth;
-					int availCanvasHeight = canvasHeight - yOffset;
-					final int subsetRows = 1 + lastRow - firstRow;
-					final int subsetColumns = 1 + lastColumn - firstColumn;
-					
-					double canvasRatio = (double) availCanvasWidth / availCanvasHeight;
-					double plotRatio = (double)subsetColumns / subsetRows;
-					
-					int width = 0;
-					int height = 0;
-					if (canvasRatio > plotRatio) { // canvas is wider than plot 
-						height = Math.round(availCanvasHeight * marginScale); //data height = canvas height, scale data width
-						width = (int)Math.round(height * subsetColumns / (double)subsetRows);  
-					} else { // canvas is narrower than plot
-						width = Math.round(availCanvasWidth * marginScale);//data width = canvas width, scale data height
-						height = (int)Math.round(width * subsetRows / (double)subsetColumns);
-					}
+					final Rectangle plotArea = layoutPlot(canvasWidth, canvasHeight);
+					final int xOffset = plotArea.x;
+					final int yOffset = plotArea.y;
+					final int width = plotArea.width;
+					final int height = plotArea.height;
 
 					if (width == 0 || height == 0) {
 						if ( get_draw_once_requests() < 0) 
@@ -504,10 +458,7 @@ Logger.debug("set up drawing space, titles, fonts, etc.");
 Logger.debug("here create offScreenImage");		// SEE THIS MSG 3 times
 					Image offScreenImage =	null; // get actual size after call to AddPlotListener
 					try {
-						if (rescaleBuffer)
-							offScreenImage = new BufferedImage(bufferedWidth, bufferedHeight, BufferedImage.TYPE_INT_RGB);
-						else
-							offScreenImage = repaintManager.getOffscreenBuffer(threadParent, canvasWidth, canvasHeight);
+						offScreenImage = repaintManager.getOffscreenBuffer(threadParent, canvasWidth, canvasHeight);
 					} catch (NullPointerException e) {}
 
 					// offScreenImage = (Image) (offScreenImage.clone());	// commented out in 2/2014 version
@@ -518,25 +469,17 @@ Logger.debug("here create offScreenImage");		// SEE THIS MSG 3 times
 						continue;// graphics system is not ready
 					}					
 
-					final Graphics2D offScreenGraphics = exportGraphics == null ? (Graphics2D)offScreenImage.getGraphics() : exportGraphics;
+					final Graphics2D offScreenGraphics = (Graphics2D)offScreenImage.getGraphics();
 
 					if (offScreenGraphics == null) {
 						if ( get_draw_once_requests() < 0) 
 							restoreCursor();
 						continue;// graphics system is not ready
 					}
-					
-					if (rescaleBuffer) {
-						double factor = ((double)bufferedWidth) / ((double)getWidth());
-						if (factor > 0 && canvasWidth != bufferedWidth) {
-							offScreenGraphics.scale(factor, factor);
-							offScreenGraphics.fillRect(0,  0,  bufferedWidth,  bufferedHeight);
-						}
-					}
 
 					final Graphics graphics = threadParent.getGraphics();
 
-					if (graphics == null && !rescaleBuffer) {
+					if (graphics == null) {
 						if ( get_draw_once_requests() < 0) 
 							restoreCursor();
 						continue;// graphics system is not ready
@@ -564,91 +507,22 @@ Logger.debug("here create offScreenImage");		// SEE THIS MSG 3 times
 							continue;
 						}
 //					}						// commented out in 2/2014 version
-Logger.debug("calling copySubsetLayerData from FastTilePlot.Runnable.run");
-
-					copySubsetLayerData(log); // Based on current timestep and layer.
 
-					
 					synchronized (lock) {
 						
-						// Erase canvas:
-Logger.debug("working with offScreenGraphics; first reset to blank");
-						offScreenGraphics.setColor(Color.white);
-						offScreenGraphics.fillRect(0, 0, canvasWidth,
-								canvasHeight);
-
-						// Draw legend-colored grid cells, axis, text labels and
-						// legend:
-Logger.debug("now set up time step, color, statistics, plot units, etc.");
-						final Boolean showGridLines = (Boolean)
-							config.getObject( TilePlotConfiguration.SHOW_GRID_LINES );
-						final Color gridLineColor = (Color)
-							( ( showGridLines == null || showGridLines == false ) ? null
-								: config.getObject( TilePlotConfiguration.GRID_LINE_COLOR ) );
-
-						final int stepsLapsed = timestep - firstTimestep;
-						final int statisticsSelection = statisticsMenu.getSelectedIndex();
-						Logger.debug("statisticsSelection = " + statisticsSelection);	// JEB after drawMode is == DRAW_ONCE
-																						// then in DatasetListModel getElement At
-						final String statisticsUnits =
-							statisticsSelection == 0 ? null : GridCellStatistics.units( statisticsSelection - 1 );
-						Logger.debug("statisticsUnits = " + statisticsUnits);
-						final String plotVariable =
-							statisticsSelection == 0 ? variable
-							: variable + GridCellStatistics.shortName( statisticsSelection - 1 );
-						final String plotUnits =
-							statisticsUnits != null ? statisticsUnits : units;
-						Logger.debug("units = " + units);
-						
 						if (get_draw_once_requests() > 0) {
 							draw_once_requests = 0;
 							if ( get_draw_once_requests() < 0) 
 								restoreCursor();
 							continue;
 						}
-						
-						try {
-							Logger.debug("ready to call tilePlot.draw(); first resolve any function calls for argument values, thread = " + Thread.currentThread().toString());
-							int aRow = firstRow + rowOrigin;
-							Logger.debug("aRow = " + aRow);
-							int bRow = lastRow + rowOrigin;
-							Logger.debug("bRow = " + bRow);
-							int aCol = firstColumn + columnOrigin;
-							Logger.debug("aCol = " + aCol);
-							int bCol = lastColumn + columnOrigin;
-							Logger.debug("bCol = " + bCol);
-							int aLegendLevelsLength = legendLevels.length;
-							Logger.debug("LegendLevels.length = " + aLegendLevelsLength);
-							int aLegendColorsLength = legendColors.length;
-							Logger.debug("LegendColors.length = " + aLegendColorsLength);
-							Logger.debug("plotUnits = " + plotUnits);
-							String aPlotUnits = (plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits;
-							Logger.debug("aPlotUnits = " + aPlotUnits);
-							//NumberFormat aNumberFormat = map.getNumberFormat();
-							String formatString = map.getFormatString();
-							Logger.debug("aFormatString = " + formatString);
-							int aSubsetLayerDataLength = subsetLayerData.length;
-							Logger.debug("subsetLayerData.length = " + aSubsetLayerDataLength);
-							Logger.debug("ready to make revised function call to tilePlot.draw, thread = " + Thread.currentThread().toString());
 
-//							tilePlot.draw(offScreenGraphics, (FastTilePlotPanel)this, // HOW TO GET TO FastTilePlotPanel FROM HERE???
-//									xOffset, yOffset,
-//									width, height, stepsLapsed, layer, aRow,
-//									bRow, aCol, bCol, legendLevels,
-//									legendColors, axisColor, labelColor, plotVariable,
-//									aPlotUnits, 
-//									config, aNumberFormat, gridLineColor,
-//									subsetLayerData);
-							tilePlot.draw(offScreenGraphics, xOffset, yOffset,
-									width, height, stepsLapsed, layer, firstRow + rowOrigin,
-									lastRow + rowOrigin, firstColumn + columnOrigin, lastColumn + columnOrigin, projection, legendLevels,
-									legendColors, axisColor, labelColor, plotVariable,
-									((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config, map.getNumberFormat(), gridLineColor,
-									subsetLayerData, colorIndexCache);
-						} catch (Exception e) {
-							Logger.debug("FastTilePlot's run method", e);
-						}
-// by this point drew panel, panel title (O3[1]), panel menu, and panel bar (time step, layer, etc.)
+						// under the lock, so that render does not change the
+						// time step and layer while they are copied
+						Logger.debug("calling copySubsetLayerData from FastTilePlot.Runnable.run");
+						copySubsetLayerData(log); // Based on current timestep and layer.
+						
+						drawCells(offScreenGraphics, canvasWidth, canvasHeight, xOffset, yOffset, width, height);
 						dataArea.setRect(xOffset, yOffset, width, height);	// same 4 values sent to tilePlot.draw(...)
 
 						// Draw projected/clipped map border lines over grid cells:
@@ -660,27 +534,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 							continue;		// goes to while drawMode != DRAW_END
 						}
 						
-						// NOTE: mapper.draw calls VerdiBoundaries.draw
-						mapper.draw(domain, gridBounds, gridCRS,	// NOTE: JEB
-																	// 1st time here gridCRS is baseCRS: DefaultGeographicCRS
-																	// conversionFromBase: DefaultConicProjection
-																	// coordinateSystem: DefaultCartesianCS
-																	// datum: DefaultGeodeticDatum
-								offScreenGraphics, xOffset, yOffset, width,
-								height, withHucs, withRivers, withRoads);
-						Logger.debug("back from mapper.draw, ready to check for ObsAnnotation");
-						
-						if (obsAnnotations != null) {
-							for (ObsAnnotation ann : obsAnnotations)
-								ann.draw(offScreenGraphics, xOffset, yOffset, width, height, 
-										legendLevels, legendColors, gridCRS, domain, gridBounds, projection);
-						}
-						
-						if (vectAnnotation != null) {
-							Logger.debug("ready for vectAnnotation.draw");
-							vectAnnotation.draw(offScreenGraphics, xOffset, yOffset, width, height, 
-									firstRow, lastRow, firstColumn, lastColumn);
-						}
+						drawOverlays(offScreenGraphics, xOffset, yOffset, width, height);
 
 						Logger.debug("ready for resetMenuItems");
 						resetMenuItems(mapLayersMenu);
@@ -690,12 +544,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 						try {
 							Logger.debug("ready to call toBufferedImage");
 							if (forceBufferedImage) {
-								int w = canvasWidth, h = canvasHeight;
-								if (rescaleBuffer) {
-									w = bufferedWidth;
-									h = bufferedHeight;
-								}
-								bImage = toBufferedImage(offScreenImage, BufferedImage.TYPE_INT_RGB, w, h);
+								bImage = toBufferedImage(offScreenImage, BufferedImage.TYPE_INT_RGB, canvasWidth, canvasHeight);
 								Logger.debug("back from toBufferedImage, ready to call VerdiGUI.showIfVisible");
 							
 								if (animationHandler != null) {
@@ -704,8 +553,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 								} else
 									forceBufferedImage = false;
 							}
-							if (!rescaleBuffer)
-								VerdiGUI.showIfVisible(threadParent, graphics, offScreenImage);
+							VerdiGUI.showIfVisible(threadParent, graphics, offScreenImage);
 							Logger.debug("back from VerdiGUI.showIfVisible");
 						} finally {
 							if (graphics != null)
@@ -766,6 +614,202 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 				// end run()
 	};		// end Runnable()
 	
+	// Lays out the plot on a canvas of the specified size: the offsets of the
+	// grid cells from the top left and their width and height in pixels.
+
+	private Rectangle layoutPlot(int canvasWidth, int canvasHeight) {
+		float marginScale = 0.95f; // Controls whitespace margin around plot window.
+		String sTitle1 = config.getSubtitle1();
+		String sTitle2 = config.getSubtitle2();
+		Font tFont = config.getFont(PlotConfiguration.TITLE_FONT);
+		Font sFont1 = config.getFont(PlotConfiguration.SUBTITLE_1_FONT);
+		Font sFont2 = config.getFont(PlotConfiguration.SUBTITLE_2_FONT);
+		int fontSize = (tFont == null) ? 20 : tFont.getSize();
+		int yOffset = 20 + fontSize;
+		marginScale *= 20f / (fontSize - 20 < 0 ? 20 : 20 + fontSize / 10f);
+
+		if (sTitle1 != null && !sTitle1.trim().isEmpty()) {
+			fontSize = (sFont1 == null) ? 20 : sFont1.getSize();
+			yOffset += fontSize + 6;
+			marginScale *= 20f / (fontSize - 20 < 0 ? 20
+					: 20 + fontSize / 10f);
+		}
+
+		if (sTitle2 != null && !sTitle2.trim().isEmpty()) {
+			fontSize = (sFont2 == null) ? 20 : sFont2.getSize();
+
+			if (sTitle1 == null || sTitle1.trim().isEmpty()) {
+				yOffset += 26;
+				marginScale *= 20f / 22f;
+			}
+
+			yOffset += fontSize + 6;
+			marginScale *= 20f / (fontSize - 20 < 0 ? 20
+					: 20 + fontSize / 10f);
+		}
+
+		final int xOffset = 100;
+		final int legendWidth = 80 + xOffset;
+		
+		int availCanvasWidth = canvasWidth - legendWidth;
+		int availCanvasHeight = canvasHeight - yOffset;
+		final int subsetRows = 1 + lastRow - firstRow;
+		final int subsetColumns = 1 + lastColumn - firstColumn;
+		
+		double canvasRatio = (double) availCanvasWidth / availCanvasHeight;
+		double plotRatio = (double)subsetColumns / subsetRows;
+		
+		int width = 0;
+		int height = 0;
+		if (canvasRatio > plotRatio) { // canvas is wider than plot 
+			height = Math.round(availCanvasHeight * marginScale); //data height = canvas height, scale data width
+			width = (int)Math.round(height * subsetColumns / (double)subsetRows);  
+		} else { // canvas is narrower than plot
+			width = Math.round(availCanvasWidth * marginScale);//data width = canvas width, scale data height
+			height = (int)Math.round(width * subsetRows / (double)subsetColumns);
+		}
+		return new Rectangle(xOffset, yOffset, width, height);
+	}
+
+	// Erases the canvas and draws the legend-colored grid cells, axes, titles
+	// and legend.
+
+	private void drawCells(Graphics2D offScreenGraphics, int canvasWidth, int canvasHeight,
+			int xOffset, int yOffset, int width, int height) {
+		// Erase canvas:
+Logger.debug("working with offScreenGraphics; first reset to blank");
+		offScreenGraphics.setColor(Color.white);
+		offScreenGraphics.fillRect(0, 0, canvasWidth,
+				canvasHeight);
+
+		// Draw legend-colored grid cells, axis, text labels and
+		// legend:
+Logger.debug("now set up time step, color, statistics, plot units, etc.");
+		final Boolean showGridLines = (Boolean)
+			config.getObject( TilePlotConfiguration.SHOW_GRID_LINES );
+		final Color gridLineColor = (Color)
+			( ( showGridLines == null || showGridLines == false ) ? null
+				: config.getObject( TilePlotConfiguration.GRID_LINE_COLOR ) );
+
+		final int stepsLapsed = timestep - firstTimestep;
+		final int statisticsSelection = statisticsMenu.getSelectedIndex();
+		Logger.debug("statisticsSelection = " + statisticsSelection);	// JEB after drawMode is == DRAW_ONCE
+																		// then in DatasetListModel getElement At
+		final String statisticsUnits =
+			statisticsSelection == 0 ? null : GridCellStatistics.units( statisticsSelection - 1 );
+		Logger.debug("statisticsUnits = " + statisticsUnits);
+		final String plotVariable =
+			statisticsSelection == 0 ? variable
+			: variable + GridCellStatistics.shortName( statisticsSelection - 1 );
+		final String plotUnits =
+			statisticsUnits != null ? statisticsUnits : units;
+		Logger.debug("units = " + units);
+		
+		try {
+			Logger.debug("ready to call tilePlot.draw(); first resolve any function calls for argument values, thread = " + Thread.currentThread().toString());
+			int aRow = firstRow + rowOrigin;
+			Logger.debug("aRow = " + aRow);
+			int bRow = lastRow + rowOrigin;
+			Logger.debug("bRow = " + bRow);
+			int aCol = firstColumn + columnOrigin;
+			Logger.debug("aCol = " + aCol);
+			int bCol = lastColumn + columnOrigin;
+			Logger.debug("bCol = " + bCol);
+			int aLegendLevelsLength = legendLevels.length;
+			Logger.debug("LegendLevels.length = " + aLegendLevelsLength);
+			int aLegendColorsLength = legendColors.length;
+			Logger.debug("LegendColors.length = " + aLegendColorsLength);
+			Logger.debug("plotUnits = " + plotUnits);
+			String aPlotUnits = (plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits;
+			Logger.debug("aPlotUnits = " + aPlotUnits);
+			//NumberFormat aNumberFormat = map.getNumberFormat();
+			String formatString = map.getFormatString();
+			Logger.debug("aFormatString = " + formatString);
+			int aSubsetLayerDataLength = subsetLayerData.length;
+			Logger.debug("subsetLayerData.length = " + aSubsetLayerDataLength);
+			Logger.debug("ready to make revised function call to tilePlot.draw, thread = " + Thread.currentThread().toString());
+
+//							tilePlot.draw(offScreenGraphics, (FastTilePlotPanel)this, // HOW TO GET TO FastTilePlotPanel FROM HERE???
+//									xOffset, yOffset,
+//									width, height, stepsLapsed, layer, aRow,
+//									bRow, aCol, bCol, legendLevels,
+//									legendColors, axisColor, labelColor, plotVariable,
+//									aPlotUnits, 
+//									config, aNumberFormat, gridLineColor,
+//									subsetLayerData);
+			tilePlot.draw(offScreenGraphics, xOffset, yOffset,
+					width, height, stepsLapsed, layer, firstRow + rowOrigin,
+					lastRow + rowOrigin, firstColumn + columnOrigin, lastColumn + columnOrigin, projection, legendLevels,
+					legendColors, axisColor, labelColor, plotVariable,
+					((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config, map.getNumberFormat(), gridLineColor,
+					subsetLayerData, colorIndexCache);
+		} catch (Exception e) {
+			Logger.debug("FastTilePlot's run method", e);
+		}
+// by this point drew panel, panel title (O3[1]), panel menu, and panel bar (time step, layer, etc.)
+	}
+
+	// Draws the map boundaries and the observation and vector overlays over
+	// the grid cells.
+
+	private void drawOverlays(Graphics2D offScreenGraphics, int xOffset, int yOffset, int width, int height) {
+		// NOTE: mapper.draw calls VerdiBoundaries.draw
+		mapper.draw(domain, gridBounds, gridCRS,	// NOTE: JEB
+													// 1st time here gridCRS is baseCRS: DefaultGeographicCRS
+													// conversionFromBase: DefaultConicProjection
+													// coordinateSystem: DefaultCartesianCS
+													// datum: DefaultGeodeticDatum
+				offScreenGraphics, xOffset, yOffset, width,
+				height, withHucs, withRivers, withRoads);
+		Logger.debug("back from mapper.draw, ready to check for ObsAnnotation");
+		
+		if (obsAnnotations != null) {
+			for (ObsAnnotation ann : obsAnnotations)
+				ann.draw(offScreenGraphics, xOffset, yOffset, width, height, 
+						legendLevels, legendColors, gridCRS, domain, gridBounds, projection);
+		}
+		
+		if (vectAnnotation != null) {
+			Logger.debug("ready for vectAnnotation.draw");
+			vectAnnotation.draw(offScreenGraphics, xOffset, yOffset, width, height, 
+					firstRow, lastRow, firstColumn, lastColumn);
+		}
+	}
+
+	// Draws the plot for the current time step and layer off screen, laid
+	// out on a canvas of the specified size and scaled to the width of the
+	// image. Draws into the graphics instead if it is not null, and then
+	// returns null. Must be called holding the lock.
+
+	private BufferedImage drawOffscreen(Graphics2D graphics, int canvasWidth, int canvasHeight,
+			int imageWidth, int imageHeight) {
+		final Rectangle plotArea = layoutPlot(canvasWidth, canvasHeight);
+		BufferedImage image = null;
+		Graphics2D offScreenGraphics = graphics;
+		if (graphics == null) {
+			image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+			offScreenGraphics = image.createGraphics();
+		}
+		final AffineTransform transform = offScreenGraphics.getTransform();
+		try {
+			if (imageWidth != canvasWidth) {
+				final double factor = (double) imageWidth / canvasWidth;
+				offScreenGraphics.scale(factor, factor);
+			}
+			copySubsetLayerData(log);
+			drawCells(offScreenGraphics, canvasWidth, canvasHeight, plotArea.x, plotArea.y,
+					plotArea.width, plotArea.height);
+			if (plotArea.width > 0 && plotArea.height > 0)
+				drawOverlays(offScreenGraphics, plotArea.x, plotArea.y, plotArea.width, plotArea.height);
+		} finally {
+			if (image != null)
+				offScreenGraphics.dispose();
+			else
+				offScreenGraphics.setTransform(transform);
+		}
+		return image;
+	}
+
 	public void setAnimationHandler(ActionListener listener) {
 		super.setAnimationHandler(listener);
 		forceBufferedImage = true;
@@ -1387,14 +1431,28 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 	// Construct but do not draw yet.
 
 	public FastTilePlot(VerdiApplication app, DataFrame dataFrame) {
+		this(app, dataFrame, null);
+	}
+
+	// Creates a plot of the data frame, or an offscreen copy of the source
+	// plot if it is not null, which shares its log data and map layers and
+	// has no renderer thread.
+
+	private FastTilePlot(VerdiApplication app, DataFrame dataFrame, FastTilePlot source) {
 		super(true);
 //		this.setRenderer(new StreamingRenderer());
 		this.app=app;
 		setDoubleBuffered(true);
 		assert dataFrame != null;
 		this.dataFrame = dataFrame;
+		offscreenCopy = source != null;
 		
-		this.calculateDataFrameLog();
+		if (source == null)
+			this.calculateDataFrameLog();
+		else {
+			dataFrameLog = source.dataFrameLog;
+			mapFileDirectory = source.mapFileDirectory;
+		}
 		hasNoLayer = (dataFrame.getAxes().getZAxis() == null);
 		format = NumberFormat.getInstance();
 		format.setMaximumFractionDigits(4);
@@ -1576,9 +1634,12 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		((TilePlotConfiguration) config).setLayerColor(Color.black);
 		((TilePlotConfiguration) config).setLayerLineSize(1);
 		
-		mapper = new Mapper(mapFileDirectory, projection, gridCRS);
-		mapper.setLayerStyle((TilePlotConfiguration)config);
-		VerdiApplication.getInstance().setLastMapper(mapper);
+		if (source == null) {
+			mapper = new Mapper(mapFileDirectory, projection, gridCRS);
+			mapper.setLayerStyle((TilePlotConfiguration)config);
+			VerdiApplication.getInstance().setLastMapper(mapper);
+		} else
+			mapper = source.mapper;
 		
 		
 
@@ -1674,10 +1735,12 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		toolBar.add(panel);		// END createToolBar function
 
 		// add(toolBar);
-		doubleBufferedRendererThread = new Thread(doubleBufferedRenderer);
-		doubleBufferedRendererThread.start(); // Calls
-//		super(toolBar);
-		draw();
+		if (source == null) {
+			doubleBufferedRendererThread = new Thread(doubleBufferedRenderer);
+			doubleBufferedRendererThread.start(); // Calls
+//			super(toolBar);
+			draw();
+		}
 	}
 	
 //	// Compute legend levels from data range:
@@ -1720,40 +1783,121 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 	
 	private boolean statError = false;	// JEB WHY IS THIS HERE INSTEAD OF WITH THE OTHER CLASS DATA MEMBERS?
 
-	private void computeStatistics(boolean log) {
+	// Reallocate the layerBuffer[] only if it is too small:
 
-		if ( layerData == null ) {
-			layerData = new float[ rows ][ columns ][ timesteps ];
-			statisticsData = new float[ GridCellStatistics.STATISTICS ][ rows ][ columns ];
+	private float[] getLayerBuffer( int size ) {
+
+		if ( layerBuffer == null || layerBuffer.length < size ) {
+			layerBuffer = new float[ size ];
 		}
-			
-		// Copy from dataFrame into layerData[ rows ][ columns ][ timesteps ]:
 
-		final DataFrameIndex dataFrameIndex = getDataFrame(log).getIndex();
+		return layerBuffer;
+	}
 
-		for ( int row = 0; row < rows; ++row ) {
-			final int dataRow = ! invertRows ? row : rows - 1 - row;
+	// Get the dataset variable whose values the plot shows unchanged, or
+	// null if the plot shows a formula of it or of several variables.
+	// The formula must be just the variable's name and its dataset's alias:
 
-			for ( int column = 0; column < columns; ++column ) {
+	private Variable<?> getDatasetVariable() {
 
-				for ( int timestep = 0; timestep < timesteps; ++timestep ) {
-					dataFrameIndex.set( timestep, layer, column, dataRow );
-					float value = this.getDataFrame(log).getFloat( dataFrameIndex ); 
-					layerData[ row ][ column ][ timestep ] = value;
-				}
+		if ( app == null || dataFrame.getVariable() == null || dataFrame.getDataset().size() != 1 ) {
+			return null;
+		}
+
+		final Dataset dataset = dataFrame.getDataset().get( 0 );
+		final String formula = dataFrame.getVariable().getName().trim();
+		final String alias = dataset.getAlias();
+
+		if ( alias == null || !formula.endsWith( alias ) ) {
+			return null;
+		}
+
+		final Variable<?> variable =
+			dataset.getVariable( formula.substring( 0, formula.length() - alias.length() ) );
+
+		// Units that differ were converted when the formula was evaluated:
+
+		if ( variable == null || variable.getUnit() == null
+				|| !variable.getUnit().equals( dataFrame.getVariable().getUnit() ) ) {
+			return null;
+		}
+
+		return variable;
+	}
+
+	// Get the ranges of the dataset that the current layer of the plot shows:
+
+	private List<AxisRange> getLayerRanges() {
+		final List<AxisRange> ranges = new ArrayList<AxisRange>();
+
+		for ( DataFrameAxis axis : dataFrame.getAxes().getAxes() ) {
+
+			if ( axis == dataFrame.getAxes().getZAxis() ) {
+				ranges.add( new AxisRange( axis.getAxis(), layer, 1 ) );
+			} else {
+				ranges.add( new AxisRange( axis.getAxis(), axis.getOrigin(), axis.getExtent() ) );
 			}
 		}
 
+		return ranges;
+	}
+
+	private void computeStatistics(boolean log) {
+
+		if ( statisticsData == null ) {
+			statisticsData = new float[ GridCellStatistics.STATISTICS ][ rows ][ columns ];
+		}
+
+		final Slice slice = new Slice();
+		slice.setTimeRange( 0, timesteps );
+		slice.setLayerRange( layer - firstLayer, 1 );
+		slice.setYRange( 0, rows );
+		slice.setXRange( 0, columns );
+
 		final double threshold = Double.parseDouble( this.threshold.getText() );
 		final double hoursPerTimestep = 1.0;
+		final int statistic = this.statisticsMenu.getSelectedIndex() - 1;
 		
 		try {
 			double percentile = 0;
 			if (customPercentile != null)
 				percentile = Double.parseDouble(customPercentile);
-			GridCellStatistics.computeStatistics( layerData,
-					threshold, hoursPerTimestep,
-					statisticsData, this.statisticsMenu.getSelectedIndex()-1 , percentile);
+
+			if ( 4L * timesteps * rows * columns > StreamingCellStatistics.getMaxBytes() ) {
+
+				// Too big to copy whole, so accumulate a chunk of timesteps at a time,
+				// read from the dataset when the plot shows one of its variables:
+
+				layerData = null;
+				final StreamingCellStatistics streaming = new StreamingCellStatistics( rows, columns,
+						threshold, hoursPerTimestep, statistic, percentile );
+				final int chunkTimesteps = StreamingCellStatistics.getChunkTimesteps( rows * columns );
+				final Variable<?> variable = log ? null : getDatasetVariable();
+
+				if ( variable != null ) {
+					final Dataset dataset = variable.getDataset();
+					@SuppressWarnings("unchecked")
+					final DataReader<Dataset> reader = app.getDataManager().getDataReader( dataset );
+					streaming.add( reader, dataset, variable, getLayerRanges(), invertRows, chunkTimesteps );
+				} else {
+					streaming.add( getDataFrame(log), slice, invertRows, chunkTimesteps );
+				}
+
+				streaming.getStatistics( statisticsData );
+			} else {
+
+				// Copy from dataFrame into layerData by timestep, row and column:
+
+				if ( layerData == null ) {
+					layerData = new float[ timesteps * rows * columns ];
+				}
+
+				getDataFrame(log).copy( slice, invertRows, layerData );
+				GridCellStatistics.computeStatistics( layerData,
+						timesteps, rows, columns,
+						threshold, hoursPerTimestep,
+						statisticsData, statistic, percentile);
+			}
 			this.statError = false;
 		} catch ( Exception e) {
 			Logger.error("Error occurred during computing statistics", e);
@@ -1909,16 +2053,16 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 
 			// Copy from dataFrame into subsetLayerData[ rows ][ columns ]:
 
-			final DataFrameIndex dataFrameIndex = getDataFrame(log).getIndex();
-
-			for ( int row = firstRow; row <= lastRow; ++row ) {
-				final int dataRow = ! invertRows ? row : rows - 1 - row;
+			final Slice slice = new Slice();
+			slice.setTimeRange( timestep - firstTimestep, 1 );
+			slice.setLayerRange( layer - firstLayer, 1 );
+			slice.setYRange( firstRow, subsetLayerRows );
+			slice.setXRange( firstColumn, subsetLayerColumns );
+			final float[] buffer = getLayerBuffer( subsetLayerRows * subsetLayerColumns );
+			getDataFrame(log).copy( slice, invertRows, buffer );
 
-				for ( int column = firstColumn; column <= lastColumn; ++column ) {
-					dataFrameIndex.set( timestep-firstTimestep, layer-firstLayer, column, dataRow ) ;
-					final float value = getDataFrame(log).getFloat( dataFrameIndex );
-					subsetLayerData[row - firstRow][column - firstColumn] = value;
-				}
+			for ( int row = 0; row < subsetLayerRows; ++row ) {
+				System.arraycopy( buffer, row * subsetLayerColumns, subsetLayerData[ row ], 0, subsetLayerColumns );
 			}
 		} else {
 			final int statistic = selection - 1;
@@ -1963,31 +2107,32 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		minmax[0] = minmax[1] = 0.0;
 		if ( selection == 0 ) {
 			DataFrame dataFrame = getDataFrame(log);
-			final DataFrameIndex dataFrameIndex = 
-				dataFrame.getIndex();
+			final Slice slice = new Slice();
+			final float[] buffer = new float[ layers * rows * columns ];
 	
+			// one timestep of all layers at a time:
 			for (int timestep = 0; timestep < timesteps; ++timestep) {
-				for (int layer = 0; layer < layers; ++layer) {
-					for (int row = 0; row < rows; ++row) {
-						for (int column = 0; column < columns; ++column) {
-							dataFrameIndex.set(timestep, layer, column, row);
-							final float value = 
-								dataFrame.getFloat(dataFrameIndex);
+				slice.setTimeRange(timestep, 1);
+				slice.setLayerRange(0, layers);
+				slice.setYRange(0, rows);
+				slice.setXRange(0, columns);
+				dataFrame.copy(slice, false, buffer);
+
+				for (int index = 0; index < buffer.length; ++index) {
+					final float value = buffer[index];
 	
-							if (value > MINIMUM_VALID_VALUE) {
+					if (value > MINIMUM_VALID_VALUE) {
 	
-								if (initialized) {
+						if (initialized) {
 	
-									if (value < minmax[0]) {
-										minmax[0] = value;
-									} else if (value > minmax[1]) {
-										minmax[1] = value;
-									}
-								} else {
-									minmax[0] = minmax[1] = value;
-									initialized = true;
-								}
+							if (value < minmax[0]) {
+								minmax[0] = value;
+							} else if (value > minmax[1]) {
+								minmax[1] = value;
 							}
+						} else {
+							minmax[0] = minmax[1] = value;
+							initialized = true;
 						}
 					}
 				}
@@ -2780,40 +2925,154 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 	}
 	
 	
+	/**
+	 * Draws the plot for the current time step and layer, laid out as on
+	 * screen and scaled to the width, or at the specified size if the plot
+	 * is not shown. The plot is drawn on the calling thread.
+	 * 
+	 * @param g
+	 *            the graphics to draw the plot into, or null to draw it
+	 *            into a new image
+	 * @param width
+	 *            the width of the image in pixels
+	 * @param height
+	 *            the height of the image in pixels, if the plot is not shown
+	 * @return a BufferedImage of the plot, or null if it was drawn into g.
+	 */
+
 	public BufferedImage getBufferedImage(Graphics2D g, int width, int height) {
-		exportGraphics = g;
-		bImage = null;
-		forceBufferedImage = true;
-		if (width != getWidth()) {
-			rescaleBuffer = true;
-			if (getWidth() == 0) {
-				bufferedWidth = width;
-				bufferedHeight = height;
-			} else {
-				bufferedWidth = width;
-				bufferedHeight = bufferedWidth * getHeight() / getWidth();
-			}
+		int canvasWidth = width, canvasHeight = height;
+		if (getWidth() > 0 && getHeight() > 0) {
+			canvasWidth = getWidth();
+			canvasHeight = getHeight();
+			height = width * canvasHeight / canvasWidth;
 		}
-		draw();
-		long start = System.currentTimeMillis();
-		//Allow more time when image is being rescaled
-		while ((rescaleBuffer || System.currentTimeMillis() - start < 2000) && bImage == null )
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				Logger.error("Caught exception waiting for buffered image", e);
-				break;
-			}
-		if (rescaleBuffer) {
-			rescaleBuffer = false;
-			bufferedWidth = 0;
-			bufferedHeight = 0;
-			draw();
+		if (width <= 0 || height <= 0)
+			return null;
+		synchronized (lock) {
+			bImage = drawOffscreen(g, canvasWidth, canvasHeight, width, height);
 		}
-		exportGraphics = null;
 		return bImage;
 	}
 
+	@Override
+	protected BufferedImage renderImage(int step, int layerStep, int width, int height) throws Exception {
+		final BufferedImage image;
+		synchronized (lock) {
+			prevTimestep = timestep;
+			timestep = firstTimestep + step;
+			if (firstLayer + layerStep != layer) {
+				prevLayer = layer;
+				layer = firstLayer + layerStep;
+				if (statisticsMenu.getSelectedIndex() > 0)
+					recomputeStatistics = true;
+			}
+			drawOverLays();
+			image = drawOffscreen(null, width, height, width, height);
+		}
+		if (offscreenCopy)
+			return image;
+
+		// show the same time step and layer on screen
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (timeLayerPanel != null) {
+					processTimeChange = false;
+					timeLayerPanel.setTime(timestep);
+					timeLayerPanel.setLayer(layer);
+					processTimeChange = true;
+				}
+				draw();
+			}
+		});
+		return image;
+	}
+
+	/**
+	 * Creates a copy of this plot for drawing frames off screen in parallel,
+	 * with the same area, layer, color map, configuration and map layers.
+	 * Statistics and observation and vector overlays are not copied, so
+	 * plots that show them return null, as do subclasses.
+	 * 
+	 * @return the copy, or null if this plot is not copied.
+	 */
+
+	@Override
+	public AbstractPlotPanel createOffscreenCopy() {
+		if (getClass() != FastTilePlot.class || obsAnnotations != null || vectAnnotation != null
+				|| statisticsMenu.getSelectedIndex() != 0)
+			return null;
+		final FastTilePlot copy = new FastTilePlot(app, dataFrame, this);
+		synchronized (lock) {
+			copy.config.updateConfig(config);
+			copy.map = map;
+			copy.defaultPalette = defaultPalette;
+			copy.minMax = minMax;
+			copy.legendLevels = legendLevels;
+			copy.legendColors = legendColors;
+			copy.log = log;
+			copy.logBase = logBase;
+			copy.tilePlot.setLog(log);
+			if (log)
+				copy.tilePlot.setLogBase((int) map.getLogBase());
+			copy.firstRow = firstRow;
+			copy.lastRow = lastRow;
+			copy.firstColumn = firstColumn;
+			copy.lastColumn = lastColumn;
+			copy.computeDerivedAttributes();
+			copy.withHucs = withHucs;
+			copy.withRivers = withRivers;
+			copy.withRoads = withRoads;
+			copy.timestep = timestep;
+			copy.layer = layer;
+		}
+		return copy;
+	}
+
+	/**
+	 * Gets the legend colors, the background, axis and label colors and
+	 * the colors configured for the titles, footers, axes, grid lines and
+	 * map layers.
+	 * 
+	 * @return the colors the plot draws with.
+	 */
+
+	@Override
+	public Color[] getPaletteColors() {
+		final List<Color> colors = new ArrayList<Color>();
+		colors.add(Color.white);
+		colors.add(axisColor);
+		colors.add(labelColor);
+		synchronized (lock) {
+			if (legendColors != null)
+				Collections.addAll(colors, legendColors);
+		}
+		final String[] keys = { PlotConfiguration.TITLE_COLOR, PlotConfiguration.SUBTITLE_1_COLOR,
+				PlotConfiguration.SUBTITLE_2_COLOR, PlotConfiguration.FOOTER1_COLOR,
+				PlotConfiguration.FOOTER2_COLOR, PlotConfiguration.OBS_LEGEND_COLOR,
+				PlotConfiguration.DOMAIN_COLOR, PlotConfiguration.DOMAIN_TICK_COLOR,
+				PlotConfiguration.RANGE_COLOR, PlotConfiguration.RANGE_TICK_COLOR,
+				PlotConfiguration.UNITS_COLOR, PlotConfiguration.UNITS_TICK_COLOR,
+				TilePlotConfiguration.GRID_LINE_COLOR, TilePlotConfiguration.LAYER_LINE_COLOR };
+		for (String key : keys) {
+			// colors not yet configured may still be strings
+			Object color = config.getObject(key);
+			if (color instanceof Color)
+				colors.add((Color) color);
+		}
+		return colors.toArray(new Color[colors.size()]);
+	}
+
+	@Override
+	public int getCurrentTimeStep() {
+		return timestep - firstTimestep;
+	}
+
+	@Override
+	public int getCurrentLayer() {
+		return layer - firstLayer;
+	}
+
 	/**
 	 * Adds the specified PlotListener.
 	 * 
@@ -3141,12 +3400,6 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		drawOverLays();
 		draw();
 		processTimeChange = true;
-
-		try {
-			Thread.sleep(500); //wait for the drawing thread to finish drawing
-		} catch (InterruptedException e) {
-			Logger.error("Interrupted Exception in FastTilePlot.updateTimeStep", e);
-		}
 	}
 	public void updateLayer(int step) {
 		processLayerChange = false;
@@ -3164,12 +3417,6 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		draw();
 		processTimeChange = true;
 		processLayerChange = true;
-
-		try {
-			Thread.sleep(500); //wait for the drawing thread to finish drawing
-		} catch (InterruptedException e) {
-			Logger.error("Interrupted Exception in FastTilePlot.updateTimeStep", e);
-		}
 	}
 	
 	/**
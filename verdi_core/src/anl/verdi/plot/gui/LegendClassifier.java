@@ -0,0 +1,239 @@
+package anl.verdi.plot.gui;
+
+import anl.verdi.data.DataUtilities;
+import anl.verdi.util.SharedPool;
+
+/**
+ * Finds the legend color of data values, i.e. the interval of the legend
+ * levels each value falls in, for the tile and mesh plots. A value gets the
+ * index of the last level at or below it, clamped to the intervals, and -1
+ * if it is NaN or one of the missing value sentinels (BADVAL3, AMISS3,
+ * NC_FILL_FLOAT), just as scanning the levels one by one would give, but
+ * without scanning them: levels that are evenly spaced, as linear and
+ * logarithmic color maps make them, give the interval directly from the
+ * value, and other sorted levels are binary searched. Whole arrays are
+ * classified in parallel, as many at once as MeshRasterizer rasterizes.
+ * <p>
+ * A classifier copies the levels it is created for, so it must be created
+ * again when they change.
+ */
+public class LegendClassifier {
+
+	// below this many values the overhead of splitting is not worth it
+	private static final int MIN_PARALLEL_VALUES = 1 << 16;
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static final int SCAN = 0, SEARCH = 1, LINEAR = 2, LOG = 3;
+
+	private final double[] source;
+	private final double[] levels;
+	private final int last;
+	private final int mode;
+	// the interval of a value is about (value - origin) * scale, or
+	// (log(value) - origin) * scale for logarithmic levels
+	private double origin, scale;
+
+	/**
+	 * Creates a classifier for the specified legend levels, the edges of
+	 * the intervals of the legend colors.
+	 *
+	 * @param levels the legend levels
+	 */
+	public LegendClassifier(double[] levels) {
+		this.source = levels;
+		this.levels = levels.clone();
+		last = levels.length - 2;
+		mode = chooseMode();
+	}
+
+	private int chooseMode() {
+		if (levels.length < 3 || levels[0] == levels[levels.length - 1])
+			return SCAN;
+		for (int i = 1; i < levels.length; i++) {
+			if (!(levels[i] >= levels[i - 1]))
+				return SCAN;
+		}
+		final int intervals = levels.length - 1;
+		if (isEven(levels[0], (levels[intervals] - levels[0]) / intervals, false)) {
+			origin = levels[0];
+			scale = intervals / (levels[intervals] - levels[0]);
+			return LINEAR;
+		}
+		if (levels[0] > 0) {
+			final double start = Math.log(levels[0]);
+			final double step = (Math.log(levels[intervals]) - start) / intervals;
+			if (step > 0 && isEven(start, step, true)) {
+				origin = start;
+				scale = 1 / step;
+				return LOG;
+			}
+		}
+		return SEARCH;
+	}
+
+	// whether the levels are within a quarter of a step of evenly spaced,
+	// close enough for the direct guess to be off by at most one
+	private boolean isEven(double start, double step, boolean log) {
+		if (!(step > 0) || Double.isInfinite(step))
+			return false;
+		for (int i = 0; i < levels.length; i++) {
+			final double level = log ? Math.log(levels[i]) : levels[i];
+			if (Math.abs(level - (start + i * step)) > step / 4)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets whether this classifier was created for the specified levels
+	 * array.
+	 *
+	 * @param levels the legend levels
+	 * @return whether this classifier was created for the levels.
+	 */
+	public boolean isFor(double[] levels) {
+		return levels == source;
+	}
+
+	/**
+	 * Gets the legend color index of the value.
+	 *
+	 * @param value the value
+	 * @return the index of the value's interval, or -1 if it is missing.
+	 */
+	public int classify(float value) {
+		if (Float.isNaN(value) || value <= DataUtilities.BADVAL3 || value <= DataUtilities.AMISS3
+				|| value >= DataUtilities.NC_FILL_FLOAT)
+			return -1;
+		if (levels[0] == levels[levels.length - 1])
+			return 0;
+		switch (mode) {
+		case LINEAR:
+			return adjust((int) Math.floor((value - origin) * scale), value);
+		case LOG:
+			return value > 0 ? adjust((int) Math.floor((Math.log(value) - origin) * scale), value) : search(value);
+		case SEARCH:
+			return search(value);
+		default:
+			return scan(value);
+		}
+	}
+
+	// the index of the first level above the value, less one, and at most last
+	private int scan(float value) {
+		for (int index = 1; index < levels.length; index++) {
+			if (levels[index] > value)
+				return index - 1;
+		}
+		return last;
+	}
+
+	private int search(float value) {
+		int low = 1, high = levels.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (levels[middle] > value)
+				high = middle;
+			else
+				low = middle + 1;
+		}
+		return Math.min(low - 1, last);
+	}
+
+	// corrects the guessed interval against the levels themselves
+	private int adjust(int guess, float value) {
+		int index = Math.max(0, Math.min(last, guess));
+		for (int step = 0; step < 2; step++) {
+			if (index > 0 && levels[index] > value)
+				index--;
+			else if (index < last && levels[index + 1] <= value)
+				index++;
+			else
+				return index;
+		}
+		return search(value);
+	}
+
+	/**
+	 * Classifies the values in the specified range of an array.
+	 *
+	 * @param values the values
+	 * @param from   the index of the first value
+	 * @param to     the index after the last value
+	 * @param result the legend color index of each value, as a byte
+	 */
+	public void classify(float[] values, int from, int to, byte[] result) {
+		for (int i = from; i < to; i++)
+			result[i] = (byte) classify(values[i]);
+	}
+
+	/**
+	 * Classifies an array of values, in parallel if it is large.
+	 *
+	 * @param values the values
+	 * @param result the array to put the legend color index of each value
+	 *               in, as a byte, or null
+	 * @return the legend color indices.
+	 */
+	public byte[] classify(final float[] values, byte[] result) {
+		final byte[] indices = result == null || result.length < values.length ? new byte[values.length] : result;
+		final int chunks = chunks(values.length);
+		final int chunk = (values.length + chunks - 1) / chunks;
+		run(new Chunks() {
+			void classify(int index) {
+				LegendClassifier.this.classify(values, index * chunk, Math.min(values.length, (index + 1) * chunk),
+						indices);
+			}
+		}, chunks);
+		return indices;
+	}
+
+	/**
+	 * Classifies the rows of values, in parallel if there are many.
+	 *
+	 * @param data   the values by row
+	 * @param result the rows to put the legend color index of each value
+	 *               in, as bytes, or null
+	 * @return the legend color indices.
+	 */
+	public byte[][] classify(final float[][] data, byte[][] result) {
+		final byte[][] indices = result == null || result.length != data.length ? new byte[data.length][] : result;
+		long size = 0;
+		for (int row = 0; row < data.length; row++) {
+			if (indices[row] == null || indices[row].length != data[row].length)
+				indices[row] = new byte[data[row].length];
+			size += data[row].length;
+		}
+		final int chunks = (int) Math.min(Math.max(1, data.length), chunks(size));
+		final int chunk = (data.length + chunks - 1) / chunks;
+		run(new Chunks() {
+			void classify(int index) {
+				for (int row = index * chunk; row < Math.min(data.length, (index + 1) * chunk); row++)
+					LegendClassifier.this.classify(data[row], 0, data[row].length, indices[row]);
+			}
+		}, chunks);
+		return indices;
+	}
+
+	private static int chunks(long size) {
+		final int threads = MeshRasterizer.getParallelism();
+		if (threads <= 1 || size < MIN_PARALLEL_VALUES)
+			return 1;
+		return (int) Math.min(threads * CHUNKS_PER_THREAD, size / (MIN_PARALLEL_VALUES / CHUNKS_PER_THREAD));
+	}
+
+	private static void run(final Chunks chunks, int count) {
+		if (count == 1)
+			chunks.classify(0);
+		else
+			MeshRasterizer.pool.forEach(count, new SharedPool.Body() {
+				public void run(int index) {
+					chunks.classify(index);
+				}
+			});
+	}
+
+	private abstract static class Chunks {
+		abstract void classify(int index);
+	}
+}
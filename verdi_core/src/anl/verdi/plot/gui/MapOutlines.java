@@ -0,0 +1,282 @@
+package anl.verdi.plot.gui;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.geotools.data.FeatureSource;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.Feature;
+import org.opengis.feature.GeometryAttribute;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryComponentFilter;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * The outlines of the features of a map layer, already projected to the
+ * CRS of a grid, kept as primitive coordinate arrays so that they can be
+ * drawn without going through the features again. One instance is kept for
+ * each projected feature source, i.e. for each shapefile and grid CRS.
+ * <p>
+ * Each line is drawn simplified to the resolution it is drawn at: points
+ * closer than half a pixel to the last point kept are dropped. The
+ * simplified lines are kept for each resolution, in powers of two, so that
+ * zooming back and forth does not simplify them again.
+ */
+public class MapOutlines {
+
+	static final Logger Logger = LogManager.getLogger(MapOutlines.class.getName());
+
+	private static final Map<FeatureSource<?, ?>, MapOutlines> outlines = new WeakHashMap<FeatureSource<?, ?>, MapOutlines>();
+
+	// the full resolution lines, line i being points start[i] to start[i + 1] - 1
+	private final Lines lines;
+	// the bounds of each line, as minX, maxX, minY, maxY
+	private final double[] bounds;
+	// the simplified lines, by the exponent of the tolerance
+	private final Map<Integer, Lines> levels = new HashMap<Integer, Lines>();
+
+	private static class Lines {
+
+		final double[] x, y;
+		final int[] start;
+
+		Lines(double[] x, double[] y, int[] start) {
+			this.x = x;
+			this.y = y;
+			this.start = start;
+		}
+
+		int size() {
+			return start.length - 1;
+		}
+	}
+
+	/**
+	 * Gets the outlines of the features of the source, reading them on
+	 * first use.
+	 *
+	 * @param source the source, projected to the CRS to draw in
+	 * @return the outlines of the features.
+	 * @throws IOException if the features cannot be read
+	 */
+	public static MapOutlines get(FeatureSource<?, ?> source) throws IOException {
+		synchronized (outlines) {
+			MapOutlines result = outlines.get(source);
+			if (result == null) {
+				long start = System.currentTimeMillis();
+				result = new MapOutlines(readGeometries(source));
+				outlines.put(source, result);
+				Logger.debug("Read " + result.lines.size() + " lines of " + source.getName() + " in "
+						+ (System.currentTimeMillis() - start) + "ms");
+			}
+			return result;
+		}
+	}
+
+	private static List<Geometry> readGeometries(FeatureSource<?, ?> source) throws IOException {
+		List<Geometry> geometries = new ArrayList<Geometry>();
+		FeatureCollection<?, ?> collection = source.getFeatures();
+		FeatureIterator<?> iterator = collection.features();
+		try {
+			while (iterator.hasNext()) {
+				Feature feature = iterator.next();
+				GeometryAttribute attribute = feature.getDefaultGeometryProperty();
+				if (attribute != null && attribute.getValue() instanceof Geometry)
+					geometries.add((Geometry) attribute.getValue());
+			}
+		} finally {
+			iterator.close();
+		}
+		return geometries;
+	}
+
+	/**
+	 * Creates the outlines of the specified geometries: the lines of line
+	 * geometries and the rings of polygons.
+	 *
+	 * @param geometries the geometries
+	 */
+	MapOutlines(List<Geometry> geometries) {
+		final List<Coordinate[]> parts = new ArrayList<Coordinate[]>();
+		GeometryComponentFilter filter = new GeometryComponentFilter() {
+			public void filter(Geometry component) {
+				if (component instanceof LineString)
+					parts.add(component.getCoordinates());
+			}
+		};
+		int points = 0;
+		for (Geometry geometry : geometries)
+			geometry.apply(filter);
+		for (Coordinate[] part : parts)
+			points += part.length;
+
+		double[] x = new double[points], y = new double[points];
+		int[] start = new int[parts.size() + 1];
+		bounds = new double[4 * parts.size()];
+		int point = 0;
+		for (int i = 0; i < parts.size(); i++) {
+			start[i] = point;
+			double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (Coordinate c : parts.get(i)) {
+				x[point] = c.x;
+				y[point] = c.y;
+				point++;
+				minX = Math.min(minX, c.x);
+				maxX = Math.max(maxX, c.x);
+				minY = Math.min(minY, c.y);
+				maxY = Math.max(maxY, c.y);
+			}
+			bounds[4 * i] = minX;
+			bounds[4 * i + 1] = maxX;
+			bounds[4 * i + 2] = minY;
+			bounds[4 * i + 3] = maxY;
+		}
+		start[parts.size()] = point;
+		lines = new Lines(x, y, start);
+	}
+
+	/**
+	 * Gets the number of points in the outlines at full resolution.
+	 *
+	 * @return the number of points in the outlines.
+	 */
+	public int getPointCount() {
+		return lines.x.length;
+	}
+
+	/**
+	 * Gets the number of points in the outlines when simplified for the
+	 * specified tolerance.
+	 *
+	 * @param tolerance the distance, in the units of the outlines, below
+	 *                  which points are merged
+	 * @return the number of points in the simplified outlines.
+	 */
+	public int getPointCount(double tolerance) {
+		return getLines(tolerance).x.length;
+	}
+
+	// the lines simplified to a tolerance of at most the specified one
+	private Lines getLines(double tolerance) {
+		if (!(tolerance > 0) || Double.isInfinite(tolerance))
+			return lines;
+		int exponent = Math.getExponent(tolerance);
+		synchronized (levels) {
+			Lines level = levels.get(exponent);
+			if (level == null) {
+				level = simplify(Math.scalb(1.0, exponent));
+				levels.put(exponent, level);
+			}
+			return level;
+		}
+	}
+
+	// drops the points closer than the tolerance to the last point kept,
+	// always keeping the ends of each line
+	private Lines simplify(double tolerance) {
+		double squared = tolerance * tolerance;
+		double[] x = new double[lines.x.length], y = new double[lines.y.length];
+		int[] start = new int[lines.start.length];
+		int count = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			start[i] = count;
+			int first = lines.start[i], last = lines.start[i + 1] - 1;
+			if (last < first)
+				continue;
+			x[count] = lines.x[first];
+			y[count] = lines.y[first];
+			count++;
+			for (int k = first + 1; k < last; k++) {
+				double dx = lines.x[k] - x[count - 1], dy = lines.y[k] - y[count - 1];
+				if (dx * dx + dy * dy >= squared) {
+					x[count] = lines.x[k];
+					y[count] = lines.y[k];
+					count++;
+				}
+			}
+			if (last > first) {
+				x[count] = lines.x[last];
+				y[count] = lines.y[last];
+				count++;
+			}
+		}
+		start[lines.size()] = count;
+		return new Lines(Arrays.copyOf(x, count), Arrays.copyOf(y, count), start);
+	}
+
+	/**
+	 * Draws the outlines of the part of the map within the specified bounds
+	 * into the specified area, as StreamingRenderer would map them. The
+	 * lines are drawn with the rendering hints of the graphics, so they are
+	 * antialiased if the graphics is.
+	 *
+	 * @param graphics the graphics to draw with
+	 * @param color    the color of the lines
+	 * @param stroke   the stroke to draw the lines with, its width in pixels
+	 * @param minX     the western edge of the area drawn, in map units
+	 * @param maxX     the eastern edge of the area drawn
+	 * @param minY     the southern edge of the area drawn
+	 * @param maxY     the northern edge of the area drawn
+	 * @param xOffset  the left of the area to draw into, in pixels
+	 * @param yOffset  the top of the area to draw into
+	 * @param width    the width of the area to draw into
+	 * @param height   the height of the area to draw into
+	 */
+	public void draw(Graphics2D graphics, Color color, BasicStroke stroke, double minX, double maxX, double minY,
+			double maxY, int xOffset, int yOffset, int width, int height) {
+		if (width <= 0 || height <= 0 || maxX <= minX || maxY <= minY)
+			return;
+		double scaleX = width / (maxX - minX);
+		double scaleY = height / (maxY - minY);
+		// half a pixel, in map units
+		Lines level = getLines(0.5 / Math.max(scaleX, scaleY));
+
+		Shape clip = graphics.getClip();
+		java.awt.Stroke oldStroke = graphics.getStroke();
+		Color oldColor = graphics.getColor();
+		graphics.clipRect(xOffset, yOffset, width, height);
+		graphics.setStroke(stroke);
+		graphics.setColor(color);
+		// pixels beyond which a line cannot be seen, given its width
+		double marginX = (stroke.getLineWidth() + 1) / scaleX, marginY = (stroke.getLineWidth() + 1) / scaleY;
+		int[] px = new int[64], py = new int[64];
+		try {
+			for (int i = 0; i < level.size(); i++) {
+				if (bounds[4 * i] > maxX + marginX || bounds[4 * i + 1] < minX - marginX
+						|| bounds[4 * i + 2] > maxY + marginY || bounds[4 * i + 3] < minY - marginY)
+					continue;
+				int first = level.start[i], count = level.start[i + 1] - first;
+				if (count < 2)
+					continue;
+				if (count > px.length) {
+					px = new int[count];
+					py = new int[count];
+				}
+				for (int k = 0; k < count; k++) {
+					px[k] = xOffset + (int) Math.round((level.x[first + k] - minX) * scaleX);
+					py[k] = yOffset + (int) Math.round((maxY - level.y[first + k]) * scaleY);
+				}
+				graphics.drawPolyline(px, py, count);
+			}
+		} finally {
+			graphics.setClip(clip);
+			graphics.setStroke(oldStroke);
+			graphics.setColor(oldColor);
+		}
+	}
+}
@@ -40,6 +40,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
@@ -50,6 +51,8 @@ import java.io.Serializable;
 import java.net.URL;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -60,6 +63,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
@@ -141,6 +148,7 @@ import anl.verdi.data.DataUtilities.MinMax;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.MPASDataFrameIndex;
 import anl.verdi.data.MPASPlotDataFrame;
+import anl.verdi.data.MeshCellIndex;
 import anl.verdi.data.MeshCellInfo;
 import anl.verdi.data.MeshDataReader;
 import anl.verdi.data.ObsEvaluator;
@@ -275,6 +283,8 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 
 	protected double[] legendLevels;
 	private Object legendLock = new Object();
+	// classifies the statistics of the cells, for the current legendLevels
+	private LegendClassifier statisticsClassifier;
 	private Object waitObject = new Object();
 
 	protected Palette defaultPalette;
@@ -297,6 +307,18 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	private boolean asyncEnabled = true;
 	
 	private BufferedImage cellIdMap = null;
+	//Screen position of the top left pixel of cellIdMap, and whether the cells have been drawn to it yet
+	private int cellIdMapXOrigin = 0;
+	private int cellIdMapYOrigin = 0;
+	private boolean cellIdMapFilled = false;
+	private static final int CELL_ID_MAP_BACKGROUND = (COLOR_BASE * -1 - 1) & 0xFFFFFF;
+	
+	//Cells rasterized for the screen, drawn over the plot area in one image
+	private BufferedImage cellImage = null;
+	private int[][] rasterXs = new int[0][];
+	private int[][] rasterYs = new int[0][];
+	private int[] rasterColors = new int[0];
+	private int[] rasterIds = new int[0];
 
 	// For clipped/projected/clipped map lines:
 
@@ -395,7 +417,13 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	private boolean forceBufferedImage = false;
 	boolean rescaleBuffer = false;
 	int bufferedWidth, bufferedHeight;
-	private static final Object lock = new Object();
+	private final Object lock = new Object();
+	// images requested by render and getBufferedImage, one at a time, and
+	// handed over by the renderer thread
+	private static final long FRAME_TIMEOUT = 60000; // ms.
+	private final Object frameLock = new Object();
+	private final BlockingQueue<BufferedImage> frames = new ArrayBlockingQueue<BufferedImage>(1);
+	private volatile boolean frameRequested = false;
 	private JPopupMenu popup;
 	protected Rectangle dataArea = new Rectangle();
 	private boolean inDataArea = false;
@@ -541,6 +569,260 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		xOffset = 100;
 	}
 
+	// Lays out the plot on a canvas of the specified size, setting the size
+	// of the cells and the offset that centers them, and returns the size of
+	// the area the cells are drawn in.
+
+	private Dimension layoutPlot(int canvasWidth, int canvasHeight) {
+		int width;
+		int height;
+		
+		xTranslation = 0;
+		if (clippedDataRatio > 1) {
+			width = Math.round(canvasWidth - (tilePlot.getLegendBoxWidth() + xOffset));
+			height = (int)Math.round(width / clippedDataRatio);
+			int minHeight = canvasHeight - tilePlot.getFooterHeight() * 2;
+			if (minHeight < height) {
+				height = minHeight;
+				int fullWidth = width;
+				width = (int)Math.round(height * clippedDataRatio);
+				xTranslation = (fullWidth - width) / 2;
+			}
+		}
+		else {
+			height = Math.round(canvasHeight - tilePlot.getFooterHeight() * 2);
+			width = (int)Math.round(height * clippedDataRatio);
+			int fullWidth = Math.round(canvasWidth - (tilePlot.getLegendBoxWidth() + xOffset));
+			xTranslation = (fullWidth - width) / 2;
+		}
+		canvasSize = width;
+		return new Dimension(width, height);
+	}
+
+	// Takes the fonts of the title and subtitles that are not configured
+	// from the graphics, making room for them.
+
+	private void initFonts(Graphics2D offScreenGraphics) {
+		if (tFont == null) {
+			tFont = offScreenGraphics.getFont();
+			tFont = new Font(tFont.getFontName(), Font.BOLD, tFont.getSize() * 2);
+			config.putObject(PlotConfiguration.TITLE_FONT, tFont);
+			fontSize = (tFont == null) ? 20 : tFont.getSize();
+			yOffset = 20 + fontSize;
+		}
+		if (sFont1 == null) {
+			config.putObject(PlotConfiguration.SUBTITLE_1_FONT, offScreenGraphics.getFont());
+			sFont1 = config.getFont(PlotConfiguration.SUBTITLE_1_FONT);
+			if (sTitle1 != null && !sTitle1.trim().isEmpty()) {
+				fontSize = (sFont1 == null) ? 20 : sFont1.getSize();
+				yOffset += fontSize + 6;
+			}
+		}
+		if (sFont2 == null) {
+			config.putObject(PlotConfiguration.SUBTITLE_2_FONT, offScreenGraphics.getFont());
+			sFont2 = config.getFont(PlotConfiguration.SUBTITLE_2_FONT);
+			if (sTitle2 != null && !sTitle2.trim().isEmpty()) {
+				fontSize = (sFont2 == null) ? 20 : sFont2.getSize();
+
+				if (sTitle1 == null || sTitle1.trim().isEmpty()) {
+					yOffset += 26;
+				}
+
+				yOffset += fontSize + 6;
+			}
+		}
+	}
+
+	// Transforms the cells to the area laid out by layoutPlot if it changed,
+	// and colors them for the time step and layer if those changed.
+
+	private void updateCells() {
+		boolean windChanged = locChanged || dataChanged;
+		if (locChanged) {
+			transformCells(/*gr,*/ canvasSize, xOffset, yOffset);	
+			previousClippedDataRatio = clippedDataRatio;
+			previousPanX = panX;
+			previousPanY = panY;
+			// on pan or zoom (locChanged), recalculate dimensions, visibility
+			locChanged = false;
+		}
+		if (dataChanged) {
+			// on layer or timestep change (dataChanged), recaluclate color
+			updateCellData();
+			dataChanged = false;
+		}
+		if (windChanged && renderWind)
+			updateWindData();
+	}
+
+	// Erases the canvas and draws the legend-colored cells, axes, titles and
+	// legend. Returns false if the cells were transformed before the legend
+	// was first drawn, so that the plot must be laid out and drawn again.
+	// Must be called holding the lock.
+
+	private boolean drawCells(Graphics2D offScreenGraphics, int canvasWidth, int canvasHeight,
+			int width, int height) {
+		// Erase canvas:
+
+		offScreenGraphics.setColor(Color.white);
+		offScreenGraphics.fillRect(0, 0, canvasWidth,
+				canvasHeight);						
+
+		// Draw legend-colored grid cells, axis, text labels and
+		// legend:
+
+		final Boolean showGridLines = (Boolean)
+			config.getObject( TilePlotConfiguration.SHOW_GRID_LINES );
+		final Color gridLineColor = (Color)
+			( ( showGridLines == null || showGridLines == false ) ? null
+				: config.getObject( TilePlotConfiguration.GRID_LINE_COLOR ) );
+
+		final int stepsLapsed = timestep - (firstTimestep >= 0 ? firstTimestep : 0);
+		final int statisticsSelection = statisticsMenu.getSelectedIndex();
+		Logger.debug("statisticsSelection = " + statisticsSelection);
+		final String statisticsUnits =
+			statisticsSelection == 0 ? null : GridCellStatistics.units( statisticsSelection - 1 );
+		Logger.debug("statisticsUnits = " + statisticsUnits);
+		final String plotVariable =
+			statisticsSelection == 0 ? variable
+			: variable + GridCellStatistics.shortName( statisticsSelection - 1 );
+		final String plotUnits =
+			statisticsUnits != null ? statisticsUnits : units;
+		Logger.debug("units = " + units);
+		
+		try {
+			Logger.debug("ready to call tilePlot.draw(); first resolve any function calls for argument values, thread = " + Thread.currentThread().toString());
+			int aRow = firstRow + rowOrigin;
+			Logger.debug("aRow = " + aRow);
+			int bRow = lastRow + rowOrigin;
+			Logger.debug("bRow = " + bRow);
+			int aCol = firstColumn + columnOrigin;
+			Logger.debug("aCol = " + aCol);
+			int bCol = lastColumn + columnOrigin;
+			Logger.debug("bCol = " + bCol);
+			int aLegendLevelsLength = legendLevels.length;
+			Logger.debug("LegendLevels.length = " + aLegendLevelsLength);
+			int aLegendColorsLength = legendColors.length;
+			Logger.debug("LegendColors.length = " + aLegendColorsLength);
+			Logger.debug("plotUnits = " + plotUnits);
+			String aPlotUnits = (plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits;
+			Logger.debug("aPlotUnits = " + aPlotUnits);
+			NumberFormat aNumberFormat = map.getNumberFormat();
+			Logger.debug("aNumberFormat = " + aNumberFormat);
+			Logger.debug("ready to make revised function call to tilePlot.draw, thread = " + Thread.currentThread().toString());
+
+			//debug
+			
+			Font defaultFont = offScreenGraphics.getFont();
+			tilePlot.setUseStats(preStatIndex > 0);
+			if (xTranslation != 0) {
+				offScreenGraphics.translate(xTranslation,  0);
+			}
+			/*if (zoomFactor == 1)
+				tilePlot.setRenderVars(xTranslation, coordFormat, layerMinMaxCache[layer]);
+			else*/
+				tilePlot.setRenderVars(xTranslation, coordFormat, currentMinMaxCache);
+			tilePlot.draw(offScreenGraphics, xOffset, yOffset,
+					screenWidth, screenHeight, stepsLapsed, MeshPlot.this.layer, aRow,
+					bRow, aCol, bCol, null, legendLevels,
+					legendColors, axisColor, labelColor, plotVariable,
+					aPlotUnits, 
+					config, aNumberFormat, gridLineColor,
+					null);
+			//Cells are sized incorrectly during the first redraw, partially due to tilePlot.getLegendBoxWidth() being wrong before
+			//tilePlot.drawLegend() first called.  Quick workaround is to draw twice.
+			if (!screenInitted) {
+				screenInitted = true;
+				locChanged = true;
+				return false;
+			}
+			
+			offScreenGraphics.setFont(defaultFont);
+			offScreenGraphics.setColor(axisColor);
+			tilePlot.drawAxis(offScreenGraphics, xOffset, xOffset + screenWidth, yOffset, yOffset + screenHeight, panX * RAD_TO_DEG + columnOrigin, visibleDataWidth * RAD_TO_DEG,
+					panY * RAD_TO_DEG + rowOrigin, visibleDataHeight * RAD_TO_DEG);
+
+
+//			tilePlot.draw(offScreenGraphics, xOffset, yOffset,
+//					width, height, stepsLapsed, layer, firstRow + rowOrigin,
+//					lastRow + rowOrigin, firstColumn + columnOrigin, lastColumn + columnOrigin, legendLevels,
+//					legendColors, axisColor, labelColor, plotVariable,
+//					((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config, map.getNumberFormat(), gridLineColor,
+//					subsetLayerData);
+		} catch (Exception e) {
+			Logger.error("MeshPlot run method", e);
+		}
+
+		if (renderMode == MODE_PLOT || currentView == GRID)
+			renderCells(offScreenGraphics, xOffset, yOffset, true);
+		
+		if (renderMode == MODE_INTERPOLATION) {
+			mapPolygon.draw(tilePlot, domain, gridBounds, gridCRS, null, legendLevels,
+					legendColors,offScreenGraphics, dataset.getAllCellsArray(), renderReader ,units,firstColumn,firstRow,
+					xOffset, yOffset, width, height,currentView, isShowSelectedOnly());
+		}
+
+		dataArea.setRect(xOffset + xTranslation, yOffset, screenWidth, screenHeight);
+		return true;
+	}
+
+	// Draws the map layers and the observation and vector overlays over the
+	// cells. Must be called holding the lock.
+
+	private void drawOverlays(Graphics2D offScreenGraphics, int width, int height) {
+		mapper.draw(domain, gridBounds, gridCRS,
+				offScreenGraphics, xOffset, yOffset, width,
+				height, withHucs, withRivers, withRoads);
+
+		if (obsAnnotations != null) {
+			for (ObsAnnotation ann : obsAnnotations)
+				ann.draw(offScreenGraphics, xOffset, yOffset, width, height, 
+						legendLevels, legendColors, gridCRS, domain, gridBounds);
+		}
+		
+		if (vectAnnotation != null) {
+			vectAnnotation.draw(offScreenGraphics, xOffset, yOffset, width, height, 
+					firstRow, lastRow, firstColumn, lastColumn);
+		}
+	}
+
+	// Draws the plot for the current time step and layer into a new image,
+	// laid out on a canvas the size of the image, on the calling thread
+	// rather than the renderer thread. The cells are left transformed for
+	// the image, so they are transformed again the next time the plot is
+	// drawn on screen. Must be called holding the lock.
+
+	private BufferedImage drawOffscreen(int width, int height) {
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D offScreenGraphics = image.createGraphics();
+		final AffineTransform transform = offScreenGraphics.getTransform();
+		try {
+			initFonts(offScreenGraphics);
+			for (int attempt = 0; ; attempt++) {
+				final int legendBoxWidth = tilePlot.getLegendBoxWidth();
+				final Dimension plotSize = layoutPlot(width, height);
+				if (canvasSize < 1) {
+					offScreenGraphics.setColor(Color.white);
+					offScreenGraphics.fillRect(0, 0, width, height);
+					return image;
+				}
+				locChanged = true;
+				updateCells();
+				copySubsetLayerData(log);
+				offScreenGraphics.setTransform(transform);
+				// draw again if the legend was too narrow for its values
+				if (drawCells(offScreenGraphics, width, height, plotSize.width, plotSize.height)
+						&& (attempt > 0 || legendBoxWidth == tilePlot.getLegendBoxWidth())) {
+					drawOverlays(offScreenGraphics, plotSize.width, plotSize.height);
+					return image;
+				}
+			}
+		} finally {
+			offScreenGraphics.dispose();
+			locChanged = true;
+		}
+	}
+
 	// Declare a Runnable attribute which will create and run a thread
 	// whose run method draws double-buffered to a graphics iff graphics
 	// is not null:
@@ -588,6 +870,8 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 						} catch (Exception unused) {}
 					}
 
+					// only hand over a frame drawn after it was requested
+					final boolean frameWanted = frameRequested;
 					int canvasWidth = getWidth();
 					int canvasHeight = getHeight();
 					
@@ -595,155 +879,93 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 						canvasWidth = bufferedWidth;
 						canvasHeight = bufferedHeight;
 					}
-										
-					int width;
-					int height;
-					
-					xTranslation = 0;
-					prevLegendBoxWidth = legendBoxWidth;
-					legendBoxWidth = tilePlot.getLegendBoxWidth();
-					if (prevLegendBoxWidth != legendBoxWidth) {
-						//This changes as large data sets are being incrementally loaded and the values with differing string width
-						//are used in the legend.  When that happens, force recalculation for the new width.
-						screenInitted = false;
-					}
-					if (clippedDataRatio > 1) {
-						width = Math.round(canvasWidth - (tilePlot.getLegendBoxWidth() + xOffset));
-						height = (int)Math.round(width / clippedDataRatio);
-						int minHeight = canvasHeight - tilePlot.getFooterHeight() * 2;
-						if (minHeight < height) {
-							height = minHeight;
-							int fullWidth = width;
-							width = (int)Math.round(height * clippedDataRatio);
-							xTranslation = (fullWidth - width) / 2;
+
+					// render draws frames on other threads, which lay out
+					// the cells for their own images
+					synchronized (lock) {
+
+						prevLegendBoxWidth = legendBoxWidth;
+						legendBoxWidth = tilePlot.getLegendBoxWidth();
+						if (prevLegendBoxWidth != legendBoxWidth) {
+							//This changes as large data sets are being incrementally loaded and the values with differing string width
+							//are used in the legend.  When that happens, force recalculation for the new width.
+							screenInitted = false;
 						}
-					}
-					else {
-						height = Math.round(canvasHeight - tilePlot.getFooterHeight() * 2);
-						width = (int)Math.round(height * clippedDataRatio);
-						int fullWidth = Math.round(canvasWidth - (tilePlot.getLegendBoxWidth() + xOffset));
-						xTranslation = (fullWidth - width) / 2;
-					}
-					canvasSize = width;					
+						final Dimension plotSize = layoutPlot(canvasWidth, canvasHeight);
 
-					if (canvasSize < 1) {
-						/*
-						if ( get_draw_once_requests() < 0) 
-							restoreCursor();
-							*/
-						continue;
-					}
+						if (canvasSize < 1) {
+							/*
+							if ( get_draw_once_requests() < 0) 
+								restoreCursor();
+								*/
+							continue;
+						}
 
-					// Use off-screen graphics for double-buffering:
-					// don't start processing until graphics system is ready!
+						// Use off-screen graphics for double-buffering:
+						// don't start processing until graphics system is ready!
 
-					Image offScreenImage = null;
-					
-					try {
-						if (rescaleBuffer)
-							offScreenImage = new BufferedImage(bufferedWidth, bufferedHeight, BufferedImage.TYPE_INT_RGB);
-						else
-							offScreenImage = repaintManager.getOffscreenBuffer(threadParent, canvasWidth, canvasHeight);
-					} catch (NullPointerException e) {}
-
-					// offScreenImage = (Image) (offScreenImage.clone());
-
-					if (offScreenImage == null) {
-						/*
-						if ( get_draw_once_requests() < 0) 
-							restoreCursor();
-							*/
-						continue;// graphics system is not ready
-					}
+						Image offScreenImage = null;
+						
+						try {
+							if (rescaleBuffer)
+								offScreenImage = new BufferedImage(bufferedWidth, bufferedHeight, BufferedImage.TYPE_INT_RGB);
+							else
+								offScreenImage = repaintManager.getOffscreenBuffer(threadParent, canvasWidth, canvasHeight);
+						} catch (NullPointerException e) {}
 
-					final Graphics2D offScreenGraphics = exportGraphics == null ? (Graphics2D)offScreenImage.getGraphics() : exportGraphics;
+						// offScreenImage = (Image) (offScreenImage.clone());
 
-					if (offScreenGraphics == null) {
-						/*
-						if ( get_draw_once_requests() < 0) 
-							restoreCursor();
-							*/
-						continue;// graphics system is not ready
-					}
-					
-					if (rescaleBuffer) {
-						double factor = ((double)bufferedWidth) / ((double)getWidth());
-						if (factor > 0 && canvasWidth != bufferedWidth) {
-							offScreenGraphics.scale(factor, factor);
-							offScreenGraphics.fillRect(0,  0,  bufferedWidth,  bufferedHeight);
+						if (offScreenImage == null) {
+							/*
+							if ( get_draw_once_requests() < 0) 
+								restoreCursor();
+								*/
+							continue;// graphics system is not ready
 						}
-					}
 
-					if (tFont == null) {
-						tFont = offScreenGraphics.getFont();
-						tFont = new Font(tFont.getFontName(), Font.BOLD, tFont.getSize() * 2);
-						config.putObject(PlotConfiguration.TITLE_FONT, tFont);
-						fontSize = (tFont == null) ? 20 : tFont.getSize();
-						yOffset = 20 + fontSize;
-					}
-					if (sFont1 == null) {
-						config.putObject(PlotConfiguration.SUBTITLE_1_FONT, offScreenGraphics.getFont());
-						sFont1 = config.getFont(PlotConfiguration.SUBTITLE_1_FONT);
-						if (sTitle1 != null && !sTitle1.trim().isEmpty()) {
-							fontSize = (sFont1 == null) ? 20 : sFont1.getSize();
-							yOffset += fontSize + 6;
+						final Graphics2D offScreenGraphics = exportGraphics == null ? (Graphics2D)offScreenImage.getGraphics() : exportGraphics;
+
+						if (offScreenGraphics == null) {
+							/*
+							if ( get_draw_once_requests() < 0) 
+								restoreCursor();
+								*/
+							continue;// graphics system is not ready
 						}
-					}
-					if (sFont2 == null) {
-						config.putObject(PlotConfiguration.SUBTITLE_2_FONT, offScreenGraphics.getFont());
-						sFont2 = config.getFont(PlotConfiguration.SUBTITLE_2_FONT);
-						if (sTitle2 != null && !sTitle2.trim().isEmpty()) {
-							fontSize = (sFont2 == null) ? 20 : sFont2.getSize();
-
-							if (sTitle1 == null || sTitle1.trim().isEmpty()) {
-								yOffset += 26;
+						
+						if (rescaleBuffer) {
+							double factor = ((double)bufferedWidth) / ((double)getWidth());
+							if (factor > 0 && canvasWidth != bufferedWidth) {
+								offScreenGraphics.scale(factor, factor);
+								offScreenGraphics.fillRect(0,  0,  bufferedWidth,  bufferedHeight);
 							}
-
-							yOffset += fontSize + 6;
 						}
-					}
-
-					boolean windChanged = locChanged || dataChanged;
-					if (locChanged) {
-						transformCells(/*gr,*/ canvasSize, xOffset, yOffset);	
-						previousClippedDataRatio = clippedDataRatio;
-						previousPanX = panX;
-						previousPanY = panY;
-						// on pan or zoom (locChanged), recalculate dimensions, visibility
-						locChanged = false;
-					}
-					if (dataChanged) {
-						// on layer or timestep change (dataChanged), recaluclate color
-						updateCellData();
-						dataChanged = false;
-					}
-					if (windChanged && renderWind)
-						updateWindData();
 
+						initFonts(offScreenGraphics);
+						updateCells();
 
-					final Graphics graphics = threadParent.getGraphics();
+						final Graphics graphics = threadParent.getGraphics();
 
-					if (graphics == null && !rescaleBuffer) {
-						/*
-						if ( get_draw_once_requests() < 0) 
-							restoreCursor();
-							*/
-						continue;// graphics system is not ready
-					}
+						if (graphics == null && !rescaleBuffer) {
+							/*
+							if ( get_draw_once_requests() < 0) 
+								restoreCursor();
+								*/
+							continue;// graphics system is not ready
+						}
 
-					// graphics system should now be ready
-					assert offScreenImage != null;
-					assert offScreenGraphics != null;
-					assert graphics != null;
+						// graphics system should now be ready
+						assert offScreenImage != null;
+						assert offScreenGraphics != null;
+						assert graphics != null;
 
-					if (drawMode == DRAW_CONTINUOUS) {
-						dataChanged = true;
-						timestep = nextValue(1, timestep, firstTimestep, lastTimestep);
-						timeLayerPanel.setTime(timestep);
-						drawOverLays();
-					}
-					
-//					synchronized (lock) {
+						if (drawMode == DRAW_CONTINUOUS) {
+							dataChanged = true;
+							timestep = nextValue(1, timestep, firstTimestep, lastTimestep);
+							timeLayerPanel.setTime(timestep);
+							drawOverLays();
+						}
+						
 						if (getDrawOnceRequests() > 0) {
 							draw_once_requests = 0;
 							/*
@@ -752,41 +974,9 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 								*/
 							continue;
 						}
-//					}
 
-					copySubsetLayerData(log); // Based on current timestep and layer.
+						copySubsetLayerData(log); // Based on current timestep and layer.
 
-					
-					synchronized (lock) {
-						
-						// Erase canvas:
-
-						offScreenGraphics.setColor(Color.white);
-						offScreenGraphics.fillRect(0, 0, canvasWidth,
-								canvasHeight);						
-
-						// Draw legend-colored grid cells, axis, text labels and
-						// legend:
-
-						final Boolean showGridLines = (Boolean)
-							config.getObject( TilePlotConfiguration.SHOW_GRID_LINES );
-						final Color gridLineColor = (Color)
-							( ( showGridLines == null || showGridLines == false ) ? null
-								: config.getObject( TilePlotConfiguration.GRID_LINE_COLOR ) );
-
-						final int stepsLapsed = timestep - (firstTimestep >= 0 ? firstTimestep : 0);
-						final int statisticsSelection = statisticsMenu.getSelectedIndex();
-						Logger.debug("statisticsSelection = " + statisticsSelection);
-						final String statisticsUnits =
-							statisticsSelection == 0 ? null : GridCellStatistics.units( statisticsSelection - 1 );
-						Logger.debug("statisticsUnits = " + statisticsUnits);
-						final String plotVariable =
-							statisticsSelection == 0 ? variable
-							: variable + GridCellStatistics.shortName( statisticsSelection - 1 );
-						final String plotUnits =
-							statisticsUnits != null ? statisticsUnits : units;
-						Logger.debug("units = " + units);
-						
 						if (getDrawOnceRequests() > 0) {
 							draw_once_requests = 0;
 							//System.err.println("Resetting 3 draw once requests");
@@ -796,81 +986,9 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 								*/
 							continue;
 						}
-						
-						try {
-							Logger.debug("ready to call tilePlot.draw(); first resolve any function calls for argument values, thread = " + Thread.currentThread().toString());
-							int aRow = firstRow + rowOrigin;
-							Logger.debug("aRow = " + aRow);
-							int bRow = lastRow + rowOrigin;
-							Logger.debug("bRow = " + bRow);
-							int aCol = firstColumn + columnOrigin;
-							Logger.debug("aCol = " + aCol);
-							int bCol = lastColumn + columnOrigin;
-							Logger.debug("bCol = " + bCol);
-							int aLegendLevelsLength = legendLevels.length;
-							Logger.debug("LegendLevels.length = " + aLegendLevelsLength);
-							int aLegendColorsLength = legendColors.length;
-							Logger.debug("LegendColors.length = " + aLegendColorsLength);
-							Logger.debug("plotUnits = " + plotUnits);
-							String aPlotUnits = (plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits;
-							Logger.debug("aPlotUnits = " + aPlotUnits);
-							NumberFormat aNumberFormat = map.getNumberFormat();
-							Logger.debug("aNumberFormat = " + aNumberFormat);
-							Logger.debug("ready to make revised function call to tilePlot.draw, thread = " + Thread.currentThread().toString());
-
-							//debug
-							
-							Font defaultFont = offScreenGraphics.getFont();
-							tilePlot.setUseStats(preStatIndex > 0);
-							if (xTranslation != 0) {
-								offScreenGraphics.translate(xTranslation,  0);
-							}
-							/*if (zoomFactor == 1)
-								tilePlot.setRenderVars(xTranslation, coordFormat, layerMinMaxCache[layer]);
-							else*/
-								tilePlot.setRenderVars(xTranslation, coordFormat, currentMinMaxCache);
-							tilePlot.draw(offScreenGraphics, xOffset, yOffset,
-									screenWidth, screenHeight, stepsLapsed, MeshPlot.this.layer, aRow,
-									bRow, aCol, bCol, null, legendLevels,
-									legendColors, axisColor, labelColor, plotVariable,
-									aPlotUnits, 
-									config, aNumberFormat, gridLineColor,
-									null);
-							//Cells are sized incorrectly during the first redraw, partially due to tilePlot.getLegendBoxWidth() being wrong before
-							//tilePlot.drawLegend() first called.  Quick workaround is to draw twice.
-							if (!screenInitted) {
-								screenInitted = true;
-								locChanged = true;
-								continue;
-							}
-							
-							offScreenGraphics.setFont(defaultFont);
-							offScreenGraphics.setColor(axisColor);
-							tilePlot.drawAxis(offScreenGraphics, xOffset, xOffset + screenWidth, yOffset, yOffset + screenHeight, panX * RAD_TO_DEG + columnOrigin, visibleDataWidth * RAD_TO_DEG,
-									panY * RAD_TO_DEG + rowOrigin, visibleDataHeight * RAD_TO_DEG);
-
-
-//							tilePlot.draw(offScreenGraphics, xOffset, yOffset,
-//									width, height, stepsLapsed, layer, firstRow + rowOrigin,
-//									lastRow + rowOrigin, firstColumn + columnOrigin, lastColumn + columnOrigin, legendLevels,
-//									legendColors, axisColor, labelColor, plotVariable,
-//									((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config, map.getNumberFormat(), gridLineColor,
-//									subsetLayerData);
-						} catch (Exception e) {
-							Logger.error("MeshPlot run method", e);
-						}
 
-						if (renderMode == MODE_PLOT || currentView == GRID)
-							renderCells(offScreenGraphics, xOffset, yOffset, true);
-						
-						if (renderMode == MODE_INTERPOLATION) {
-							mapPolygon.draw(tilePlot, domain, gridBounds, gridCRS, null, legendLevels,
-									legendColors,offScreenGraphics, dataset.getAllCellsArray(), renderReader ,units,firstColumn,firstRow,
-									xOffset, yOffset, width, height,currentView, isShowSelectedOnly());
-						}
-
-						dataArea.setRect(xOffset + xTranslation, yOffset, screenWidth, screenHeight);
-						
+						if (!drawCells(offScreenGraphics, canvasWidth, canvasHeight, plotSize.width, plotSize.height))
+							continue;
 
 						// Draw projected/clipped map border lines over grid
 						// cells:
@@ -884,20 +1002,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 							continue;
 						}
 						
-						mapper.draw(domain, gridBounds, gridCRS,
-								offScreenGraphics, xOffset, yOffset, width,
-								height, withHucs, withRivers, withRoads);
-
-						if (obsAnnotations != null) {
-							for (ObsAnnotation ann : obsAnnotations)
-								ann.draw(offScreenGraphics, xOffset, yOffset, width, height, 
-										legendLevels, legendColors, gridCRS, domain, gridBounds);
-						}
-						
-						if (vectAnnotation != null) {
-							vectAnnotation.draw(offScreenGraphics, xOffset, yOffset, width, height, 
-									firstRow, lastRow, firstColumn, lastColumn);
-						}
+						drawOverlays(offScreenGraphics, plotSize.width, plotSize.height);
 
 						resetMenuItems(mapLayersMenu);
 						Toolkit.getDefaultToolkit().sync();
@@ -913,6 +1018,10 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 									}
 									BufferedImage copiedImage = toBufferedImage(offScreenImage, BufferedImage.TYPE_INT_RGB, w, h);
 									bImage = copiedImage;
+									if (frameWanted && frameRequested) {
+										frameRequested = false;
+										frames.offer(copiedImage);
+									}
 									if (animationHandler != null) {
 										ActionEvent e = new ActionEvent(copiedImage, this.hashCode(), "");
 										animationHandler.actionPerformed(e);
@@ -1718,16 +1827,24 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		if (timestep >= firstTimestep && timestep <= lastTimestep && timestep != this.timestep) {
 			dataChanged = true;
 			this.timestep = timestep;
+			prioritizeMinMax();
 			copySubsetLayerData(this.log);
 			forceDraw();
 			drawOverLays();
 		}
 	}
 
+	// the min/max of the layer and timestep shown are wanted first
+	private void prioritizeMinMax() {
+		if (dataset != null && currentDataFrame != null)
+			dataset.prioritizeMinMax(currentDataFrame, layer, timestep);
+	}
+
 	public void setLayer(int layer) {
 		if (layer >= firstLayer && layer <= lastLayer && layer != this.layer) {
 			dataChanged = true;
 			this.layer = layer;
+			prioritizeMinMax();
 			final int selection = statisticsMenu.getSelectedIndex();
 
 			if ( selection > 0 ) {
@@ -1739,26 +1856,6 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		}
 	}
 	
-	private static byte indexOfObsValue(float value, final double[] values) {
-		if (Float.isNaN(value))
-			return -1;
-		
-		if (value <= DataUtilities.BADVAL3 || value <= DataUtilities.AMISS3 || value >= DataUtilities.NC_FILL_FLOAT) 	// 2014 changed AMISS3 comparison from == to <=
-			return -1;
-
-		final byte count = (byte)values.length;
-
-		if (values[0] == values[values.length - 1])
-			return 0;
-
-		for (byte index = 1; index < count; index++) {
-			if (values[index] > value)
-				return (byte)(index - 1);
-		}
-
-		return (byte)(count - 2);
-	}
-	
 	public LocalCellInfo getCellInfo(int id) {
 		if (id >= 0 && id < cellInfo.length)
 			return cellInfo[id];
@@ -2075,6 +2172,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	Axes<CoordAxis> mpasAxes;
 	LocalCellInfo[] cellInfo = null;
 	Map<LocalCellInfo, Integer> splitCellInfo = null;
+	MeshCellIndex cellBoundsIndex = null;
 	
 	private void getCellStructure() throws IOException {
 
@@ -2112,6 +2210,9 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		for (MeshCellInfo cell : splitCells.keySet()) {
 			splitCellInfo.put(new LocalCellInfo(cell),  cell.getId());
 		}
+		long start = System.currentTimeMillis();
+		cellBoundsIndex = new MeshCellIndex(cellsToRender);
+		Logger.info("Indexed cell bounds in " + (System.currentTimeMillis() - start) + "ms");
 	}
 	
 	private void transformCells(/*Graphics gr, */ int canvasSize, int xOrigin, int yOrigin) {
@@ -2163,20 +2264,20 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		
 		if (screenWidth > 0) {
 			cellIdMap = new BufferedImage(screenWidth + 1, screenHeight + 1, BufferedImage.TYPE_INT_RGB);
-			java.awt.Graphics2D g = cellIdMap.createGraphics();
-	        g.setColor(new Color(COLOR_BASE * -1 - 1));
-	        g.fillRect(0,  0,  screenWidth+1, screenHeight + 1);
-	        g.translate(xOrigin * -1,  yOrigin * -1);
-	        forceHideBorders = true;
-	        renderCells(g, 0, 0);
-	        forceHideBorders = false;
+			Arrays.fill(getPixels(cellIdMap), CELL_ID_MAP_BACKGROUND);
+			cellIdMapXOrigin = xOrigin;
+			cellIdMapYOrigin = yOrigin;
+			cellIdMapFilled = false;
+			//When the cells are rasterized to the screen, the id map is filled in the same pass
+			if (!rasterizeToScreen() || (renderMode != MODE_PLOT && currentView != GRID))
+				fillCellIdMap();
 	       /* File outputfile = new File("/tmp/data.bmp");
 	        try {
 				ImageIO.write(cellIdMap,  "bmp", outputfile);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}*/
-	        findVisibleCells();
+	        findVisibleCells(xFactor, yFactor, xOrigin, yOrigin);
 		}
         
 		Logger.info("Scaled cells in " + (System.currentTimeMillis() - start) + "ms");
@@ -2224,14 +2325,19 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	public void updateCellColors() {
 		long start = System.currentTimeMillis();
 		synchronized (legendLock) {
-		for (int i = 0; i < cellsToRender.length; ++i) {
-			LocalCellInfo cell = getCellInfo(i);
-			cell.colorIndex = indexOfObsValue((float)cell.getValue(), legendLevels);
-		}
-		
-		for (LocalCellInfo cell : splitCellInfo.keySet()) {
-			cell.colorIndex = indexOfObsValue((float)cell.getValue(), legendLevels);
-		}
+		LocalCellInfo[] cells = new LocalCellInfo[cellsToRender.length + splitCellInfo.size()];
+		for (int i = 0; i < cellsToRender.length; ++i)
+			cells[i] = getCellInfo(i);
+		int count = cellsToRender.length;
+		for (LocalCellInfo cell : splitCellInfo.keySet())
+			cells[count++] = cell;
+		
+		float[] values = new float[cells.length];
+		for (int i = 0; i < cells.length; ++i)
+			values[i] = (float)cells[i].getValue();
+		byte[] indices = new LegendClassifier(legendLevels).classify(values, null);
+		for (int i = 0; i < cells.length; ++i)
+			cells[i].colorIndex = indices[i];
 		}
 		Logger.info("Updated cell data in " + (System.currentTimeMillis() - start) + "ms");
 
@@ -2255,16 +2361,20 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		final boolean showCellBorder = showGridLines != null && showGridLines.booleanValue() && !forceHideBorders;
 
 		synchronized (legendLock) {
-			for (int i = 0; i < cells; ++i) { //for each cell
-				LocalCellInfo cell = getCellInfo(i);
-				if (visibleOnly && !cell.visible && i != 0)
-					continue;
-				renderCell(gr, xOffset, yOffset, cell, showCellBorder, i);
-			}
-			for (LocalCellInfo cell : splitCellInfo.keySet()) {
-				if (visibleOnly && !cell.visible)
-					continue;
-				renderCell(gr, xOffset, yOffset, cell, showCellBorder, cell.getId());
+			if (xOffset != 0 && rasterizeToScreen())
+				rasterizeCells(gr, xOffset, yOffset, visibleOnly, showCellBorder);
+			else {
+				for (int i = 0; i < cells; ++i) { //for each cell
+					LocalCellInfo cell = getCellInfo(i);
+					if (visibleOnly && !cell.visible && i != 0)
+						continue;
+					renderCell(gr, xOffset, yOffset, cell, showCellBorder, i);
+				}
+				for (LocalCellInfo cell : splitCellInfo.keySet()) {
+					if (visibleOnly && !cell.visible)
+						continue;
+					renderCell(gr, xOffset, yOffset, cell, showCellBorder, cell.getId());
+				}
 			}
 		}
 		
@@ -2287,6 +2397,116 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		
 	}
 	
+	/*
+	 * Cells are rasterized straight into image pixels, rather than drawn with Graphics2D, unless they
+	 * are being exported to another kind of graphics or drawn scaled for a cross section.
+	 */
+	private boolean rasterizeToScreen() {
+		return exportGraphics == null && !reverseAxes && renderMode != MODE_CROSS_SECTION;
+	}
+	
+	private static int[] getPixels(BufferedImage image) {
+		return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+	}
+	
+	/*
+	 * Gathers the cells to rasterize into the raster arrays, with their colors if colored is set.
+	 * Returns the number of cells gathered.
+	 */
+	private int gatherRasterCells(boolean visibleOnly, boolean colored) {
+		int count = cells + splitCellInfo.size();
+		if (rasterXs.length < count) {
+			rasterXs = new int[count][];
+			rasterYs = new int[count][];
+			rasterColors = new int[count];
+			rasterIds = new int[count];
+		}
+		int index = 0;
+		for (int i = 0; i < cells; ++i)
+			gatherRasterCell(getCellInfo(i), visibleOnly && i != 0, colored, index++);
+		for (LocalCellInfo cell : splitCellInfo.keySet())
+			gatherRasterCell(cell, visibleOnly, colored, index++);
+		return count;
+	}
+	
+	private void gatherRasterCell(LocalCellInfo cell, boolean visibleOnly, boolean colored, int index) {
+		if (cell.colorIndex == -1 || (visibleOnly && !cell.visible)) {
+			rasterXs[index] = null;
+			return;
+		}
+		rasterXs[index] = cell.lonTransformed;
+		rasterYs[index] = cell.latTransformed;
+		rasterIds[index] = cell.getId() + 1;
+		if (colored) {
+			Color color = getCellColor(cell);
+			rasterColors[index] = color == null ? 0 : color.getRGB();
+		}
+	}
+	
+	/*
+	 * Rasterizes the cells into an image drawn over the plot area, filling cellIdMap in the same pass
+	 * if the cells have not been drawn to it since they were last transformed.
+	 */
+	private void rasterizeCells(Graphics2D gr, int xOffset, int yOffset, boolean visibleOnly, boolean showCellBorder) {
+		int width = screenWidth + 1;
+		int height = screenHeight + 1;
+		if (cellImage == null || cellImage.getWidth() != width || cellImage.getHeight() != height)
+			cellImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] colorPixels = getPixels(cellImage);
+		Arrays.fill(colorPixels, 0);
+		int[] idPixels = null;
+		if (!cellIdMapFilled && cellIdMap != null && cellIdMap.getWidth() == width && cellIdMap.getHeight() == height &&
+				cellIdMapXOrigin == xOffset && cellIdMapYOrigin == yOffset)
+			idPixels = getPixels(cellIdMap);
+		
+		int count = gatherRasterCells(visibleOnly, true);
+		new MeshRasterizer(width, height, colorPixels, idPixels).fill(count, rasterXs, rasterYs, rasterColors, rasterIds, xOffset, yOffset);
+		if (idPixels != null)
+			cellIdMapFilled = true;
+		gr.drawImage(cellImage, xOffset, yOffset, null);
+		
+		if (showCellBorder || renderWind) {
+			for (int i = 0; i < cells; ++i) {
+				LocalCellInfo cell = getCellInfo(i);
+				if ((!visibleOnly || cell.visible || i == 0) && cell.colorIndex != -1)
+					renderCellOverlay(gr, cell, showCellBorder);
+			}
+			for (LocalCellInfo cell : splitCellInfo.keySet()) {
+				if ((!visibleOnly || cell.visible) && cell.colorIndex != -1)
+					renderCellOverlay(gr, cell, showCellBorder);
+			}
+		}
+	}
+	
+	/*
+	 * Rasterizes the cell ids alone into cellIdMap, for when the cells are not rasterized to the screen.
+	 */
+	private void fillCellIdMap() {
+		synchronized (legendLock) {
+			int count = gatherRasterCells(false, false);
+			new MeshRasterizer(cellIdMap.getWidth(), cellIdMap.getHeight(), null, getPixels(cellIdMap)).fill(count,
+					rasterXs, rasterYs, null, rasterIds, cellIdMapXOrigin, cellIdMapYOrigin);
+			cellIdMapFilled = true;
+		}
+	}
+	
+	private Color getCellColor(LocalCellInfo cell) {
+		/*if (SHOW_ZOOM_LOCATION && cell.cellClicked) {
+			System.err.println("Rendering clicked cell location " + cell.lon + ", " + cell.lat + " id " + cell.cellId);
+			return Color.BLACK;
+		}*/
+		if (preStatIndex < 1)
+			return legendColors[cell.colorIndex];
+		try {
+			if (statisticsClassifier == null || !statisticsClassifier.isFor(legendLevels))
+				statisticsClassifier = new LegendClassifier(legendLevels);
+			return legendColors[statisticsClassifier.classify(statisticsData[preStatIndex - 1][0][cell.getId()])];
+		} catch (NullPointerException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
 	private void renderCell(Graphics2D gr, int xOffset, int yOffset, LocalCellInfo cell, boolean showCellBorder, int index) {
 		if (cell.colorIndex == -1)
 			return;
@@ -2297,21 +2517,17 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		 */
 		if (xOffset == 0)
 			gr.setColor(new Color(cell.getId() + 1));
-		/*else if (SHOW_ZOOM_LOCATION && cell.cellClicked) {
-			gr.setColor(Color.BLACK);
-			System.err.println("Rendering clicked cell location " + cell.lon + ", " + cell.lat + " id " + cell.cellId);
-		}*/
-		else if (preStatIndex < 1)
-			gr.setColor(legendColors[cell.colorIndex]);
 		else {
-			try {
-			gr.setColor(legendColors[indexOfObsValue(statisticsData[preStatIndex - 1][0][cell.getId()], legendLevels)]);
-			} catch (NullPointerException e) {
-				e.printStackTrace();
-			}
+			Color color = getCellColor(cell);
+			if (color != null)
+				gr.setColor(color);
 		}
 
 		gr.fillPolygon(cell.lonTransformed, cell.latTransformed, cell.lonTransformed.length);
+		renderCellOverlay(gr, cell, showCellBorder);
+	}
+	
+	private void renderCellOverlay(Graphics2D gr, LocalCellInfo cell, boolean showCellBorder) {
 		if (showCellBorder) {
 			gr.setColor(Color.BLACK);
 			int length = cell.lonTransformed.length - 1;
@@ -2941,6 +3157,17 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		if ( selection < 1 ) {
 			DataFrame dataFrame = getDataFrame(log);
 			MinMaxInfo minMaxInfo = dataset.getPlotMinMax(dataFrame, this);
+			if (!asyncEnabled) {
+				// plots drawn without the application are not redrawn as the
+				// range is updated, so they wait for the final range
+				try {
+					minMaxInfo = dataset.getFinalPlotMinMax(dataFrame).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					Logger.error("Error calculating min/max of " + variable, e);
+				}
+			}
 			if (log) {
 				logPlotMinMaxCache[0] = minMaxInfo.getMin();
 				logPlotMinMaxCache[1] = minMaxInfo.getMax();
@@ -3941,37 +4168,95 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	}
 	
 	public BufferedImage getBufferedImage(Graphics2D g, int width, int height) {
+		int bufferHeight = height;
+		if (getWidth() > 0)
+			bufferHeight = width * getHeight() / getWidth();
+		try {
+			synchronized (frameLock) {
+				return awaitFrame(g, width, bufferHeight);
+			}
+		} catch (InterruptedException e) {
+			Logger.error("Caught exception waiting for buffered image", e);
+			return null;
+		}
+	}
+
+	@Override
+	protected BufferedImage renderImage(int step, int layerStep, int width, int height) throws Exception {
+		final BufferedImage image;
+		synchronized (lock) {
+			if (firstTimestep + step != timestep) {
+				dataChanged = true;
+				timestep = firstTimestep + step;
+				drawOverLays();
+			}
+			if (firstLayer + layerStep != layer) {
+				dataChanged = true;
+				layer = firstLayer + layerStep;
+				prioritizeMinMax();
+				if (statisticsMenu.getSelectedIndex() > 0)
+					recomputeStatistics = true;
+			}
+			image = drawOffscreen(width, height);
+		}
+
+		// show the same time step and layer on screen
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (timeLayerPanel != null) {
+					processTimeChange = false;
+					timeLayerPanel.setTime(timestep);
+					timeLayerPanel.setLayer(layer);
+					processTimeChange = true;
+				}
+				draw();
+			}
+		});
+		return image;
+	}
+
+	// getBufferedImage exports the plot as it is laid out on screen, so
+	// rather than laying the plot out for the image, this asks the renderer
+	// thread for an image of the specified size, scaled from the plot on
+	// screen if it is shown, and waits for it. Must be called holding the
+	// frame lock.
+
+	private BufferedImage awaitFrame(Graphics2D g, int width, int height) throws InterruptedException {
 		exportGraphics = g;
-		bImage = null;
-		forceBufferedImage = true;
-		if (width != getWidth()) {
+		frames.clear();
+		if (width != getWidth() || height != getHeight()) {
 			rescaleBuffer = true;
-			if (getWidth() == 0) {
-				bufferedWidth = width;
-				bufferedHeight = height;
-			} else {
-				bufferedWidth = width;
-				bufferedHeight = bufferedWidth * getHeight() / getWidth();
-			}
+			bufferedWidth = width;
+			bufferedHeight = height;
 		}
-		draw();
-		long start = System.currentTimeMillis();
-		//Allow more time when image is being rescaled
-		while ((rescaleBuffer || System.currentTimeMillis() - start < 2000) && bImage == null )
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				Logger.error("Caught exception waiting for buffered image", e);
-				break;
+		frameRequested = true;
+		forceBufferedImage = true;
+		try {
+			forceDraw();
+			final BufferedImage image = frames.poll(FRAME_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (image != null)
+				bImage = image;
+			return image;
+		} finally {
+			frameRequested = false;
+			exportGraphics = null;
+			if (rescaleBuffer) {
+				rescaleBuffer = false;
+				bufferedWidth = 0;
+				bufferedHeight = 0;
+				draw();
 			}
-		if (rescaleBuffer) {
-			rescaleBuffer = false;
-			bufferedWidth = 0;
-			bufferedHeight = 0;
-			draw();
 		}
-		exportGraphics = null;
-		return bImage;
+	}
+
+	@Override
+	public int getCurrentTimeStep() {
+		return timestep - firstTimestep;
+	}
+
+	@Override
+	public int getCurrentLayer() {
+		return layer - firstLayer;
 	}
 
 	/**
@@ -4314,6 +4599,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		drawMode = DRAW_ONCE;
 		dataChanged = true;
 		timestep = firstTimestep + step;
+		prioritizeMinMax();
 		
 		try {
 			timeLayerPanel.setTime(timestep);
@@ -4450,12 +4736,17 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	/**
 	 * Gets the visible cells for this plot, and calculates min/max.
 	 *
-	 * @return the visible 
-	 * cells for this plot.
+	 * Cells whose bounds intersect the viewport are looked up in the
+	 * cell bounds index rather than found by scanning the cell id map.
+	 *
+	 * @param xFactor the x scale the cells were transformed with
+	 * @param yFactor the y scale the cells were transformed with
+	 * @param xOrigin the x coordinate of the top left corner of the drawing area
+	 * @param yOrigin the y coordinate of the top left corner of the drawing area
 	 */
-	Set<Integer> cellIdList = new HashSet<Integer>();
-	protected void findVisibleCells() {		
-		cellIdList.clear();
+	BitSet visibleCellIds = new BitSet();
+	protected void findVisibleCells(double xFactor, double yFactor, int xOrigin, int yOrigin) {		
+		visibleCellIds.clear();
 		currentMinMaxCache[LEVELS_CACHE_MIN_LON] = Double.POSITIVE_INFINITY;
 		currentMinMaxCache[LEVELS_CACHE_MAX_LON] = Double.NEGATIVE_INFINITY;
 		currentMinMaxCache[LEVELS_CACHE_MIN_LAT] = Double.POSITIVE_INFINITY;
@@ -4465,10 +4756,12 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		currentMinMaxCache[LEVELS_CACHE_PERCENT_COMPLETE] = layerMinMaxCache[layer - firstLayer][LEVELS_CACHE_PERCENT_COMPLETE];
 		int width = cellIdMap.getWidth();
 		int height = cellIdMap.getHeight();
-		for (int i = 0; i < width; ++i)
-			for (int j = 0; j < height; ++j) {
-				cellIdList.add(getCellIdByCoord(i, j));
-			}
+		//Invert transformCell for the corners of the id map, a pixel wider to allow for rounding
+		double viewMinLon = lonMin + panX - 1 / xFactor;
+		double viewMaxLon = lonMin + panX + (width + 1) / xFactor;
+		double viewMinLat = (latMin + panY + (height + 1) / yFactor) * -1;
+		double viewMaxLat = (latMin + panY - 1 / yFactor) * -1;
+		cellBoundsIndex.query(viewMinLon, viewMaxLon, viewMinLat, viewMaxLat, visibleCellIds);
 
 		//For cross Section, adjust from 0 based ranges
 		double startDegree = 0;
@@ -4485,10 +4778,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		//int visibleCount = 0;
 		for (LocalCellInfo cell : cellInfo) {
 			MeshCellInfo meshCell = cell.getSource();
-			if (cellIdList.contains(cell.getId()))
-				cell.visible = true;
-			else if (cell.lonTransformed[meshCell.getMinXPosition() ]>= 0 && cell.lonTransformed[meshCell.getMaxXPosition()] <= width && 
-					cell.latTransformed[meshCell.getMinYPosition()] >=0 && cell.latTransformed[meshCell.getMaxYPosition()] <= height)
+			if (visibleCellIds.get(cell.getId()))
 				cell.visible = true;
 			else if (renderMode == MODE_CROSS_SECTION) { //reverseAxes	
 				if (!reverseAxes && ((cell.getSource().getMinLatValue() >= startDegree - 2 &&
@@ -4533,10 +4823,15 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		//System.err.println("Total cell count: " + totalCells + " visible " + visibleCount);
 		for (LocalCellInfo cell : splitCellInfo.keySet()) {
 			MeshCellInfo meshCell = cell.getSource();
-			if (cellIdList.contains(cell.getId()))
+			//Split cells are not in the index, so compare their transformed bounds with the id map
+			int minX = cell.lonTransformed[meshCell.getMinXPosition()] - xOrigin;
+			int maxX = cell.lonTransformed[meshCell.getMaxXPosition()] - xOrigin;
+			int minY = cell.latTransformed[meshCell.getMaxYPosition()] - yOrigin;
+			int maxY = cell.latTransformed[meshCell.getMinYPosition()] - yOrigin;
+			if (visibleCellIds.get(cell.getId()))
 				cell.visible = true;
-			else if (cell.lonTransformed[meshCell.getMinXPosition() ]>= 0 && cell.lonTransformed[meshCell.getMaxXPosition()] <= width && 
-					cell.latTransformed[meshCell.getMinYPosition()] >=0 && cell.latTransformed[meshCell.getMaxYPosition()] <= height)
+			else if (Math.min(minX, maxX) <= width && Math.max(minX, maxX) >= 0 && 
+					Math.min(minY, maxY) <= height && Math.max(minY, maxY) >= 0)
 				cell.visible = true;
 			//cell.visible = true; //TAH debug
 		}
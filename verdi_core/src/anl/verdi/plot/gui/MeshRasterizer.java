@@ -0,0 +1,212 @@
+package anl.verdi.plot.gui;
+
+import java.util.Arrays;
+
+import anl.verdi.util.SharedPool;
+
+/**
+ * Scanline rasterizer that fills the polygons of a mesh directly into the
+ * int pixels of an image, rather than through Graphics2D.fillPolygon. Each
+ * polygon can be written to a color buffer and a cell id buffer in the
+ * same pass. Pixels are sampled where fillPolygon samples them with the
+ * default rendering hints, using the even-odd rule, and polygons are filled in
+ * order so later ones cover earlier ones. The image is split into
+ * horizontal bands that are filled in parallel on VERDI's shared threads.
+ */
+public class MeshRasterizer {
+
+	/**
+	 * System property that sets the default number of threads
+	 * used to rasterize meshes.
+	 */
+	public static final String PARALLELISM_PROPERTY = "verdi.render.parallelism";
+
+	// below this many pixels the overhead of splitting is not worth it
+	private static final int MIN_PARALLEL_PIXELS = 1 << 16;
+	// target number of bands per thread, to even out the load
+	private static final int BANDS_PER_THREAD = 4;
+	private static final int MIN_BAND_HEIGHT = 16;
+	// Java2D's default stroke control shifts fills by a quarter pixel before
+	// sampling at pixel centers, so sample the unshifted polygon there
+	private static final double SAMPLE_OFFSET = 0.25;
+
+	static final SharedPool pool = new SharedPool("Mesh rasterizer", PARALLELISM_PROPERTY, false);
+
+	private int width, height;
+	private int[] colorPixels, idPixels;
+
+	/**
+	 * Gets the number of threads used to rasterize meshes.
+	 *
+	 * @return the number of threads used to rasterize meshes.
+	 */
+	public static int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to rasterize meshes. A value of 1
+	 * rasterizes on the calling thread.
+	 *
+	 * @param level the number of threads
+	 */
+	public static void setParallelism(int level) {
+		pool.setParallelism(level);
+	}
+
+	/**
+	 * Creates a rasterizer that writes into the specified pixels, which are
+	 * stored row by row as in the DataBufferInt of a TYPE_INT_RGB or
+	 * TYPE_INT_ARGB image.
+	 *
+	 * @param width       the width of the image in pixels
+	 * @param height      the height of the image in pixels
+	 * @param colorPixels the pixels to write the polygon colors to, or null
+	 * @param idPixels    the pixels to write the polygon ids to, or null
+	 */
+	public MeshRasterizer(int width, int height, int[] colorPixels, int[] idPixels) {
+		if ((colorPixels != null && colorPixels.length < width * height)
+						|| (idPixels != null && idPixels.length < width * height))
+			throw new IllegalArgumentException("Pixel buffer smaller than " + width + "x" + height);
+		this.width = width;
+		this.height = height;
+		this.colorPixels = colorPixels;
+		this.idPixels = idPixels;
+	}
+
+	/**
+	 * Fills the specified polygons. Polygons with a null x array are skipped.
+	 * The pixel at (column, row) is at (column + xOrigin, row + yOrigin) in
+	 * polygon coordinates.
+	 *
+	 * @param count   the number of polygons
+	 * @param xs      the x coordinates of the vertices of each polygon
+	 * @param ys      the y coordinates of the vertices of each polygon
+	 * @param colors  the color of each polygon, ignored if there are no color pixels
+	 * @param ids     the id of each polygon, ignored if there are no id pixels
+	 * @param xOrigin the x coordinate of the left column of the image
+	 * @param yOrigin the y coordinate of the top row of the image
+	 */
+	public void fill(int count, int[][] xs, int[][] ys, int[] colors, int[] ids, int xOrigin, int yOrigin) {
+		if (width <= 0 || height <= 0) return;
+		int threads = getParallelism();
+		int bandHeight = height;
+		if (threads > 1 && (long) width * height >= MIN_PARALLEL_PIXELS)
+			bandHeight = Math.max(MIN_BAND_HEIGHT, (height + threads * BANDS_PER_THREAD - 1) / (threads * BANDS_PER_THREAD));
+		int bands = (height + bandHeight - 1) / bandHeight;
+
+		// the rows each polygon covers, and the polygons in each band, packed
+		// so that the polygons of band b are at bandStart[b] to bandStart[b + 1]
+		int[] firstRows = new int[count];
+		int[] lastRows = new int[count];
+		int[] bandStart = new int[bands + 1];
+		int maxVertices = 0;
+		for (int polygon = 0; polygon < count; polygon++) {
+			int[] x = xs[polygon];
+			lastRows[polygon] = -1;
+			if (x == null || x.length < 3) continue;
+			int[] y = ys[polygon];
+			int minY = y[0], maxY = y[0];
+			for (int vertex = 1; vertex < y.length; vertex++) {
+				if (y[vertex] < minY) minY = y[vertex];
+				else if (y[vertex] > maxY) maxY = y[vertex];
+			}
+			// rows whose sample points are within [minY, maxY)
+			firstRows[polygon] = Math.max(0, minY - yOrigin);
+			lastRows[polygon] = Math.min(height - 1, maxY - yOrigin - 1);
+			if (firstRows[polygon] > lastRows[polygon]) continue;
+			maxVertices = Math.max(maxVertices, x.length);
+			for (int band = firstRows[polygon] / bandHeight; band <= lastRows[polygon] / bandHeight; band++) {
+				bandStart[band + 1]++;
+			}
+		}
+		for (int band = 0; band < bands; band++) {
+			bandStart[band + 1] += bandStart[band];
+		}
+		int[] bandPolygons = new int[bandStart[bands]];
+		int[] next = new int[bands];
+		System.arraycopy(bandStart, 0, next, 0, bands);
+		for (int polygon = 0; polygon < count; polygon++) {
+			if (firstRows[polygon] > lastRows[polygon]) continue;
+			for (int band = firstRows[polygon] / bandHeight; band <= lastRows[polygon] / bandHeight; band++) {
+				bandPolygons[next[band]++] = polygon;
+			}
+		}
+
+		final Request request = new Request(xs, ys, colors, ids, xOrigin, yOrigin, firstRows, lastRows, bandStart,
+						bandPolygons, bandHeight, maxVertices);
+		if (bands == 1) request.fillBand(0);
+		else pool.forEach(bands, new SharedPool.Body() {
+			public void run(int band) {
+				request.fillBand(band);
+			}
+		});
+	}
+
+	// the polygons to fill and how they are split into bands
+	private class Request {
+
+		int[][] xs, ys;
+		int[] colors, ids;
+		int xOrigin, yOrigin;
+		int[] firstRows, lastRows, bandStart, bandPolygons;
+		int bandHeight, maxVertices;
+
+		Request(int[][] xs, int[][] ys, int[] colors, int[] ids, int xOrigin, int yOrigin, int[] firstRows,
+						int[] lastRows, int[] bandStart, int[] bandPolygons, int bandHeight, int maxVertices) {
+			this.xs = xs;
+			this.ys = ys;
+			this.colors = colors;
+			this.ids = ids;
+			this.xOrigin = xOrigin;
+			this.yOrigin = yOrigin;
+			this.firstRows = firstRows;
+			this.lastRows = lastRows;
+			this.bandStart = bandStart;
+			this.bandPolygons = bandPolygons;
+			this.bandHeight = bandHeight;
+			this.maxVertices = maxVertices;
+		}
+
+		void fillBand(int band) {
+			int bandTop = band * bandHeight;
+			int bandBottom = Math.min(height, bandTop + bandHeight) - 1;
+			double[] crossings = new double[maxVertices];
+			for (int i = bandStart[band]; i < bandStart[band + 1]; i++) {
+				int polygon = bandPolygons[i];
+				int[] x = xs[polygon];
+				int[] y = ys[polygon];
+				int color = colorPixels == null ? 0 : colors[polygon];
+				int id = idPixels == null ? 0 : ids[polygon];
+				int first = Math.max(bandTop, firstRows[polygon]);
+				int last = Math.min(bandBottom, lastRows[polygon]);
+				for (int row = first; row <= last; row++) {
+					double center = row + yOrigin + SAMPLE_OFFSET;
+					// x coordinates where the edges cross the row's sample point,
+					// kept sorted by insertion since there are only a few
+					int found = 0;
+					for (int vertex = 0, previous = x.length - 1; vertex < x.length; previous = vertex++) {
+						int y0 = y[previous], y1 = y[vertex];
+						if ((y0 < center) == (y1 < center)) continue;
+						double crossing = x[previous] + (center - y0) * (x[vertex] - x[previous]) / (y1 - y0);
+						int j = found++;
+						while (j > 0 && crossings[j - 1] > crossing) {
+							crossings[j] = crossings[j - 1];
+							j--;
+						}
+						crossings[j] = crossing;
+					}
+					int offset = row * width;
+					for (int j = 0; j + 1 < found; j += 2) {
+						// columns whose sample points are within [from, to)
+						int from = Math.max(0, (int) Math.ceil(crossings[j] - SAMPLE_OFFSET) - xOrigin);
+						int to = Math.min(width, (int) Math.ceil(crossings[j + 1] - SAMPLE_OFFSET) - xOrigin);
+						if (from >= to) continue;
+						if (colorPixels != null) Arrays.fill(colorPixels, offset + from, offset + to, color);
+						if (idPixels != null) Arrays.fill(idPixels, offset + from, offset + to, id);
+					}
+				}
+			}
+		}
+	}
+}
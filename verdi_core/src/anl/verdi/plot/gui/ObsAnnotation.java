@@ -40,7 +40,6 @@ import anl.verdi.area.target.Target;
 import anl.verdi.data.Axes;
 import anl.verdi.data.BoundingBoxer;
 import anl.verdi.data.DataFrameAxis;
-import anl.verdi.data.DataUtilities;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.ObsData;
 import anl.verdi.data.ObsEvaluator;
@@ -247,6 +246,7 @@ public class ObsAnnotation extends AbstractXYAnnotation {
 		final double yScale = height / yRange;
 
 		int values = 0;
+		LegendClassifier classifier = null;
 		
 		double maxLat, maxLon;
 		maxLat = 0;
@@ -278,7 +278,9 @@ public class ObsAnnotation extends AbstractXYAnnotation {
 
 			if (data.getValue() > 0.01)
 				++values;
-			final int colorIndex = indexOfObsValue((float) data.getValue(), legendLevels);
+			if (classifier == null)
+				classifier = new LegendClassifier(legendLevels);
+			final int colorIndex = classifier.classify((float) data.getValue());
 			
 			if (colorIndex == -1)
 				continue;
@@ -407,38 +409,6 @@ public class ObsAnnotation extends AbstractXYAnnotation {
 			tool.drawTriangle(X, Y, shapeSize, g2d, color);
 	}
 
-	/**
-	 * indexOfObsValue - Clamped index of value within range.
-	 * 
-	 * @pre ! Numerics.isNan( value )
-	 * @pre values != null
-	 * @pre values.length >= 2
-	 * @post return >= 0
-	 * @post return < values.length - 1
-	 * @post value >= values[ return ]
-	 * @post value <= values[ return ]
-	 */
-
-	private static int indexOfObsValue(float value, final double[] values) {
-		if (Float.isNaN(value))
-			return -1;
-		
-		if (value <= DataUtilities.BADVAL3 || value <= DataUtilities.AMISS3 || value >= DataUtilities.NC_FILL_FLOAT) 	// 2014 changed AMISS3 comparison from == to <=
-			return -1;
-
-		final int count = values.length;
-
-		if (values[0] == values[values.length - 1])
-			return 0;
-
-		for (int index = 1; index < count; index++) {
-			if (values[index] > value)
-				return index - 1;
-		}
-
-		return count - 2;
-	}
-
 	public void updateMap(ColorMap map) {
 		setDrawingParams(strokeSize, shapeSize, map);
 	}
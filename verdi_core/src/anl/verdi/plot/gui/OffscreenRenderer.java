@@ -0,0 +1,62 @@
+package anl.verdi.plot.gui;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.util.SharedPool;
+
+/**
+ * Draws plots into images off screen on VERDI's shared threads, for
+ * AbstractPlotPanel.render. Plots lay themselves out for the image and draw
+ * it on the shared thread, rather than asking their on-screen renderer
+ * thread or the Swing event thread for it, so frames are drawn in headless
+ * mode too, and the caller gets a Future to wait on rather than polling for
+ * the image.
+ */
+public class OffscreenRenderer {
+
+	/**
+	 * System property that sets the default number of threads
+	 * used to draw plots off screen.
+	 */
+	public static final String PARALLELISM_PROPERTY = "verdi.offscreen.parallelism";
+
+	static final Logger Logger = LogManager.getLogger(OffscreenRenderer.class.getName());
+
+	// a frame may wait for the plot's on-screen renderer to finish drawing,
+	// so frames run on the shared threads for waiting
+	private static final SharedPool pool = new SharedPool("Offscreen renderer", PARALLELISM_PROPERTY, true);
+
+	/**
+	 * Gets the number of threads used to draw plots off screen.
+	 *
+	 * @return the number of threads used to draw plots off screen.
+	 */
+	public static int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to draw plots off screen. Frames
+	 * already submitted are still drawn.
+	 *
+	 * @param level the number of threads
+	 */
+	public static void setParallelism(int level) {
+		pool.setParallelism(level);
+	}
+
+	/**
+	 * Draws a frame on one of the shared threads.
+	 *
+	 * @param frame draws the frame
+	 * @return the future image.
+	 */
+	public static Future<BufferedImage> submit(Callable<BufferedImage> frame) {
+		return pool.submit(frame);
+	}
+}
@@ -9,19 +9,28 @@
 
 package anl.verdi.plot.gui;
 
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.geotools.data.FeatureSource;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
 import org.geotools.map.MapContent;
+import org.geotools.referencing.CRS;
 import org.geotools.renderer.GTRenderer;
 import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.Stroke;
 import org.geotools.styling.Style;
 //import org.opengis.geometry.Geometry;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -31,6 +40,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 // independent of time & vertical layer
 
 import ucar.unidata.geoloc.Projection;
+import anl.verdi.plot.util.GraphicsTarget;
 
 public class VerdiBoundaries {
 
@@ -46,6 +56,9 @@ public class VerdiBoundaries {
 	//private MathTransform vTransform = null;	// math transform from shapefile to grid CRS
 	private Projection vProjection = null;
 	private CoordinateReferenceSystem vCRS = null;
+	private GTRenderer vRenderer = null;		// renders styles that MapOutlines cannot draw
+	private BufferedImage vOverlay = null;		// the map as last drawn, copied while only the data changes
+	private Object[] vOverlayKey = null;		// the area, CRS, size and style vOverlay was drawn for
 	
 	public VerdiBoundaries()		// default constructor
 	{
@@ -119,96 +132,113 @@ public class VerdiBoundaries {
 		if (vMap != null)
 			vMap.dispose();
 		vMap = null;
+		vRenderer = null;
+		vOverlay = null;
+		vOverlayKey = null;
 		//vTransform = null;
 	}
 	
-	public void draw(double[][] domain, double[][] gridBounds, CoordinateReferenceSystem gridCRS, Graphics graphics,
+	// synchronized as the offscreen copies of a plot share its map layers
+	public synchronized void draw(double[][] domain, double[][] gridBounds, CoordinateReferenceSystem gridCRS, Graphics graphics,
 			int xOffset, int yOffset, int width, int height)	// execute the draw function for this VerdiBoundaries layer
 	{	
-		Logger.debug("in VerdiBoundaries.draw; ready to getStyle() and return theStyle");
-		Style theStyle = aVerdiStyle.getStyle();
+		if (width <= 0 || height <= 0)
+			return;
 		graphics.setColor(vColor);		// set color for this graphics drawing to color stored for this VerdiBoundaries object
-		Logger.debug("just back from getting style");
-		Logger.debug("in VerdiBoundaries.draw; aVerdiStyle.getStyle() = " + theStyle.toString());
-		Logger.debug("in VerdiBoundaries.draw, CRS for tile plot (gridCRS) = " + gridCRS);
-		Logger.debug("   and name of file = " + vFileName);
-		/*try {
-			vStore = FileDataStoreFinder.getDataStore(vFile);
-			vFeatureSource = vStore.getFeatureSource();
-		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}*/
-		Logger.debug("vFile = " + vFile.toString());
-		Logger.debug("vPath = " + vPath.toString());
-		Logger.debug("vMap = " + vMap.toString());
-		Logger.debug("map Coordinate Reference System (vCRS) = " + aVerdiStyle.getCoordinateReferenceSystem());
-		Logger.debug("Feature Source = " + aVerdiStyle.getFeatureSource().toString());
-		//Logger.debug("vStore = " + vStore.toString());
-		//Logger.debug("vFeatureSource = " + vFeatureSource.toString());
-		Logger.debug("Layer = " + aVerdiStyle.getLayers().get(0));
-		Logger.debug("ShapeFile = " + aVerdiStyle.getShapeFile().toString());
-		Logger.debug("Shapefile Path = " + aVerdiStyle.getShapePath());
-		Logger.debug("Style = " + aVerdiStyle.getStyle().toString());
-		Logger.debug("now set the CRS to gridCRS");	// NOTE: do NOT use Projector method (old UCAR operates point-by-point
-		//Layer aLayer = new FeatureLayer(aVerdiStyle.getFeatureSource(), theStyle);
-		//vMap.addLayer(aLayer);
-		vMap.getViewport().setCoordinateReferenceSystem(gridCRS);
-		Logger.debug("set CRS of Viewport to gridCRS: " + gridCRS.toString());
+		FeatureSource<?, ?> source = aVerdiStyle.getFeatureSource();
+		Stroke stroke = aVerdiStyle.getLineStroke();
+		Color lineColor = null;
+		BasicStroke lineStroke = null;
+		if (stroke != null) {
+			lineColor = stroke.getColor().evaluate(null, Color.class);
+			lineStroke = toBasicStroke(stroke);
+		}
+		Graphics2D g2 = (Graphics2D) graphics;
+		// exports such as EPS get the lines themselves rather than an image of them
+		if (!GraphicsTarget.isRaster(graphics)) {
+			drawMap(g2, source, lineColor, lineStroke, gridBounds, gridCRS, xOffset, yOffset, width, height);
+			return;
+		}
+		// the map does not change between time steps, so it is only drawn
+		// again when the area drawn, its size, the style or the hints change
+		RenderingHints hints = g2.getRenderingHints();
+		Object[] key = {gridBounds[0][0], gridBounds[0][1], gridBounds[1][0], gridBounds[1][1], gridCRS,
+				width, height, source, aVerdiStyle.getStyle(), lineColor, lineStroke, hints};
+		if (vOverlay == null || !Arrays.equals(key, vOverlayKey)) {
+			vOverlayKey = null;
+			drawOverlay(source, lineColor, lineStroke, hints, gridBounds, gridCRS, width, height);
+			vOverlayKey = key;
+		}
+		graphics.drawImage(vOverlay, xOffset, yOffset, null);
+	}	// end of draw function
+
+	// the stroke StreamingRenderer draws the lines of the style with
+	private static BasicStroke toBasicStroke(Stroke stroke)
+	{
+		Float width = stroke.getWidth() == null ? null : stroke.getWidth().evaluate(null, Float.class);
+		String cap = stroke.getLineCap() == null ? null : stroke.getLineCap().evaluate(null, String.class);
+		String join = stroke.getLineJoin() == null ? null : stroke.getLineJoin().evaluate(null, String.class);
+		int capCode = "butt".equals(cap) ? BasicStroke.CAP_BUTT
+				: "round".equals(cap) ? BasicStroke.CAP_ROUND : BasicStroke.CAP_SQUARE;
+		int joinCode = "bevel".equals(join) ? BasicStroke.JOIN_BEVEL
+				: "round".equals(join) ? BasicStroke.JOIN_ROUND : BasicStroke.JOIN_MITER;
+		return new BasicStroke(width == null ? 1 : width, capCode, joinCode, 1);
+	}
+
+	// draws the map into vOverlay with the rendering hints of the graphics
+	// it is copied to, so that it is antialiased if that graphics is
+	private void drawOverlay(FeatureSource<?, ?> source, Color lineColor, BasicStroke lineStroke, RenderingHints hints,
+			double[][] gridBounds, CoordinateReferenceSystem gridCRS, int width, int height)
+	{
+		if (vOverlay == null || vOverlay.getWidth() != width || vOverlay.getHeight() != height)
+			vOverlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = vOverlay.createGraphics();
+		try {
+			g.setComposite(AlphaComposite.Clear);
+			g.fillRect(0, 0, width, height);
+			g.setComposite(AlphaComposite.SrcOver);
+			g.setRenderingHints(hints);
+			drawMap(g, source, lineColor, lineStroke, gridBounds, gridCRS, 0, 0, width, height);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	// draws the map from the cached outlines of the features when the style
+	// only draws lines and the features are already in the grid's CRS, or
+	// with a StreamingRenderer, which reprojects them, otherwise
+	private void drawMap(Graphics2D g, FeatureSource<?, ?> source, Color lineColor, BasicStroke lineStroke,
+			double[][] gridBounds, CoordinateReferenceSystem gridCRS, int xOffset, int yOffset, int width, int height)
+	{
+		if (lineColor != null && sameCRS(source.getSchema().getCoordinateReferenceSystem(), gridCRS)) {
+			try {
+				MapOutlines.get(source).draw(g, lineColor, lineStroke, gridBounds[0][0], gridBounds[0][1],
+						gridBounds[1][0], gridBounds[1][1], xOffset, yOffset, width, height);
+				return;
+			} catch (IOException e) {
+				Logger.warn("Unable to read the outlines of " + vFileName + ": " + e.getMessage());
+			}
+		}
 		ReferencedEnvelope displayBounds = new ReferencedEnvelope(gridBounds[0][0], gridBounds[0][1], gridBounds[1][0], gridBounds[1][1], gridCRS);
+		vMap.getViewport().setCoordinateReferenceSystem(gridCRS);
 		vMap.getViewport().setBounds(displayBounds);
 		for (Layer layer : aVerdiStyle.getLayers()) {
 			layer.setVisible(true);
-			/*System.out.println("VerdiBoundaries; " + layer.getClass());
-			System.err.println(layer.getFeatureSource().getSchema().getCoordinateReferenceSystem());
-			try {
-				System.out.println(layer.getFeatureSource().getFeatures().features().next());
-			} catch (Exception e) {
-				e.printStackTrace();
-			}*/
+			if (!vMap.layers().contains(layer))
+				vMap.addLayer(layer);
 		}
-		
-		// set of math transform
-		// NOTE: next commented-out section is possibly the beginnings of writing out a shapefile in a given projection
-		/*boolean lenient = true;		// allow for some error due to different datums
-		try {
-			vTransform = CRS.findMathTransform(aVerdiStyle.getCoordinateReferenceSystem(), gridCRS, lenient);
-		} catch (FactoryException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (vRenderer == null) {
+			vRenderer = new StreamingRenderer();
+			vRenderer.setMapContent(vMap);
 		}
-		Logger.debug("vTransform computed as = " + vTransform.toString());	// nothing yet drawn on map */
-////		// TODO - perform the transform
-//		SimpleFeatureCollection featureCollection = null;
-//		SimpleFeatureCollection newFeatureCollection = null;
-//		try {
-//			featureCollection = (SimpleFeatureCollection) vFeatureSource.getFeatures();
-//		} catch (IOException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
-//		SimpleFeatureIterator iterator = featureCollection.features();
-//		try {
-//			while (iterator.hasNext())
-//			{
-//				SimpleFeature feature = iterator.next();
-//				Geometry geom1 = (Geometry) feature.getDefaultGeometry();
-//				Geometry geometry2 = JTS.transform(geom1, vTransform);
-//				newFeatureCollection.
-////				// What do I do with the geometry2 object?
-//			}
-//		} catch (Exception ex) {
-//			Logger.error("caught an exception while converting map to new Coordinate Reference System");
-//		} finally {
-//			iterator.close();
-//		}
-		// TODO - create a map layer and add it to the vMap object
-		vMap.addLayers(aVerdiStyle.getLayers());	// FIGURE THIS ONE OUT BECAUSE TRANSFORM IS HERE
-		GTRenderer renderer = new StreamingRenderer();
-		renderer.setMapContent(vMap);
-		Rectangle outputArea = new Rectangle(xOffset, yOffset, width, height);
-		renderer.paint((Graphics2D)graphics, outputArea, vMap.getViewport().getBounds());
-	}	// end of draw function
+		vRenderer.paint(g, new Rectangle(xOffset, yOffset, width, height), vMap.getViewport().getBounds());
+	}
+
+	// a missing CRS is taken to be the other one, as StreamingRenderer takes it
+	private static boolean sameCRS(CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem gridCRS)
+	{
+		return sourceCRS == null || gridCRS == null || CRS.equalsIgnoreMetadata(sourceCRS, gridCRS);
+	}
 		
 	public MapContent getMap()	// send vMap back to calling program
 	{
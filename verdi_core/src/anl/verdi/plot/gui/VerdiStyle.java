@@ -585,6 +585,7 @@ public class VerdiStyle implements Callable<Boolean> {
 	public void setStyle(Style aStyle)
 	{
 		vStyle = aStyle;			// set the style from another part of the program
+		vStroke = null;
 	}
 	
 	public void setLayerLine(Color color, int width) {
@@ -594,6 +595,18 @@ public class VerdiStyle implements Callable<Boolean> {
 		}
 	}
 	
+	/**
+	 * Gets the stroke of the default line or polygon style, which only draws
+	 * the outlines of the features.
+	 *
+	 * @return the stroke, or null if the style came from an SLD file or the
+	 *         style dialog, or draws points.
+	 */
+	public Stroke getLineStroke()
+	{
+		return vStroke;
+	}
+	
 	public List<Layer> getLayers()			// get Layer based on FeatureSource and Style
 	{
 		if(vLayer == null)
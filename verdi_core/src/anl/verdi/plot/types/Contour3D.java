@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.JCheckBoxMenuItem;
@@ -178,7 +179,15 @@ public class Contour3D implements Plot, TimeAnimatablePlot, Printable, MinMaxLev
     	
     	if (meshInput) {
     		hasNoLayer = ds.getZAxis(frame.getVariable().getName()) == null;
-    		MinMaxInfo info = ds.getPlotMinMax(frame,  this);
+    		MinMaxInfo info;
+    		try {
+    			info = ds.getFinalPlotMinMax(frame).get();
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			throw new VisADException("Interrupted calculating the range of " + frame.getVariable().getName());
+    		} catch (ExecutionException e) {
+    			throw new VisADException("Unable to calculate the range of " + frame.getVariable().getName() + ": " + e.getCause());
+    		}
     		minMax = new DataUtilities.MinMax(info.getMin(), info.getMax());
     	} else {
     		hasNoLayer = frame.getAxes().getZAxis() == null;
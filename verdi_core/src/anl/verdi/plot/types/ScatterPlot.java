@@ -21,6 +21,7 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -365,6 +366,18 @@ public class ScatterPlot extends AbstractPlot implements MinMaxLevelListener {
 		createSubtitle();
 	}
 
+	// waits for the min/max of every step of the frame to be calculated, so
+	// that the min/max of the plotted step can be read
+	private static void awaitMinMax(IMPASDataset ds, DataFrame frame) {
+		try {
+			ds.getFinalPlotMinMax(frame).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Logger.error("Error calculating min/max of " + frame.getVariable(), e);
+		}
+	}
+
 	private JFreeChart createChart(XYDataset dataset) {
 		String xAxisLabel = xFrame.getVariable().getName() + " "
 				+ VUnits.getFormattedName(xFrame.getVariable().getUnit());
@@ -399,7 +412,7 @@ public class ScatterPlot extends AbstractPlot implements MinMaxLevelListener {
 			DataUtilities.MinMax minMax = null;
 			if (meshInput) {
 	    		MinMaxInfo info = null;
-	    		xDs.getPlotMinMax(xFrame,  this);
+	    		awaitMinMax(xDs, xFrame);
 	    		if (hasNoLayer)
 	    			info = xDs.getTimestepMinMax(xFrame, 0, timeStep);
 	    		else
@@ -435,7 +448,7 @@ public class ScatterPlot extends AbstractPlot implements MinMaxLevelListener {
 			DataUtilities.MinMax minMax = null;
 			if (meshInput) {
 	    		MinMaxInfo info = null;
-	    		yDs.getPlotMinMax(yFrame,  this);
+	    		awaitMinMax(yDs, yFrame);
 	    		if (hasNoLayer)
 	    			info = yDs.getTimestepMinMax(yFrame, 0, timeStep);
 	    		else
@@ -4,6 +4,9 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -21,6 +24,12 @@ import java.io.OutputStream;
  *    e.addFrame(image2);
  *    e.finish();
  * </pre>
+ * Frames are quantized to a color table of their own with NeuQuant, unless
+ * a palette is set with <code>setPalette</code>. Then all the frames share
+ * one global color table, their pixels are mapped to it with a hash rather
+ * than quantized, and with <code>setCropToChanges</code> each frame after
+ * the first is cropped to the area that differs from the frame before.
+ * <p>
  * No copyright asserted on the source code of this class.  May be used
  * for any purpose, however, refer to the Unisys LZW patent for restrictions
  * on use of the associated LZWEncoder class.  Please forward any corrections
@@ -53,6 +62,12 @@ public class AnimatedGifEncoder {
 	protected boolean firstFrame = true;
 	protected boolean sizeSet = false; // if false, get size from first frame
 	protected int sample = 10; // default sample interval for quantizer
+	protected Color[] paletteColors = null; // colors of the global color table if given
+	protected GifPalette palette; // global color table, from the first frame
+	protected boolean cropToChanges = false; // write only the changed area of frames
+	protected byte[] previousPixels; // previous frame indexed to the global palette
+	protected int frameX, frameY; // position and size of the area written
+	protected int frameWidth, frameHeight;
 
 	/**
 	 * Sets the delay time between each frame, or changes it
@@ -106,6 +121,34 @@ public class AnimatedGifEncoder {
 		transparent = c;
 	}
 	
+	/**
+	 * Sets the colors of a color table shared by all the frames, such as
+	 * the legend colors of a plot and the colors of its lines and text.
+	 * Other colors found in the first frame are added to the table while
+	 * there is room for them, and after that any other color is drawn as
+	 * the closest color in the table. This is much faster than quantizing
+	 * each frame, and the colors do not flicker from frame to frame. Must
+	 * be invoked before the first image is added.
+	 *
+	 * @param colors Color[] colors of the table, or null to quantize
+	 * each frame to its own color table.
+	 */
+	public void setPalette(Color[] colors) {
+		if (started && !firstFrame) return;
+		paletteColors = colors;
+	}
+	
+	/**
+	 * Sets whether each frame after the first is cropped to the area
+	 * that differs from the frame before, which is left in place. Only
+	 * applies when a palette is set.
+	 *
+	 * @param crop boolean true to write only the changed area of frames.
+	 */
+	public void setCropToChanges(boolean crop) {
+		cropToChanges = crop;
+	}
+	
 	/**
 	 * Adds next GIF frame.  The frame is not written immediately, but is
 	 * actually deferred until the next frame is received so that timing
@@ -127,8 +170,15 @@ public class AnimatedGifEncoder {
 				setSize(im.getWidth(), im.getHeight());
 			}
 			image = im;
-			getImagePixels(); // convert to correct format if necessary
-			analyzePixels(); // build color table & map pixels
+			if (paletteColors != null) {
+				mapPixels(); // map pixels to global color table
+			} else {
+				getImagePixels(); // convert to correct format if necessary
+				analyzePixels(); // build color table & map pixels
+				frameX = frameY = 0;
+				frameWidth = width;
+				frameHeight = height;
+			}
 			if (firstFrame) {
 				writeLSD(); // logical screen descriptior
 				writePalette(); // global color table
@@ -139,7 +189,7 @@ public class AnimatedGifEncoder {
 			}
 			writeGraphicCtrlExt(); // write graphic control extension
 			writeImageDesc(); // image descriptor
-			if (!firstFrame) {
+			if (!firstFrame && palette == null) {
 				writePalette(); // local color table
 			}
 			writePixels(); // encode and write pixel data
@@ -177,6 +227,8 @@ public class AnimatedGifEncoder {
 		pixels = null;
 		indexedPixels = null;
 		colorTab = null;
+		palette = null;
+		previousPixels = null;
 		closeStream = false;
 		firstFrame = true;
 
@@ -302,6 +354,99 @@ public class AnimatedGifEncoder {
 		}
 	}
 	
+	/**
+	 * Maps image pixels to the global color table, creating the table
+	 * from the palette colors and the colors of the first frame.
+	 */
+	protected void mapPixels() {
+		int[] rgb = getImageRGB();
+		if (palette == null) {
+			palette = new GifPalette(paletteColors);
+		}
+		byte[] indexed = new byte[rgb.length];
+		palette.map(rgb, indexed);
+		if (!palette.isFixed()) {
+			// the table is written with the first frame
+			palette.fix();
+			colorTab = palette.getColorTable();
+			colorDepth = palette.getColorDepth();
+			palSize = colorDepth - 1;
+			for (int i = 0; i < usedEntry.length; i++) {
+				usedEntry[i] = i < palette.getSize();
+			}
+			if (transparent != null) {
+				transIndex = findClosest(transparent);
+			}
+		}
+		if (cropToChanges && previousPixels != null) {
+			cropPixels(indexed);
+		} else {
+			indexedPixels = indexed;
+			frameX = frameY = 0;
+			frameWidth = width;
+			frameHeight = height;
+		}
+		previousPixels = cropToChanges ? indexed : null;
+	}
+	
+	/**
+	 * Crops the indexed pixels to the smallest rectangle that holds the
+	 * pixels that differ from the previous frame, or a single pixel if
+	 * none differ.
+	 */
+	protected void cropPixels(byte[] indexed) {
+		int top = 0;
+		while (top < height && sameRow(indexed, top)) {
+			top++;
+		}
+		if (top == height) {
+			frameX = frameY = 0;
+			frameWidth = frameHeight = 1;
+			indexedPixels = new byte[] { indexed[0] };
+			return;
+		}
+		int bottom = height - 1;
+		while (sameRow(indexed, bottom)) {
+			bottom--;
+		}
+		int left = width;
+		int right = -1;
+		for (int y = top; y <= bottom; y++) {
+			int row = y * width;
+			for (int x = 0; x < left; x++) {
+				if (indexed[row + x] != previousPixels[row + x]) {
+					left = x;
+					break;
+				}
+			}
+			for (int x = width - 1; x > right; x--) {
+				if (indexed[row + x] != previousPixels[row + x]) {
+					right = x;
+					break;
+				}
+			}
+		}
+		frameX = left;
+		frameY = top;
+		frameWidth = right - left + 1;
+		frameHeight = bottom - top + 1;
+		indexedPixels = new byte[frameWidth * frameHeight];
+		for (int y = 0; y < frameHeight; y++) {
+			System.arraycopy(indexed, (top + y) * width + left,
+				indexedPixels, y * frameWidth, frameWidth);
+		}
+	}
+	
+	/**
+	 * Returns true if a row of pixels is the same as in the previous frame
+	 */
+	protected boolean sameRow(byte[] indexed, int y) {
+		for (int i = y * width, end = i + width; i < end; i++) {
+			if (indexed[i] != previousPixels[i]) return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Returns index of palette color closest to c
 	 *
@@ -349,6 +494,35 @@ public class AnimatedGifEncoder {
 		pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
 	}
 	
+	/**
+	 * Gets the image pixels as RGB values, without copying them if
+	 * the image stores them that way.
+	 */
+	protected int[] getImageRGB() {
+		int type = image.getType();
+		if ((image.getWidth() != width)
+			|| (image.getHeight() != height)
+			|| ((type != BufferedImage.TYPE_INT_RGB) && (type != BufferedImage.TYPE_INT_ARGB))) {
+			// create new image with right size/format
+			BufferedImage temp =
+				new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = temp.createGraphics();
+			g.drawImage(image, 0, 0, null);
+			g.dispose();
+			image = temp;
+		}
+		WritableRaster raster = image.getRaster();
+		if ((raster.getDataBuffer() instanceof DataBufferInt)
+			&& (raster.getDataBuffer().getOffset() == 0)
+			&& (raster.getSampleModelTranslateX() == 0)
+			&& (raster.getSampleModelTranslateY() == 0)
+			&& (raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+			&& (((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width)) {
+			return ((DataBufferInt) raster.getDataBuffer()).getData();
+		}
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+	
 	/**
 	 * Writes Graphic Control Extension
 	 */
@@ -364,6 +538,9 @@ public class AnimatedGifEncoder {
 			transp = 1;
 			disp = 2; // force clear if using transparent color
 		}
+		if (cropToChanges && (paletteColors != null)) {
+			disp = 1; // leave in place under the next changed area
+		}
 		if (dispose >= 0) {
 			disp = dispose & 7; // user override
 		}
@@ -385,13 +562,13 @@ public class AnimatedGifEncoder {
 	 */
 	protected void writeImageDesc() throws IOException {
 		out.write(0x2c); // image separator
-		writeShort(0); // image position x,y = 0,0
-		writeShort(0);
-		writeShort(width); // image size
-		writeShort(height);
+		writeShort(frameX); // image position x,y
+		writeShort(frameY);
+		writeShort(frameWidth); // image size
+		writeShort(frameHeight);
 		// packed fields
-		if (firstFrame) {
-			// no LCT  - GCT is used for first (or only) frame
+		if (firstFrame || (palette != null)) {
+			// no LCT  - GCT is used for first (or only) frame, or all frames
 			out.write(0);
 		} else {
 			// specify normal LCT
@@ -440,7 +617,7 @@ public class AnimatedGifEncoder {
 	 */
 	protected void writePalette() throws IOException {
 		out.write(colorTab, 0, colorTab.length);
-		int n = (3 * 256) - colorTab.length;
+		int n = (3 * (1 << (palSize + 1))) - colorTab.length;
 		for (int i = 0; i < n; i++) {
 			out.write(0);
 		}
@@ -451,7 +628,7 @@ public class AnimatedGifEncoder {
 	 */
 	protected void writePixels() throws IOException {
 		LZWEncoder encoder =
-			new LZWEncoder(width, height, indexedPixels, colorDepth);
+			new LZWEncoder(frameWidth, frameHeight, indexedPixels, colorDepth);
 		encoder.encode(out);
 	}
 	
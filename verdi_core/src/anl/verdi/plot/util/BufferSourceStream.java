@@ -21,6 +21,10 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 public class BufferSourceStream implements PullBufferStream {
 	static final Logger Logger = LogManager.getLogger(BufferSourceStream.class.getName());
 
+  // frames waiting to be written; addBuffer waits while there are this
+  // many, so frames added faster than they are written do not pile up
+  private static final int MAX_BUFFERS = 8;
+
   private List<Buffer> buffers = new ArrayList<Buffer>();
 
   private RGBFormat vFormat;
@@ -33,8 +37,16 @@ public class BufferSourceStream implements PullBufferStream {
 
   public void addBuffer(Buffer buf) {
     synchronized(buffers) {
+      while (buffers.size() >= MAX_BUFFERS) {
+        try {
+          buffers.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
       buffers.add(buf);
-      buffers.notify();
+      buffers.notifyAll();
     }
   }
 
@@ -47,7 +59,7 @@ public class BufferSourceStream implements PullBufferStream {
           buffers.wait();
         } catch (InterruptedException ex) {}
       }
-      buffers.notify();
+      buffers.notifyAll();
     }
     finished = true;
   }
@@ -75,13 +87,14 @@ public class BufferSourceStream implements PullBufferStream {
         buf.setFormat(vFormat);
         buf.setFlags(Buffer.FLAG_KEY_FRAME | Buffer.FLAG_NO_DROP);
         buffers.remove(0);
+        buffers.notifyAll();
         //Logger.debug("Removing buffer: size = " + buffers.size());
       } else {
         buf.setEOM(true);
         buf.setOffset(0);
         buf.setLength(0);
         synchronized (buffers) {
-          buffers.notify();
+          buffers.notifyAll();
         }
       }
     }
@@ -0,0 +1,195 @@
+package anl.verdi.plot.util;
+
+import java.awt.Color;
+
+/**
+ * A GIF color table of at most 256 colors shared by all the frames of an
+ * animation, with a hash from RGB values to color table indices. The table
+ * starts with the colors a plot draws with, such as its legend colors, and
+ * until it is fixed, other colors found in the frames are added while there
+ * is room. After that, or once the table is full, a color that is not in the
+ * table maps to the closest color in it, which is remembered so that each
+ * color is only looked up once.
+ */
+public class GifPalette {
+
+	/**
+	 * The largest number of colors in a GIF color table.
+	 */
+	public static final int MAX_COLORS = 256;
+
+	// marks the used slots of the hash, as an RGB value has no alpha
+	private static final int USED = 0xFF000000;
+
+	private final int[] colors = new int[MAX_COLORS];
+	private int size = 0;
+	private boolean fixed = false;
+
+	// open addressing hash of the RGB values looked up, with their indices
+	private int[] keys = new int[1024];
+	private byte[] indices = new byte[1024];
+	private int count = 0;
+
+	/**
+	 * Creates a GifPalette starting with the specified colors, ignoring
+	 * null, repeated and any after the first 256 colors.
+	 *
+	 * @param initial the colors to start with, may be null
+	 */
+	public GifPalette(Color[] initial) {
+		if (initial != null) {
+			for (Color color : initial) {
+				if (color != null && size < MAX_COLORS)
+					index(color.getRGB() & 0xFFFFFF);
+			}
+		}
+	}
+
+	/**
+	 * Gets the color table index of the specified color, adding the color
+	 * to the table if it is not fixed and not full.
+	 *
+	 * @param rgb the color as an RGB value; any alpha is ignored
+	 * @return the index of the color or of the closest color in the table.
+	 */
+	public int index(int rgb) {
+		int key = rgb | USED;
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != 0) {
+			if (keys[slot] == key)
+				return indices[slot] & 0xFF;
+			slot = (slot + 1) & mask;
+		}
+		int index;
+		if (!fixed && size < MAX_COLORS) {
+			index = size;
+			colors[size++] = rgb & 0xFFFFFF;
+		} else {
+			index = closest(rgb);
+		}
+		keys[slot] = key;
+		indices[slot] = (byte) index;
+		if (++count * 2 > keys.length)
+			rehash();
+		return index;
+	}
+
+	// Stafford's variant 13 mixer, as RGB values differ in the low bits
+	private static int hash(int key) {
+		key ^= key >>> 16;
+		key *= 0x85EBCA6B;
+		key ^= key >>> 13;
+		return key;
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		byte[] oldIndices = indices;
+		keys = new int[oldKeys.length * 2];
+		indices = new byte[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (keys[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				indices[slot] = oldIndices[i];
+			}
+		}
+	}
+
+	// the index of the table color nearest the specified color
+	private int closest(int rgb) {
+		int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+		int best = 0;
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			int dr = r - ((colors[i] >> 16) & 0xFF);
+			int dg = g - ((colors[i] >> 8) & 0xFF);
+			int db = b - (colors[i] & 0xFF);
+			int d = dr * dr + dg * dg + db * db;
+			if (d < min) {
+				min = d;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Maps RGB pixels to color table indices.
+	 *
+	 * @param pixels  the RGB pixels; any alpha is ignored
+	 * @param indexed receives the index of each pixel
+	 */
+	public void map(int[] pixels, byte[] indexed) {
+		// neighboring pixels of a plot are mostly the same color
+		int last = -1;
+		byte index = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			int rgb = pixels[i] & 0xFFFFFF;
+			if (rgb != last) {
+				index = (byte) index(rgb);
+				last = rgb;
+			}
+			indexed[i] = index;
+		}
+	}
+
+	/**
+	 * Stops colors being added to the table, as once the table is written
+	 * to the GIF it cannot change.
+	 */
+	public void fix() {
+		fixed = true;
+	}
+
+	/**
+	 * Gets whether colors are no longer added to the table.
+	 *
+	 * @return true if the table is fixed.
+	 */
+	public boolean isFixed() {
+		return fixed;
+	}
+
+	/**
+	 * Gets the number of colors in the table.
+	 *
+	 * @return the number of colors in the table.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of bits of an index into the table, which is the
+	 * size of the table written to the GIF.
+	 *
+	 * @return the number of bits of an index, from 1 to 8.
+	 */
+	public int getColorDepth() {
+		int depth = 1;
+		while ((1 << depth) < size)
+			depth++;
+		return depth;
+	}
+
+	/**
+	 * Gets the color table as it is written to a GIF, the red, green and
+	 * blue of each color, padded to 2 to the power of the color depth colors.
+	 *
+	 * @return the color table.
+	 */
+	public byte[] getColorTable() {
+		byte[] table = new byte[3 * (1 << getColorDepth())];
+		for (int i = 0; i < size; i++) {
+			table[3 * i] = (byte) (colors[i] >> 16);
+			table[3 * i + 1] = (byte) (colors[i] >> 8);
+			table[3 * i + 2] = (byte) colors[i];
+		}
+		return table;
+	}
+}
@@ -0,0 +1,42 @@
+package anl.verdi.plot.util;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.PrintGraphics;
+import java.awt.print.PrinterGraphics;
+
+import net.sf.epsgraphics.EpsGraphics;
+
+/**
+ * Tells whether a plot is being drawn into pixels, on screen or into an
+ * image, or exported to a vector format such as EPS or to a printer. Plots
+ * draw parts that do not change, such as map outlines or grid cells, as
+ * images when drawing into pixels, but exports must get the shapes
+ * themselves so that they stay vectors.
+ */
+public class GraphicsTarget {
+
+	private GraphicsTarget() {
+	}
+
+	/**
+	 * Gets whether the specified graphics draws into pixels.
+	 *
+	 * @param graphics the graphics
+	 * @return true if the graphics draws on screen or into an image, false
+	 *         if it exports to a vector format or prints.
+	 */
+	public static boolean isRaster(Graphics graphics) {
+		// EpsGraphics claims to be the screen, so it is recognized by class
+		if (!(graphics instanceof Graphics2D) || graphics instanceof EpsGraphics
+				|| graphics instanceof PrinterGraphics || graphics instanceof PrintGraphics)
+			return false;
+		GraphicsConfiguration configuration = ((Graphics2D) graphics).getDeviceConfiguration();
+		if (configuration == null || configuration.getDevice() == null)
+			return false;
+		int type = configuration.getDevice().getType();
+		return type == GraphicsDevice.TYPE_IMAGE_BUFFER || type == GraphicsDevice.TYPE_RASTER_SCREEN;
+	}
+}
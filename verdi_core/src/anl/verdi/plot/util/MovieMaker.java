@@ -122,27 +122,26 @@ public class MovieMaker implements ControllerListener, DataSinkListener {
 	}
 
 	/**
-	 * Adds an image to a movie as a frame with a default sleep value of 40
+	 * Adds an image to a movie as a frame without pausing. The images are
+	 * written to disk in a background thread, and this waits if too many
+	 * frames are waiting to be written.
 	 *
 	 * @param image the image to add as a frame
 	 * @throws IOException if there is an error while adding the frame
 	 */
 	public void addImageAsFrame(BufferedImage image) throws IOException {
-		addImageAsFrame(image, 40);
+		addImageAsFrame(image, 0);
 	}
 
 	/**
-	 * Adds an image to a movie as a frame. This method pause the main
-	 * simulation thread for the specified amount of time. This pause
-	 * is necessary to allow the images to be written to disk in a background
-	 * thread. Without the pauses the images are still written to disk, but
-	 * are added much faster than they can be written, resulting in increased
-	 * memory use and eventual OutOfMemoryErrors. This method is called by
-	 * DisplaySurface and shouldn't be called by a user in the course of
-	 * writing a model.
+	 * Adds an image to a movie as a frame, then pauses the calling thread
+	 * for the specified amount of time, if it is positive. The images are
+	 * written to disk in a background thread, and adding a frame waits if
+	 * too many are waiting to be written, so no pause is needed to keep
+	 * them from using up memory.
 	 *
 	 * @param image      the image to add as a frame
-	 * @param sleepCount the amount to pause for writing images to disk
+	 * @param sleepCount the amount to pause in milliseconds
 	 * @throws IOException if there is an error while adding the frame
 	 */
 	public void addImageAsFrame(BufferedImage image, int sleepCount) throws IOException {
@@ -156,11 +155,12 @@ public class MovieMaker implements ControllerListener, DataSinkListener {
 			init = true;
 		}
 		source.addBuffer(b);
-		try {
-			Thread.sleep(sleepCount);
-		} catch (InterruptedException ex) {
+		if (sleepCount > 0) {
+			try {
+				Thread.sleep(sleepCount);
+			} catch (InterruptedException ex) {
+			}
 		}
-		System.gc();
 	}
 
 
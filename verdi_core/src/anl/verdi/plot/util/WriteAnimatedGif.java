@@ -1,7 +1,9 @@
 package anl.verdi.plot.util;
 
+import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -33,11 +35,28 @@ public class WriteAnimatedGif {
 	private ImageWriter iw;
 	private ImageOutputStream ios;
 	private int frameCount = 0;
+	private Color[] palette;
+	private AnimatedGifEncoder encoder;
 
 	public WriteAnimatedGif() {
 		//
 	}
 
+	/**
+	 * Sets the colors of a color table shared by all the frames, usually the
+	 * legend colors of the plot being animated and the colors of its lines
+	 * and text. The frames are then written by AnimatedGifEncoder, which maps
+	 * their pixels to the table and writes only the area of each frame that
+	 * changed, instead of ImageIO building a color table for every frame.
+	 * Must be called before start.
+	 * 
+	 * @param colors
+	 *            Color[] the colors, or null to write the frames with ImageIO
+	 */
+	public void setPalette(Color[] colors) {
+		palette = colors;
+	}
+
 	/**
 	 * See http://forums.sun.com/thread.jspa?messageID=10755673#10755673
 	 * 
@@ -132,6 +151,14 @@ public class WriteAnimatedGif {
 
 	public void start(File file) throws Exception {
 		this.frameCount = 0;
+		if (palette != null) {
+			encoder = new AnimatedGifEncoder();
+			encoder.setPalette(palette);
+			encoder.setCropToChanges(true);
+			if (!encoder.start(file.getPath()))
+				throw new IOException("Could not write " + file);
+			return;
+		}
 		iw = ImageIO.getImageWritersByFormatName("gif").next();
 
 		ios = ImageIO.createImageOutputStream(file);
@@ -140,6 +167,13 @@ public class WriteAnimatedGif {
 	}
 
 	public void finish() throws Exception {
+		if (encoder != null) {
+			boolean finished = encoder.finish();
+			encoder = null;
+			if (!finished)
+				throw new IOException("Could not finish animated GIF");
+			return;
+		}
 		iw.endWriteSequence();
 		ios.close();
 	}
@@ -160,6 +194,12 @@ public class WriteAnimatedGif {
 			int delayTime) throws Exception 
 		{
 			frameCount++;
+			if (encoder != null) {
+				encoder.setDelay(delayTime * 10);
+				if (!encoder.addFrame(frame))
+					throw new IOException("Could not write frame " + frameCount);
+				return;
+			}
 			ImageWriteParam iwp = iw.getDefaultWriteParam();
 			IIOMetadata metadata = iw.getDefaultImageMetadata(new ImageTypeSpecifier(frame), iwp);
 			configure(metadata, delayTime + "");
@@ -0,0 +1,87 @@
+package anl.verdi.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The files that VERDI keeps between sessions so that it need not compute
+ * again what it computed before, such as parsed data files. Each kind of
+ * file is kept in the directory set by its own system property.
+ */
+public class CacheFile {
+
+	/**
+	 * Writes the contents of a cache file.
+	 */
+	public interface Contents {
+
+		/**
+		 * Writes the contents to the specified stream, which is closed
+		 * by the caller.
+		 *
+		 * @param out the stream of the file
+		 * @throws IOException if the contents cannot be written
+		 */
+		void write(FileOutputStream out) throws IOException;
+	}
+
+	private CacheFile() {
+	}
+
+	/**
+	 * Gets the default directory of cache files, verdi/cache in the user's
+	 * home directory.
+	 *
+	 * @return the default directory of cache files.
+	 */
+	public static File getDefaultDir() {
+		return new File(System.getProperty("user.home") + File.separatorChar + "verdi" + File.separatorChar + "cache");
+	}
+
+	/**
+	 * Gets the cache directory set by the specified system property. An
+	 * empty value turns the cache off.
+	 *
+	 * @param property   the name of the system property
+	 * @param defaultDir the directory if the property is not set, null to
+	 *                   turn the cache off unless it is set
+	 * @return the directory, or null if the cache is turned off.
+	 */
+	public static File getDir(String property, File defaultDir) {
+		String dir = System.getProperty(property);
+		if (dir == null)
+			return defaultDir;
+		return dir.trim().isEmpty() ? null : new File(dir.trim());
+	}
+
+	/**
+	 * Writes a cache file, creating its directory if need be. The file is
+	 * written under another name and then renamed, so that a partly
+	 * written file is never read.
+	 *
+	 * @param file     the file
+	 * @param contents writes the contents of the file
+	 * @throws IOException if the file cannot be written, in which case
+	 *                     nothing is left behind
+	 */
+	public static void write(File file, Contents contents) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Unable to create cache directory " + dir);
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				contents.write(out);
+			} finally {
+				out.close();
+			}
+			if (file.exists()) file.delete();
+			if (!temp.renameTo(file)) throw new IOException("Unable to rename " + temp);
+			temp = null;
+		} finally {
+			if (temp != null) temp.delete();
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package anl.verdi.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * One kind of work that VERDI runs in parallel, such as evaluating formulas
+ * or loading datasets, on threads shared by all the kinds. Computations run
+ * on one fixed pool of threads, sized by the {@value #PARALLELISM_PROPERTY}
+ * system property and by default the number of processors, so that several
+ * running together do not oversubscribe the processors. Work that mostly
+ * waits, on files or on other threads, runs on a pool of threads created as
+ * needed instead, so that it cannot hold up the computations.
+ * <p>
+ * Each kind runs at most its level of parallelism of tasks at once, read
+ * from its own system property, and queues the rest in the order they are
+ * submitted. The level can be changed at any time: the threads are never
+ * shut down, so tasks running or queued carry on, and only how many are
+ * started from then on changes.
+ */
+public class SharedPool {
+
+	/**
+	 * System property that sets the number of threads shared by all
+	 * computations.
+	 */
+	public static final String PARALLELISM_PROPERTY = "verdi.parallelism";
+
+	static final Logger Logger = LogManager.getLogger(SharedPool.class.getName());
+
+	private static ExecutorService computeThreads;
+	private static ExecutorService waitingThreads;
+
+	private final String name;
+	private final boolean waiting;
+	private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+	private int parallelism;
+	private int running = 0;
+
+	/**
+	 * Runs one of the pieces a piece of work is split into.
+	 */
+	public interface Body {
+
+		/**
+		 * Runs the piece with the specified index.
+		 *
+		 * @param index the index of the piece, from 0
+		 */
+		void run(int index);
+	}
+
+	/**
+	 * Creates a kind of work whose level of parallelism is read from the
+	 * specified system property, or is the number of processors if the
+	 * property is not set.
+	 *
+	 * @param name     the name the threads have while running its tasks
+	 * @param property the system property, or null
+	 * @param waiting  whether its tasks mostly wait rather than compute
+	 */
+	public SharedPool(String name, String property, boolean waiting) {
+		this.name = name;
+		this.waiting = waiting;
+		this.parallelism = readParallelism(property);
+	}
+
+	/**
+	 * Reads a number of threads from a system property.
+	 *
+	 * @param property the system property, or null
+	 * @return the value of the property, or the number of processors if it is not set or not valid.
+	 */
+	public static int readParallelism(String property) {
+		String val = property == null ? null : System.getProperty(property);
+		if (val != null && !val.trim().isEmpty()) {
+			try {
+				return Math.max(1, Integer.parseInt(val.trim()));
+			} catch (NumberFormatException ex) {
+				Logger.warn("Invalid value '" + val + "' for " + property + ", using the number of processors");
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static synchronized ExecutorService getThreads(boolean waiting) {
+		if (waiting) {
+			if (waitingThreads == null)
+				waitingThreads = Executors.newCachedThreadPool(new Daemons("VERDI background"));
+			return waitingThreads;
+		}
+		if (computeThreads == null)
+			computeThreads = Executors.newFixedThreadPool(readParallelism(PARALLELISM_PROPERTY), new Daemons("VERDI worker"));
+		return computeThreads;
+	}
+
+	/**
+	 * Gets the number of tasks of this kind run at once.
+	 *
+	 * @return the level of parallelism.
+	 */
+	public synchronized int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of tasks of this kind run at once. A value of 1 runs
+	 * the pieces of forEach on the calling thread.
+	 *
+	 * @param level the level of parallelism
+	 */
+	public void setParallelism(int level) {
+		synchronized (this) {
+			parallelism = Math.max(1, level);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Runs a task once fewer than the level of parallelism of tasks of this
+	 * kind are running.
+	 *
+	 * @param task the task
+	 */
+	public void execute(Runnable task) {
+		synchronized (this) {
+			queue.add(task);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Runs a task once fewer than the level of parallelism of tasks of this
+	 * kind are running. Cancelling the future of a task not yet started
+	 * means it is never run.
+	 *
+	 * @param task the task
+	 * @return the future result of the task.
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		FutureTask<T> future = new FutureTask<T>(task);
+		execute(future);
+		return future;
+	}
+
+	// starts queued tasks while there is room for them
+	private void dispatch() {
+		while (true) {
+			Runnable task;
+			synchronized (this) {
+				if (running >= parallelism || queue.isEmpty())
+					return;
+				task = queue.remove();
+				running++;
+			}
+			getThreads(waiting).execute(new Named(task));
+		}
+	}
+
+	private void finished() {
+		synchronized (this) {
+			running--;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Runs the pieces from 0 to count - 1 of a piece of work on up to the
+	 * level of parallelism of threads, the calling thread included, and
+	 * returns when they have all run. The calling thread runs pieces itself
+	 * rather than only waiting, so forEach can be called from a task on the
+	 * shared threads without waiting on tasks that cannot start. If a piece
+	 * throws, no more pieces are started and the first exception is thrown
+	 * once the pieces running have finished.
+	 *
+	 * @param count the number of pieces
+	 * @param body  runs each piece
+	 */
+	public void forEach(int count, Body body) {
+		int helpers = Math.min(getParallelism(), count) - 1;
+		if (helpers <= 0) {
+			for (int index = 0; index < count; index++)
+				body.run(index);
+			return;
+		}
+		Loop loop = new Loop(count, body);
+		for (int i = 0; i < helpers; i++)
+			execute(loop);
+		loop.run();
+		loop.finish();
+	}
+
+	// the pieces of a forEach, claimed one at a time by the threads running it
+	private static class Loop implements Runnable {
+
+		private final int count;
+		private final Body body;
+		private int next = 0;
+		private int active = 0;
+		private Throwable error;
+
+		Loop(int count, Body body) {
+			this.count = count;
+			this.body = body;
+		}
+
+		public void run() {
+			int index;
+			while ((index = claim()) >= 0) {
+				Throwable thrown = null;
+				try {
+					body.run(index);
+				} catch (Throwable t) {
+					thrown = t;
+				}
+				done(thrown);
+			}
+		}
+
+		private synchronized int claim() {
+			if (error != null || next >= count)
+				return -1;
+			active++;
+			return next++;
+		}
+
+		private synchronized void done(Throwable thrown) {
+			active--;
+			if (thrown != null && error == null)
+				error = thrown;
+			if (active == 0)
+				notifyAll();
+		}
+
+		// waits for the pieces other threads are running, as once the calling
+		// thread finds none left to claim no more are started
+		synchronized void finish() {
+			boolean interrupted = false;
+			while (active > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (error instanceof RuntimeException)
+				throw (RuntimeException) error;
+			if (error instanceof Error)
+				throw (Error) error;
+			if (error != null)
+				throw new RuntimeException(error);
+		}
+	}
+
+	// runs a task under the name of its kind and starts the next one after it
+	private class Named implements Runnable {
+
+		private final Runnable task;
+
+		Named(Runnable task) {
+			this.task = task;
+		}
+
+		public void run() {
+			Thread thread = Thread.currentThread();
+			String threadName = thread.getName();
+			thread.setName(name + " (" + threadName + ")");
+			try {
+				task.run();
+			} catch (Throwable t) {
+				Logger.error("Error in " + name, t);
+			} finally {
+				thread.setName(threadName);
+				finished();
+			}
+		}
+	}
+
+	private static class Daemons implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		Daemons(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
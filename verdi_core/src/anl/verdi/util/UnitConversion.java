@@ -0,0 +1,155 @@
+package anl.verdi.util;
+
+import org.eclipse.uomo.units.AbstractConverter;
+import org.eclipse.uomo.units.impl.converter.AddConverter;
+import org.unitsofmeasurement.unit.Unit;
+import org.unitsofmeasurement.unit.UnitConverter;
+
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+
+/**
+ * Converts values from one unit to another. The converter is resolved
+ * once when the conversion is created, rather than for every value.
+ * Conversions that are affine (a scale followed by an offset, as with
+ * most of the units VERDI sees, e.g. ppm to ppb or K to C) are applied as
+ * a plain primitive loop over the array's storage.
+ */
+public class UnitConversion {
+
+	private UnitConverter converter;
+	private boolean identity, affine;
+	private double scale = 1, offset = 0;
+
+	private UnitConversion(UnitConverter converter) {
+		this.converter = converter;
+		identity = converter.isIdentity();
+		if (identity) {
+			affine = true;
+		} else if (converter.isLinear()) {
+			affine = true;
+			scale = converter.convert(1.0);
+		} else if (isAffine(converter)) {
+			affine = true;
+			offset = converter.convert(0.0);
+			scale = converter.convert(1.0) - offset;
+		}
+	}
+
+	/**
+	 * Creates a conversion from one unit to another.
+	 *
+	 * @param from the unit to convert from
+	 * @param to   the unit to convert to
+	 * @return the conversion.
+	 * @throws org.unitsofmeasurement.unit.UnconvertibleException if the units
+	 *                                                            are not compatible
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static UnitConversion create(Unit from, Unit to) {
+		return new UnitConversion(from.getConverterTo(to));
+	}
+
+	// a converter is affine if every step is either linear or an offset
+	private static boolean isAffine(UnitConverter converter) {
+		if (converter.isLinear() || converter instanceof AddConverter) return true;
+		if (converter instanceof AbstractConverter.Compound) {
+			AbstractConverter.Compound compound = (AbstractConverter.Compound) converter;
+			return isAffine(compound.getLeft()) && isAffine(compound.getRight());
+		}
+		return false;
+	}
+
+	/**
+	 * Gets whether or not this conversion leaves values unchanged.
+	 *
+	 * @return true if this conversion leaves values unchanged.
+	 */
+	public boolean isIdentity() {
+		return identity;
+	}
+
+	/**
+	 * Gets whether or not this conversion is of the form
+	 * value * scale + offset.
+	 *
+	 * @return true if this conversion is of the form value * scale + offset.
+	 */
+	public boolean isAffine() {
+		return affine;
+	}
+
+	/**
+	 * Gets the scale of an affine conversion.
+	 *
+	 * @return the scale of an affine conversion.
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Gets the offset of an affine conversion.
+	 *
+	 * @return the offset of an affine conversion.
+	 */
+	public double getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Converts a single value.
+	 *
+	 * @param val the value to convert
+	 * @return the converted value.
+	 */
+	public double convert(double val) {
+		return affine ? val * scale + offset : converter.convert(val);
+	}
+
+	/**
+	 * Converts every value in the array in place.
+	 *
+	 * @param array the array to convert
+	 */
+	public void convert(Array array) {
+		if (identity) return;
+		Class<?> type = array.getElementType();
+		if (affine && type == float.class) {
+			// get1DJavaArray returns the storage itself when the array
+			// is contiguous, otherwise a copy we can't write through
+			Object data = array.get1DJavaArray(float.class);
+			if (data == array.getStorage()) {
+				convert((float[]) data);
+				return;
+			}
+		} else if (affine && type == double.class) {
+			Object data = array.get1DJavaArray(double.class);
+			if (data == array.getStorage()) {
+				convert((double[]) data);
+				return;
+			}
+		}
+		for (IndexIterator iter = array.getIndexIterator(); iter.hasNext();) {
+			iter.setDoubleCurrent(convert(iter.getDoubleNext()));
+		}
+	}
+
+	private void convert(float[] data) {
+		double scale = this.scale, offset = this.offset;
+		if (offset == 0) {
+			for (int i = 0; i < data.length; i++) data[i] = (float) (data[i] * scale);
+		} else {
+			for (int i = 0; i < data.length; i++) data[i] = (float) (data[i] * scale + offset);
+		}
+	}
+
+	private void convert(double[] data) {
+		double scale = this.scale, offset = this.offset;
+		if (offset == 0) {
+			for (int i = 0; i < data.length; i++) data[i] = data[i] * scale;
+		} else {
+			for (int i = 0; i < data.length; i++) data[i] = data[i] * scale + offset;
+		}
+	}
+}
@@ -3,7 +3,11 @@
 PURPOSE: GridCellStatistics.java - Computes a set of statistics
          e.g., mean, hours-of-non-compliance, etc. for a data variable on a
          layer over various timesteps.
-NOTES:   
+NOTES:   Each cell's statistics are computed in one pass over its timesteps,
+         using Welford's method for the mean and variance. Order statistics
+         (quartiles, percentiles, 4th max) are found by selection on a copy
+         of the valid values rather than by sorting. Cells are split across
+         threads.
 HISTORY: 2010-06-18 plessel.todd@epa.gov, Created.
 STATUS: unreviewed, tested.
 *****************************************************************************/
@@ -11,10 +15,13 @@ STATUS: unreviewed, tested.
 package gov.epa.emvl;
 
 //import anl.verdi.core.VerdiConstants;
+import java.util.Arrays;
+
 import org.apache.logging.log4j.LogManager;		// 2014
 import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println with logger messages
 
 import anl.verdi.data.DataUtilities;
+import anl.verdi.util.SharedPool;
 
 public final class GridCellStatistics {
 	static final Logger Logger = LogManager.getLogger(GridCellStatistics.class.getName());
@@ -87,16 +94,71 @@ public final class GridCellStatistics {
     return statisticNamesAndUnits[ statistic ][ SHORT_NAME ];
   }
 
+
+  // Statistics that are set to BADVAL3 for cells with no valid values:
+
+  private static final int[] VALUE_STATISTICS = {
+    MINIMUM, MAXIMUM, MEAN, VARIANCE, STANDARD_DEVIATION,
+    COEFFICIENT_OF_VARIANCE, RANGE, SUM, HOURS_OF_NON_COMPLIANCE
+  };
+
+  static final int[] ORDER_STATISTICS = {
+    MEDIAN, FIRST_QUARTILE, THIRD_QUARTILE, INTERQUARTILE_RANGE,
+    FOURTH_MAX, CUSTOM_PERCENTILE
+  };
+
+  // Below this many values the overhead of splitting is not worth it:
+
+  static final int MIN_PARALLEL_SIZE = 1 << 16;
+
+  // Target number of tasks per thread, to even out the load:
+
+  static final int CHUNKS_PER_THREAD = 4;
+
+  // Number of cells gathered at a time from timestep-major data:
+
+  static final int BLOCK_CELLS = 64;
+
+  // System property that sets the default number of threads:
+
+  public static final String PARALLELISM_PROPERTY =
+    "verdi.statistics.parallelism";
+
+  static final SharedPool pool =
+    new SharedPool( "Cell statistics", PARALLELISM_PROPERTY, false );
+
+  /**
+   * PURPOSE: getParallelism - Get the number of threads statistics are
+   *          computed with.
+   * RETURNS: int number of threads.
+   **/
+
+  public static int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * PURPOSE: setParallelism - Set the number of threads statistics are
+   *          computed with. 1 computes them on the calling thread.
+   * INPUTS:  final int level  Number of threads.
+   **/
+
+  public static void setParallelism( final int level ) {
+    pool.setParallelism( level );
+  }
+
   /**
    * PURPOSE: computeStatistics - For each cell, compute a set of
    *          time-aggregate statistics.
    * INPUTS:  final float[][][] data   data[ rows ][ columns ][ timesteps ]
    *          double threshold         Exceedance threshold, e.g., 0.12 ppb.
    *          double hoursPerTimestep  Timestep size in decimal hours.
-   * OUTPUTS: final float[][][] data         data sorted across timesteps.
-   *          final float[][][] statistics   Time-aggregated statistics.
+   *          int statIndex            Statistic wanted, e.g., MEDIAN.
+   *          double customPercentileValue  Percentile for CUSTOM_PERCENTILE.
+   * OUTPUTS: final float[][][] statistics   Time-aggregated statistics.
    *          statistics[ STATISTICS ][ rows ][ columns ]
- * @throws Exception 
+   * NOTES:   data is not modified.
+   * @throws Exception 
    **/
 
   public static void computeStatistics( final float[][][] data,
@@ -105,804 +167,609 @@ public final class GridCellStatistics {
                                         final float[][][] statistics,
                                         final int statIndex,
                                         final double customPercentileValue) throws Exception {
-	  
-	  boolean separate = true;
-	  //Logger.debug( "statIndex = " + statIndex);
-	  
-	  if ( separate) {
-		  if ( statIndex == 13 || statIndex == 14) {
-			  computeTimestepsOfExtrema( data,
-					  statistics[ TIMESTEP_OF_MINIMUM ],
-					  statistics[ TIMESTEP_OF_MAXIMUM ] );
-			  
-//			  for ( int i = 0; i<statistics[ TIMESTEP_OF_MINIMUM ].length; i++) {
-//				  for ( int j = 0; j<statistics[ TIMESTEP_OF_MINIMUM ][0].length; j++) {
-//					  System.out.print(statistics[TIMESTEP_OF_MINIMUM][i][j]+" ");
-//				  }
-//				  Logger.debug("\n");
-//			  }	
-			  
-			  return;
-		  }
-		  
-		  if ( statIndex == 16 ){
-			  computeMaximum8HourMeans( data, hoursPerTimestep,
-					  statistics[ MAXIMUM_8HOUR_MEAN ] );
-			  return;
-		  }
-
-		  sortDataAcrossTimesteps( data ); // Required for quartiles.	  
-		  computeValidTimesteps( data, statistics[ COUNT ] );
-
-		  if ( statIndex == 0 || statIndex == 1 || statIndex == 4 ||
-				  statIndex == 5 || statIndex == 6 ||
-				  statIndex == 10 || statIndex == 11 || 
-				  statIndex == 17 || statIndex == 18 || statIndex == 19) {
-			  computeQuartiles( data,
-					  statistics[ COUNT ],
-					  statistics[ MINIMUM ],
-					  statistics[ MAXIMUM ],
-					  statistics[ MEDIAN ],
-					  statistics[ FIRST_QUARTILE ],
-					  statistics[ THIRD_QUARTILE ],
-					  statistics[ RANGE ],
-					  statistics[ INTERQUARTILE_RANGE ],
-					  statistics[ FOURTH_MAX ],
-					  statistics[ CUSTOM_PERCENTILE ],
-					  customPercentileValue);
-			  return;
-		  }
-
-		  if ( statIndex == 12 ) {
-			  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-			  
-//			  for ( int i = 0; i<statistics[ SUM ].length; i++) {
-//				  for ( int j = 0; j<statistics[ SUM ][0].length; j++) {
-//					  System.out.print(statistics[SUM][i][j]+" ");
-//				  }
-//				  Logger.debug("\n");
-//			  }
-			  
-			  return;
-		  }
-
-		  if ( statIndex == 2) {
-			  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-			  computeMeans( statistics[ COUNT ],
-					  statistics[ SUM ],
-					  statistics[ MEAN ] );
-			  // JEB 2016 WHY NO return; FOR THIS "ELSE"?
-		  }
-		  
-
-		  if ( statIndex == 3) {
-			  computeGeometricMeans( data,
-					  statistics[ COUNT ],
-					  statistics[ GEOMETRIC_MEAN ] );
-			  return;
-		  }
-
-		  if ( statIndex == 7 || statIndex == 8 || statIndex == 9) {
-			  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-			  computeMeans( statistics[ COUNT ],
-					  statistics[ SUM ],
-					  statistics[ MEAN ] );
-			  computeVariance( data,
-					  statistics[ COUNT ],
-					  statistics[ MEAN ],
-					  statistics[ VARIANCE ],
-					  statistics[ STANDARD_DEVIATION ],
-					  statistics[ COEFFICIENT_OF_VARIANCE ] );
-			  return;
-		  }
-
-		  if ( statIndex == 15) {
-			  computeHoursOfNonCompliance( data,
-					  statistics[ COUNT ],
-					  hoursPerTimestep,
-					  threshold,
-					  statistics[ HOURS_OF_NON_COMPLIANCE ] );
-			  return;
-		  }
-	  } else {
-	  
-	  //////////////////////////////////////////////////////////////////////////
-  
-		  computeTimestepsOfExtrema( data,
-				  statistics[ TIMESTEP_OF_MINIMUM ],
-				  statistics[ TIMESTEP_OF_MAXIMUM ] );
-
-		  computeMaximum8HourMeans( data, hoursPerTimestep,
-				  statistics[ MAXIMUM_8HOUR_MEAN ] );
-
-		  sortDataAcrossTimesteps( data ); // Required for quartiles.
-
-		  // For each data value (cell/site), count the number of valid timesteps:
-
-		  computeValidTimesteps( data, statistics[ COUNT ] );
-
-		  computeQuartiles( data,
-				  statistics[ COUNT ],
-				  statistics[ MINIMUM ],
-				  statistics[ MAXIMUM ],
-				  statistics[ MEDIAN ],
-				  statistics[ FIRST_QUARTILE ],
-				  statistics[ THIRD_QUARTILE ],
-				  statistics[ RANGE ],
-				  statistics[ INTERQUARTILE_RANGE ],
-				  statistics[ FOURTH_MAX ],
-				  statistics[ CUSTOM_PERCENTILE],
-				  customPercentileValue);
-
-		  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-
-		  computeMeans( statistics[ COUNT ],
-				  statistics[ SUM ],
-				  statistics[ MEAN ] );
-
-		  computeGeometricMeans( data,
-				  statistics[ COUNT ],
-				  statistics[ GEOMETRIC_MEAN ] );
-
-		  computeVariance( data,
-				  statistics[ COUNT ],
-				  statistics[ MEAN ],
-				  statistics[ VARIANCE ],
-				  statistics[ STANDARD_DEVIATION ],
-				  statistics[ COEFFICIENT_OF_VARIANCE ] );
-
-		  computeHoursOfNonCompliance( data,
-				  statistics[ COUNT ],
-				  hoursPerTimestep,
-				  threshold,
-				  statistics[ HOURS_OF_NON_COMPLIANCE ] );
-	  
-	  /////////////////////////////////////////////////////////////////////////////////
-	  }
-  }
-
-  /**
-   * PURPOSE: computeTimestepsOfExtrema - For each cell, compute the
-   *          1-based timestep of the minimum and the timestep of the maximum.
-   * INPUTS:  final float[][][] data        data[ rows ][ columns][ timesteps ]
-   * OUTPUTS: float[][] timestepOfMinimum   timestepOfMinimum[ rows ][ columns]
-   *                                        For each cell,
-   *                                        this is the timestep number
-   *                                        (whole, 1-based) of its minimum
-   *                                        value over all of the timesteps.
-   *          float[][] timestepOfMaximum   timestepOfMaximum[ rows ][ columns]
-   *                                        For each cell,
-   *                                        this is the timestep number
-   *                                        (whole, 1-based) of its maximum
-   *                                        value over all of the timesteps.
-   **/
-
-  private static void computeTimestepsOfExtrema( final float[][][] data,
-                                                 float[][] timestepOfMinimum,
-                                                 float[][] timestepOfMaximum) {
-
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        timestepOfMinimum[ row ][ column ] =
-          indexOfMinimum( data[ row ][ column ] ) + 1;
-        timestepOfMaximum[ row ][ column ] =
-          indexOfMaximum( data[ row ][ column ] ) + 1;
-      }
-    }
+    final int rows      = data.length;
+    final int columns   = data[ 0 ].length;
+    final int timesteps = data[ 0 ][ 0 ].length;
+    compute( new Request( data, null, timesteps, rows, columns, threshold,
+                          hoursPerTimestep, statistics, statIndex,
+                          customPercentileValue ) );
   }
 
   /**
-   * PURPOSE: computeMaximum8HourMeans - For each cell, compute the
-   *          1-based timestep of the minimum and the timestep of the maximum.
-   * INPUTS:  final float[][][] data      data[ rows ][ columns][ timesteps ]
+   * PURPOSE: computeStatistics - For each cell, compute a set of
+   *          time-aggregate statistics from data laid out by timestep,
+   *          as copied by DataFrame.copy().
+   * INPUTS:  final float[] data  data[ ( timestep * rows + row ) * columns
+   *                                    + column ]
+   *          int timesteps, rows, columns  Extents of data.
+   *          double threshold         Exceedance threshold, e.g., 0.12 ppb.
    *          double hoursPerTimestep  Timestep size in decimal hours.
-   * OUTPUTS: float[][] maximum8HourMean  maximum8HourMean[ rows ][ columns]
-   *                                      For each cell,
-   *                                      this is the maximum of the means
-   *                                      of each moving 8-hour set of values.
+   *          int statIndex            Statistic wanted, e.g., MEDIAN.
+   *          double customPercentileValue  Percentile for CUSTOM_PERCENTILE.
+   * OUTPUTS: final float[][][] statistics   Time-aggregated statistics.
+   *          statistics[ STATISTICS ][ rows ][ columns ]
+   * NOTES:   data is not modified.
+   * @throws Exception 
    **/
 
-  private static void computeMaximum8HourMeans( final float[][][] data,
-                                                final double hoursPerTimestep,
-                                                float[][] maximum8HourMean ) {
+  public static void computeStatistics( final float[] data,
+                                        final int timesteps,
+                                        final int rows,
+                                        final int columns,
+                                        final double threshold,
+                                        final double hoursPerTimestep,
+                                        final float[][][] statistics,
+                                        final int statIndex,
+                                        final double customPercentileValue) throws Exception {
 
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
+    if ( data.length < timesteps * rows * columns ) {
+      throw new IllegalArgumentException( "data has " + data.length +
+        " values, expected " + timesteps + " x " + rows + " x " + columns );
+    }
 
-    for ( int row = 0; row < rows; ++row ) {
+    compute( new Request( null, data, timesteps, rows, columns, threshold,
+                          hoursPerTimestep, statistics, statIndex,
+                          customPercentileValue ) );
+  }
 
-      for ( int column = 0; column < columns; ++column ) {
-        maximum8HourMean[ row ][ column ] =
-          maximum8HourMeans( data[ row ][ column ], hoursPerTimestep );
-      }
+  private static void compute( final Request request ) {
+    final int cells = request.rows * request.columns;
+    final int threads = getParallelism();
+
+    if ( threads <= 1 || cells < 2 ||
+         (long) cells * request.timesteps < MIN_PARALLEL_SIZE ) {
+      computeCells( request, 0, cells );
+    } else {
+      final int grain = Math.max( 1, cells / ( threads * CHUNKS_PER_THREAD ) );
+      pool.forEach( ( cells + grain - 1 ) / grain, new SharedPool.Body() {
+        public void run( final int chunk ) {
+          final int first = chunk * grain;
+          computeCells( request, first, Math.min( cells, first + grain ) );
+        }
+      } );
     }
   }
 
   /**
-   * PURPOSE: sortDataAcrossTimesteps - For each cell, sort its timestep data.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   * OUTPUTS: final float[][][] data  data sorted over timesteps.
+   * PURPOSE: computeCells - Compute the statistics of a range of cells.
+   * INPUTS:  final Request request  The data and statistics wanted.
+   *          final int first        Index of first cell, row * columns + column.
+   *          final int end          Index of the cell after the last one.
+   * OUTPUTS: request.statistics     Statistics of the cells.
    **/
 
-  private static void sortDataAcrossTimesteps( final float[][][] data  ) {
+  private static void computeCells( final Request request,
+                                    final int first, final int end ) {
 
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
+    final int columns   = request.columns;
+    final int timesteps = request.timesteps;
+    final float[] selection = request.orderStatistics ? new float[ timesteps ] : null;
+    float[] series = null;
+    int cell = first;
 
-    for ( int row = 0; row < rows; ++row ) {
+    while ( cell < end ) {
+      final int row = cell / columns;
+      final int firstColumn = cell - row * columns;
+      final int endColumn = Math.min( columns, firstColumn + end - cell );
 
-      for ( int column = 0; column < columns; ++column ) {
-        java.util.Arrays.sort( data[ row ][ column ] );
-      }
-    }
-  }
-
-  /**
-   * PURPOSE: sortDataAcrossTimesteps - For each cell, compute the number of
-   *          valid (i.e., not marked as "missing/bad") timestep values.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   * OUTPUTS: float[][][] count       count[ rows ][ columns ] valid values.
-   **/
+      if ( request.cellData != null ) {
 
-  private static void computeValidTimesteps( final float data[][][],
-                                             float[][] count ) {
+        for ( int column = firstColumn; column < endColumn; ++column ) {
+          computeCell( request, request.cellData[ row ][ column ], 0,
+                       row, column, selection );
+        }
 
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
+        cell += endColumn - firstColumn;
+      } else {
 
-    for ( int row = 0; row < rows; ++row ) {
+        // Gather a block of cells so that each cell's timesteps are
+        // contiguous, reading whole runs of columns at each timestep:
 
-      for ( int column = 0; column < columns; ++column ) {
-        final int firstIndex = firstValidIndex( data[ row ][ column ] );
+        final int width = Math.min( endColumn - firstColumn, BLOCK_CELLS );
 
-        if ( firstIndex == -1 ) {
-          count[ row ][ column ] = 0;
-        } else {
-          final int validCount = timesteps - firstIndex;
-          count[ row ][ column ] = validCount;
+        if ( series == null ) {
+          series = new float[ Math.min( end - first, BLOCK_CELLS ) * timesteps ];
         }
-      }
-    }
-  }
-
-  /**
-   * PURPOSE: computeQuartiles - For each cell, compute the minimum, maximum,
-   *          median, first quartile, third quartile and range
-   *          over all timestep values.
-   * INPUTS:  final float[][][] data   data[ rows ][ columns][ timesteps ].
-   *          final float[][][] count  count[ rows ][ columns] valid values.
-   * OUTPUTS: float[][] minimum        minimum[ rows ][ columns ].
-   *          float[][] maximum        maximum[ rows ][ columns ].
-   *          float[][] median         median[ rows ][ columns ]
-   *                                   middle of sorted sequence of values.
-   *          float[][] firstQuartile  firstQuartile[ rows ][ columns ]
-   *                                   25th percentile of sorted of values.
-   *          float[][] thirdQuartile  thirdQuartile[ rows ][ columns ]
-   *                                   75th percentile of sorted of values.
-   *          float[][] range          range[ rows ][ columns ]
-   *                                   maximum - minimum.
-   *          float[][] interquartileRange
-   *                                   interquartileRange[ rows ][ columns ]
-   *                                   75th - 25th.
-   **/
-
-  private static void computeQuartiles( final float[][][] data,
-                                        final float[][] count,
-                                        final float[][] minimum,
-                                        final float[][] maximum,
-                                        final float[][] median,
-                                        final float[][] firstQuartile,
-                                        final float[][] thirdQuartile,
-                                        final float[][] range,
-                                        final float[][] interquartileRange,
-                                        final float[][] fourthMax,
-                                        final float[][] customPercentile,
-                                        final double customPercentileValue) {
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
 
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
-
-        
-        if ( numberOfValidTimesteps == 0 ) {
-          minimum[            row ][ column ] = BADVAL3;
-          maximum[            row ][ column ] = BADVAL3;
-          range[              row ][ column ] = BADVAL3;
-          median[             row ][ column ] = BADVAL3;
-          firstQuartile[      row ][ column ] = BADVAL3;
-          thirdQuartile[      row ][ column ] = BADVAL3;
-          interquartileRange[ row ][ column ] = BADVAL3;
-          fourthMax[          row ][ column ] = BADVAL3;
-          customPercentile[   row ][ column ] = BADVAL3;
-        } else {
-          final int index    = timesteps - numberOfValidTimesteps;
-          final int last     = numberOfValidTimesteps - 1;
-          final int middle   = numberOfValidTimesteps / 2;
-          final int middle_1 = middle > 0 ? middle - 1 : 0;
-          final int lower    = numberOfValidTimesteps / 4;
-          final int lower_1  = lower > 0 ? lower - 1 : 0;
-          final int upper    = numberOfValidTimesteps * 3 / 4;
-          final int upper_1  = upper > 0 ? upper - 1 : 0;
-          final int custom   = (int)Math.round(numberOfValidTimesteps * customPercentileValue / 100.0);
-          final int custom_l = custom > 0 ? custom - 1 : 0;
-          final boolean oddNumberOfTimesteps = numberOfValidTimesteps % 2 != 0;
-          final float firstValue  = data[ row ][ column ][ index          ];
-          final float lastValue   = data[ row ][ column ][ index + last   ];
-
-          int fourthMaxIndex = index + last - 3;         
-          float fourthMaxValue = BADVAL3;
-          if (fourthMaxIndex < data[row][column].length && fourthMaxIndex >= 0)
-        		  fourthMaxValue = data[ row ][ column ][ fourthMaxIndex  ];
-          final float middleValue = data[ row ][ column ][ index + middle ];
-          final float lowerValue  = data[ row ][ column ][ index + lower  ];
-          final float upperValue  = data[ row ][ column ][ index + upper  ];
-
-          minimum[ row ][ column ] = firstValue;
-          maximum[ row ][ column ] = lastValue;
-          fourthMax[ row ][ column ] = fourthMaxValue;
-          range[   row ][ column ] = lastValue - firstValue;
-          customPercentile[ row ][ column ] = data[ row ][ column ][ index + custom_l ];
-
-          if ( oddNumberOfTimesteps ) {
-            median[             row ][ column ] = middleValue;
-            firstQuartile[      row ][ column ] = lowerValue;
-            thirdQuartile[      row ][ column ] = upperValue;
-            interquartileRange[ row ][ column ] = upperValue - lowerValue;
-          } else {
-            final float averageLowerValue =
-              ( lowerValue + data[ row ][ column ][ index + lower_1 ] ) * 0.5f;
-            final float averageUpperValue =
-              ( upperValue + data[ row ][ column ][ index + upper_1 ] ) * 0.5f;
-
-            median[             row ][ column ] =
-              ( middleValue + data[ row ][ column ][ index + middle_1]) * 0.5f;
-            firstQuartile[      row ][ column ] = averageLowerValue;
-            thirdQuartile[      row ][ column ] = averageUpperValue;
-            interquartileRange[ row ][ column ] =
-              averageUpperValue - averageLowerValue;
+        gather( request.data, timesteps, request.rows * columns,
+                row * columns + firstColumn, width, series );
 
-          }
+        for ( int index = 0; index < width; ++index ) {
+          computeCell( request, series, index * timesteps,
+                       row, firstColumn + index, selection );
         }
+
+        cell += width;
       }
     }
   }
 
   /**
-   * PURPOSE: computeSums - For each cell, compute the sum over timesteps.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          float[][] count         count[ rows ][ columns ] valid values.
-   * OUTPUTS: float[][] sum           sum[ rows ][ columns ].
+   * PURPOSE: gather - Copy a run of cells from data laid out by timestep
+   *          so that each cell's timesteps are contiguous.
+   * INPUTS:  final float[] data      data[ timestep * timestepSize + cell ]
+   *          final int timesteps     Number of timesteps.
+   *          final int timestepSize  Number of cells in each timestep.
+   *          final int first         Index of the first cell.
+   *          final int width         Number of cells.
+   * OUTPUTS: final float[] series    series[ index * timesteps + timestep ]
    **/
 
-  private static void computeSums( final float[][][] data,
-                                   final float[][] count,
-                                   float[][] sum ) {
+  static void gather( final float[] data, final int timesteps,
+                      final int timestepSize, final int first,
+                      final int width, final float[] series ) {
+    int source = first;
 
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
+    for ( int timestep = 0; timestep < timesteps; ++timestep ) {
 
-        if ( numberOfValidTimesteps == 0 ) {
-          sum[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          sum[ row ][ column ] = (float)
-            sumf( data[ row ][ column ], index );
-        }
+      for ( int index = 0, target = timestep; index < width;
+            ++index, target += timesteps ) {
+        series[ target ] = data[ source + index ];
       }
+
+      source += timestepSize;
     }
   }
 
   /**
-   * PURPOSE: computeMeans - For each cell, compute the mean over timesteps.
-   * INPUTS:  final float[][] count   count[ rows ][ columns ] valid values.
-   *          final float[][] sum     sum[ rows ][ columns ] summed values.
-   * OUTPUTS: float[][] mean          mean[ rows ][ columns ].
+   * PURPOSE: computeCell - Compute the statistics of one cell in a single
+   *          pass over its timesteps.
+   * INPUTS:  final Request request  The statistics wanted.
+   *          final float[] values   values[ offset ] .. values[ offset +
+   *                                 timesteps - 1 ] are the cell's data.
+   *          final int offset       Index of the cell's first timestep.
+   *          final int row, column  The cell.
+   *          final float[] selection  Scratch for order statistics, or null.
+   * OUTPUTS: request.statistics     Statistics of the cell.
    **/
 
-  private static void computeMeans( final float[][] count,
-                                    final float[][] sum,
-                                    float[][] mean ) {
+  private static void computeCell( final Request request,
+                                   final float[] values, final int offset,
+                                   final int row, final int column,
+                                   final float[] selection ) {
 
-    final int rows    = count.length;
-    final int columns = count[ 0 ].length;
+    final int timesteps = request.timesteps;
+    final double threshold = request.threshold;
+    final boolean geometricMean = request.geometricMean;
+    final boolean orderStatistics = request.orderStatistics;
+    int count = 0;
+    int exceeding = 0;
+    int indexOfMinimum = -1;
+    int indexOfMaximum = -1;
+    float minimum = 0.0f;
+    float maximum = 0.0f;
+    double mean       = 0.0; // Running mean.
+    double m2         = 0.0; // Sum of squared differences from the mean.
+    double sum        = 0.0; // Kahan sum.
+    double correction = 0.0; // Kahan corrector subtracts each round-off error
+    double logSum     = 0.0;
 
-    for ( int row = 0; row < rows; ++row ) {
+    for ( int timestep = 0; timestep < timesteps; ++timestep ) {
+      final float value = values[ offset + timestep ];
 
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
+      if ( value > AMISS3 ) {
 
-        if ( numberOfValidTimesteps == 0 ) {
-          mean[ row ][ column ] = BADVAL3;
-        } else {
-          mean[ row ][ column ] =
-            sum[ row ][ column ] / numberOfValidTimesteps;
+        if ( indexOfMinimum == -1 || value < minimum ) {
+          minimum = value;
+          indexOfMinimum = timestep;
         }
-      }
-    }
-  }
 
-  /**
-   * PURPOSE: computeGeometricMeans - For each cell, compute the geometric
-   *          mean over timesteps.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          final float[][] count   count[ rows ][ columns ] valid values.
-   * OUTPUTS: float[][] mean          mean[ rows ][ columns ].
- * @throws Exception 
-   **/
+        if ( indexOfMaximum == -1 || value > maximum ) {
+          maximum = value;
+          indexOfMaximum = timestep;
+        }
 
-  private static void computeGeometricMeans( final float[][][] data,
-                                             final float[][] count,
-                                             float[][] geometricMean ) throws Exception {
+        ++count;
+        final double difference = value - mean;
+        mean += difference / count;
+        m2 += difference * ( value - mean );
 
-    final int rows      = data.length;
-    final int columns   = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
+        final double correctedNextTerm = value - correction;
+        final double newSum = sum + correctedNextTerm;
+        correction = ( newSum - sum ) - correctedNextTerm;
+        sum = newSum;
 
-    for ( int row = 0; row < rows; ++row ) {
+        if ( value > threshold ) {
+          ++exceeding;
+        }
 
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
+        if ( geometricMean ) {
+          logSum += Math.log( value );
+        }
 
-        if ( numberOfValidTimesteps == 0 ) {
-          geometricMean[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          geometricMean[ row ][ column ] = (float)
-            geometricMeanf( data[ row ][ column ], index );
+        if ( orderStatistics ) {
+          selection[ count - 1 ] = value;
         }
       }
     }
-  }
 
-  /**
-   * PURPOSE: computeVariance - For each cell, compute the variance, standard
-   *          deviation and the coefficient of variance over timesteps.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          final float[][] count   count[ rows ][ columns ] valid values.
-   *          final float[][] mean    mean[ rows ][ columns ] mean values.
-   * OUTPUTS: float[][] variance      variance[ rows ][ columns ].
-   *          float[][] standardDeviation      std[ rows ][ columns ].
-   *          float[][] coefficientsOfVariance cov[ rows ][ columns ].
-   **/
+    final float[][][] statistics = request.statistics;
+    storeStatistics( statistics, row, column, count,
+                     indexOfMinimum, indexOfMaximum, minimum, maximum,
+                     sum, mean, m2, exceeding, request.hoursPerTimestep );
 
-  private static void computeVariance( final float[][][] data,
-                                       final float[][] count,
-                                       final float[][] mean,
-                                       float[][] variance,
-                                       float[][] standardDeviation,
-                                       float[][] coefficientsOfVariance ) {
+    if ( request.maximum8HourMean ) {
+      statistics[ MAXIMUM_8HOUR_MEAN ][ row ][ column ] =
+        maximumWindowMean( values, offset, timesteps, request.windowSize );
+    }
 
-    final int rows      = data.length;
-    final int columns   = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
+    if ( geometricMean ) {
+      statistics[ GEOMETRIC_MEAN ][ row ][ column ] =
+        geometricMean( count, minimum, logSum );
+    }
 
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
-
-        if ( numberOfValidTimesteps == 0 ) {
-          variance[ row ][ column ] = BADVAL3;
-          standardDeviation[ row ][ column ] = BADVAL3;
-          coefficientsOfVariance[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          final float meanValue = mean[ row ][ column ];
-          final float s2 = (float)
-            variancef( data[ row ][ column ], index, meanValue );
-          final float std = (float) java.lang.Math.sqrt( s2 );
-          final float cv = meanValue > 0.0f ? 100.0f * std / meanValue : 0.0f;
-          variance[ row ][ column ] = s2;
-          standardDeviation[ row ][ column ] = std;
-          coefficientsOfVariance[ row ][ column ] = cv;
-        }
+    if ( orderStatistics ) {
+
+      if ( count == 0 ) {
+        storeMissing( statistics, row, column, ORDER_STATISTICS );
+      } else {
+        computeOrderStatistics( selection, count, request.customPercentileValue,
+                                statistics, row, column );
       }
     }
   }
 
   /**
-   * PURPOSE: computeHoursOfNonCompliance - For each cell, compute the hours
-   *          of non-compliance (threshold exceedance) of the time series data.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          final float[][] count   count[ rows ][ columns ] valid values.
+   * PURPOSE: storeStatistics - Store the statistics of a cell that are
+   *          derived from its running count, extrema, sum and moments.
+   * INPUTS:  final int count           Number of valid values.
+   *          final int indexOfMinimum  0-based timestep of minimum or -1.
+   *          final int indexOfMaximum  0-based timestep of maximum or -1.
+   *          final float minimum, maximum  Extrema of the valid values.
+   *          final double sum          Sum of the valid values.
+   *          final double mean         Mean of the valid values.
+   *          final double m2           Sum of squared differences from mean.
+   *          final int exceeding       Number of values over the threshold.
    *          final double hoursPerTimestep  Timestep size in decimal hours.
-   *          final double threshold         Exceedance value to compare to.
-   * OUTPUTS: float[][] hoursOfNonCompliance honc[ rows ][ columns ].
+   * OUTPUTS: statistics[ ... ][ row ][ column ]  The statistics.
    **/
 
-  private static void computeHoursOfNonCompliance( final float[][][] data,
-                                                  final float[][] count,
-                                                 final double hoursPerTimestep,
-                                                  final double threshold,
-                                            float[][] hoursOfNonCompliance ) {
-
-    final int rows      = data.length;
-    final int columns   = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
+  static void storeStatistics( final float[][][] statistics,
+                               final int row, final int column,
+                               final int count,
+                               final int indexOfMinimum,
+                               final int indexOfMaximum,
+                               final float minimum, final float maximum,
+                               final double sum, final double mean,
+                               final double m2, final int exceeding,
+                               final double hoursPerTimestep ) {
+    statistics[ TIMESTEP_OF_MINIMUM ][ row ][ column ] = indexOfMinimum + 1;
+    statistics[ TIMESTEP_OF_MAXIMUM ][ row ][ column ] = indexOfMaximum + 1;
+    statistics[ COUNT               ][ row ][ column ] = count;
+
+    if ( count == 0 ) {
+      storeMissing( statistics, row, column, VALUE_STATISTICS );
+      return;
+    }
 
-    for ( int row = 0; row < rows; ++row ) {
+    final float meanValue = (float) mean;
+    final float s2 = count > 1 ? (float) ( m2 / ( count - 1 ) ) : 0.0f;
+    final float std = (float) Math.sqrt( s2 );
+    statistics[ MINIMUM                 ][ row ][ column ] = minimum;
+    statistics[ MAXIMUM                 ][ row ][ column ] = maximum;
+    statistics[ RANGE                   ][ row ][ column ] = maximum - minimum;
+    statistics[ SUM                     ][ row ][ column ] = (float) sum;
+    statistics[ MEAN                    ][ row ][ column ] = meanValue;
+    statistics[ VARIANCE                ][ row ][ column ] = s2;
+    statistics[ STANDARD_DEVIATION      ][ row ][ column ] = std;
+    statistics[ COEFFICIENT_OF_VARIANCE ][ row ][ column ] =
+      meanValue > 0.0f ? 100.0f * std / meanValue : 0.0f;
+    statistics[ HOURS_OF_NON_COMPLIANCE ][ row ][ column ] =
+      (float) ( exceeding * hoursPerTimestep );
+  }
 
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
+  static void storeMissing( final float[][][] statistics,
+                            final int row, final int column,
+                            final int[] which ) {
 
-        if ( numberOfValidTimesteps == 0 ) {
-          hoursOfNonCompliance[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          final int numberOfTimestepsExceedingThreshhold =
-            exceedance( data[ row ][ column ], index, threshold );
-          hoursOfNonCompliance[ row ][ column ] = (float)
-            ( numberOfTimestepsExceedingThreshhold * hoursPerTimestep );
-        }
-      }
+    for ( final int statistic : which ) {
+      statistics[ statistic ][ row ][ column ] = BADVAL3;
     }
   }
 
   /**
-   * PURPOSE: indexOfMinimum - Compute the index of the minimum valid value.
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: int 0-based index into data[] or -1 if all invalid.
+   * PURPOSE: geometricMean - Compute a geometric mean from the sum of logs.
+   * INPUTS:  final int count       Number of valid values.
+   *          final float minimum   Minimum valid value.
+   *          final double logSum   Sum of the logs of the valid values.
+   * RETURNS: float geometric mean, or BADVAL3 if there are no valid values.
    **/
 
-  private static int indexOfMinimum( final float[] data ) {
+  static float geometricMean( final int count, final float minimum,
+                              final double logSum ) {
 
-    final int count = data.length;
-    float minimum = 0.0f;
-    int result = -1;
+    // exp of the mean log is the nth root of the product. A single value
+    // is its own geometric mean, even if it is negative:
 
-    for ( int index = 0; index < count; ++index ) {
-      final float value = data[ index ];
+    return count == 0 ? BADVAL3
+         : count == 1 ? minimum
+         : (float) Math.exp( logSum / count );
+  }
 
-      if ( value > AMISS3 ) {
+  /**
+   * PURPOSE: computeOrderStatistics - Compute the median, first quartile,
+   *          third quartile, interquartile range, 4th maximum and custom
+   *          percentile of a cell's valid values.
+   * INPUTS:  final float[] values  values[ 0 ] .. values[ count - 1 ] are
+   *                                the valid values, in any order.
+   *          final int count       Number of valid values, at least 1.
+   *          final double customPercentileValue  Percentile, e.g., 95.0.
+   * OUTPUTS: final float[] values  values partially ordered.
+   *          statistics[ ... ][ row ][ column ]  Order statistics.
+   * NOTES:   Each value is the same element of the sorted values that the
+   *          sort-based implementation used, found by selecting only the
+   *          ranks needed.
+   **/
 
-        if ( result == -1 || value < minimum ) {
-          minimum = value;
-          result = index;
-        }
+  static void computeOrderStatistics( final float[] values,
+                                              final int count,
+                                              final double customPercentileValue,
+                                              final float[][][] statistics,
+                                              final int row,
+                                              final int column ) {
+    final int last     = count - 1;
+    final int middle   = count / 2;
+    final int middle_1 = middle > 0 ? middle - 1 : 0;
+    final int lower    = count / 4;
+    final int lower_1  = lower > 0 ? lower - 1 : 0;
+    final int upper    = count * 3 / 4;
+    final int upper_1  = upper > 0 ? upper - 1 : 0;
+    final int custom   = (int) Math.round( count * customPercentileValue / 100.0 );
+    final int custom_l = Math.min( last, custom > 0 ? custom - 1 : 0 );
+    final int fourth   = count - 4;
+    final int[] ranks = { lower_1, lower, middle_1, middle, upper_1, upper,
+                          custom_l, fourth >= 0 ? fourth : 0 };
+    Arrays.sort( ranks );
+
+    // Once a rank is selected, every larger rank lies to its right:
+
+    int left = 0;
+
+    for ( final int rank : ranks ) {
+
+      if ( rank >= left ) {
+        select( values, left, last, rank );
+        left = rank + 1;
       }
     }
 
-    return result;
+    final boolean oddCount = count % 2 != 0;
+    final float middleValue = values[ middle ];
+    final float lowerValue  = values[ lower ];
+    final float upperValue  = values[ upper ];
+
+    statistics[ FOURTH_MAX ][ row ][ column ] =
+      fourth >= 0 ? values[ fourth ] : BADVAL3;
+    statistics[ CUSTOM_PERCENTILE ][ row ][ column ] = values[ custom_l ];
+
+    if ( oddCount ) {
+      statistics[ MEDIAN              ][ row ][ column ] = middleValue;
+      statistics[ FIRST_QUARTILE      ][ row ][ column ] = lowerValue;
+      statistics[ THIRD_QUARTILE      ][ row ][ column ] = upperValue;
+      statistics[ INTERQUARTILE_RANGE ][ row ][ column ] = upperValue - lowerValue;
+    } else {
+      final float averageLowerValue = ( lowerValue + values[ lower_1 ] ) * 0.5f;
+      final float averageUpperValue = ( upperValue + values[ upper_1 ] ) * 0.5f;
+      statistics[ MEDIAN              ][ row ][ column ] =
+        ( middleValue + values[ middle_1 ] ) * 0.5f;
+      statistics[ FIRST_QUARTILE      ][ row ][ column ] = averageLowerValue;
+      statistics[ THIRD_QUARTILE      ][ row ][ column ] = averageUpperValue;
+      statistics[ INTERQUARTILE_RANGE ][ row ][ column ] =
+        averageUpperValue - averageLowerValue;
+    }
   }
 
   /**
-   * PURPOSE: indexOfMaximum - Compute the index of the maximum valid value.
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: int 0-based index into data[] or -1 if all invalid.
+   * PURPOSE: select - Partially order values[ left ] .. values[ right ] so
+   *          that values[ rank ] is the value that would be there if they
+   *          were sorted, smaller values are before it and larger ones after.
+   * INPUTS:  final float[] values  Values to order, none NaN.
+   *          int left, right       Range to order, inclusive.
+   *          final int rank        Index of the value wanted.
+   * OUTPUTS: final float[] values  values partially ordered.
+   * NOTES:   Quickselect with median-of-three pivots, falling back to a sort
+   *          if the partitions keep coming out unbalanced.
    **/
 
-  private static int indexOfMaximum( final float[] data ) {
+  private static void select( final float[] values, int left, int right,
+                              final int rank ) {
+    int partitions = 0;
 
-    final int count = data.length;
-    float maximum = 0.0f;
-    int result = -1;
+    if ( rank == left && right > left ) {
 
-    for ( int index = 0; index < count; ++index ) {
-      final float value = data[ index ];
+      // Just the smallest, e.g., the rank after one already selected:
 
-      if ( value > AMISS3 ) {
+      int smallest = left;
 
-        if ( result == -1 || value > maximum ) {
-          maximum = value;
-          result = index;
+      for ( int index = left + 1; index <= right; ++index ) {
+
+        if ( values[ index ] < values[ smallest ] ) {
+          smallest = index;
         }
       }
+
+      swap( values, left, smallest );
+      return;
     }
 
-    return result;
-  }
+    while ( right > left ) {
 
-  /**
-   * PURPOSE: maximum8HourMeans - Compute the maximum of a set of 8-hour means.
-   * INPUTS:  final float[] data       Data to compare.
-   *          double hoursPerTimestep  Decimal hours per timestep.
-   * RETURNS: float maximum of a set of 8-hour means.
-   **/
+      if ( right - left < 16 || ++partitions > 64 ) {
+        Arrays.sort( values, left, right + 1 );
+        return;
+      }
 
-  private static float maximum8HourMeans( final float[] data,
-                                          final double hoursPerTimestep ) {
+      final int middle = ( left + right ) >>> 1;
 
-    final int count = (int) ( 8.0 / hoursPerTimestep + 0.5 );
-    final int timesteps = data.length - count;
-    float result = BADVAL3;
+      if ( values[ middle ] < values[ left   ] ) swap( values, middle, left );
+      if ( values[ right  ] < values[ left   ] ) swap( values, right, left );
+      if ( values[ right  ] < values[ middle ] ) swap( values, right, middle );
 
-    for ( int timestep = 0; timestep <= timesteps; ++timestep ) {
-      final int end = timestep + count;
-      final float windowMean = mean( data, timestep, end );
+      final float pivot = values[ middle ];
+      int i = left;
+      int j = right;
 
-      if ( windowMean > result ) {
-        result = windowMean;
-      }
-    }
+      while ( i <= j ) {
 
-    return result;
-  }
-
-  /**
-   * PURPOSE: mean - Compute the mean of a set of valid values from
-   *                 data[ first ] .. data[ end - 1 ].
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: float mean or BADVAL3 if all are invalid.
-   **/
+        while ( values[ i ] < pivot ) {
+          ++i;
+        }
 
-  private static float mean( final float[] data,
-                             final int first, final int end ) {
+        while ( values[ j ] > pivot ) {
+          --j;
+        }
 
-    float result = BADVAL3;
-    int count = 0;
+        if ( i <= j ) {
+          swap( values, i, j );
+          ++i;
+          --j;
+        }
+      }
 
-    for ( int index = first; index < end; ++index ) {
-      final float value = data[ index ];
+      // values[ left .. j ] <= pivot, values[ i .. right ] >= pivot and
+      // anything between them equals pivot:
 
-      if ( value > AMISS3 ) {
-        
-        if ( result <= BADVAL3 || result >= DataUtilities.NC_FILL_FLOAT) {
-          result = value;
-          count = 1;
-        } else {
-          final int count1 = count + 1;
-          result = ( count * result + value ) / count1;
-          count = count1;
-        }
+      if ( rank <= j ) {
+        right = j;
+      } else if ( rank >= i ) {
+        left = i;
+      } else {
+        return;
       }
     }
+  }
 
-    return result;
+  private static void swap( final float[] values, final int i, final int j ) {
+    final float value = values[ i ];
+    values[ i ] = values[ j ];
+    values[ j ] = value;
   }
 
   /**
-   * PURPOSE: firstValidIndex - Compute the index of the first valid value.
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: int 0-based index into data[] or -1 if all invalid.
+   * PURPOSE: maximumWindowMean - Compute the maximum of the means of each
+   *          moving window of timesteps, e.g., the maximum 8-hour mean.
+   * INPUTS:  final float[] values  values[ offset ] .. values[ offset +
+   *                                timesteps - 1 ] are the cell's data.
+   *          final int windowSize  Number of timesteps in each window.
+   * RETURNS: float maximum of the window means of valid values, or BADVAL3
+   *          if there are none.
+   * NOTES:   The window sum is updated as the window slides and recomputed
+   *          from scratch once per window length, so round-off from a large
+   *          value leaving the window does not carry over.
    **/
 
-  private static int firstValidIndex( final float[] data ) {
-
-    final int count = data.length;
-    int result = -1;
+  private static float maximumWindowMean( final float[] values,
+                                          final int offset,
+                                          final int timesteps,
+                                          final int windowSize ) {
+    float result = BADVAL3;
 
-    for ( int index = 0; index < count; ++index ) {
-      final float value = data[ index ];
-      
-      if ( value > AMISS3 ) {
-        result = index;
-        index = count;
-      }
+    if ( windowSize < 1 ) {
+      return result;
     }
 
-    return result;
-  }
+    double sum = 0.0;
+    int count = 0;
 
-  /**
-   * PURPOSE: sumf - Kahan Sum an array of floats.
-   * INPUTS:  final float[] data  Data to sum.
-   *          final int first     Starting index into data[].
-   * RETURNS: double sum of valid values.
-   * NOTES:   Based on version published in: "Floating-Point Summation"
-   *          C/C++ Users Journal Sept 1996, pp 51-55, by Evan Manning.
-   **/
+    for ( int timestep = 0; timestep < timesteps; ++timestep ) {
+      final int index = offset + timestep;
 
-  private static double sumf( final float[] data, final int first ) {
+      if ( timestep >= windowSize && timestep % windowSize == 0 ) {
+        sum = 0.0;
+        count = 0;
 
-    final int count = data.length;
-    double sum        = 0.0; // The sum of the values in the array.
-    double correction = 0.0; // Kahan corrector subtracts each round-off error
+        for ( int next = index - windowSize + 1; next <= index; ++next ) {
+          final float value = values[ next ];
 
-    for ( int index = first; index < count; ++index ) {
-      final double nextTerm = data[ index ];
-      final double correctedNextTerm = nextTerm - correction;
-      final double newSum = sum + correctedNextTerm;
-      correction = ( newSum - sum ) - correctedNextTerm;
-      sum = newSum;
-    }
+          if ( isValid( value ) ) {
+            sum += value;
+            ++count;
+          }
+        }
+      } else {
+        final float value = values[ index ];
 
-    return sum;
-  }
+        if ( isValid( value ) ) {
+          sum += value;
+          ++count;
+        }
 
-  /**
-   * PURPOSE: geometricMeanf - Compute the geometric mean of data[].
-   * INPUTS:  final float[] data  Data to read.
-   *          final int first     Starting index into data[].
-   * RETURNS: double geometric mean of valid values.
-   * @throws Exception 
-   **/
+        if ( timestep >= windowSize ) {
+          final float previous = values[ index - windowSize ];
 
-  private static double geometricMeanf( final float[] data, final int first ) throws Exception {
+          if ( isValid( previous ) ) {
+            sum -= previous;
+            --count;
+          }
+        }
+      }
 
-    final int count = data.length;
-    final int numberOfValues = count - first;
-    final double root    = numberOfValues > 0 ? 1.0 / numberOfValues : 0.0;
-    double geometricMean = numberOfValues > 0 ? 1.0 : 0.0;
+      if ( timestep >= windowSize - 1 && count > 0 ) {
+        final float windowMean = (float) ( sum / count );
 
-    for ( int index = first; index < numberOfValues; ++index ) {
-      final double nextTerm = data[ index ];
-      geometricMean *= java.lang.Math.pow( nextTerm, root );
-    }
-    
-    if ( Double.isNaN(geometricMean)){
-    	//throw new Exception("Geometric Mean is not a number");
+        if ( windowMean > result ) {
+          result = windowMean;
+        }
+      }
     }
 
-    return geometricMean;
+    return result;
   }
 
-  /**
-   * PURPOSE: variancef - Compute the variance of data[].
-   * INPUTS:  final float[] data  Data to read.
-   *          final int first     Starting index into data[].
-   *          final double mean   mean of the data.
-   * RETURNS: double variance of the data from its mean.
-   * NOTES:   Based on Kahan summation.
-   **/
-
-  private static double variancef( final float[] data, final int first,
-                                   final double mean ) {
+  // Whether a value counts toward a window mean:
 
-    final int count = data.length;
-    final int numberOfValues = count - first;
-    double s2         = 0.0; // The variance.
-    double sum        = 0.0; // The sum of the squares of the differences of
-                             // each data value and the mean.
-    double correction = 0.0; // Kahan corrector subtracts each round-off error
-
-    for ( int index = first; index < count; ++index ) {
-      final double value             = data[ index ];
-      final double meanDifference    = value - mean;
-      final double nextTerm          = meanDifference * meanDifference;
-      final double correctedNextTerm = nextTerm - correction;
-      final double newSum            = sum + correctedNextTerm;
-      correction = ( newSum - sum ) - correctedNextTerm;
-      sum = newSum;
-    }
-
-    if ( numberOfValues > 1 ) {
-      s2 = sum / ( numberOfValues - 1 );
-    }
-    return s2;
+  static boolean isValid( final float value ) {
+    return value > AMISS3 && value < DataUtilities.NC_FILL_FLOAT;
   }
 
-  /**
-   * PURPOSE: exceedance - Compute the number of values in data[] that are
-   *          greater than threshold.
-   * INPUTS:  final float[] data  Data to read.
-   *          final int first     Starting index into data[].
-   *          final double threshold  Threshold to compare to.
-   * RETURNS: int the number of data values greater than threshold.
-   **/
+  // Number of timesteps in 8 hours:
 
-  private static int exceedance( final float[] data, final int first,
-                                 final double threshold ) {
-    final int count = data.length;
-    int result = 0;
+  static int windowSize( final double hoursPerTimestep ) {
+    return (int) ( 8.0 / hoursPerTimestep + 0.5 );
+  }
 
-    for ( int index = first; index < count; ++index ) {
-      
-      if ( data[ index ] > threshold ) {
-        ++result;
-      }
+  // The data and parameters of one computeStatistics call:
+
+  private static final class Request {
+    final float[][][] cellData; // cellData[ rows ][ columns ][ timesteps ] or
+    final float[] data;         // data[ ( timestep * rows + row ) * columns + column ]
+    final int timesteps;
+    final int rows;
+    final int columns;
+    final double threshold;
+    final double hoursPerTimestep;
+    final float[][][] statistics;
+    final double customPercentileValue;
+    final boolean geometricMean;
+    final boolean orderStatistics;
+    final boolean maximum8HourMean;
+    final int windowSize;
+
+    Request( final float[][][] cellData, final float[] data,
+             final int timesteps, final int rows, final int columns,
+             final double threshold, final double hoursPerTimestep,
+             final float[][][] statistics, final int statIndex,
+             final double customPercentileValue ) {
+      this.cellData = cellData;
+      this.data = data;
+      this.timesteps = timesteps;
+      this.rows = rows;
+      this.columns = columns;
+      this.threshold = threshold;
+      this.hoursPerTimestep = hoursPerTimestep;
+      this.statistics = statistics;
+      this.customPercentileValue = customPercentileValue;
+
+      // The other statistics are cheap enough to always compute:
+
+      geometricMean = statIndex == GEOMETRIC_MEAN;
+      orderStatistics = statIndex == MEDIAN || statIndex == FIRST_QUARTILE ||
+                        statIndex == THIRD_QUARTILE ||
+                        statIndex == INTERQUARTILE_RANGE ||
+                        statIndex == FOURTH_MAX ||
+                        statIndex == CUSTOM_PERCENTILE;
+      maximum8HourMean = statIndex == MAXIMUM_8HOUR_MEAN;
+      windowSize = windowSize( hoursPerTimestep );
     }
-
-    return result;
   }
-};
\ No newline at end of file
+}
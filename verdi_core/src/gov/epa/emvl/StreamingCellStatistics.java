@@ -0,0 +1,517 @@
+package gov.epa.emvl;
+
+import static gov.epa.emvl.GridCellStatistics.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.data.AxisRange;
+import anl.verdi.data.AxisType;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameAxis;
+import anl.verdi.data.DataReader;
+import anl.verdi.data.Dataset;
+import anl.verdi.data.Range;
+import anl.verdi.data.Slice;
+import anl.verdi.data.Variable;
+import anl.verdi.util.SharedPool;
+
+/**
+ * Computes the same time-aggregate statistics as GridCellStatistics from
+ * data added a chunk of timesteps at a time, keeping only per-cell running
+ * values, so the whole [timesteps][rows][columns] cube is never in memory.
+ * Every statistic is exact except the median, quartiles, interquartile
+ * range and custom percentile, which are estimated with the P-square
+ * algorithm (Jain and Chlamtac, 1985) once a cell has more than 5 valid
+ * values. The 4th maximum is exact.
+ */
+public final class StreamingCellStatistics {
+
+	/**
+	 * System property that sets the size in megabytes of the largest
+	 * layer cube that statistics are computed from directly. Larger ones
+	 * are streamed. The default is an eighth of the maximum heap size.
+	 */
+	public static final String MAX_SIZE_PROPERTY = "verdi.statistics.maxMB";
+
+	static final Logger Logger = LogManager.getLogger(StreamingCellStatistics.class.getName());
+
+	// size of the chunks read by the add methods that do their own reading
+	private static final int CHUNK_BYTES = 1 << 26;
+
+	// markers per P-square sketch, and the sketches kept for each cell
+	private static final int MARKERS = 5;
+	private static final int SKETCHES = 4;
+	private static final int FIRST_QUARTILE_SKETCH = 0;
+	private static final int MEDIAN_SKETCH = 1;
+	private static final int THIRD_QUARTILE_SKETCH = 2;
+	private static final int CUSTOM_SKETCH = 3;
+
+	private final int rows, columns, cells;
+	private final double threshold, hoursPerTimestep, customPercentileValue;
+	private final boolean geometricMean, orderStatistics, maximum8HourMean;
+	private final int windowSize;
+	private final double[] probabilities;
+	private int timesteps = 0;
+
+	private final int[] counts, indexesOfMinimum, indexesOfMaximum, exceeding;
+	private final float[] minima, maxima;
+	private final double[] means, m2s, sums, corrections;
+	private double[] logSums;
+	// the 4 largest values of each cell, largest first
+	private float[] largest;
+	// marker heights and 0-based positions of each cell's sketches
+	private float[] heights;
+	private int[] positions;
+	// the values in each cell's current 8-hour window, their sum and count
+	private float[] windows;
+	private double[] windowSums;
+	private int[] windowCounts;
+	private float[] windowMaxima;
+
+	/**
+	 * Creates a StreamingCellStatistics for a layer of cells.
+	 *
+	 * @param rows                  the number of rows
+	 * @param columns               the number of columns
+	 * @param threshold             the exceedance threshold for hours of non-compliance
+	 * @param hoursPerTimestep      the timestep size in decimal hours
+	 * @param statIndex             the statistic wanted, e.g. GridCellStatistics.MEDIAN
+	 * @param customPercentileValue the percentile for GridCellStatistics.CUSTOM_PERCENTILE
+	 */
+	public StreamingCellStatistics(int rows, int columns, double threshold, double hoursPerTimestep, int statIndex,
+					double customPercentileValue) {
+		this.rows = rows;
+		this.columns = columns;
+		this.cells = rows * columns;
+		this.threshold = threshold;
+		this.hoursPerTimestep = hoursPerTimestep;
+		this.customPercentileValue = customPercentileValue;
+		geometricMean = statIndex == GEOMETRIC_MEAN;
+		orderStatistics = statIndex == MEDIAN || statIndex == FIRST_QUARTILE || statIndex == THIRD_QUARTILE
+						|| statIndex == INTERQUARTILE_RANGE || statIndex == FOURTH_MAX || statIndex == CUSTOM_PERCENTILE;
+		windowSize = GridCellStatistics.windowSize(hoursPerTimestep);
+		maximum8HourMean = statIndex == MAXIMUM_8HOUR_MEAN;
+		probabilities = new double[]{0.25, 0.5, 0.75, Math.min(1, Math.max(0, customPercentileValue / 100.0))};
+
+		counts = new int[cells];
+		indexesOfMinimum = new int[cells];
+		indexesOfMaximum = new int[cells];
+		exceeding = new int[cells];
+		minima = new float[cells];
+		maxima = new float[cells];
+		means = new double[cells];
+		m2s = new double[cells];
+		sums = new double[cells];
+		corrections = new double[cells];
+		Arrays.fill(indexesOfMinimum, -1);
+		Arrays.fill(indexesOfMaximum, -1);
+		if (geometricMean) logSums = new double[cells];
+		if (orderStatistics) {
+			largest = new float[cells * 4];
+			heights = new float[cells * SKETCHES * MARKERS];
+			positions = new int[cells * SKETCHES * MARKERS];
+		}
+		if (maximum8HourMean && windowSize > 0) {
+			windows = new float[cells * windowSize];
+			windowSums = new double[cells];
+			windowCounts = new int[cells];
+			windowMaxima = new float[cells];
+			Arrays.fill(windowMaxima, BADVAL3);
+		}
+	}
+
+	/**
+	 * Gets the size in bytes of the largest layer cube that statistics
+	 * should be computed from directly rather than streamed.
+	 *
+	 * @return the size in bytes of the largest layer cube to compute directly.
+	 */
+	public static long getMaxBytes() {
+		long max = Runtime.getRuntime().maxMemory() / 8;
+		String val = System.getProperty(MAX_SIZE_PROPERTY);
+		if (val != null && !val.trim().isEmpty()) {
+			try {
+				max = Long.parseLong(val.trim()) * 1024 * 1024;
+			} catch (NumberFormatException ex) {
+				Logger.warn("Invalid value '" + val + "' for " + MAX_SIZE_PROPERTY + ", using " + (max >> 20) + " MB");
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Gets the number of timesteps to read at a time for the specified
+	 * number of cells.
+	 *
+	 * @param cells the number of cells in each timestep
+	 * @return the number of timesteps to read at a time.
+	 */
+	public static int getChunkTimesteps(int cells) {
+		return Math.max(1, CHUNK_BYTES / 4 / Math.max(1, cells));
+	}
+
+	/**
+	 * Gets the number of timesteps added so far.
+	 *
+	 * @return the number of timesteps added so far.
+	 */
+	public int getTimesteps() {
+		return timesteps;
+	}
+
+	/**
+	 * Adds the next chunk of timesteps.
+	 *
+	 * @param data      the values, data[(timestep * rows + row) * columns + column],
+	 *                  as copied by DataFrame.copy
+	 * @param timesteps the number of timesteps in data
+	 * @throws IllegalArgumentException if data is too small
+	 */
+	public void add(final float[] data, final int timesteps) {
+		if (data.length < (long) timesteps * cells)
+			throw new IllegalArgumentException("data has " + data.length + " values, expected " + timesteps + " x "
+							+ rows + " x " + columns);
+		if (timesteps <= 0) return;
+		int threads = GridCellStatistics.getParallelism();
+		if (threads <= 1 || cells < 2 || (long) cells * timesteps < MIN_PARALLEL_SIZE) {
+			addCells(data, timesteps, 0, cells);
+		} else {
+			final int grain = Math.max(1, cells / (threads * CHUNKS_PER_THREAD));
+			GridCellStatistics.pool.forEach((cells + grain - 1) / grain, new SharedPool.Body() {
+				public void run(int chunk) {
+					int first = chunk * grain;
+					addCells(data, timesteps, first, Math.min(cells, first + grain));
+				}
+			});
+		}
+		this.timesteps += timesteps;
+	}
+
+	/**
+	 * Adds the slice of a data frame, copying it a chunk of timesteps at
+	 * a time. The slice must select a single layer.
+	 *
+	 * @param frame          the data frame
+	 * @param slice          the slice of the frame, whose time range if set is the timesteps to add
+	 * @param invertRows     whether or not the rows are copied last to first
+	 * @param chunkTimesteps the number of timesteps to copy at a time
+	 */
+	public void add(DataFrame frame, Slice slice, boolean invertRows, int chunkTimesteps) {
+		DataFrameAxis timeAxis = frame.getAxes().getTimeAxis();
+		if (timeAxis == null) {
+			float[] buffer = new float[cells];
+			frame.copy(slice, invertRows, buffer);
+			add(buffer, 1);
+			return;
+		}
+
+		Range range = slice.getTimeRange();
+		long origin = range == null ? 0 : range.getOrigin();
+		long extent = range == null ? timeAxis.getExtent() : range.getExtent();
+		int chunkSize = (int) Math.max(1, Math.min(chunkTimesteps, extent));
+		float[] buffer = new float[chunkSize * cells];
+		Slice chunk = new Slice();
+		if (slice.getLayerRange() != null) chunk.setLayerRange(slice.getLayerRange());
+		if (slice.getYRange() != null) chunk.setYRange(slice.getYRange());
+		if (slice.getXRange() != null) chunk.setXRange(slice.getXRange());
+		if (slice.getCellRange() != null) chunk.setCellRange(slice.getCellRange());
+		for (long timestep = 0; timestep < extent; timestep += chunkSize) {
+			int count = (int) Math.min(chunkSize, extent - timestep);
+			chunk.setTimeRange(origin + timestep, count);
+			frame.copy(chunk, invertRows, buffer);
+			add(buffer, count);
+		}
+	}
+
+	/**
+	 * Adds the values of a variable, reading them a chunk of timesteps at
+	 * a time so that only one chunk is in memory. The ranges must select
+	 * a single layer.
+	 *
+	 * @param reader         the reader for the dataset
+	 * @param dataset        the dataset that contains the variable
+	 * @param variable       the variable
+	 * @param ranges         the ranges of the axes to read, whose time range if present is the timesteps to add
+	 * @param invertRows     whether or not the rows are copied last to first
+	 * @param chunkTimesteps the number of timesteps to read at a time
+	 */
+	public <D extends Dataset> void add(DataReader<D> reader, D dataset, Variable<?> variable, List<AxisRange> ranges,
+					boolean invertRows, int chunkTimesteps) {
+		CoordAxis timeAxis = dataset.getCoordAxes().getTimeAxis();
+		List<AxisRange> others = new ArrayList<AxisRange>();
+		long origin = timeAxis.getRange().getOrigin();
+		long extent = timeAxis.getRange().getExtent();
+		for (AxisRange range : ranges) {
+			if (range.getAxisType() == AxisType.TIME) {
+				origin = range.getOrigin();
+				extent = range.getExtent();
+			} else {
+				others.add(range);
+			}
+		}
+
+		int chunkSize = (int) Math.max(1, Math.min(chunkTimesteps, extent));
+		float[] buffer = new float[chunkSize * cells];
+		for (long timestep = 0; timestep < extent; timestep += chunkSize) {
+			int count = (int) Math.min(chunkSize, extent - timestep);
+			List<AxisRange> chunk = new ArrayList<AxisRange>(others);
+			chunk.add(new AxisRange(timeAxis, (int) (origin + timestep), count));
+			DataFrame frame = reader.getValues(dataset, chunk, variable);
+			frame.copy(new Slice(), invertRows, buffer);
+			add(buffer, count);
+		}
+	}
+
+	/**
+	 * Gets the statistics of the timesteps added so far.
+	 *
+	 * @param statistics the statistics, statistics[GridCellStatistics.STATISTICS][rows][columns]
+	 */
+	public void getStatistics(float[][][] statistics) {
+		float[] values = orderStatistics ? new float[MARKERS] : null;
+		for (int cell = 0; cell < cells; cell++) {
+			int row = cell / columns;
+			int column = cell - row * columns;
+			int count = counts[cell];
+			storeStatistics(statistics, row, column, count, indexesOfMinimum[cell], indexesOfMaximum[cell],
+							minima[cell], maxima[cell], sums[cell], means[cell], m2s[cell], exceeding[cell], hoursPerTimestep);
+			if (maximum8HourMean) {
+				statistics[MAXIMUM_8HOUR_MEAN][row][column] = windowMaxima == null ? BADVAL3 : windowMaxima[cell];
+			}
+			if (geometricMean) {
+				statistics[GEOMETRIC_MEAN][row][column] = GridCellStatistics.geometricMean(count, minima[cell],
+								logSums[cell]);
+			}
+			if (orderStatistics) {
+				storeOrderStatistics(statistics, row, column, cell, values);
+			}
+		}
+	}
+
+	private void storeOrderStatistics(float[][][] statistics, int row, int column, int cell, float[] values) {
+		int count = counts[cell];
+		if (count == 0) {
+			storeMissing(statistics, row, column, ORDER_STATISTICS);
+		} else if (count < MARKERS) {
+			// the sketches still hold every value, so these are exact
+			System.arraycopy(heights, cell * SKETCHES * MARKERS, values, 0, count);
+			computeOrderStatistics(values, count, customPercentileValue, statistics, row, column);
+		} else {
+			int base = cell * SKETCHES;
+			float firstQuartile = estimate(base + FIRST_QUARTILE_SKETCH, count);
+			float thirdQuartile = estimate(base + THIRD_QUARTILE_SKETCH, count);
+			float custom = estimate(base + CUSTOM_SKETCH, count);
+			statistics[MEDIAN][row][column] = estimate(base + MEDIAN_SKETCH, count);
+			statistics[FIRST_QUARTILE][row][column] = firstQuartile;
+			statistics[THIRD_QUARTILE][row][column] = thirdQuartile;
+			statistics[INTERQUARTILE_RANGE][row][column] = thirdQuartile - firstQuartile;
+			statistics[CUSTOM_PERCENTILE][row][column] = custom;
+			statistics[FOURTH_MAX][row][column] = largest[cell * 4 + 3];
+		}
+	}
+
+	// the estimated quantile of a sketch, interpolated between the markers
+	// either side of the quantile's position. The middle marker is at that
+	// position once the sketch has settled, but not for the first values.
+	private float estimate(int sketch, int count) {
+		int base = sketch * MARKERS;
+		double position = probabilities[sketch % SKETCHES] * (count - 1);
+		int marker = 0;
+		while (marker < MARKERS - 2 && positions[base + marker + 1] < position) marker++;
+		int lower = positions[base + marker], upper = positions[base + marker + 1];
+		double fraction = Math.min(1, Math.max(0, (position - lower) / (upper - lower)));
+		return (float) (heights[base + marker] + fraction * (heights[base + marker + 1] - heights[base + marker]));
+	}
+
+	private void addCells(float[] data, int length, int first, int end) {
+		float[] series = new float[Math.min(end - first, BLOCK_CELLS) * length];
+		for (int cell = first; cell < end; cell += BLOCK_CELLS) {
+			int width = Math.min(BLOCK_CELLS, end - cell);
+			gather(data, length, cells, cell, width, series);
+			for (int index = 0; index < width; index++) {
+				addCell(cell + index, series, index * length, length);
+			}
+		}
+	}
+
+	// updates the running values of a cell with values[offset] to
+	// values[offset + length - 1], the next timesteps of the cell
+	private void addCell(int cell, float[] values, int offset, int length) {
+		int count = counts[cell];
+		int indexOfMinimum = indexesOfMinimum[cell];
+		int indexOfMaximum = indexesOfMaximum[cell];
+		int exceeds = exceeding[cell];
+		float minimum = minima[cell];
+		float maximum = maxima[cell];
+		double mean = means[cell];
+		double m2 = m2s[cell];
+		double sum = sums[cell];
+		double correction = corrections[cell];
+		double logSum = geometricMean ? logSums[cell] : 0;
+		boolean window = windows != null;
+
+		for (int index = 0, timestep = timesteps; index < length; index++, timestep++) {
+			float value = values[offset + index];
+			if (window) addToWindow(cell, timestep, value);
+			if (!(value > AMISS3)) continue;
+
+			if (indexOfMinimum == -1 || value < minimum) {
+				minimum = value;
+				indexOfMinimum = timestep;
+			}
+			if (indexOfMaximum == -1 || value > maximum) {
+				maximum = value;
+				indexOfMaximum = timestep;
+			}
+			if (orderStatistics) {
+				addToLargest(cell * 4, count, value);
+				for (int sketch = 0; sketch < SKETCHES; sketch++) {
+					addToSketch((cell * SKETCHES + sketch) * MARKERS, probabilities[sketch], count, value);
+				}
+			}
+
+			++count;
+			double difference = value - mean;
+			mean += difference / count;
+			m2 += difference * (value - mean);
+
+			double correctedNextTerm = value - correction;
+			double newSum = sum + correctedNextTerm;
+			correction = (newSum - sum) - correctedNextTerm;
+			sum = newSum;
+
+			if (value > threshold) ++exceeds;
+			if (geometricMean) logSum += Math.log(value);
+		}
+
+		counts[cell] = count;
+		indexesOfMinimum[cell] = indexOfMinimum;
+		indexesOfMaximum[cell] = indexOfMaximum;
+		exceeding[cell] = exceeds;
+		minima[cell] = minimum;
+		maxima[cell] = maximum;
+		means[cell] = mean;
+		m2s[cell] = m2;
+		sums[cell] = sum;
+		corrections[cell] = correction;
+		if (geometricMean) logSums[cell] = logSum;
+	}
+
+	// slides the cell's window on to the timestep, in the same order of
+	// operations as GridCellStatistics so the results are identical
+	private void addToWindow(int cell, int timestep, float value) {
+		int base = cell * windowSize;
+		int slot = timestep % windowSize;
+		double sum = windowSums[cell];
+		int count = windowCounts[cell];
+		if (timestep >= windowSize && slot == 0) {
+			windows[base] = value;
+			sum = 0;
+			count = 0;
+			for (int index = 1; index <= windowSize; index++) {
+				float next = windows[base + index % windowSize];
+				if (isValid(next)) {
+					sum += next;
+					++count;
+				}
+			}
+		} else {
+			float previous = windows[base + slot];
+			windows[base + slot] = value;
+			if (isValid(value)) {
+				sum += value;
+				++count;
+			}
+			if (timestep >= windowSize && isValid(previous)) {
+				sum -= previous;
+				--count;
+			}
+		}
+		if (timestep >= windowSize - 1 && count > 0) {
+			float windowMean = (float) (sum / count);
+			if (windowMean > windowMaxima[cell]) windowMaxima[cell] = windowMean;
+		}
+		windowSums[cell] = sum;
+		windowCounts[cell] = count;
+	}
+
+	// keeps largest[base] to largest[base + 3] the 4 largest values so far
+	private void addToLargest(int base, int count, float value) {
+		int size = Math.min(count, 4);
+		if (size == 4 && value <= largest[base + 3]) return;
+		int index = size == 4 ? 3 : size;
+		while (index > 0 && largest[base + index - 1] < value) {
+			largest[base + index] = largest[base + index - 1];
+			index--;
+		}
+		largest[base + index] = value;
+	}
+
+	// P-square update of the sketch of the p quantile at base with the
+	// count + 1th value. Until there are 5 values the markers are just
+	// the values in order.
+	private void addToSketch(int base, double p, int count, float value) {
+		if (count < MARKERS) {
+			int index = count;
+			while (index > 0 && heights[base + index - 1] > value) {
+				heights[base + index] = heights[base + index - 1];
+				index--;
+			}
+			heights[base + index] = value;
+			if (count == MARKERS - 1) {
+				for (int marker = 0; marker < MARKERS; marker++) {
+					positions[base + marker] = marker;
+				}
+			}
+			return;
+		}
+
+		// find the cell the value falls in, extending the ends if needed
+		int k;
+		if (value < heights[base]) {
+			heights[base] = value;
+			k = 0;
+		} else if (value >= heights[base + 4]) {
+			heights[base + 4] = value;
+			k = 3;
+		} else {
+			k = 0;
+			while (value >= heights[base + k + 1]) k++;
+		}
+		for (int marker = k + 1; marker < MARKERS; marker++) {
+			positions[base + marker]++;
+		}
+
+		// move the middle markers that are off their desired positions
+		for (int marker = 1; marker < MARKERS - 1; marker++) {
+			double increment = marker == 1 ? p / 2 : marker == 2 ? p : (1 + p) / 2;
+			int position = positions[base + marker];
+			double d = count * increment - position;
+			int next = positions[base + marker + 1] - position;
+			int previous = position - positions[base + marker - 1];
+			if ((d >= 1 && next > 1) || (d <= -1 && previous > 1)) {
+				int step = d > 0 ? 1 : -1;
+				double height = heights[base + marker];
+				double nextHeight = heights[base + marker + 1];
+				double previousHeight = heights[base + marker - 1];
+				double parabolic = height + step / (double) (next + previous)
+								* ((previous + step) * (nextHeight - height) / next
+								+ (next - step) * (height - previousHeight) / previous);
+				if (previousHeight < parabolic && parabolic < nextHeight) {
+					heights[base + marker] = (float) parabolic;
+				} else {
+					double neighbour = heights[base + marker + step];
+					heights[base + marker] = (float) (height + step * (neighbour - height)
+									/ (positions[base + marker + step] - position));
+				}
+				positions[base + marker] = position + step;
+			}
+		}
+	}
+}
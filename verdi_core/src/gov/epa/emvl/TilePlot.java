@@ -29,8 +29,10 @@ import anl.verdi.area.target.GridInfo;
 import anl.verdi.data.DataUtilities;
 import anl.verdi.plot.config.PlotConfiguration;
 import anl.verdi.plot.config.TilePlotConfiguration;
+import anl.verdi.plot.gui.LegendClassifier;
 import anl.verdi.plot.gui.ObsAnnotation;
 import anl.verdi.plot.gui.ObsAnnotation.Symbol;
+import anl.verdi.plot.util.GraphicsTarget;
 import anl.verdi.util.ScriptManager;
 import anl.verdi.util.Tools;
 import anl.verdi.util.Utilities;		// 2014 to handle footer date/time correctly
@@ -86,6 +88,8 @@ public class TilePlot {
 	
 	private boolean log = false;
 	private int logBase = 10; //Math.E;
+	private final TileRaster tileRaster = new TileRaster();
+	boolean rasterCells = true; // Draw grid cells as one image rather than a rectangle per run.
 	protected int xTranslation = 0;
 	
 	Projection proj = null;
@@ -1074,14 +1078,31 @@ public class TilePlot {
 		final Color gColor = graphics.getColor();
 		Color previousCellColor = null;
 
+		// Draw the cells as one image of their color indices, which only changes
+		// when the indices do, falling back to rectangles when it cannot be used
+		// and when exporting, e.g. to EPS, so that the cells stay vectors:
+
+		if (rasterCells && GraphicsTarget.isRaster(graphics)) {
+			final byte[][] indices = colorIndexCache == null ? calculateColorIndices(data, legendLevels) : colorIndexCache;
+
+			if (tileRaster.draw((Graphics2D) graphics, xMinimum, xMaximum, yMinimum, yMaximum,
+					rows, columns, indices, legendColors)) {
+				graphics.setColor(Color.LIGHT_GRAY);
+				graphics.drawRect(xMinimum, yMinimum, (int) width, (int) height);
+				graphics.setColor(gColor);
+				return;
+			}
+		}
+
 		// Color entire grid area with the lowest legend color then
 		// avoid drawing the (usually numerous) grid cells that have that color.
 
 		graphics.setColor(backgroundColor);
+		final LegendClassifier classifier = colorIndexCache == null ? new LegendClassifier(legendLevels) : null;
 		
 		if (rows == 1 && columns == 1) {
 			float dat = data[0][0];
-			int index = colorIndexCache == null ? indexOfValue(dat, legendLevels) : colorIndexCache[0][0];
+			int index = colorIndexCache == null ? classifier.classify(dat) : colorIndexCache[0][0];
 			graphics.setColor(index == -1 ? Color.WHITE : legendColors[index]);
 		}
 		
@@ -1106,7 +1127,7 @@ public class TilePlot {
 				//final 
 				float datum = data[dataRow][dataColumn];
 				
-				final int colorIndex = colorIndexCache == null ? indexOfValue(datum, legendLevels) : colorIndexCache[dataRow][dataColumn];
+				final int colorIndex = colorIndexCache == null ? classifier.classify(datum) : colorIndexCache[dataRow][dataColumn];
 
 				final Color cellColor = (colorIndex == -1 ? Color.WHITE : legendColors[colorIndex]);
 				
@@ -1151,12 +1172,17 @@ public class TilePlot {
 		graphics.setColor(gColor);
 	}
 	
+	/**
+	 * calculateColorIndices - legend color index of each value, -1 for missing
+	 * values, classified in parallel for large grids.
+	 * 
+	 * @pre data != null
+	 * @pre legendLevels != null
+	 * @pre legendLevels.length >= 2
+	 */
+
 	public byte[][] calculateColorIndices(final float[][] data, final double[] legendLevels) {
-		byte[][] indices = new byte[data.length][data[0].length];
-		for (int i = 0; i < data.length; ++i)
-			for (int j = 0; j < data[i].length; ++j)
-				indices[i][j] = indexOfValue(data[i][j], legendLevels);
-		return indices;
+		return new LegendClassifier(legendLevels).classify(data, null);
 	}
 	
 	/**
@@ -1212,35 +1238,6 @@ public class TilePlot {
 		}
 	}
 
-	/**
-	 * indexOfValue - Clamped index of value within range.
-	 * 
-	 * @pre ! Numerics.isNan( value )
-	 * @pre values != null
-	 * @pre values.length >= 2
-	 * @post return >= 0
-	 * @post return < values.length - 1
-	 * @post value >= values[ return ]
-	 * @post value <= values[ return ]
-	 */
-
-	private static byte indexOfValue(float value, final double[] values) { // TODO: log color legend: take log on value
-		if (new Float(value).toString().equals("NaN") || value <= DataUtilities.AMISS3 || value <= DataUtilities.BADVAL3 || value >= DataUtilities.NC_FILL_FLOAT)
-			return -1;
-		
-		final int count = values.length;
-		
-		if (values[0] == values[values.length-1])
-			return 0;
-
-		for (int index = 1; index < count; index++) {
-			if (values[index] > value)
-				return (byte)(index - 1);
-		}
-
-		return (byte)(count - 2);
-	}
-	
 	/**
 	 * dateTime - create date-time string.
 	 * 
@@ -0,0 +1,224 @@
+/** TileRaster.java - Draw the grid cells of a tile plot as one image.
+ */
+
+package gov.epa.emvl;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * The grid cells of a tile plot drawn into an image of legend color indices
+ * (an IndexColorModel-backed BufferedImage) that is then copied to the plot
+ * with a single drawImage, instead of a fillRect for each run of cells.
+ * <p>
+ * The cells are written into the image as the same rectangles, in the same
+ * order, as TilePlot.drawGridCells fills them, so that the plot is pixel
+ * identical to drawing them one by one, including where the rectangles of
+ * neighbouring cells overlap. The image holds color indices, not colors, so
+ * it is only written again when the color indices or the size of the plot
+ * change; a change of palette only replaces its color model.
+ */
+class TileRaster {
+
+	// the color model has the legend colors, white for missing values and
+	// a transparent entry for the pixels outside the grid cells
+	private static final int MAXIMUM_COLORS = 254;
+	// how far the cell rectangles may reach past the right and bottom edges
+	private static final int MARGIN = 4;
+
+	private BufferedImage image = null;
+	private byte[] pixels = null;
+	private int imageWidth = 0, imageHeight = 0;
+
+	// what the image was written from
+	private byte[][] indices = null;
+	private int rows = 0, columns = 0;
+	private int xMinimum, xMaximum, yMinimum, yMaximum;
+	private int[] sameColor = null;
+	private Color[] colors = null;
+
+	/**
+	 * Draws the grid cells, if they can be drawn as an image.
+	 *
+	 * @param graphics     the graphics to draw with
+	 * @param xMinimum     the left of the grid
+	 * @param xMaximum     the right of the grid
+	 * @param yMinimum     the top of the grid
+	 * @param yMaximum     the bottom of the grid
+	 * @param rows         the number of rows of cells drawn
+	 * @param columns      the number of columns of cells drawn
+	 * @param colorIndices the legend color index of each cell, -1 for
+	 *                     missing values, bottom row first
+	 * @param legendColors the legend colors
+	 * @return false if the cells were not drawn, because the graphics is
+	 *         scaled, e.g. when printing, or because there are too many
+	 *         colors or a color index is out of range.
+	 */
+	synchronized boolean draw(Graphics2D graphics, int xMinimum, int xMaximum, int yMinimum, int yMaximum,
+			int rows, int columns, byte[][] colorIndices, Color[] legendColors) {
+		final AffineTransform transform = graphics.getTransform();
+		if ((transform.getType() & ~AffineTransform.TYPE_TRANSLATION) != 0
+				|| transform.getTranslateX() != Math.rint(transform.getTranslateX())
+				|| transform.getTranslateY() != Math.rint(transform.getTranslateY())
+				|| legendColors.length > MAXIMUM_COLORS || xMaximum <= xMinimum || yMaximum <= yMinimum)
+			return false;
+
+		// cells whose colors are the same object are drawn as one, so the
+		// pixels depend on which colors are the same object
+		final Color[] codeColors = Arrays.copyOf(legendColors, legendColors.length + 1);
+		codeColors[legendColors.length] = Color.WHITE;
+		final int[] same = new int[codeColors.length];
+		for (int code = 0; code < same.length; code++) {
+			same[code] = code;
+			for (int other = 0; other < code; other++) {
+				if (codeColors[other] == codeColors[code]) {
+					same[code] = other;
+					break;
+				}
+			}
+		}
+
+		if (image == null || xMinimum != this.xMinimum || xMaximum != this.xMaximum
+				|| yMinimum != this.yMinimum || yMaximum != this.yMaximum
+				|| !Arrays.equals(same, sameColor) || !sameIndices(colorIndices, rows, columns)) {
+			indices = null;
+			if (!write(xMinimum, xMaximum, yMinimum, yMaximum, rows, columns, colorIndices, same))
+				return false;
+			copyIndices(colorIndices, rows, columns);
+			this.xMinimum = xMinimum;
+			this.xMaximum = xMaximum;
+			this.yMinimum = yMinimum;
+			this.yMaximum = yMaximum;
+			sameColor = same;
+			colors = null;
+		}
+
+		if (!Arrays.equals(codeColors, colors)) {
+			image = new BufferedImage(createColorModel(codeColors), image.getRaster(), false, null);
+			colors = codeColors;
+		}
+		graphics.drawImage(image, xMinimum, yMinimum, null);
+		return true;
+	}
+
+	private boolean sameIndices(byte[][] colorIndices, int rows, int columns) {
+		if (indices == null || rows != this.rows || columns != this.columns)
+			return false;
+		for (int row = 0; row < rows; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				if (indices[row][column] != colorIndices[row][column])
+					return false;
+			}
+		}
+		return true;
+	}
+
+	// kept, rather than the caller's arrays, which may be changed in place
+	private void copyIndices(byte[][] colorIndices, int rows, int columns) {
+		if (indices == null || indices.length != rows || rows == 0 || indices[0].length != columns)
+			indices = new byte[rows][columns];
+		for (int row = 0; row < rows; ++row)
+			System.arraycopy(colorIndices[row], 0, indices[row], 0, columns);
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	private static IndexColorModel createColorModel(Color[] codeColors) {
+		final int size = codeColors.length + 1;
+		final byte[] r = new byte[size], g = new byte[size], b = new byte[size], a = new byte[size];
+		for (int code = 0; code < codeColors.length; code++) {
+			r[code] = (byte) codeColors[code].getRed();
+			g[code] = (byte) codeColors[code].getGreen();
+			b[code] = (byte) codeColors[code].getBlue();
+			a[code] = (byte) codeColors[code].getAlpha();
+		}
+		return new IndexColorModel(8, size, r, g, b, a);
+	}
+
+	// writes the cells into the image as TilePlot.drawGridCells fills them
+	private boolean write(int xMinimum, int xMaximum, int yMinimum, int yMaximum, int rows, int columns,
+			byte[][] colorIndices, int[] same) {
+		final int missing = same.length - 1;
+		final int transparent = same.length;
+		final int width = xMaximum - xMinimum + MARGIN;
+		final int height = yMaximum - yMinimum + MARGIN;
+		if (image == null || width != imageWidth || height != imageHeight) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+					createColorModel(new Color[] { Color.WHITE }));
+			pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			imageWidth = width;
+			imageHeight = height;
+			colors = null;
+		}
+		Arrays.fill(pixels, (byte) transparent);
+
+		final float xDelta = (float) (xMaximum - xMinimum) / columns;
+		final float yDelta = (float) (yMaximum - yMinimum) / rows;
+		final int rectangleHeight = Math.round(yDelta + 0.5f);
+		float rectangleWidth = xDelta;
+		final int background = 0;
+
+		int fill = background;
+		if (rows == 1 && columns == 1) {
+			int index = colorIndices[0][0];
+			fill = index == -1 ? missing : index;
+			if (fill < 0 || fill > missing)
+				return false;
+		}
+		fill(same[fill], 0, 0, xMaximum - xMinimum, yMaximum - yMinimum);
+
+		final float yMaxAdj = yMaximum + 0.5f;
+		final float xMinAdj = xMinimum + 0.5f;
+		final int lastRectangleWidth = Math.round(xDelta + 0.5f);
+		for (int dataRow = 0; dataRow < rows; ++dataRow) {
+			final int y = Math.round(yMaxAdj - (1 + dataRow) * yDelta) - yMinimum;
+			float x = xMinimum;
+			int previous = -1;
+
+			for (int dataColumn = 0; dataColumn < columns; ++dataColumn) {
+				final int index = colorIndices[dataRow][dataColumn];
+				if (index < -1 || index >= missing)
+					return false;
+				final int code = same[index == -1 ? missing : index];
+
+				if (dataColumn == columns - 1 && code != background) {
+					final int lastX = Math.round(xMinAdj + dataColumn * xDelta) - xMinimum;
+					fill(code, lastX, y, lastRectangleWidth, rectangleHeight);
+				}
+
+				if (previous == -1) {
+					previous = code;
+				} else if (code != previous || dataColumn == columns - 1) {
+					if (previous != background) {
+						final int thisRectangleWidth = Math.round(rectangleWidth + 0.5f);
+						final int cellX = Math.round(x + 0.5f) - xMinimum;
+						fill(previous, cellX, y, thisRectangleWidth, rectangleHeight);
+					} else {
+						x += xDelta;
+					}
+					rectangleWidth = xDelta;
+					previous = code;
+					x = xMinimum + dataColumn * xDelta;
+				} else {
+					rectangleWidth += xDelta;
+				}
+			}
+		}
+		return true;
+	}
+
+	// fillRect into the image, clipped to it
+	private void fill(int code, int x, int y, int width, int height) {
+		final int xStart = Math.max(x, 0), xEnd = Math.min(x + width, imageWidth);
+		final int yStart = Math.max(y, 0), yEnd = Math.min(y + height, imageHeight);
+		if (xStart >= xEnd)
+			return;
+		for (int row = yStart; row < yEnd; ++row)
+			Arrays.fill(pixels, row * imageWidth + xStart, row * imageWidth + xEnd, (byte) code);
+	}
+}
@@ -0,0 +1,130 @@
+package anl.verdi.area.target;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Tests the in memory and on disk caching of the areas of targets.
+ */
+public class CachedTargetListTest extends TestCase {
+
+	private File dir;
+	private String oldDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("targetcache", "");
+		dir.delete();
+		dir.mkdirs();
+		oldDir = System.getProperty(TargetAreaFile.CACHE_DIR_PROPERTY);
+		System.setProperty(TargetAreaFile.CACHE_DIR_PROPERTY, new File(dir, "cache").getPath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		CachedTargetList.setMaxBytes(Long.MAX_VALUE);
+		for (File file : dir.listFiles()) {
+			CachedTargetList.closeFile(file.getPath());
+		}
+		delete(dir);
+		if (oldDir == null) System.clearProperty(TargetAreaFile.CACHE_DIR_PROPERTY);
+		else System.setProperty(TargetAreaFile.CACHE_DIR_PROPERTY, oldDir);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) delete(child);
+		}
+		file.delete();
+	}
+
+	private File createShapefile(String name, String contents) throws IOException {
+		File shp = new File(dir, name + ".shp");
+		write(shp, contents);
+		write(new File(dir, name + ".dbf"), "names of " + contents);
+		return shp;
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static Target createTarget(File shp, String name) {
+		Target.SourceData source = new Target.SourceData(shp.getPath(), "FIPS", null, false);
+		Target target = new Target(TargetCalculator.getGeometryFactory().toGeometry(new Envelope(0, 1, 0, 1)), name, source);
+		target.area = 42;
+		return target;
+	}
+
+	private static CachedTargetList getList(Target target, double cellWidth) {
+		return CachedTargetList.getCachedTargetList(target, null, 10, 20, -100, -50, cellWidth, 12000);
+	}
+
+	public void testSavedAcrossSessions() throws IOException {
+		File shp = createShapefile("counties", "geometry");
+		Target target = createTarget(shp, "37001");
+		CachedTargetList list = getList(target, 12000);
+		assertNull(list.getCachedAreaInfo(target));
+		list.cacheAreaInfo(target, new int[]{1, 2}, new int[]{3, 4}, new float[]{.5f, .25f});
+		list.cacheAreaInfo(createTarget(shp, "37003"), null, null, null);
+		list.save();
+
+		// as if in a new session
+		CachedTargetList.closeFile(shp.getPath());
+		list = getList(target, 12000);
+		TargetAreaInfo info = list.getCachedAreaInfo(target);
+		assertNotNull(info);
+		assertEquals(42.0, info.getArea());
+		assertTrue(Arrays.equals(new int[]{1, 2}, info.getRowIndex()));
+		assertTrue(Arrays.equals(new int[]{3, 4}, info.getColIndex()));
+		assertTrue(Arrays.equals(new float[]{.5f, .25f}, info.getOverlapArea()));
+		info = list.getCachedAreaInfo(createTarget(shp, "37003"));
+		assertNotNull(info);
+		assertNull(info.getOverlapArea());
+
+		// the areas on one grid are not those of another
+		assertNull(getList(target, 4000).getCachedAreaInfo(target));
+	}
+
+	public void testChangedShapefileIsIgnored() throws IOException {
+		File shp = createShapefile("huc", "geometry");
+		Target target = createTarget(shp, "0101");
+		CachedTargetList list = getList(target, 12000);
+		list.cacheAreaInfo(target, new int[]{1}, new int[]{1}, new float[]{1});
+		list.save();
+
+		CachedTargetList.closeFile(shp.getPath());
+		createShapefile("huc", "other geometry");
+		assertNull(getList(target, 12000).getCachedAreaInfo(target));
+	}
+
+	public void testEviction() throws IOException {
+		CachedTargetList.setMaxBytes(4096);
+		int[] cells = new int[100];
+		for (int n = 0; n < 10; n++) {
+			File shp = createShapefile("states" + n, "geometry " + n);
+			Target target = createTarget(shp, "state");
+			getList(target, 12000).cacheAreaInfo(target, cells, cells, new float[cells.length]);
+			assertTrue(CachedTargetList.getBytes() <= 4096);
+		}
+		assertTrue(CachedTargetList.getListCount() < 10);
+
+		// the evicted lists were saved rather than lost
+		Target target = createTarget(new File(dir, "states0.shp"), "state");
+		TargetAreaInfo info = getList(target, 12000).getCachedAreaInfo(target);
+		assertNotNull(info);
+		assertEquals(cells.length, info.getOverlapArea().length);
+	}
+}
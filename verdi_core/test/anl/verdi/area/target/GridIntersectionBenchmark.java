@@ -0,0 +1,65 @@
+package anl.verdi.area.target;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Compares the time taken to intersect county sized targets with a 12 km
+ * grid by intersecting every cell in each target's bounding box with the
+ * whole target, against GridIntersector serially and in parallel, and
+ * checks that the areas are the same. Run as an application, optionally
+ * passing the number of targets and the number of vertices of each.
+ */
+public class GridIntersectionBenchmark {
+
+	private static final int ROWS = 299, COLUMNS = 459;
+	private static final double WEST = -2556000, SOUTH = -1728000, CELL = 12000;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 3100;
+		int vertices = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		Random random = new Random(1);
+		List<Geometry> targets = new ArrayList<Geometry>();
+		for (int n = 0; n < count; n++) {
+			double x = WEST + random.nextDouble() * COLUMNS * CELL;
+			double y = SOUTH + random.nextDouble() * ROWS * CELL;
+			// mostly counties a few cells across, with a few large ones
+			double radius = CELL * (n % 50 == 0 ? 10 + 10 * random.nextDouble() : 1 + 3 * random.nextDouble());
+			targets.add(GridIntersectorTest.createTarget(random, x, y, radius, vertices));
+		}
+
+		long start = System.nanoTime();
+		GridIntersector.Overlaps[] expected = new GridIntersector.Overlaps[count];
+		for (int n = 0; n < count; n++)
+			expected[n] = GridIntersectorTest.bruteForce(targets.get(n), ROWS, COLUMNS, WEST, SOUTH, CELL, CELL);
+		double bruteForce = (System.nanoTime() - start) / 1000000.0;
+
+		GridIntersector intersector = new GridIntersector(ROWS, COLUMNS, WEST, SOUTH, CELL, CELL);
+		int threads = GridIntersector.getParallelism();
+		GridIntersector.setParallelism(1);
+		start = System.nanoTime();
+		GridIntersector.Overlaps[] serial = intersector.intersectAll(targets, null);
+		double prepared = (System.nanoTime() - start) / 1000000.0;
+
+		GridIntersector.setParallelism(threads);
+		start = System.nanoTime();
+		GridIntersector.Overlaps[] parallel = intersector.intersectAll(targets, null);
+		double parallelTime = (System.nanoTime() - start) / 1000000.0;
+
+		double difference = 0;
+		int cells = 0;
+		for (int n = 0; n < count; n++) {
+			difference = Math.max(difference, GridIntersectorTest.compare(expected[n], serial[n], CELL * CELL));
+			difference = Math.max(difference, GridIntersectorTest.compare(expected[n], parallel[n], CELL * CELL));
+			cells += expected[n].size();
+		}
+		System.out.printf("%d targets, %d vertices each, %d cell overlaps%n", count, vertices, cells);
+		System.out.printf("every cell: %9.1f ms  prepared: %9.1f ms (%.1fx)  %d threads: %9.1f ms (%.1fx)%n",
+				bruteForce, prepared, bruteForce / prepared, threads, parallelTime, bruteForce / parallelTime);
+		System.out.printf("largest area difference: %.3g of a cell%n", difference);
+	}
+}
@@ -0,0 +1,164 @@
+package anl.verdi.area.target;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import anl.verdi.area.LongTask;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Compares the overlaps found by GridIntersector against intersecting
+ * every cell in a polygon's bounding box with the whole polygon, as
+ * TargetCalculator did before.
+ */
+public class GridIntersectorTest extends TestCase {
+
+	static final int ROWS = 60, COLUMNS = 80;
+	static final double WEST = -420000, SOUTH = -1716000, CELL = 12000;
+
+	private static final GeometryFactory factory = TargetCalculator.getGeometryFactory();
+
+	/**
+	 * Creates a multipolygon of a star shaped polygon with a ragged edge.
+	 */
+	static Geometry createTarget(Random random, double x, double y, double radius, int vertices) {
+		Coordinate[] ring = new Coordinate[vertices + 1];
+		for (int i = 0; i < vertices; i++) {
+			double angle = 2 * Math.PI * i / vertices;
+			double r = radius * (0.6 + 0.4 * random.nextDouble());
+			ring[i] = new Coordinate(x + r * Math.cos(angle), y + r * Math.sin(angle));
+		}
+		ring[vertices] = ring[0];
+		return factory.createMultiPolygon(new Polygon[]{factory.createPolygon(ring)});
+	}
+
+	/**
+	 * Intersects every cell in the polygon's bounding box with the polygon.
+	 */
+	static GridIntersector.Overlaps bruteForce(Geometry poly, int rows, int columns, double westEdge,
+			double southEdge, double cellWidth, double cellHeight) {
+		Envelope env = poly.getEnvelopeInternal();
+		int col1 = Math.max(0, (int) Math.floor((env.getMinX() - westEdge) / cellWidth));
+		int col2 = Math.min(columns - 1, (int) Math.floor((env.getMaxX() - westEdge) / cellWidth));
+		int row1 = Math.max(0, (int) Math.floor((env.getMinY() - southEdge) / cellHeight));
+		int row2 = Math.min(rows - 1, (int) Math.floor((env.getMaxY() - southEdge) / cellHeight));
+		List<int[]> cells = new ArrayList<int[]>();
+		List<Float> areas = new ArrayList<Float>();
+		for (int i = col1; i <= col2; i++) {
+			for (int j = row1; j <= row2; j++) {
+				Geometry cellPolygon = factory.toGeometry(new Envelope(i * cellWidth + westEdge,
+						(i + 1) * cellWidth + westEdge, j * cellHeight + southEdge, (j + 1) * cellHeight + southEdge));
+				float intersectionArea = (float) TargetCalculator.calculateIntersection(poly, cellPolygon).getArea();
+				if (intersectionArea > 0) {
+					cells.add(new int[]{j, i});
+					areas.add(intersectionArea);
+				}
+			}
+		}
+		int[] rowIndex = new int[cells.size()], colIndex = new int[cells.size()];
+		float[] area = new float[cells.size()];
+		for (int k = 0; k < area.length; k++) {
+			rowIndex[k] = cells.get(k)[0];
+			colIndex[k] = cells.get(k)[1];
+			area[k] = areas.get(k);
+		}
+		return new GridIntersector.Overlaps(rowIndex, colIndex, area);
+	}
+
+	/**
+	 * Gets the largest difference between the areas of the same cell,
+	 * relative to the area of a cell, failing if different cells are found.
+	 */
+	static double compare(GridIntersector.Overlaps expected, GridIntersector.Overlaps actual, double cellArea) {
+		assertTrue(Arrays.equals(expected.getRowIndex(), actual.getRowIndex()));
+		assertTrue(Arrays.equals(expected.getColIndex(), actual.getColIndex()));
+		double max = 0;
+		for (int k = 0; k < expected.size(); k++)
+			max = Math.max(max, Math.abs(expected.getArea()[k] - actual.getArea()[k]) / cellArea);
+		return max;
+	}
+
+	private GridIntersector createIntersector() {
+		return new GridIntersector(ROWS, COLUMNS, WEST, SOUTH, CELL, CELL);
+	}
+
+	public void testAgainstBruteForce() {
+		Random random = new Random(1);
+		GridIntersector intersector = createIntersector();
+		for (int n = 0; n < 40; n++) {
+			// including targets partly off the grid
+			double x = WEST + random.nextDouble() * (COLUMNS + 10) * CELL - 5 * CELL;
+			double y = SOUTH + random.nextDouble() * (ROWS + 10) * CELL - 5 * CELL;
+			Geometry target = createTarget(random, x, y, CELL * (1 + 8 * random.nextDouble()), 150);
+			GridIntersector.Overlaps expected = bruteForce(target, ROWS, COLUMNS, WEST, SOUTH, CELL, CELL);
+			assertTrue(compare(expected, intersector.intersect(target, null), CELL * CELL) < 1e-6);
+		}
+	}
+
+	public void testEdgesAlongCells() {
+		// a target whose edges run along the grid lines, so that clipping
+		// it to a column leaves lines as well as polygons
+		Geometry target = factory.toGeometry(new Envelope(WEST + 2 * CELL, WEST + 5 * CELL, SOUTH + CELL, SOUTH + 3.5 * CELL));
+		target = target.union(factory.toGeometry(new Envelope(WEST + 5 * CELL, WEST + 6.5 * CELL, SOUTH + 3 * CELL, SOUTH + 4 * CELL)));
+		GridIntersector.Overlaps overlaps = createIntersector().intersect(target, null);
+		compare(bruteForce(target, ROWS, COLUMNS, WEST, SOUTH, CELL, CELL), overlaps, CELL * CELL);
+		double total = 0;
+		for (float area : overlaps.getArea())
+			total += area;
+		assertEquals(target.getArea(), total, 1);
+	}
+
+	public void testHoles() {
+		Random random = new Random(6);
+		GridIntersector intersector = createIntersector();
+		for (int n = 0; n < 10; n++) {
+			double x = WEST + (20 + 40 * random.nextDouble()) * CELL, y = SOUTH + (20 + 20 * random.nextDouble()) * CELL;
+			Geometry target = createTarget(random, x, y, CELL * 8, 100).difference(createTarget(random, x, y, CELL * 3, 50));
+			assertEquals(1, ((Polygon) target.getGeometryN(0)).getNumInteriorRing());
+			GridIntersector.Overlaps expected = bruteForce(target, ROWS, COLUMNS, WEST, SOUTH, CELL, CELL);
+			assertTrue(compare(expected, intersector.intersect(target, null), CELL * CELL) < 1e-6);
+		}
+	}
+
+	public void testOffGrid() {
+		Geometry target = createTarget(new Random(2), WEST - 10 * CELL, SOUTH + 10 * CELL, CELL * 3, 20);
+		assertEquals(0, createIntersector().intersect(target, null).size());
+	}
+
+	public void testParallelMatchesSerial() {
+		Random random = new Random(3);
+		List<Geometry> targets = new ArrayList<Geometry>();
+		for (int n = 0; n < 50; n++)
+			targets.add(createTarget(random, WEST + random.nextDouble() * COLUMNS * CELL,
+					SOUTH + random.nextDouble() * ROWS * CELL, CELL * 3, 60));
+		GridIntersector intersector = createIntersector();
+		int threads = GridIntersector.getParallelism();
+		try {
+			GridIntersector.setParallelism(1);
+			GridIntersector.Overlaps[] serial = intersector.intersectAll(targets, null);
+			GridIntersector.setParallelism(4);
+			GridIntersector.Overlaps[] parallel = intersector.intersectAll(targets, null);
+			for (int n = 0; n < serial.length; n++)
+				assertEquals(0.0, compare(serial[n], parallel[n], CELL * CELL));
+		} finally {
+			GridIntersector.setParallelism(threads);
+		}
+	}
+
+	public void testCanceled() {
+		LongTask task = new LongTask();
+		task.stop();
+		List<Geometry> targets = new ArrayList<Geometry>();
+		targets.add(createTarget(new Random(4), WEST + 10 * CELL, SOUTH + 10 * CELL, CELL * 3, 20));
+		targets.add(createTarget(new Random(5), WEST + 20 * CELL, SOUTH + 10 * CELL, CELL * 3, 20));
+		assertNull(createIntersector().intersectAll(targets, task));
+	}
+}
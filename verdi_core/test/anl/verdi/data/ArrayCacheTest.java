@@ -0,0 +1,75 @@
+package anl.verdi.data;
+
+import junit.framework.TestCase;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import anl.verdi.util.ArrayFactory;
+
+/**
+ * Tests for the bounded array cache.
+ */
+public class ArrayCacheTest extends TestCase {
+
+	private Array createArray() {
+		Array full = ArrayFactory.createDoubleArray(new int[]{4, 3, 10});
+		for (int i = 0; i < full.getSize(); i++) {
+			full.setDouble(i, i);
+		}
+		return full;
+	}
+
+	public void testSubset() {
+		Object owner = new Object();
+		Array full = createArray();
+		ArrayCache cache = new ArrayCache(full.getSizeBytes());
+		assertNull(cache.get(owner, "O3"));
+		cache.put(owner, "O3", full);
+		assertSame(full, cache.get(owner, "O3"));
+		assertNull(cache.get(new Object(), "O3"));
+
+		// a layer of a time step is served from the whole variable
+		Array layer = cache.get(owner, "O3", new int[]{2, 1, 0}, new int[]{1, 1, 10});
+		assertNotNull(layer);
+		assertEquals(3, layer.getRank());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(2 * 30 + 10 + i, layer.getDouble(i), 0);
+		}
+		// which is a copy, so changing it leaves the cached array alone
+		layer.setDouble(0, -1);
+		assertEquals(70, full.getDouble(70), 0);
+		assertNull(cache.get(owner, "O3", new int[]{3, 0, 0}, new int[]{2, 3, 10}));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getSubsetHitCount());
+		assertEquals(3, cache.getMissCount());
+	}
+
+	public void testEviction() throws InvalidRangeException {
+		Object owner = new Object();
+		Array full = createArray();
+		// room for the whole variable and one time step
+		ArrayCache cache = new ArrayCache(full.getSizeBytes() + full.getSizeBytes() / 4);
+		cache.put(owner, "O3", full);
+		Array step = full.section(new int[]{0, 0, 0}, new int[]{1, 3, 10}).copy();
+		cache.put(owner, "O3", new int[]{0, 0, 0}, new int[]{1, 3, 10}, step);
+		assertEquals(0, cache.getEvictionCount());
+
+		// the whole variable is the least recently used
+		cache.get(owner, "O3", new int[]{0, 0, 0}, new int[]{1, 3, 10});
+		cache.put(owner, "NO2", new int[]{0, 0, 0}, new int[]{1, 3, 10}, step.copy());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get(owner, "O3"));
+		assertSame(step, cache.get(owner, "O3", new int[]{0, 0, 0}, new int[]{1, 3, 10}));
+		assertEquals(2 * step.getSizeBytes(), cache.getBytes());
+
+		// too big to cache at all
+		cache.setMaxBytes(step.getSizeBytes());
+		cache.put(owner, "CO", full);
+		assertNull(cache.get(owner, "CO"));
+		assertEquals(1, cache.getCount());
+
+		cache.clear(owner);
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getBytes());
+	}
+}
@@ -0,0 +1,139 @@
+package anl.verdi.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that DataManager opens each url once for all the ProbingDataLoaders
+ * it asks, and that what the loaders open is closed unless taken.
+ */
+public class DataManagerTest extends TestCase {
+
+	private static final String KEY = "handle";
+
+	private URL url;
+	private List<Handle> handles = new ArrayList<Handle>();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		url = new URL("file:/data/test.nc");
+	}
+
+	public void testOpenedOnceAndTaken() throws Exception {
+		TestLoader reject = new TestLoader(false), accept = new TestLoader(true);
+		LegacyLoader legacy = new LegacyLoader();
+		List<DataLoader> loaders = new ArrayList<DataLoader>();
+		loaders.add(reject);
+		loaders.add(legacy);
+		loaders.add(accept);
+		List<Dataset> sets = new DataManager(loaders).createDatasets(url);
+		assertEquals(0, sets.size());
+		assertEquals(1, handles.size());
+		assertEquals(1, reject.canHandleCalls);
+		assertEquals(1, accept.canHandleCalls);
+		assertEquals(1, legacy.canHandleCalls);
+		assertSame(handles.get(0), accept.taken);
+		// taken by the loader that handled it, so not closed with the probe
+		assertFalse(handles.get(0).closed);
+	}
+
+	public void testUntakenIsClosed() throws Exception {
+		FormatProbe probe = new FormatProbe(url);
+		TestLoader loader = new TestLoader(false);
+		assertFalse(loader.canHandle(probe));
+		assertFalse(loader.canHandle(probe));
+		assertEquals(1, handles.size());
+		probe.close();
+		assertTrue(handles.get(0).closed);
+		assertNull(probe.get(KEY));
+	}
+
+	public void testLegacyCanHandle() throws Exception {
+		TestLoader loader = new TestLoader(true);
+		assertTrue(loader.canHandle(url));
+		assertTrue(handles.get(0).closed);
+	}
+
+	private static class Handle implements Closeable {
+
+		boolean closed;
+
+		public void close() throws IOException {
+			closed = true;
+		}
+	}
+
+	private class TestLoader implements ProbingDataLoader {
+
+		private boolean accept;
+		int canHandleCalls;
+		Handle taken;
+
+		TestLoader(boolean accept) {
+			this.accept = accept;
+		}
+
+		private Handle open(FormatProbe probe) {
+			Handle handle = (Handle) probe.get(KEY);
+			if (handle == null) {
+				handle = new Handle();
+				handles.add(handle);
+				probe.put(KEY, handle);
+			}
+			return handle;
+		}
+
+		public boolean canHandle(FormatProbe probe) throws Exception {
+			canHandleCalls++;
+			assertFalse(open(probe).closed);
+			return accept;
+		}
+
+		public List<Dataset> createDatasets(FormatProbe probe) throws IOException {
+			taken = (Handle) probe.take(KEY);
+			return new ArrayList<Dataset>();
+		}
+
+		public boolean canHandle(URL url) throws Exception {
+			FormatProbe probe = new FormatProbe(url);
+			try {
+				return canHandle(probe);
+			} finally {
+				probe.close();
+			}
+		}
+
+		public List<Dataset> createDatasets(URL url) throws IOException {
+			fail("Expected createDatasets(FormatProbe)");
+			return null;
+		}
+
+		public DataReader createReader(Dataset set) {
+			return null;
+		}
+	}
+
+	private static class LegacyLoader implements DataLoader {
+
+		int canHandleCalls;
+
+		public boolean canHandle(URL url) throws Exception {
+			canHandleCalls++;
+			return false;
+		}
+
+		public List<Dataset> createDatasets(URL url) throws IOException {
+			return null;
+		}
+
+		public DataReader createReader(Dataset set) {
+			return null;
+		}
+	}
+}
@@ -1069,6 +1069,71 @@ public class DataTests extends TestCase {
 		manager.closeAllDatasets();
 	}
 
+	public void testCopy() {
+		int[] shape = {3, 2, 5, 4};
+		Array array = ArrayFactory.createDoubleArray(shape);
+		for (int i = 0; i < array.getSize(); i++) {
+			array.setDouble(i, i);
+		}
+		DataFrame frame = new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestTimeCoordAxis(AxisType.TIME, shape[0]), 0)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.LAYER, shape[1]), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.Y_AXIS, shape[2]), 2)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, shape[3]), 3)).
+						createDataFrame();
+		// the same values stored as floats with x, y, time, layer dimensions
+		Array permuted = Array.factory(float.class, new int[]{shape[3], shape[2], shape[0], shape[1]});
+		Index pIndex = permuted.getIndex();
+		Index index = array.getIndex();
+		for (int t = 0; t < shape[0]; t++) {
+			for (int l = 0; l < shape[1]; l++) {
+				for (int y = 0; y < shape[2]; y++) {
+					for (int x = 0; x < shape[3]; x++) {
+						permuted.setFloat(pIndex.set(x, y, t, l), array.getFloat(index.set(t, l, y, x)));
+					}
+				}
+			}
+		}
+		DataFrame permutedFrame = new DataFrameBuilder().setArray(permuted).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestTimeCoordAxis(AxisType.TIME, shape[0]), 2)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.LAYER, shape[1]), 3)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.Y_AXIS, shape[2]), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, shape[3]), 0)).
+						createDataFrame();
+
+		float[] result = new float[(int) array.getSize()];
+		for (DataFrame df : new DataFrame[]{frame, permutedFrame}) {
+			// everything
+			df.copy(new Slice(), false, result);
+			for (int i = 0; i < result.length; i++) {
+				assertEquals(i, result[i], 0);
+			}
+
+			// a window of one layer over two time steps, with the rows inverted
+			Slice slice = new Slice();
+			slice.setTimeRange(1, 2);
+			slice.setLayerRange(1, 1);
+			slice.setYRange(1, 3);
+			slice.setXRange(2, 2);
+			df.copy(slice, true, result);
+			DataFrameIndex dfIndex = df.getIndex();
+			int i = 0;
+			for (int t = 1; t < 3; t++) {
+				for (int row = 1; row < 4; row++) {
+					for (int x = 2; x < 4; x++) {
+						dfIndex.set(t, 1, x, shape[2] - 1 - row);
+						assertEquals(df.getFloat(dfIndex), result[i++], 0);
+					}
+				}
+			}
+		}
+
+		try {
+			frame.copy(new Slice(), false, new float[10]);
+			fail("should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException ex) {}
+	}
+
 	class TestCoordAxis implements CoordAxis {
 
 		private Range range;
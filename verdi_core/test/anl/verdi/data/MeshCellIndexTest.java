@@ -0,0 +1,79 @@
+package anl.verdi.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the cells found by MeshCellIndex against testing the bounds of
+ * every cell.
+ */
+public class MeshCellIndexTest extends TestCase {
+
+	// a cell that only has an id and bounds
+	private static MeshCellInfo createCell(final int id, final double minLon, final double maxLon,
+					final double minLat, final double maxLat) {
+		return (MeshCellInfo) Proxy.newProxyInstance(MeshCellInfo.class.getClassLoader(),
+						new Class<?>[]{MeshCellInfo.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getId")) return id;
+				if (name.equals("getMinLon")) return minLon;
+				if (name.equals("getMaxLon")) return maxLon;
+				if (name.equals("getMinLat")) return minLat;
+				if (name.equals("getMaxLat")) return maxLat;
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	private MeshCellInfo[] createCells(int count, long seed) {
+		Random random = new Random(seed);
+		MeshCellInfo[] cells = new MeshCellInfo[count];
+		for (int id = 0; id < count; id++) {
+			double lon = random.nextDouble() * 2 * Math.PI - Math.PI;
+			double lat = random.nextDouble() * Math.PI - Math.PI / 2;
+			// mostly small cells, with a few large ones spanning many buckets
+			double size = id % 50 == 0 ? random.nextDouble() : random.nextDouble() * 0.05;
+			cells[id] = createCell(id, lon, lon + size, lat, lat + size * 0.7);
+		}
+		return cells;
+	}
+
+	public void testAgainstBruteForce() {
+		MeshCellInfo[] cells = createCells(5000, 1);
+		MeshCellIndex index = new MeshCellIndex(cells);
+		assertEquals(cells.length - 1, index.getMaxId());
+		Random random = new Random(2);
+		BitSet found = new BitSet();
+		for (int query = 0; query < 200; query++) {
+			// include rectangles reaching past the edges of the mesh
+			double minLon = random.nextDouble() * 7 - 3.5, minLat = random.nextDouble() * 3.5 - 1.75;
+			double maxLon = minLon + random.nextDouble() * (query % 10 == 0 ? 7 : 0.3);
+			double maxLat = minLat + random.nextDouble() * (query % 10 == 0 ? 3.5 : 0.3);
+			found.clear();
+			int count = index.query(minLon, maxLon, minLat, maxLat, found);
+			assertEquals(found.cardinality(), count);
+			for (MeshCellInfo cell : cells) {
+				boolean intersects = cell.getMinLon() <= maxLon && cell.getMaxLon() >= minLon
+								&& cell.getMinLat() <= maxLat && cell.getMaxLat() >= minLat;
+				assertEquals("cell " + cell.getId() + " in query " + query, intersects, found.get(cell.getId()));
+			}
+		}
+	}
+
+	public void testResultIsAddedTo() {
+		MeshCellInfo[] cells = {createCell(0, 0, 1, 0, 1), createCell(1, 2, 3, 0, 1), createCell(2, 4, 5, 0, 1)};
+		MeshCellIndex index = new MeshCellIndex(cells);
+		BitSet found = new BitSet();
+		assertEquals(1, index.query(0.5, 0.6, 0.5, 0.6, found));
+		assertEquals(1, index.query(0.5, 2.5, 0.5, 0.6, found));
+		assertTrue(found.get(0) && found.get(1) && !found.get(2));
+		assertEquals(0, index.query(6, 7, 0, 1, found));
+		assertEquals(0, new MeshCellIndex(new MeshCellInfo[0]).query(0, 1, 0, 1, found));
+	}
+}
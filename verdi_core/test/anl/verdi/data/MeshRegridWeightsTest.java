@@ -0,0 +1,73 @@
+package anl.verdi.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import junit.framework.TestCase;
+
+import anl.verdi.area.target.TargetCalculator;
+
+/**
+ * Tests the area weighted averages of MeshRegridWeights.
+ */
+public class MeshRegridWeightsTest extends TestCase {
+
+	// a rectangular cell with a constant value
+	private static MeshCellInfo createCell(final double minLon, final double maxLon,
+					final double minLat, final double maxLat, final double value) {
+		return (MeshCellInfo) Proxy.newProxyInstance(MeshCellInfo.class.getClassLoader(),
+						new Class<?>[]{MeshCellInfo.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getMinLonValue")) return minLon;
+				if (name.equals("getMaxLonValue")) return maxLon;
+				if (name.equals("getMinLatValue")) return minLat;
+				if (name.equals("getMaxLatValue")) return maxLat;
+				if (name.equals("getValue")) return value;
+				if (name.equals("toGeometry"))
+					return TargetCalculator.getGeometryFactory().toGeometry(new Envelope(minLon, maxLon, minLat, maxLat));
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	public void testRow() {
+		MeshCellInfo[] cells = {
+				createCell(0, 1.5, 10, 11, 2),
+				createCell(1.5, 3, 10, 11, 4),
+				createCell(0, 3, 11, 12, 100),
+				createCell(5, 6, 10, 11, 8)};
+		MeshRegridWeights weights = MeshRegridWeights.forRow(cells, 10, 0, 4);
+		assertEquals(4, weights.size());
+		// the cell above the row only touches it, so has no area in it
+		assertEquals(4, weights.getOverlapCount());
+		double[] result = new double[4];
+		weights.regrid(null, result);
+		assertEquals(2.0, result[0], 1e-12);
+		assertEquals((0.5 * 2 + 0.5 * 4) / 1.0, result[1], 1e-12);
+		assertEquals(4.0, result[2], 1e-12);
+		// no cell overlaps the last box
+		assertTrue(Double.isNaN(result[3]));
+	}
+
+	public void testColumn() {
+		MeshCellInfo[] cells = {
+				createCell(20, 21, 0, 0.25, 1),
+				createCell(20, 22, 0.25, 2, 3)};
+		MeshRegridWeights weights = MeshRegridWeights.forColumn(cells, 20, 0, 2);
+		double[] result = new double[2];
+		weights.regrid(null, result);
+		assertEquals(0.25 * 1 + 0.75 * 3, result[0], 1e-12);
+		assertEquals(3.0, result[1], 1e-12);
+	}
+
+	public void testEmptyMesh() {
+		MeshRegridWeights weights = MeshRegridWeights.forRow(new MeshCellInfo[0], 0, 0, 2);
+		double[] result = new double[2];
+		weights.regrid(null, result);
+		assertTrue(Double.isNaN(result[0]) && Double.isNaN(result[1]));
+	}
+}
@@ -0,0 +1,215 @@
+package anl.verdi.data;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that ParallelDatasetLoader registers datasets in the order of the
+ * urls whatever order they open in, reports failures and progress, and
+ * closes what it opened when cancelled.
+ */
+public class ParallelDatasetLoaderTest extends TestCase {
+
+	private int parallelism;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		parallelism = ParallelDatasetLoader.getParallelism();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ParallelDatasetLoader.setParallelism(parallelism);
+		super.tearDown();
+	}
+
+	private List<URL> urls(int count) throws Exception {
+		List<URL> urls = new ArrayList<URL>();
+		for (int i = 0; i < count; i++) {
+			urls.add(new URL("file:/data/file" + i + ".nc"));
+		}
+		return urls;
+	}
+
+	private DataManager manager(TestLoader loader) {
+		return new DataManager(Collections.<DataLoader>singletonList(loader));
+	}
+
+	public void testAliasesInOrder() throws Exception {
+		for (int threads : new int[]{1, 4}) {
+			ParallelDatasetLoader.setParallelism(threads);
+			TestLoader loader = new TestLoader();
+			// later files open faster than earlier ones
+			for (int i = 0; i < 8; i++) loader.delays.add(40 - i * 5);
+			TestMonitor monitor = new TestMonitor();
+			List<Dataset> sets = manager(loader).createDatasets(urls(8), monitor);
+			assertEquals(8, sets.size());
+			for (int i = 0; i < 8; i++) {
+				assertTrue(sets.get(i).getURL().getPath().endsWith("file" + i + ".nc"));
+				assertEquals("[" + (i + 1) + "]", sets.get(i).getAlias());
+			}
+			assertEquals(8, monitor.loaded.get());
+			assertTrue(monitor.failed.isEmpty());
+		}
+	}
+
+	public void testRegisteredSeparately() throws Exception {
+		ParallelDatasetLoader.setParallelism(4);
+		final DataManager manager = manager(new TestLoader());
+		final List<URL> urls = urls(3);
+		final ParallelDatasetLoader.Opened[] opened = new ParallelDatasetLoader.Opened[1];
+		// opened on another thread, as VerdiApplication does
+		Thread thread = new Thread() {
+			public void run() {
+				opened[0] = manager.openDatasets(urls, null);
+			}
+		};
+		thread.start();
+		thread.join(10000);
+		assertNotNull(opened[0]);
+		// nothing is registered until the calling thread registers it
+		assertEquals(0, manager.getDatasetCount());
+		List<Dataset> sets = opened[0].register();
+		assertEquals(3, sets.size());
+		assertEquals(3, manager.getDatasetCount());
+		for (int i = 0; i < 3; i++)
+			assertEquals("[" + (i + 1) + "]", sets.get(i).getAlias());
+	}
+
+	public void testFailuresReported() throws Exception {
+		ParallelDatasetLoader.setParallelism(4);
+		TestLoader loader = new TestLoader();
+		loader.failing = 2;
+		loader.unhandled = 4;
+		TestMonitor monitor = new TestMonitor();
+		List<URL> urls = urls(6);
+		List<Dataset> sets = manager(loader).createDatasets(urls, monitor);
+		assertEquals(4, sets.size());
+		assertEquals(2, monitor.failed.size());
+		assertEquals(urls.get(2), monitor.failed.get(0));
+		assertEquals(urls.get(4), monitor.failed.get(1));
+		assertEquals(6, monitor.loaded.get());
+	}
+
+	public void testCancel() throws Exception {
+		ParallelDatasetLoader.setParallelism(2);
+		final TestLoader loader = new TestLoader();
+		// the first file blocks until the load has been cancelled
+		loader.block = new CountDownLatch(1);
+		final TestMonitor monitor = new TestMonitor();
+		final List<Dataset> result = new ArrayList<Dataset>();
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					result.addAll(manager(loader).createDatasets(urls(6), monitor));
+				} catch (Exception e) {
+					fail(e.getMessage());
+				}
+			}
+		};
+		thread.start();
+		while (monitor.loaded.get() < 5) Thread.sleep(5);
+		monitor.cancelled = true;
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		assertTrue(result.isEmpty());
+		loader.block.countDown();
+		// the blocked file is closed once it finishes opening
+		long end = System.currentTimeMillis() + 10000;
+		while (loader.closed.get() < 6 && System.currentTimeMillis() < end) Thread.sleep(5);
+		assertEquals(6, loader.closed.get());
+	}
+
+	private static class TestMonitor implements ParallelDatasetLoader.Monitor {
+
+		volatile boolean cancelled;
+		AtomicInteger loaded = new AtomicInteger();
+		List<URL> failed = new ArrayList<URL>();
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public void fileLoaded(URL url, int loaded, int total) {
+			this.loaded.incrementAndGet();
+		}
+
+		public void loadFailed(URL url, Exception ex) {
+			failed.add(url);
+		}
+	}
+
+	private static class TestLoader implements DataLoader {
+
+		List<Integer> delays = new ArrayList<Integer>();
+		int failing = -1, unhandled = -1;
+		CountDownLatch block;
+		AtomicInteger closed = new AtomicInteger();
+
+		private int index(URL url) {
+			String path = url.getPath();
+			return Integer.parseInt(path.substring(path.indexOf("file") + 4, path.indexOf(".nc")));
+		}
+
+		public boolean canHandle(URL url) throws Exception {
+			return index(url) != unhandled;
+		}
+
+		public List<Dataset> createDatasets(URL url) throws IOException {
+			int index = index(url);
+			try {
+				if (index < delays.size()) Thread.sleep(delays.get(index));
+				if (index == 0 && block != null) block.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			if (index == failing) throw new IOException("Cannot read " + url);
+			List<Dataset> sets = new ArrayList<Dataset>();
+			sets.add(new TestDataset(url, closed));
+			return sets;
+		}
+
+		public DataReader createReader(Dataset set) {
+			return null;
+		}
+	}
+
+	private static class TestDataset extends AbstractDataset {
+
+		private AtomicInteger closed;
+
+		TestDataset(URL url, AtomicInteger closed) {
+			super(url);
+			this.closed = closed;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed.incrementAndGet();
+		}
+
+		public int getIndexInURL() {
+			return 0;
+		}
+
+		public DatasetMetadata getMetadata() {
+			return null;
+		}
+
+		public int getNetcdfCovn() {
+			return 0;
+		}
+
+		public void setNetcdfConv(int conv) {
+		}
+	}
+}
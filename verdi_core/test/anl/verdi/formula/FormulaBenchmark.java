@@ -0,0 +1,130 @@
+package anl.verdi.formula;
+
+import org.eclipse.uomo.units.SI;
+import org.unitsofmeasurement.unit.Unit;
+
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameBuilder;
+import anl.verdi.parser.Frame;
+import anl.verdi.util.UnitConversion;
+import anl.verdi.util.VUnits;
+
+/**
+ * Compares the time taken to evaluate formulas node by node through
+ * FormulaArray against compiled evaluation, serially and in parallel,
+ * and the time taken to convert the units of a variable per element,
+ * with a converter resolved once and fused into compiled evaluation.
+ * Run as an application, optionally passing the time, layer, row and
+ * column extents.
+ */
+public class FormulaBenchmark {
+
+	private static final int WARMUP = 3;
+	private static final int ITERATIONS = 5;
+
+	private static final String[] FORMULAS = {
+					"(O3[1] * 48 + NO2[1] * 46) / 1000",
+					"sqrt(O3[1] ** 2 + NO2[1] ** 2)",
+					"(O3[1] > .5) * O3[1] - abs(NO2[1] - .25)"
+	};
+
+	public static void main(String[] args) throws IllegalFormulaException {
+		int[] shape = {25, 4, 299, 459};
+		if (args.length == 4) {
+			for (int i = 0; i < 4; i++) {
+				shape[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		DataFrame o3 = createFrame(shape);
+		DataFrame no2 = createFrame(shape);
+		int threads = ParallelFormulaEvaluator.getParallelism();
+		for (String formula : FORMULAS) {
+			ParallelFormulaEvaluator.setParallelism(1);
+			double interpreted = time(formula, o3, no2, false);
+			double compiled = time(formula, o3, no2, true);
+			ParallelFormulaEvaluator.setParallelism(threads);
+			double parallel = time(formula, o3, no2, true);
+			System.out.printf("%-45s interpreted: %8.1f ms  compiled: %8.1f ms (%.2fx)  %d threads: %8.1f ms (%.2fx)%n",
+							formula, interpreted, compiled, interpreted / compiled, threads, parallel, interpreted / parallel);
+		}
+		timeConversion(o3);
+	}
+
+	// compares the ways of converting K to C before evaluating a formula
+	private static void timeConversion(DataFrame o3) throws IllegalFormulaException {
+		Unit from = VUnits.createUnit("K");
+		Unit to = SI.CELSIUS;
+		String formula = FORMULAS[0];
+		double perElement = 0, hoisted = 0, fused = 0;
+		for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+			DataFrame copy = copy(o3);
+			long start = System.nanoTime();
+			for (IndexIterator iter = copy.getArray().getIndexIterator(); iter.hasNext();) {
+				iter.setDoubleCurrent(from.getConverterTo(to).convert(iter.getDoubleNext()));
+			}
+			long elapsed = System.nanoTime() - start;
+			if (i >= WARMUP) perElement += elapsed;
+
+			copy = copy(o3);
+			start = System.nanoTime();
+			UnitConversion.create(from, to).convert(copy.getArray());
+			elapsed = System.nanoTime() - start;
+			if (i >= WARMUP) hoisted += elapsed;
+
+			copy = copy(o3);
+			DefaultParser parser = new DefaultParser(formula, new Frame());
+			parser.setVariable("O3[1]", copy, UnitConversion.create(from, to));
+			parser.setVariable("NO2[1]", o3);
+			long evalStart = System.nanoTime();
+			parser.evaluate();
+			long evalElapsed = System.nanoTime() - evalStart;
+			parser = new DefaultParser(formula, new Frame());
+			parser.setVariable("O3[1]", o3);
+			parser.setVariable("NO2[1]", o3);
+			start = System.nanoTime();
+			parser.evaluate();
+			// the cost of the conversion is the extra evaluation time
+			elapsed = evalElapsed - (System.nanoTime() - start);
+			if (i >= WARMUP) fused += Math.max(0, elapsed);
+		}
+		double scale = ITERATIONS * 1000000.0;
+		System.out.printf("K to C   per element: %8.1f ms  resolved once: %8.1f ms (%.2fx)  fused: %8.1f ms%n",
+						perElement / scale, hoisted / scale, perElement / hoisted, fused / scale);
+	}
+
+	private static DataFrame copy(DataFrame frame) {
+		DataFrameBuilder builder = new DataFrameBuilder();
+		builder.setArray(frame.getArray().copy());
+		return builder.createDataFrame();
+	}
+
+	// returns the mean time in ms of evaluating the formula
+	private static double time(String formula, DataFrame o3, DataFrame no2, boolean compiled)
+					throws IllegalFormulaException {
+		long total = 0;
+		for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+			DefaultParser parser = new DefaultParser(formula, new Frame());
+			parser.setCompiledEvaluation(compiled);
+			parser.setVariable("O3[1]", o3);
+			parser.setVariable("NO2[1]", no2);
+			long start = System.nanoTime();
+			parser.evaluate();
+			long elapsed = System.nanoTime() - start;
+			if (i >= WARMUP) total += elapsed;
+		}
+		return total / (ITERATIONS * 1000000.0);
+	}
+
+	private static DataFrame createFrame(int[] shape) {
+		Array array = Array.factory(float.class, shape);
+		for (IndexIterator iter = array.getIndexIterator(); iter.hasNext(); ) {
+			iter.setFloatNext((float) Math.random());
+		}
+		DataFrameBuilder builder = new DataFrameBuilder();
+		builder.setArray(array);
+		return builder.createDataFrame();
+	}
+}
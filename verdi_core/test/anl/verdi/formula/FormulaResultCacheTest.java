@@ -0,0 +1,173 @@
+package anl.verdi.formula;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ucar.ma2.Array;
+import anl.verdi.data.AxisRange;
+import anl.verdi.data.AxisType;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameBuilder;
+import anl.verdi.data.Dataset;
+import anl.verdi.util.DateRange;
+
+/**
+ * Tests for the cache of formula results.
+ */
+public class FormulaResultCacheTest extends TestCase {
+
+	private static final InvocationHandler NO_OP = new InvocationHandler() {
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("equals")) return proxy == args[0];
+			if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+			return null;
+		}
+	};
+
+	private Dataset createDataset() {
+		return (Dataset) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Dataset.class}, NO_OP);
+	}
+
+	private CoordAxis createAxis(final AxisType type) {
+		return (CoordAxis) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{CoordAxis.class},
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+								if (method.getName().equals("getAxisType")) return type;
+								return NO_OP.invoke(proxy, method, args);
+							}
+						});
+	}
+
+	private List<AxisRange> createRanges(int firstStep, int layer) {
+		List<AxisRange> ranges = new ArrayList<AxisRange>();
+		ranges.add(new AxisRange(createAxis(AxisType.TIME), firstStep, 10));
+		ranges.add(new AxisRange(createAxis(AxisType.LAYER), layer, 1));
+		return ranges;
+	}
+
+	private DataFrame createFrame(int size) {
+		DataFrameBuilder builder = new DataFrameBuilder();
+		builder.setArray(Array.factory(float.class, new int[]{size}));
+		return builder.createDataFrame();
+	}
+
+	public void testKeys() {
+		Dataset dataset = createDataset();
+		List<Dataset> datasets = Arrays.asList(dataset);
+		FormulaResultCache.Key key = new FormulaResultCache.Key(Formula.Type.TILE, "O3[1] * 1000", datasets,
+						createRanges(0, 0), null, true);
+
+		// plots that do not average time steps share results, whatever the
+		// spacing of the formula or the order of the ranges
+		List<AxisRange> reversed = createRanges(0, 0);
+		reversed.add(reversed.remove(0));
+		assertEquals(key, new FormulaResultCache.Key(Formula.Type.VERTICAL_CROSS_SECTION, "O3[1]*1000", datasets,
+						reversed, null, true));
+		assertEquals(key.hashCode(), new FormulaResultCache.Key(Formula.Type.CONTOUR, "O3[1]*1000", datasets,
+						reversed, null, true).hashCode());
+
+		assertFalse(key.equals(new FormulaResultCache.Key(Formula.Type.TIME_SERIES_LINE, "O3[1]*1000", datasets,
+						createRanges(0, 0), null, true)));
+		assertFalse(key.equals(new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]*1000",
+						Arrays.asList(createDataset()), createRanges(0, 0), null, true)));
+		assertFalse(key.equals(new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]*1000", datasets,
+						createRanges(0, 1), null, true)));
+		assertFalse(key.equals(new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]*1000", datasets,
+						createRanges(0, 0), new DateRange(0, 3600000), true)));
+		assertFalse(key.equals(new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]*1000", datasets,
+						createRanges(0, 0), null, false)));
+
+		// changing the ranges after creating the key leaves it alone
+		List<AxisRange> ranges = createRanges(0, 0);
+		FormulaResultCache.Key copied = new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]*1000", datasets,
+						ranges, null, true);
+		ranges.set(0, new AxisRange(createAxis(AxisType.TIME), 5, 1));
+		assertEquals(key, copied);
+	}
+
+	public void testHitsAndEviction() {
+		Dataset o3 = createDataset(), no2 = createDataset();
+		DataFrame frame = createFrame(100);
+		long size = frame.getArray().getSizeBytes();
+		FormulaResultCache cache = new FormulaResultCache(2 * size);
+
+		FormulaResultCache.Key first = new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]", Arrays.asList(o3),
+						createRanges(0, 0), null, true);
+		FormulaResultCache.Key second = new FormulaResultCache.Key(Formula.Type.TILE, "NO2[2]", Arrays.asList(no2),
+						createRanges(0, 0), null, true);
+		FormulaResultCache.Key third = new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]+NO2[2]",
+						Arrays.asList(o3, no2), createRanges(0, 0), null, true);
+		assertNull(cache.get(first));
+		cache.put(first, frame);
+		assertEquals(frame.getSize(), cache.get(first).getSize());
+		cache.put(second, createFrame(100));
+		assertEquals(2 * size, cache.getBytes());
+
+		// the first is the most recently used, so the second is evicted
+		cache.get(first);
+		cache.put(third, createFrame(100));
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get(second));
+		assertNotNull(cache.get(first));
+		assertNotNull(cache.get(third));
+		assertEquals(4, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(4 / 6.0, cache.getHitRate(), 1e-9);
+
+		// too big to cache at all
+		cache.put(second, createFrame(1000));
+		assertNull(cache.get(second));
+		assertEquals(2 * size, cache.getBytes());
+	}
+
+	public void testResultsAreReadOnly() {
+		FormulaResultCache cache = new FormulaResultCache(1 << 20);
+		FormulaResultCache.Key key = new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]",
+						Arrays.asList(createDataset()), createRanges(0, 0), null, true);
+		DataFrame frame = createFrame(10);
+		frame.getArray().setFloat(3, 7);
+		DataFrame result = cache.put(key, frame);
+		assertNotSame(frame, result);
+		assertEquals(7f, result.getArray().getFloat(3));
+
+		// changing the array of a result leaves the cached values alone
+		result.getArray().setFloat(3, 1);
+		DataFrame cached = cache.get(key);
+		assertEquals(7f, cached.getArray().getFloat(3));
+		assertEquals(7f, frame.getArray().getFloat(3));
+		cached.getArray().setFloat(3, 2);
+		assertEquals(7f, cache.get(key).getArray().getFloat(3));
+
+		// results too big to cache are handed back as they are
+		DataFrame big = createFrame(1 << 20);
+		assertSame(big, cache.put(key, big));
+	}
+
+	public void testClearDataset() {
+		Dataset o3 = createDataset(), no2 = createDataset();
+		FormulaResultCache cache = new FormulaResultCache(1 << 20);
+		FormulaResultCache.Key first = new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]", Arrays.asList(o3),
+						createRanges(0, 0), null, true);
+		FormulaResultCache.Key second = new FormulaResultCache.Key(Formula.Type.TILE, "NO2[2]", Arrays.asList(no2),
+						createRanges(0, 0), null, true);
+		FormulaResultCache.Key third = new FormulaResultCache.Key(Formula.Type.TILE, "O3[1]+NO2[2]",
+						Arrays.asList(o3, no2), createRanges(0, 0), null, true);
+		cache.put(first, createFrame(10));
+		cache.put(second, createFrame(10));
+		cache.put(third, createFrame(10));
+
+		cache.clear(no2);
+		assertEquals(1, cache.getCount());
+		assertNotNull(cache.get(first));
+		assertEquals(createFrame(10).getArray().getSizeBytes(), cache.getBytes());
+		cache.clear();
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getBytes());
+	}
+}
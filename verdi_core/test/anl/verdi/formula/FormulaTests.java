@@ -8,6 +8,7 @@ import junit.framework.TestCase;
 
 //import javax.measure.units.Unit;		// JScience changed its hierarchy
 //import javax.measure.unit.Unit;
+import org.eclipse.uomo.units.SI;
 import org.unitsofmeasurement.unit.Unit;
 
 import ucar.ma2.Array;
@@ -25,6 +26,7 @@ import anl.verdi.parser.ASTTreeInfo;
 import anl.verdi.parser.Frame;
 import anl.verdi.util.ArrayFactory;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.UnitConversion;
 import anl.verdi.util.VUnits;
 
 /**
@@ -147,7 +149,11 @@ public class FormulaTests extends TestCase {
 	}
 
 	private Array createRandomArray(int... dims) {
-		Array array = ArrayFactory.createDoubleArray(dims);
+		return createRandomArray(double.class, dims);
+	}
+
+	private Array createRandomArray(Class<?> type, int... dims) {
+		Array array = type == double.class ? ArrayFactory.createDoubleArray(dims) : Array.factory(type, dims);
 		for (IndexIterator iter = array.getIndexIterator(); iter.hasNext(); ) {
 			iter.setDoubleNext(Math.random());
 		}
@@ -304,6 +310,18 @@ public class FormulaTests extends TestCase {
 		assertTrue(equals(newArray, result));
 	}
 
+	// like equals, but compares the bits of the values
+	private boolean identical(Array one, Array two) {
+		if (!equals(one, two)) return false;
+		IndexIterator indexOne = one.getIndexIterator();
+		IndexIterator indexTwo = two.getIndexIterator();
+		while (indexOne.hasNext()) {
+			if (Double.doubleToLongBits(indexOne.getDoubleNext()) != Double.doubleToLongBits(indexTwo.getDoubleNext()))
+				return false;
+		}
+		return true;
+	}
+
 	private boolean equals(Array one, Array two) {
 		if (one.getRank() == two.getRank()) {
 			for (int i = 0; i < one.getRank(); i++) {
@@ -321,6 +339,105 @@ public class FormulaTests extends TestCase {
 		return false;
 	}
 
+	public void testCompiledEvaluation() throws IllegalFormulaException {
+		Array o3 = createRandomArray(4, 2, 10, 3);
+		Array no2 = Array.factory(float.class, new int[]{4, 2, 10, 3});
+		for (IndexIterator iter = no2.getIndexIterator(); iter.hasNext(); ) {
+			iter.setFloatNext((float) Math.random());
+		}
+		String[] formulas = {"(O3[1] * 48 + NO2[1] * 46) / 1000", "sqrt(abs(O3[1] - NO2[1])) ** 2",
+						"O3[1] % .3 - log(NO2[1]) * ln(O3[1]) + -2", "O3[1] > .5 && NO2[1] <= .5 || O3[1] == NO2[1]",
+						"sind(O3[1]) + cosd(NO2[1]) - tand(O3[1]) * exp(sqr(NO2[1]))", "O3[1] - mean(NO2[1]) / 2 * PI",
+						"O3[1] != NO2[1] + sum(O3[1] >= .5) + maxt(O3[1])", "sin(O3[1]) * cos(NO2[1]) / tan(O3[1] + 1)"};
+		for (String formula : formulas) {
+			Frame frame = new Frame();
+			frame.setCoordinateIndices(0, 1, 3, 2);
+			DefaultParser interpreted = new DefaultParser(formula, frame);
+			interpreted.setCompiledEvaluation(false);
+			interpreted.setVariable("O3[1]", formulaArrayToDataFrame(new FormulaArray(o3)));
+			interpreted.setVariable("NO2[1]", formulaArrayToDataFrame(new FormulaArray(no2)));
+			Array expected = interpreted.evaluate().getArray();
+
+			frame = new Frame();
+			frame.setCoordinateIndices(0, 1, 3, 2);
+			DefaultParser compiled = new DefaultParser(formula, frame);
+			compiled.setVariable("O3[1]", formulaArrayToDataFrame(new FormulaArray(o3)));
+			compiled.setVariable("NO2[1]", formulaArrayToDataFrame(new FormulaArray(no2)));
+			assertTrue(compiled.isCompiledEvaluation());
+			assertTrue(formula, equals(expected, compiled.evaluate().getArray()));
+		}
+	}
+
+	public void testConvertedEvaluation() throws IllegalFormulaException {
+		UnitConversion kToC = UnitConversion.create(VUnits.createUnit("K"), SI.CELSIUS);
+		UnitConversion mass = UnitConversion.create(VUnits.createUnit("ug"), VUnits.createUnit("g"));
+		// conversions fused into the kernel, converted in place for an aggregate
+		// and both at once for the same variable
+		String[] formulas = {"(O3[1] * 48 + NO2[1] * 46) / 1000", "O3[1] - mean(NO2[1])",
+						"O3[1] + sum(O3[1]) / 100 - NO2[1]", "O3[1]"};
+		// float values are rounded to float when converted in place
+		for (Class<?> type : new Class<?>[]{double.class, float.class}) {
+			Array o3 = createRandomArray(type, 4, 2, 10, 3);
+			Array no2 = createRandomArray(type, 4, 2, 10, 3);
+			for (String formula : formulas) {
+				DefaultParser interpreted = new DefaultParser(formula, new Frame());
+				interpreted.setCompiledEvaluation(false);
+				interpreted.setVariable("O3[1]", formulaArrayToDataFrame(new FormulaArray(o3.copy())), kToC);
+				interpreted.setVariable("NO2[1]", formulaArrayToDataFrame(new FormulaArray(no2.copy())), mass);
+				Array expected = interpreted.evaluate().getArray();
+
+				DefaultParser compiled = new DefaultParser(formula, new Frame());
+				compiled.setVariable("O3[1]", formulaArrayToDataFrame(new FormulaArray(o3.copy())), kToC);
+				compiled.setVariable("NO2[1]", formulaArrayToDataFrame(new FormulaArray(no2.copy())), mass);
+				assertTrue(type + " " + formula, identical(expected, compiled.evaluate().getArray()));
+			}
+		}
+	}
+
+	public void testConvertedSectionEvaluation() throws IllegalFormulaException, InvalidRangeException {
+		UnitConversion kToC = UnitConversion.create(VUnits.createUnit("K"), SI.CELSIUS);
+		// a section is not contiguous, so the kernel reads a copy of its values
+		// that converting the variable in place for the aggregate does not change
+		String[] formulas = {"O3[1] + mean(O3[1])", "mean(O3[1]) - O3[1] * 2", "O3[1] - sum(O3[1]) / 100"};
+		for (Class<?> type : new Class<?>[]{double.class, float.class}) {
+			Array o3 = createRandomArray(type, 4, 2, 10, 3);
+			int[] origin = {0, 0, 2, 0}, shape = {4, 2, 5, 3};
+			for (String formula : formulas) {
+				DefaultParser interpreted = new DefaultParser(formula, new Frame());
+				interpreted.setCompiledEvaluation(false);
+				interpreted.setVariable("O3[1]", formulaArrayToDataFrame(new FormulaArray(o3.copy().section(origin, shape))), kToC);
+				Array expected = interpreted.evaluate().getArray();
+
+				DefaultParser compiled = new DefaultParser(formula, new Frame());
+				compiled.setVariable("O3[1]", formulaArrayToDataFrame(new FormulaArray(o3.copy().section(origin, shape))), kToC);
+				assertTrue(type + " " + formula, identical(expected, compiled.evaluate().getArray()));
+			}
+		}
+	}
+
+	public void testParallelEvaluation() throws IllegalFormulaException {
+		int parallelism = ParallelFormulaEvaluator.getParallelism();
+		String formula = "(O3[1] * 48 + sqrt(O3[1]) * 46) / 1000 > .02";
+		// enough time steps to split by time step, and too few so it splits by layer
+		int[][] shapes = {{48, 2, 40, 30}, {3, 10, 40, 30}};
+		try {
+			for (int[] shape : shapes) {
+				DataFrame frame = formulaArrayToDataFrame(new FormulaArray(createRandomArray(shape)));
+				ParallelFormulaEvaluator.setParallelism(1);
+				DefaultParser parser = new DefaultParser(formula, new Frame());
+				parser.setVariable("O3[1]", frame);
+				Array expected = parser.evaluate().getArray();
+
+				ParallelFormulaEvaluator.setParallelism(4);
+				parser = new DefaultParser(formula, new Frame());
+				parser.setVariable("O3[1]", frame);
+				assertTrue(equals(expected, parser.evaluate().getArray()));
+			}
+		} finally {
+			ParallelFormulaEvaluator.setParallelism(parallelism);
+		}
+	}
+
 	public void testSum() throws IllegalFormulaException {
 		FormulaArray fa = new FormulaArray(createRandomArray(48, 6, 100, 200));
 		double sum = calcSum(fa);
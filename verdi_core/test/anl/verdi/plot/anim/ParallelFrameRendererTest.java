@@ -0,0 +1,143 @@
+package anl.verdi.plot.anim;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import anl.verdi.plot.gui.AbstractPlotPanel;
+import anl.verdi.plot.gui.OffscreenRenderer;
+
+/**
+ * Checks that ParallelFrameRenderer passes on the frames in order, drawn
+ * on copies of the plot when it can be copied.
+ */
+public class ParallelFrameRendererTest extends TestCase {
+
+	// draws the time step and layer into the first two pixels, after a
+	// random delay so that the frames finish out of order
+	private static class TestPlot extends AbstractPlotPanel {
+
+		private static final long serialVersionUID = 1L;
+		private final boolean copyable;
+		private final Random random = new Random(1);
+		final List<TestPlot> copies = Collections.synchronizedList(new ArrayList<TestPlot>());
+		int drawn = 0;
+
+		TestPlot(boolean copyable) {
+			super(true);
+			this.copyable = copyable;
+		}
+
+		public void draw() {
+		}
+
+		public AbstractPlotPanel createOffscreenCopy() {
+			if (!copyable)
+				return null;
+			TestPlot copy = new TestPlot(false);
+			copies.add(copy);
+			return copy;
+		}
+
+		protected synchronized BufferedImage renderImage(int timestep, int layer, int width, int height)
+				throws Exception {
+			Thread.sleep(random.nextInt(20));
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			image.setRGB(0, 0, timestep);
+			image.setRGB(1, 0, layer);
+			drawn++;
+			return image;
+		}
+
+		public int getCurrentTimeStep() {
+			return 0;
+		}
+
+		public int getCurrentLayer() {
+			return 0;
+		}
+	}
+
+	private static class Frames implements ParallelFrameRenderer.FrameListener {
+
+		final List<Integer> timesteps = new ArrayList<Integer>();
+
+		public void frameRendered(int timestep, BufferedImage image) throws IOException {
+			assertEquals(timestep, image.getRGB(0, 0) & 0xFFFFFF);
+			assertEquals(2, image.getRGB(1, 0) & 0xFFFFFF);
+			assertEquals(8, image.getWidth());
+			timesteps.add(timestep);
+		}
+	}
+
+	private int parallelism;
+
+	protected void setUp() throws Exception {
+		parallelism = OffscreenRenderer.getParallelism();
+		OffscreenRenderer.setParallelism(4);
+	}
+
+	protected void tearDown() throws Exception {
+		OffscreenRenderer.setParallelism(parallelism);
+	}
+
+	private void assertInOrder(List<Integer> timesteps, int start, int end) {
+		assertEquals(end - start + 1, timesteps.size());
+		for (int i = 0; i < timesteps.size(); i++)
+			assertEquals(start + i, timesteps.get(i).intValue());
+	}
+
+	public void testCopies() throws Exception {
+		TestPlot plot = new TestPlot(true);
+		ParallelFrameRenderer renderer = new ParallelFrameRenderer(plot, 2, 8, 6, 3);
+		Frames frames = new Frames();
+		assertEquals(31, renderer.render(5, 35, frames));
+		assertInOrder(frames.timesteps, 5, 35);
+		assertEquals(31, renderer.getFrameCount());
+		assertTrue(renderer.getFramesPerSecond() > 0);
+
+		// all drawn on the copies
+		assertEquals(3, plot.copies.size());
+		assertEquals(0, plot.drawn);
+		int drawn = 0;
+		for (TestPlot copy : plot.copies) {
+			assertTrue(copy.drawn > 0);
+			drawn += copy.drawn;
+		}
+		assertEquals(31, drawn);
+	}
+
+	public void testNotCopied() throws Exception {
+		TestPlot plot = new TestPlot(false);
+		Frames frames = new Frames();
+		new ParallelFrameRenderer(plot, 2, 8, 6, 4).render(0, 9, frames);
+		assertInOrder(frames.timesteps, 0, 9);
+		assertEquals(10, plot.drawn);
+
+		// nor for a single frame or thread
+		plot = new TestPlot(true);
+		frames = new Frames();
+		new ParallelFrameRenderer(plot, 2, 8, 6, 4).render(3, 3, frames);
+		new ParallelFrameRenderer(plot, 2, 8, 6, 1).render(4, 6, frames);
+		assertInOrder(frames.timesteps, 3, 6);
+		assertEquals(0, plot.copies.size());
+	}
+
+	public void testStop() throws Exception {
+		final ParallelFrameRenderer renderer = new ParallelFrameRenderer(new TestPlot(true), 2, 8, 6, 4);
+		final Frames frames = new Frames();
+		int count = renderer.render(0, 99, new ParallelFrameRenderer.FrameListener() {
+			public void frameRendered(int timestep, BufferedImage image) throws IOException {
+				frames.frameRendered(timestep, image);
+				if (timestep == 7)
+					renderer.stop();
+			}
+		});
+		assertEquals(8, count);
+		assertInOrder(frames.timesteps, 0, 7);
+	}
+}
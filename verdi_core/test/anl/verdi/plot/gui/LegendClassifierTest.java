@@ -0,0 +1,118 @@
+package anl.verdi.plot.gui;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import anl.verdi.data.DataUtilities;
+
+/**
+ * Compares LegendClassifier against scanning the legend levels one by one.
+ */
+public class LegendClassifierTest extends TestCase {
+
+	// how the plots classified values before LegendClassifier
+	private static int scan(float value, double[] levels) {
+		if (Float.isNaN(value) || value <= DataUtilities.BADVAL3 || value <= DataUtilities.AMISS3
+				|| value >= DataUtilities.NC_FILL_FLOAT)
+			return -1;
+		if (levels[0] == levels[levels.length - 1])
+			return 0;
+		for (int index = 1; index < levels.length; index++) {
+			if (levels[index] > value)
+				return index - 1;
+		}
+		return levels.length - 2;
+	}
+
+	private void compare(String message, double[] levels, Random random) {
+		LegendClassifier classifier = new LegendClassifier(levels);
+		double low = levels[0], high = levels[levels.length - 1];
+		double margin = Math.max(1e-6, (high - low) / 4);
+		for (int i = 0; i < 20000; i++) {
+			float value = (float) (low - margin + random.nextDouble() * (high - low + 2 * margin));
+			assertEquals(message + " " + value, scan(value, levels), classifier.classify(value));
+		}
+		// the levels themselves and the values either side of them
+		for (double level : levels) {
+			float value = (float) level;
+			for (float v : new float[] { value, Math.nextUp(value), Math.nextAfter(value, Double.NEGATIVE_INFINITY) })
+				assertEquals(message + " " + v, scan(v, levels), classifier.classify(v));
+		}
+	}
+
+	public void testLinearAndLogLevels() {
+		Random random = new Random(1);
+		for (int count : new int[] { 2, 3, 9, 17, 65 }) {
+			double[] linear = new double[count], log = new double[count];
+			for (int i = 0; i < count; i++) {
+				linear[i] = -3.5 + i * 0.7;
+				log[i] = Math.pow(10, -2 + i * 0.25);
+			}
+			compare("linear " + count, linear, random);
+			compare("log " + count, log, random);
+		}
+		// rounded, as a color map writes them
+		compare("rounded", new double[] { 0, 0.333, 0.667, 1, 1.333, 1.667, 2 }, random);
+	}
+
+	public void testOtherLevels() {
+		Random random = new Random(2);
+		for (int trial = 0; trial < 50; trial++) {
+			double[] levels = new double[2 + random.nextInt(30)];
+			for (int i = 0; i < levels.length; i++)
+				levels[i] = random.nextGaussian() * 100;
+			double[] unsorted = levels.clone();
+			Arrays.sort(levels);
+			if (trial % 5 == 0)
+				levels[1] = levels[2];
+			compare("sorted " + trial, levels, random);
+			compare("unsorted " + trial, unsorted, random);
+		}
+		compare("constant", new double[] { 4, 4, 4 }, random);
+	}
+
+	public void testMissingValues() {
+		LegendClassifier classifier = new LegendClassifier(new double[] { 0, 1, 2, 3 });
+		assertEquals(-1, classifier.classify(Float.NaN));
+		assertEquals(-1, classifier.classify((float) DataUtilities.BADVAL3));
+		assertEquals(-1, classifier.classify((float) DataUtilities.AMISS3));
+		assertEquals(-1, classifier.classify(DataUtilities.NC_FILL_FLOAT));
+		assertEquals(-1, classifier.classify(Float.NEGATIVE_INFINITY));
+		assertEquals(0, classifier.classify(-1000));
+		assertEquals(2, classifier.classify(1000));
+	}
+
+	public void testArrays() {
+		double[] levels = { 0, 10, 20, 30, 40, 50, 60, 70, 80 };
+		LegendClassifier classifier = new LegendClassifier(levels);
+		assertTrue(classifier.isFor(levels));
+		assertFalse(classifier.isFor(levels.clone()));
+
+		// large enough to be classified in parallel
+		Random random = new Random(3);
+		float[][] data = new float[300][700];
+		float[] values = new float[data.length * data[0].length];
+		for (int row = 0; row < data.length; row++) {
+			for (int column = 0; column < data[row].length; column++) {
+				float value = random.nextInt(40) == 0 ? Float.NaN : (float) (random.nextDouble() * 90 - 5);
+				data[row][column] = value;
+				values[row * data[row].length + column] = value;
+			}
+		}
+		byte[][] indices = classifier.classify(data, null);
+		byte[] flat = classifier.classify(values, new byte[values.length]);
+		for (int row = 0; row < data.length; row++) {
+			for (int column = 0; column < data[row].length; column++) {
+				int expected = scan(data[row][column], levels);
+				assertEquals(expected, indices[row][column]);
+				assertEquals(expected, flat[row * data[row].length + column]);
+			}
+		}
+
+		// and reusing the result arrays
+		data[5][6] = 35;
+		assertSame(indices, classifier.classify(data, indices));
+		assertEquals(3, indices[5][6]);
+	}
+}
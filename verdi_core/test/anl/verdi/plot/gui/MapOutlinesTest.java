@@ -0,0 +1,130 @@
+package anl.verdi.plot.gui;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+
+/**
+ * Tests the simplification and drawing of MapOutlines.
+ */
+public class MapOutlinesTest extends TestCase {
+
+	private static final int SIZE = 200;
+
+	private GeometryFactory factory = new GeometryFactory();
+
+	// a densely sampled circle
+	private Geometry createCircle(double centerX, double centerY, double radius, int points) {
+		Coordinate[] ring = new Coordinate[points + 1];
+		for (int i = 0; i < points; i++) {
+			double angle = 2 * Math.PI * i / points;
+			ring[i] = new Coordinate(centerX + radius * Math.cos(angle), centerY + radius * Math.sin(angle));
+		}
+		ring[points] = ring[0];
+		return factory.createPolygon(factory.createLinearRing(ring), new LinearRing[0]);
+	}
+
+	private BufferedImage newImage() {
+		return new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	private int countDrawn(BufferedImage image) {
+		int count = 0;
+		for (int y = 0; y < SIZE; y++)
+			for (int x = 0; x < SIZE; x++)
+				if (image.getRGB(x, y) != 0)
+					count++;
+		return count;
+	}
+
+	// every pixel drawn in one image has a pixel drawn next to it in the other
+	private void assertWithinPixel(BufferedImage image, BufferedImage other) {
+		for (int y = 0; y < SIZE; y++) {
+			for (int x = 0; x < SIZE; x++) {
+				if (image.getRGB(x, y) == 0)
+					continue;
+				boolean near = false;
+				for (int dy = -1; dy <= 1 && !near; dy++)
+					for (int dx = -1; dx <= 1 && !near; dx++)
+						near = x + dx >= 0 && x + dx < SIZE && y + dy >= 0 && y + dy < SIZE
+								&& other.getRGB(x + dx, y + dy) != 0;
+				assertTrue("pixel " + x + ", " + y, near);
+			}
+		}
+	}
+
+	public void testSimplification() {
+		List<Geometry> geometries = new ArrayList<Geometry>();
+		geometries.add(createCircle(0, 0, 100, 10000));
+		MapOutlines outlines = new MapOutlines(geometries);
+		assertEquals(10001, outlines.getPointCount());
+		assertEquals(10001, outlines.getPointCount(0));
+		int coarse = outlines.getPointCount(1);
+		// about one point a unit along the circumference, plus the closing point
+		assertTrue("" + coarse, coarse > 2 * Math.PI * 100 / 2 && coarse < 2 * Math.PI * 100 + 2);
+		assertTrue(outlines.getPointCount(10) < coarse);
+	}
+
+	public void testDrawing() {
+		Geometry circle = createCircle(50, 50, 40, 20000);
+		MapOutlines outlines = new MapOutlines(Arrays.asList(circle));
+		BufferedImage image = newImage();
+		Graphics2D graphics = image.createGraphics();
+		outlines.draw(graphics, Color.BLACK, new BasicStroke(1), 0, 100, 0, 100, 0, 0, SIZE, SIZE);
+		graphics.dispose();
+
+		// the full resolution circle, mapped the same way
+		Coordinate[] coordinates = circle.getCoordinates();
+		int[] x = new int[coordinates.length], y = new int[coordinates.length];
+		for (int i = 0; i < coordinates.length; i++) {
+			x[i] = (int) Math.round(coordinates[i].x * SIZE / 100);
+			y[i] = (int) Math.round((100 - coordinates[i].y) * SIZE / 100);
+		}
+		BufferedImage expected = newImage();
+		graphics = expected.createGraphics();
+		graphics.setColor(Color.BLACK);
+		graphics.setStroke(new BasicStroke(1));
+		graphics.drawPolyline(x, y, x.length);
+		graphics.dispose();
+
+		// dropping points closer than half a pixel moves the line by a pixel at most
+		assertTrue(countDrawn(expected) > 400);
+		assertTrue(countDrawn(image) > 400);
+		assertWithinPixel(image, expected);
+		assertWithinPixel(expected, image);
+		// nothing inside the circle
+		assertEquals(0, image.getRGB(SIZE / 2, SIZE / 2));
+	}
+
+	public void testOutsideBounds() {
+		MapOutlines outlines = new MapOutlines(Arrays.asList(createCircle(500, 500, 10, 100)));
+		BufferedImage image = newImage();
+		Graphics2D graphics = image.createGraphics();
+		outlines.draw(graphics, Color.BLACK, new BasicStroke(1), 0, 100, 0, 100, 0, 0, SIZE, SIZE);
+		graphics.dispose();
+		assertEquals(0, countDrawn(image));
+
+		// only into the area given, even when the lines go beyond it
+		outlines = new MapOutlines(Arrays.asList(createCircle(50, 50, 70, 1000)));
+		image = newImage();
+		graphics = image.createGraphics();
+		outlines.draw(graphics, Color.BLACK, new BasicStroke(1), 0, 100, 0, 100, 20, 20, SIZE / 2, SIZE / 2);
+		graphics.dispose();
+		assertTrue(countDrawn(image) > 0);
+		for (int row = 0; row < SIZE; row++)
+			for (int col = 0; col < SIZE; col++)
+				if (row < 20 || col < 20 || row >= 20 + SIZE / 2 || col >= 20 + SIZE / 2)
+					assertEquals(0, image.getRGB(col, row));
+	}
+}
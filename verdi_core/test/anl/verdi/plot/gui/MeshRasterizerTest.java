@@ -0,0 +1,114 @@
+package anl.verdi.plot.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the pixels filled by MeshRasterizer against Graphics2D.fillPolygon.
+ * Java2D rasterizes in fixed point, so pixels whose sample point falls
+ * exactly on an edge may go either way and a few differences are allowed.
+ */
+public class MeshRasterizerTest extends TestCase {
+
+	private static final int WIDTH = 300, HEIGHT = 200, CELLS = 2000;
+
+	private int parallelism;
+
+	private int[][] xs = new int[CELLS][], ys = new int[CELLS][];
+	private int[] colors = new int[CELLS], ids = new int[CELLS];
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		parallelism = MeshRasterizer.getParallelism();
+		// hexagons of random size and position, overlapping and
+		// partly outside the image
+		Random random = new Random(13);
+		for (int cell = 0; cell < CELLS; cell++) {
+			double centerX = random.nextDouble() * (WIDTH + 40) - 20;
+			double centerY = random.nextDouble() * (HEIGHT + 40) - 20;
+			double radius = 1 + random.nextDouble() * (cell % 20 == 0 ? 30 : 6);
+			double angle = random.nextDouble();
+			xs[cell] = new int[6];
+			ys[cell] = new int[6];
+			for (int vertex = 0; vertex < 6; vertex++) {
+				xs[cell][vertex] = (int) Math.round(centerX + radius * Math.cos(angle + vertex * Math.PI / 3));
+				ys[cell][vertex] = (int) Math.round(centerY + radius * Math.sin(angle + vertex * Math.PI / 3));
+			}
+			colors[cell] = 0xFF000000 | random.nextInt(0x1000000);
+			ids[cell] = cell + 1;
+		}
+		// a concave polygon and a skipped one
+		xs[7] = new int[]{10, 60, 60, 35, 10};
+		ys[7] = new int[]{10, 10, 50, 20, 50};
+		xs[8] = null;
+		ys[8] = null;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		MeshRasterizer.setParallelism(parallelism);
+		super.tearDown();
+	}
+
+	private int[] drawExpected(int xOrigin, int yOrigin) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.translate(-xOrigin, -yOrigin);
+		for (int cell = 0; cell < CELLS; cell++) {
+			if (xs[cell] == null) continue;
+			g.setColor(new Color(colors[cell], true));
+			g.fillPolygon(xs[cell], ys[cell], xs[cell].length);
+		}
+		g.dispose();
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	public void testAgainstFillPolygon() {
+		for (int[] origin : new int[][]{{0, 0}, {-7, 12}}) {
+			int[] expected = drawExpected(origin[0], origin[1]);
+			int[] serial = null;
+			for (int threads : new int[]{1, 4}) {
+				MeshRasterizer.setParallelism(threads);
+				int[] actual = new int[WIDTH * HEIGHT];
+				int[] actualIds = new int[WIDTH * HEIGHT];
+				new MeshRasterizer(WIDTH, HEIGHT, actual, actualIds).fill(CELLS, xs, ys, colors, ids, origin[0], origin[1]);
+				int different = 0;
+				for (int i = 0; i < expected.length; i++) {
+					String message = "pixel " + (i % WIDTH) + ", " + (i / WIDTH) + " with " + threads + " threads";
+					if (expected[i] != actual[i]) different++;
+					// the id is of the polygon whose color was drawn last
+					assertEquals(message, actual[i] == 0 ? 0 : colors[actualIds[i] - 1], actual[i]);
+				}
+				assertTrue(different + " pixels differ", different < expected.length / 200);
+				if (serial == null) serial = actual;
+				else assertTrue(Arrays.equals(serial, actual));
+			}
+		}
+	}
+
+	public void testIdsOnly() {
+		int[] idPixels = new int[WIDTH * HEIGHT];
+		new MeshRasterizer(WIDTH, HEIGHT, null, idPixels).fill(CELLS, xs, ys, null, ids, 0, 0);
+		int[] colorPixels = new int[WIDTH * HEIGHT];
+		new MeshRasterizer(WIDTH, HEIGHT, colorPixels, null).fill(CELLS, xs, ys, colors, null, 0, 0);
+		for (int i = 0; i < idPixels.length; i++) {
+			assertEquals(colorPixels[i] == 0 ? 0 : colors[idPixels[i] - 1], colorPixels[i]);
+		}
+	}
+
+	public void testBufferTooSmall() {
+		try {
+			new MeshRasterizer(WIDTH, HEIGHT, new int[WIDTH], null);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package anl.verdi.plot.util;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that AnimatedGifEncoder with a palette writes the frames exactly,
+ * whether or not they are cropped to the changed area.
+ */
+public class AnimatedGifEncoderTest extends TestCase {
+
+	/**
+	 * Creates the legend colors of a plot, blue through red.
+	 */
+	static Color[] createLegendColors(int count) {
+		Color[] colors = new Color[count];
+		for (int i = 0; i < count; i++)
+			colors[i] = Color.getHSBColor(0.7f * (count - 1 - i) / (count - 1), 1, 1);
+		return colors;
+	}
+
+	/**
+	 * Draws a frame like a tile plot, with a block of grid cells whose
+	 * colors drift from time step to time step, map lines, a title with
+	 * the time step and a legend.
+	 */
+	static BufferedImage createFrame(Color[] legend, int timestep, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, width, height);
+		int cell = 4;
+		int columns = (width - 200) / cell, rows = (height - 100) / cell;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				double value = Math.sin(column * 0.05 + timestep * 0.1) * Math.cos(row * 0.07) * 0.5 + 0.5;
+				g.setColor(legend[Math.min(legend.length - 1, (int) (value * legend.length))]);
+				g.fillRect(50 + column * cell, 60 + row * cell, cell, cell);
+			}
+		}
+		g.setColor(Color.black);
+		for (int i = 0; i < 10; i++)
+			g.drawLine(50 + i * 37, 60, 50 + i * 23, 60 + rows * cell);
+		g.setFont(new Font("SansSerif", Font.BOLD, 16));
+		g.drawString("O3 at time step " + timestep, 60, 30);
+		for (int i = 0; i < legend.length; i++) {
+			g.setColor(legend[i]);
+			g.fillRect(width - 100, 60 + i * 20, 30, 20);
+		}
+		g.dispose();
+		return image;
+	}
+
+	private static byte[] encode(List<BufferedImage> frames, boolean crop) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+		assertTrue(encoder.start(out));
+		encoder.setPalette(createLegendColors(12));
+		encoder.setCropToChanges(crop);
+		encoder.setDelay(500);
+		for (BufferedImage frame : frames)
+			assertTrue(encoder.addFrame(frame));
+		assertTrue(encoder.finish());
+		return out.toByteArray();
+	}
+
+	// reads the frames back, drawing each on the frames before it
+	private static List<BufferedImage> decode(byte[] gif, int width, int height) throws Exception {
+		ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif));
+		ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+		reader.setInput(in);
+		List<BufferedImage> frames = new ArrayList<BufferedImage>();
+		BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int count = reader.getNumImages(true);
+		for (int i = 0; i < count; i++) {
+			IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(i).getAsTree("javax_imageio_gif_image_1.0");
+			IIOMetadataNode descriptor = (IIOMetadataNode) root.getElementsByTagName("ImageDescriptor").item(0);
+			int x = Integer.parseInt(descriptor.getAttribute("imageLeftPosition"));
+			int y = Integer.parseInt(descriptor.getAttribute("imageTopPosition"));
+			IIOMetadataNode control = (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0);
+			assertEquals("50", control.getAttribute("delayTime"));
+			Graphics2D g = canvas.createGraphics();
+			g.drawImage(reader.read(i), x, y, null);
+			g.dispose();
+			BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			frame.setData(canvas.getData());
+			frames.add(frame);
+		}
+		in.close();
+		return frames;
+	}
+
+	private static void assertPixels(BufferedImage expected, BufferedImage actual, String message) {
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				if ((expected.getRGB(x, y) & 0xFFFFFF) != (actual.getRGB(x, y) & 0xFFFFFF))
+					fail(message + " differs at " + x + ", " + y);
+			}
+		}
+	}
+
+	public void testFrames() throws Exception {
+		Color[] legend = createLegendColors(12);
+		List<BufferedImage> frames = new ArrayList<BufferedImage>();
+		for (int step = 0; step < 6; step++)
+			frames.add(createFrame(legend, step, 400, 250));
+		// a frame the same as the one before
+		frames.add(createFrame(legend, 5, 400, 250));
+
+		byte[] full = encode(frames, false);
+		byte[] cropped = encode(frames, true);
+		assertTrue(cropped.length < full.length);
+		for (byte[] gif : new byte[][] { full, cropped }) {
+			List<BufferedImage> decoded = decode(gif, 400, 250);
+			assertEquals(frames.size(), decoded.size());
+			for (int i = 0; i < frames.size(); i++)
+				assertPixels(frames.get(i), decoded.get(i), (gif == full ? "full" : "cropped") + " frame " + i);
+		}
+	}
+
+	public void testOtherImages() throws Exception {
+		// an image of another type, and more colors than the table holds
+		Random random = new Random(1);
+		BufferedImage first = new BufferedImage(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+		BufferedImage second = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 30; y++) {
+			for (int x = 0; x < 40; x++) {
+				first.setRGB(x, y, y < 6 ? 0x000000 : 0xFFFFFF);
+				second.setRGB(x, y, 0xFF000000 | random.nextInt(0x1000000));
+			}
+		}
+		List<BufferedImage> frames = new ArrayList<BufferedImage>();
+		frames.add(first);
+		frames.add(second);
+		List<BufferedImage> decoded = decode(encode(frames, true), 40, 30);
+		assertPixels(first, decoded.get(0), "first");
+		// the second frame's colors are the closest in the table
+		GifPalette palette = new GifPalette(createLegendColors(12));
+		palette.index(0x000000);
+		palette.index(0xFFFFFF);
+		palette.fix();
+		byte[] table = palette.getColorTable();
+		for (int y = 0; y < 30; y++) {
+			for (int x = 0; x < 40; x++) {
+				int index = palette.index(second.getRGB(x, y));
+				int expected = (table[3 * index] & 0xFF) << 16 | (table[3 * index + 1] & 0xFF) << 8
+						| (table[3 * index + 2] & 0xFF);
+				assertEquals(expected, decoded.get(1).getRGB(x, y) & 0xFFFFFF);
+			}
+		}
+	}
+
+	public void testPalette() {
+		Color[] legend = createLegendColors(5);
+		GifPalette palette = new GifPalette(new Color[] { legend[0], null, legend[1], legend[0], legend[2],
+				legend[3], legend[4] });
+		assertEquals(5, palette.getSize());
+		assertEquals(3, palette.getColorDepth());
+		assertEquals(24, palette.getColorTable().length);
+		for (int i = 0; i < legend.length; i++)
+			assertEquals(i, palette.index(legend[i].getRGB()));
+
+		// colors are added until the table is fixed
+		assertEquals(5, palette.index(0x123456));
+		assertEquals(5, palette.index(0xFF123456));
+		palette.fix();
+		assertEquals(5, palette.index(0x123457));
+		assertEquals(4, palette.index(legend[4].getRGB() ^ 0x010101));
+		assertEquals(6, palette.getSize());
+
+		// or full
+		palette = new GifPalette(null);
+		byte[] indexed = new byte[1000];
+		int[] pixels = new int[1000];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = i * 16;
+		palette.map(pixels, indexed);
+		assertEquals(256, palette.getSize());
+		assertEquals(8, palette.getColorDepth());
+		for (int i = 0; i < 256; i++)
+			assertEquals(i, indexed[i] & 0xFF);
+		assertEquals(palette.index(pixels[999]), indexed[999] & 0xFF);
+	}
+}
@@ -0,0 +1,64 @@
+package anl.verdi.plot.util;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time taken to encode the frames of a tile plot animation
+ * with ImageIO, as WriteAnimatedGif does, with AnimatedGifEncoder
+ * quantizing each frame with NeuQuant, and with AnimatedGifEncoder using
+ * a global palette, with and without cropping frames to the changed area.
+ * Run as an application, optionally passing the number of frames and the
+ * width and height of the frames.
+ */
+public class GifEncodingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+		int width = args.length > 1 ? Integer.parseInt(args[1]) : 800;
+		int height = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+
+		Color[] legend = AnimatedGifEncoderTest.createLegendColors(12);
+		List<BufferedImage> frames = new ArrayList<BufferedImage>();
+		for (int step = 0; step < count; step++)
+			frames.add(AnimatedGifEncoderTest.createFrame(legend, step, width, height));
+		System.out.printf("%d frames of %d x %d pixels%n", count, width, height);
+
+		File file = File.createTempFile("verdi", ".gif");
+		file.deleteOnExit();
+		long start = System.nanoTime();
+		WriteAnimatedGif writer = new WriteAnimatedGif();
+		writer.start(file);
+		for (BufferedImage frame : frames)
+			writer.addFrame(frame, 50);
+		writer.finish();
+		report("ImageIO", start, count, file.length());
+
+		encode("NeuQuant", frames, null, false);
+		encode("palette", frames, legend, false);
+		encode("palette, cropped", frames, legend, true);
+	}
+
+	private static void encode(String name, List<BufferedImage> frames, Color[] palette, boolean crop) {
+		long start = System.nanoTime();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+		encoder.start(out);
+		encoder.setPalette(palette);
+		encoder.setCropToChanges(crop);
+		encoder.setDelay(500);
+		for (BufferedImage frame : frames)
+			encoder.addFrame(frame);
+		encoder.finish();
+		report(name, start, frames.size(), out.size());
+	}
+
+	private static void report(String name, long start, int count, long bytes) {
+		double elapsed = (System.nanoTime() - start) / 1000000.0;
+		System.out.printf("%-18s %9.1f ms  %7.2f ms/frame  %9d bytes%n", name + ":", elapsed, elapsed / count, bytes);
+	}
+}
@@ -0,0 +1,30 @@
+package anl.verdi.plot.util;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+import net.sf.epsgraphics.ColorMode;
+import net.sf.epsgraphics.EpsGraphics;
+
+/**
+ * Checks that GraphicsTarget tells images from EPS exports.
+ */
+public class GraphicsTargetTest extends TestCase {
+
+	public void testImage() {
+		BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		assertTrue(GraphicsTarget.isRaster(graphics));
+		graphics.dispose();
+	}
+
+	public void testEps() throws Exception {
+		EpsGraphics graphics = new EpsGraphics("test", new ByteArrayOutputStream(), 0, 0, 10, 10,
+				ColorMode.COLOR_RGB);
+		assertFalse(GraphicsTarget.isRaster(graphics));
+		graphics.close();
+		assertFalse(GraphicsTarget.isRaster(null));
+	}
+}
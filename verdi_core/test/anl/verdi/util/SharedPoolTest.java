@@ -0,0 +1,150 @@
+package anl.verdi.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that SharedPool runs every piece of a forEach, keeps to its level
+ * of parallelism, can be resized while in use and does not deadlock when
+ * its work is nested.
+ */
+public class SharedPoolTest extends TestCase {
+
+	public void testForEach() {
+		SharedPool pool = new SharedPool("test", null, false);
+		pool.setParallelism(4);
+		final AtomicIntegerArray runs = new AtomicIntegerArray(1000);
+		pool.forEach(runs.length(), new SharedPool.Body() {
+			public void run(int index) {
+				runs.incrementAndGet(index);
+			}
+		});
+		for (int i = 0; i < runs.length(); i++)
+			assertEquals(1, runs.get(i));
+	}
+
+	public void testParallelism() {
+		SharedPool pool = new SharedPool("test", null, true);
+		pool.setParallelism(2);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger most = new AtomicInteger();
+		pool.forEach(40, new SharedPool.Body() {
+			public void run(int index) {
+				int now = running.incrementAndGet();
+				synchronized (most) {
+					most.set(Math.max(most.get(), now));
+				}
+				sleep(2);
+				running.decrementAndGet();
+			}
+		});
+		assertTrue(most.get() <= 2);
+	}
+
+	public void testResize() throws Exception {
+		final SharedPool pool = new SharedPool("test", null, true);
+		pool.setParallelism(3);
+		final AtomicInteger count = new AtomicInteger();
+		pool.forEach(60, new SharedPool.Body() {
+			public void run(int index) {
+				// resizing while pieces run neither rejects nor loses any
+				pool.setParallelism(1 + index % 4);
+				sleep(1);
+				count.incrementAndGet();
+			}
+		});
+		assertEquals(60, count.get());
+		Future<String> future = pool.submit(new Callable<String>() {
+			public String call() {
+				return "done";
+			}
+		});
+		assertEquals("done", future.get(10, TimeUnit.SECONDS));
+	}
+
+	public void testException() {
+		SharedPool pool = new SharedPool("test", null, false);
+		pool.setParallelism(4);
+		try {
+			pool.forEach(100, new SharedPool.Body() {
+				public void run(int index) {
+					if (index == 17)
+						throw new IllegalStateException("piece " + index);
+				}
+			});
+			fail("Expected the exception of the piece");
+		} catch (IllegalStateException e) {
+			assertEquals("piece 17", e.getMessage());
+		}
+	}
+
+	public void testNested() {
+		final SharedPool outer = new SharedPool("outer", null, false);
+		final SharedPool inner = new SharedPool("inner", null, false);
+		outer.setParallelism(8);
+		inner.setParallelism(8);
+		final AtomicInteger count = new AtomicInteger();
+		// more pieces than threads, each waiting on pieces of its own
+		outer.forEach(32, new SharedPool.Body() {
+			public void run(int index) {
+				inner.forEach(32, new SharedPool.Body() {
+					public void run(int index) {
+						count.incrementAndGet();
+					}
+				});
+			}
+		});
+		assertEquals(32 * 32, count.get());
+	}
+
+	public void testKindsShareThreads() throws Exception {
+		SharedPool busy = new SharedPool("busy", null, true);
+		SharedPool other = new SharedPool("other", null, true);
+		busy.setParallelism(1);
+		other.setParallelism(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch ran = new CountDownLatch(2);
+		busy.execute(new Runnable() {
+			public void run() {
+				await(release);
+			}
+		});
+		busy.execute(new Runnable() {
+			public void run() {
+				ran.countDown();
+			}
+		});
+		other.execute(new Runnable() {
+			public void run() {
+				ran.countDown();
+			}
+		});
+		// the busy kind's second task waits for its first, the other does not
+		assertFalse(ran.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, ran.getCount());
+		release.countDown();
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -30,6 +30,9 @@ import org.eclipse.uomo.units.impl.system.Imperial;
 import org.eclipse.uomo.units.impl.system.USCustomary;
 import org.unitsofmeasurement.unit.Unit;
 
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+
 import anl.verdi.util.VUnits;
 /**
  * Tests for the units class.
@@ -105,6 +108,45 @@ public class UnitsTests extends TestCase {
 		double fooValue = foo.getConverterTo(foo).convert(2);
 	}
 
+	public void testUnitConversion() {
+		Unit mg = VUnits.createUnit("mg");
+		Unit kg = VUnits.createUnit("kg");
+		UnitConversion conversion = UnitConversion.create(mg, kg);
+		assertTrue(conversion.isAffine());
+		assertFalse(conversion.isIdentity());
+		assertEquals(0.0, conversion.getOffset());
+		assertEquals(mg.getConverterTo(kg).convert(2), conversion.convert(2), 1e-18);
+
+		Unit kelvin = VUnits.createUnit("K");
+		conversion = UnitConversion.create(kelvin, SI.CELSIUS);
+		assertTrue(conversion.isAffine());
+		assertEquals(1.0, conversion.getScale(), 1e-12);
+		assertEquals(-273.15, conversion.getOffset(), 1e-12);
+
+		assertTrue(UnitConversion.create(kelvin, kelvin).isIdentity());
+
+		// contiguous arrays are converted through their storage, sections
+		// through an iterator, and both must agree with the converter
+		Array array = Array.factory(float.class, new int[]{3, 4});
+		for (IndexIterator iter = array.getIndexIterator(); iter.hasNext();) {
+			iter.setFloatNext((float) (Math.random() * 300));
+		}
+		Array expected = array.copy();
+		for (IndexIterator iter = expected.getIndexIterator(); iter.hasNext();) {
+			iter.setDoubleCurrent(kelvin.getConverterTo(SI.CELSIUS).convert(iter.getDoubleNext()));
+		}
+		Array section = array.copy().transpose(0, 1);
+		conversion.convert(array);
+		conversion.convert(section);
+		section = section.transpose(0, 1);
+		IndexIterator sIter = section.getIndexIterator();
+		for (IndexIterator aIter = array.getIndexIterator(), eIter = expected.getIndexIterator(); eIter.hasNext();) {
+			float val = eIter.getFloatNext();
+			assertEquals(val, aIter.getFloatNext(), 1e-4);
+			assertEquals(val, sIter.getFloatNext(), 1e-4);
+		}
+	}
+
 	public void testCompatible() {
 		Unit ppm = VUnits.createUnit("ppm");
 		Unit kelvin = VUnits.createUnit("K");
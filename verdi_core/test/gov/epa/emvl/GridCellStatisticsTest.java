@@ -0,0 +1,195 @@
+package gov.epa.emvl;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks every statistic computed by GridCellStatistics against values
+ * worked out by hand for a small grid, for both input layouts and computed
+ * serially and in parallel.
+ */
+public class GridCellStatisticsTest extends TestCase {
+
+	private static final double THRESHOLD = 0.6;
+	private static final double PERCENTILE = 95.0;
+
+	private static final float MISSING = GridCellStatistics.BADVAL3;
+
+	// data[2][2][8]: all valid; some missing; all missing; a single value
+	private static final float[][][] SMALL_GRID = {
+		{{3, 1, 4, 1, 5, 9, 2, 6}, {2, MISSING, 6, 4, MISSING, 8, 10, MISSING}},
+		{{MISSING, MISSING, MISSING, MISSING, MISSING, MISSING, MISSING, MISSING},
+		 {MISSING, MISSING, MISSING, 7, MISSING, MISSING, MISSING, MISSING}}
+	};
+
+	// the statistics of SMALL_GRID's cells in row order, with values over
+	// 4.5 exceeding and the 75th percentile: the first cell sorts to
+	// 1 1 2 3 4 5 6 9, the second to 2 4 6 8 10
+	private static final double[][] SMALL_GRID_STATISTICS = new double[GridCellStatistics.STATISTICS][];
+
+	static {
+		double[][] s = SMALL_GRID_STATISTICS;
+		s[GridCellStatistics.MINIMUM] = new double[]{1, 2, MISSING, 7};
+		s[GridCellStatistics.MAXIMUM] = new double[]{9, 10, MISSING, 7};
+		s[GridCellStatistics.MEAN] = new double[]{31 / 8.0, 30 / 5.0, MISSING, 7};
+		s[GridCellStatistics.GEOMETRIC_MEAN] = new double[]{Math.pow(3 * 1 * 4 * 1 * 5 * 9 * 2 * 6, 1 / 8.0),
+						Math.pow(2 * 6 * 4 * 8 * 10, 1 / 5.0), MISSING, 7};
+		s[GridCellStatistics.MEDIAN] = new double[]{(3 + 4) / 2.0, 6, MISSING, 7};
+		s[GridCellStatistics.FIRST_QUARTILE] = new double[]{(1 + 2) / 2.0, 4, MISSING, 7};
+		s[GridCellStatistics.THIRD_QUARTILE] = new double[]{(5 + 6) / 2.0, 8, MISSING, 7};
+		// sample variance: the sum of the squared differences from the mean over count - 1
+		double variance = (173 - 31 * 31 / 8.0) / 7;
+		s[GridCellStatistics.VARIANCE] = new double[]{variance, 40 / 4.0, MISSING, 0};
+		s[GridCellStatistics.STANDARD_DEVIATION] = new double[]{Math.sqrt(variance), Math.sqrt(10), MISSING, 0};
+		s[GridCellStatistics.COEFFICIENT_OF_VARIANCE] = new double[]{100 * Math.sqrt(variance) / (31 / 8.0),
+						100 * Math.sqrt(10) / 6, MISSING, 0};
+		s[GridCellStatistics.RANGE] = new double[]{8, 8, MISSING, 0};
+		s[GridCellStatistics.INTERQUARTILE_RANGE] = new double[]{5.5 - 1.5, 8 - 4, MISSING, 0};
+		s[GridCellStatistics.SUM] = new double[]{31, 30, MISSING, 7};
+		// 1-based, the first of equal values, 0 for none
+		s[GridCellStatistics.TIMESTEP_OF_MINIMUM] = new double[]{2, 1, 0, 4};
+		s[GridCellStatistics.TIMESTEP_OF_MAXIMUM] = new double[]{6, 7, 0, 4};
+		s[GridCellStatistics.HOURS_OF_NON_COMPLIANCE] = new double[]{3, 3, MISSING, 1};
+		// a single window of all eight timesteps
+		s[GridCellStatistics.MAXIMUM_8HOUR_MEAN] = new double[]{31 / 8.0, 30 / 5.0, MISSING, 7};
+		s[GridCellStatistics.COUNT] = new double[]{8, 5, 0, 1};
+		s[GridCellStatistics.FOURTH_MAX] = new double[]{4, 4, MISSING, MISSING};
+		// the value at rank round(count * 0.75), counting from 1
+		s[GridCellStatistics.CUSTOM_PERCENTILE] = new double[]{5, 8, MISSING, 7};
+	}
+
+	private int parallelism;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		parallelism = GridCellStatistics.getParallelism();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		GridCellStatistics.setParallelism(parallelism);
+		super.tearDown();
+	}
+
+	// data[rows][columns][timesteps] with some missing values, some cells
+	// with only a few valid values and one with none
+	private float[][][] createData(int rows, int columns, int timesteps, long seed) {
+		Random random = new Random(seed);
+		float[][][] data = new float[rows][columns][timesteps];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				int cell = row * columns + column;
+				for (int timestep = 0; timestep < timesteps; timestep++) {
+					float value = random.nextFloat();
+					// repeated values exercise the selection's handling of ties
+					if (cell % 5 == 1) value = Math.round(value * 4) / 4f;
+					if (cell % 3 == 2 && random.nextInt(4) == 0) value = GridCellStatistics.BADVAL3;
+					if (cell % 7 == 3 && timestep > cell % 4) value = GridCellStatistics.BADVAL3;
+					if (cell == 4) value = GridCellStatistics.BADVAL3;
+					data[row][column][timestep] = value;
+				}
+			}
+		}
+		return data;
+	}
+
+	private float[] flatten(float[][][] data) {
+		int rows = data.length, columns = data[0].length, timesteps = data[0][0].length;
+		float[] flat = new float[timesteps * rows * columns];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				for (int timestep = 0; timestep < timesteps; timestep++) {
+					flat[(timestep * rows + row) * columns + column] = data[row][column][timestep];
+				}
+			}
+		}
+		return flat;
+	}
+
+	private float[][][] copy(float[][][] data) {
+		float[][][] copy = new float[data.length][data[0].length][];
+		for (int row = 0; row < data.length; row++) {
+			for (int column = 0; column < data[0].length; column++) {
+				copy[row][column] = data[row][column].clone();
+			}
+		}
+		return copy;
+	}
+
+	private void assertStatistic(String message, float expected, float actual) {
+		if (expected <= GridCellStatistics.AMISS3) {
+			assertTrue(message + " expected missing but was " + actual, actual <= GridCellStatistics.AMISS3);
+		} else if (Float.isNaN(expected)) {
+			assertTrue(message + " expected NaN but was " + actual, Float.isNaN(actual));
+		} else {
+			assertEquals(message, expected, actual, 1e-5 * Math.max(1, Math.abs(expected)));
+		}
+	}
+
+	public void testSmallGrid() throws Exception {
+		int rows = SMALL_GRID.length, columns = SMALL_GRID[0].length, timesteps = SMALL_GRID[0][0].length;
+		float[] flat = flatten(SMALL_GRID);
+		for (int threads : new int[]{1, 4}) {
+			GridCellStatistics.setParallelism(threads);
+			for (int statistic = 0; statistic < GridCellStatistics.STATISTICS - 1; statistic++) {
+				float[][][] cellResult = new float[GridCellStatistics.STATISTICS][rows][columns];
+				GridCellStatistics.computeStatistics(copy(SMALL_GRID), 4.5, 1.0, cellResult, statistic, 75.0);
+				float[][][] flatResult = new float[GridCellStatistics.STATISTICS][rows][columns];
+				GridCellStatistics.computeStatistics(flat, timesteps, rows, columns, 4.5, 1.0, flatResult, statistic,
+								75.0);
+				for (int row = 0; row < rows; row++) {
+					for (int column = 0; column < columns; column++) {
+						String message = GridCellStatistics.name(statistic) + " at " + row + ", " + column;
+						float expected = (float) SMALL_GRID_STATISTICS[statistic][row * columns + column];
+						assertStatistic(message, expected, cellResult[statistic][row][column]);
+						assertEquals(message, cellResult[statistic][row][column], flatResult[statistic][row][column]);
+					}
+				}
+			}
+		}
+	}
+
+	public void testGeometricMeanWithMissingValues() throws Exception {
+		float[][][] data = {{{2, GridCellStatistics.BADVAL3, 8, 4}}};
+		float[][][] statistics = new float[GridCellStatistics.STATISTICS][1][1];
+		GridCellStatistics.computeStatistics(data, THRESHOLD, 1.0, statistics, GridCellStatistics.GEOMETRIC_MEAN, 0);
+		assertEquals(4, statistics[GridCellStatistics.GEOMETRIC_MEAN][0][0], 1e-5);
+		assertEquals(3f, statistics[GridCellStatistics.COUNT][0][0]);
+	}
+
+	public void testMaximum8HourMean() throws Exception {
+		float[][][] data = new float[1][1][24];
+		for (int timestep = 0; timestep < 24; timestep++) {
+			data[0][0][timestep] = timestep < 12 ? timestep : 24 - timestep;
+		}
+		float[][][] statistics = new float[GridCellStatistics.STATISTICS][1][1];
+		GridCellStatistics.computeStatistics(data, THRESHOLD, 1.0, statistics, GridCellStatistics.MAXIMUM_8HOUR_MEAN, 0);
+		// the window over timesteps 8 to 15: 8, 9, 10, 11, 12, 11, 10, 9
+		assertEquals(10f, statistics[GridCellStatistics.MAXIMUM_8HOUR_MEAN][0][0]);
+		// two-hour timesteps make four-timestep windows
+		GridCellStatistics.computeStatistics(data, THRESHOLD, 2.0, statistics, GridCellStatistics.MAXIMUM_8HOUR_MEAN, 0);
+		assertEquals(11f, statistics[GridCellStatistics.MAXIMUM_8HOUR_MEAN][0][0]);
+	}
+
+	public void testParallelMatchesSerial() throws Exception {
+		int rows = 40, columns = 45, timesteps = 60;
+		float[] flat = flatten(createData(rows, columns, timesteps, 11));
+		for (int statistic = 0; statistic < GridCellStatistics.STATISTICS - 1; statistic++) {
+			GridCellStatistics.setParallelism(1);
+			float[][][] serial = new float[GridCellStatistics.STATISTICS][rows][columns];
+			GridCellStatistics.computeStatistics(flat, timesteps, rows, columns, THRESHOLD, 1.0, serial, statistic,
+							PERCENTILE);
+			GridCellStatistics.setParallelism(4);
+			float[][][] parallel = new float[GridCellStatistics.STATISTICS][rows][columns];
+			GridCellStatistics.computeStatistics(flat, timesteps, rows, columns, THRESHOLD, 1.0, parallel, statistic,
+							PERCENTILE);
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					assertEquals(serial[statistic][row][column], parallel[statistic][row][column]);
+				}
+			}
+		}
+	}
+}
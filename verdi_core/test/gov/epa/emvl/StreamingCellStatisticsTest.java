@@ -0,0 +1,288 @@
+package gov.epa.emvl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import org.unitsofmeasurement.unit.Unit;
+
+import junit.framework.TestCase;
+import ucar.ma2.Array;
+import anl.verdi.data.Axes;
+import anl.verdi.data.AxisRange;
+import anl.verdi.data.AxisType;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameAxis;
+import anl.verdi.data.DataFrameBuilder;
+import anl.verdi.data.DataReader;
+import anl.verdi.data.Dataset;
+import anl.verdi.data.Range;
+import anl.verdi.data.Slice;
+import anl.verdi.data.TimeCoordAxis;
+import anl.verdi.data.Variable;
+
+/**
+ * Compares the statistics computed a chunk of timesteps at a time by
+ * StreamingCellStatistics against GridCellStatistics.
+ */
+public class StreamingCellStatisticsTest extends TestCase {
+
+	private static final double THRESHOLD = 0.6;
+	private static final double PERCENTILE = 90.0;
+
+	private static final int[] ORDER_STATISTICS = {GridCellStatistics.MEDIAN, GridCellStatistics.FIRST_QUARTILE,
+					GridCellStatistics.THIRD_QUARTILE, GridCellStatistics.INTERQUARTILE_RANGE,
+					GridCellStatistics.CUSTOM_PERCENTILE};
+
+	// data[(timestep * rows + row) * columns + column] with some missing
+	// values and cells with fewer than 5 valid values
+	private float[] createData(int timesteps, int rows, int columns, long seed) {
+		Random random = new Random(seed);
+		int cells = rows * columns;
+		float[] data = new float[timesteps * cells];
+		for (int timestep = 0; timestep < timesteps; timestep++) {
+			for (int cell = 0; cell < cells; cell++) {
+				float value = (float) random.nextGaussian() + 2;
+				if (cell % 3 == 2 && random.nextInt(4) == 0) value = GridCellStatistics.BADVAL3;
+				if (cell % 7 == 3 && timestep > cell % 5) value = GridCellStatistics.BADVAL3;
+				data[timestep * cells + cell] = value;
+			}
+		}
+		return data;
+	}
+
+	private float[][][] stream(float[] data, int timesteps, int rows, int columns, int statistic, int chunk) {
+		StreamingCellStatistics stats = new StreamingCellStatistics(rows, columns, THRESHOLD, 1.0, statistic, PERCENTILE);
+		int cells = rows * columns;
+		float[] buffer = new float[chunk * cells];
+		for (int timestep = 0; timestep < timesteps; timestep += chunk) {
+			int count = Math.min(chunk, timesteps - timestep);
+			System.arraycopy(data, timestep * cells, buffer, 0, count * cells);
+			stats.add(buffer, count);
+		}
+		assertEquals(timesteps, stats.getTimesteps());
+		float[][][] result = new float[GridCellStatistics.STATISTICS][rows][columns];
+		stats.getStatistics(result);
+		return result;
+	}
+
+	private boolean isOrderStatistic(int statistic) {
+		for (int order : ORDER_STATISTICS) {
+			if (order == statistic) return true;
+		}
+		return false;
+	}
+
+	public void testAgainstGridCellStatistics() throws Exception {
+		int timesteps = 500, rows = 5, columns = 8;
+		float[] data = createData(timesteps, rows, columns, 3);
+		for (int statistic = 0; statistic < GridCellStatistics.STATISTICS - 1; statistic++) {
+			float[][][] expected = new float[GridCellStatistics.STATISTICS][rows][columns];
+			GridCellStatistics.computeStatistics(data, timesteps, rows, columns, THRESHOLD, 1.0, expected, statistic,
+							PERCENTILE);
+			for (int chunk : new int[]{1, 7, timesteps}) {
+				float[][][] actual = stream(data, timesteps, rows, columns, statistic, chunk);
+				for (int row = 0; row < rows; row++) {
+					for (int column = 0; column < columns; column++) {
+						String message = GridCellStatistics.name(statistic) + " at " + row + ", " + column + " in chunks of "
+										+ chunk;
+						float value = expected[statistic][row][column];
+						int count = (int) expected[GridCellStatistics.COUNT][row][column];
+						if (isOrderStatistic(statistic) && count >= 5) {
+							// estimated, so only checked once there are enough values
+							// to be within a small fraction of their spread
+							if (count >= 100) assertEquals(message, value, actual[statistic][row][column], 0.15);
+						} else if (statistic == GridCellStatistics.GEOMETRIC_MEAN) {
+							assertEquals(message, value, actual[statistic][row][column], 1e-5 * Math.abs(value));
+						} else {
+							assertEquals(message, value, actual[statistic][row][column]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public void testDataFrameChunks() throws Exception {
+		int timesteps = 30, rows = 4, columns = 6, cells = rows * columns;
+		float[] data = createData(timesteps, rows, columns, 5);
+		// two layers, of which the second is used
+		Array array = Array.factory(float.class, new int[]{timesteps, 2, rows, columns});
+		for (int timestep = 0; timestep < timesteps; timestep++) {
+			for (int cell = 0; cell < cells; cell++) {
+				array.setFloat((timestep * 2 + 1) * cells + cell, data[timestep * cells + cell]);
+			}
+		}
+		DataFrame frame = new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.TIME, timesteps), 0)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.LAYER, 2), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.Y_AXIS, rows), 2)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.X_AXIS, columns), 3)).
+						createDataFrame();
+		Slice slice = new Slice();
+		slice.setLayerRange(1, 1);
+
+		StreamingCellStatistics stats = new StreamingCellStatistics(rows, columns, THRESHOLD, 1.0,
+						GridCellStatistics.MAXIMUM_8HOUR_MEAN, PERCENTILE);
+		stats.add(frame, slice, false, 4);
+		assertEquals(timesteps, stats.getTimesteps());
+		float[][][] actual = new float[GridCellStatistics.STATISTICS][rows][columns];
+		stats.getStatistics(actual);
+		float[][][] expected = new float[GridCellStatistics.STATISTICS][rows][columns];
+		GridCellStatistics.computeStatistics(data, timesteps, rows, columns, THRESHOLD, 1.0, expected,
+						GridCellStatistics.MAXIMUM_8HOUR_MEAN, PERCENTILE);
+		for (int statistic : new int[]{GridCellStatistics.MAXIMUM_8HOUR_MEAN, GridCellStatistics.MEAN,
+						GridCellStatistics.TIMESTEP_OF_MAXIMUM}) {
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					assertEquals(expected[statistic][row][column], actual[statistic][row][column]);
+				}
+			}
+		}
+	}
+
+	public void testReaderChunks() throws Exception {
+		int timesteps = 30, rows = 4, columns = 6, chunk = 4;
+		float[] data = createData(timesteps, rows, columns, 7);
+		final List<CoordAxis> axes = Arrays.<CoordAxis>asList(new TestAxis(AxisType.TIME, timesteps),
+						new TestAxis(AxisType.LAYER, 2), new TestAxis(AxisType.Y_AXIS, rows),
+						new TestAxis(AxisType.X_AXIS, columns));
+		Dataset dataset = (Dataset) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Dataset.class},
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method method, Object[] args) {
+								if (method.getName().equals("getCoordAxes")) return new Axes<CoordAxis>(axes);
+								return null;
+							}
+						});
+		List<AxisRange> ranges = new ArrayList<AxisRange>();
+		ranges.add(new AxisRange(axes.get(0), 0, timesteps));
+		ranges.add(new AxisRange(axes.get(1), 1, 1));
+		ranges.add(new AxisRange(axes.get(2), 0, rows));
+		ranges.add(new AxisRange(axes.get(3), 0, columns));
+		CountingReader reader = new CountingReader(data, rows, columns);
+
+		StreamingCellStatistics stats = new StreamingCellStatistics(rows, columns, THRESHOLD, 1.0,
+						GridCellStatistics.MAXIMUM_8HOUR_MEAN, PERCENTILE);
+		stats.add(reader, dataset, null, ranges, false, chunk);
+		assertEquals(timesteps, stats.getTimesteps());
+		// the layer is read in successive chunks, none longer than asked for
+		assertEquals((timesteps + chunk - 1) / chunk, reader.reads);
+		assertEquals(timesteps, reader.next);
+		assertEquals(chunk, reader.longest);
+
+		float[][][] actual = new float[GridCellStatistics.STATISTICS][rows][columns];
+		stats.getStatistics(actual);
+		float[][][] expected = new float[GridCellStatistics.STATISTICS][rows][columns];
+		GridCellStatistics.computeStatistics(data, timesteps, rows, columns, THRESHOLD, 1.0, expected,
+						GridCellStatistics.MAXIMUM_8HOUR_MEAN, PERCENTILE);
+		for (int statistic : new int[]{GridCellStatistics.MAXIMUM_8HOUR_MEAN, GridCellStatistics.MEAN,
+						GridCellStatistics.TIMESTEP_OF_MAXIMUM}) {
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					assertEquals(expected[statistic][row][column], actual[statistic][row][column]);
+				}
+			}
+		}
+	}
+
+	// reads a layer of data[(timestep * rows + row) * columns + column],
+	// checking that each read is of the timesteps after the previous one
+	private static class CountingReader implements DataReader<Dataset> {
+
+		private final float[] data;
+		private final int rows, columns;
+		int reads = 0, next = 0, longest = 0;
+
+		CountingReader(float[] data, int rows, int columns) {
+			this.data = data;
+			this.rows = rows;
+			this.columns = columns;
+		}
+
+		public DataFrame getValues(Dataset set, List<AxisRange> ranges, Variable variable) {
+			assertEquals(4, ranges.size());
+			AxisRange time = null;
+			for (AxisRange range : ranges) {
+				if (range.getAxisType() == AxisType.TIME) time = range;
+				if (range.getAxisType() == AxisType.LAYER) {
+					assertEquals(1, range.getOrigin());
+					assertEquals(1, range.getExtent());
+				}
+			}
+			assertEquals(next, time.getOrigin());
+			int timesteps = time.getExtent(), cells = rows * columns;
+			reads++;
+			next += timesteps;
+			longest = Math.max(longest, timesteps);
+
+			Array array = Array.factory(float.class, new int[]{timesteps, 1, rows, columns});
+			for (int index = 0; index < timesteps * cells; index++) {
+				array.setFloat(index, data[time.getOrigin() * cells + index]);
+			}
+			return new DataFrameBuilder().setArray(array).
+							addAxis(DataFrameAxis.createDataFrameAxis(time.getAxis(), time.getOrigin(), timesteps, 0)).
+							addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.LAYER, 1), 1)).
+							addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.Y_AXIS, rows), 2)).
+							addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.X_AXIS, columns), 3)).
+							createDataFrame();
+		}
+	}
+
+	private static class TestAxis implements TimeCoordAxis {
+
+		private AxisType type;
+		private Range range;
+
+		TestAxis(AxisType type, int extent) {
+			this.type = type;
+			range = new Range(0, extent);
+		}
+
+		public String getName() {
+			return type.toString();
+		}
+
+		public String getDescription() {
+			return null;
+		}
+
+		public Range getRange() {
+			return range;
+		}
+
+		public AxisType getAxisType() {
+			return type;
+		}
+
+		public double getValue(int index) {
+			return index;
+		}
+
+		public Unit getUnits() {
+			return null;
+		}
+
+		public boolean isCompatible(CoordAxis axis) {
+			return true;
+		}
+
+		public GregorianCalendar getDate(int timestep) {
+			return null;
+		}
+
+		public int getTimeStep(GregorianCalendar date) {
+			return -1;
+		}
+
+		public int getTimeStep(Date date) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package gov.epa.emvl;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.sf.epsgraphics.ColorMode;
+import net.sf.epsgraphics.EpsGraphics;
+
+/**
+ * Compares the grid cells drawn by TileRaster against drawing them a
+ * rectangle per run of cells, and checks that exports still get the
+ * rectangles.
+ */
+public class TileRasterTest extends TestCase {
+
+	private static final int IMAGE_WIDTH = 700, IMAGE_HEIGHT = 500;
+
+	private final double[] levels = { 0, 1, 2, 3, 4, 5, 6, 7, 8 };
+	private final Color[] colors = { Color.BLUE, Color.CYAN, new Color(0, 200, 0), Color.YELLOW,
+			Color.ORANGE, Color.RED, Color.MAGENTA, new Color(90, 0, 0) };
+
+	// values in runs, mostly of the lowest level, with some missing
+	private float[][] createData(int rows, int columns, long seed) {
+		Random random = new Random(seed);
+		float[][] data = new float[rows][columns];
+		float value = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				if (random.nextInt(4) == 0)
+					value = random.nextInt(3) == 0 ? (float) (random.nextDouble() * 8) : 0.5f;
+				data[row][column] = random.nextInt(50) == 0 ? Float.NaN : value;
+			}
+		}
+		return data;
+	}
+
+	private BufferedImage draw(TilePlot plot, boolean raster, int xMinimum, int xMaximum, int yMinimum,
+			int yMaximum, Color[] legendColors, float[][] data, byte[][] indices) {
+		BufferedImage image = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.DARK_GRAY);
+		graphics.fillRect(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+		plot.rasterCells = raster;
+		plot.drawGridCells(graphics, xMinimum, xMaximum, yMinimum, yMaximum, 0, data.length - 1, 0,
+				data[0].length - 1, levels, legendColors, data, indices);
+		graphics.dispose();
+		return image;
+	}
+
+	private void assertSame(String message, BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < IMAGE_HEIGHT; y++)
+			for (int x = 0; x < IMAGE_WIDTH; x++)
+				assertEquals(message + " pixel " + x + ", " + y, expected.getRGB(x, y), actual.getRGB(x, y));
+	}
+
+	private void compare(int rows, int columns, int xMinimum, int xMaximum, int yMinimum, int yMaximum) {
+		TilePlot plot = new TilePlot(new GregorianCalendar(), 3600000);
+		float[][] data = createData(rows, columns, rows * 1000 + columns);
+		byte[][] indices = plot.calculateColorIndices(data, levels);
+		String message = rows + "x" + columns + " in " + (xMaximum - xMinimum) + "x" + (yMaximum - yMinimum);
+		assertSame(message, draw(plot, false, xMinimum, xMaximum, yMinimum, yMaximum, colors, data, indices),
+				draw(plot, true, xMinimum, xMaximum, yMinimum, yMaximum, colors, data, indices));
+		// and without the color indices
+		assertSame(message, draw(plot, false, xMinimum, xMaximum, yMinimum, yMaximum, colors, data, null),
+				draw(plot, true, xMinimum, xMaximum, yMinimum, yMaximum, colors, data, null));
+	}
+
+	public void testIntegerZoom() {
+		compare(40, 60, 20, 620, 10, 410);
+		compare(100, 150, 30, 630, 20, 420);
+		compare(1, 1, 20, 100, 20, 100);
+	}
+
+	public void testFractionalZoom() {
+		compare(37, 53, 17, 611, 13, 399);
+		compare(300, 500, 25, 625, 10, 370);
+		compare(3, 7, 11, 600, 9, 480);
+	}
+
+	public void testPaletteChange() {
+		TilePlot plot = new TilePlot(new GregorianCalendar(), 3600000);
+		float[][] data = createData(50, 70, 7);
+		byte[][] indices = plot.calculateColorIndices(data, levels);
+		draw(plot, true, 10, 610, 10, 440, colors, data, indices);
+
+		// the cached indices are drawn with the new colors
+		Color[] reversed = new Color[colors.length];
+		for (int i = 0; i < colors.length; i++)
+			reversed[i] = colors[colors.length - 1 - i];
+		assertSame("reversed", draw(plot, false, 10, 610, 10, 440, reversed, data, indices),
+				draw(plot, true, 10, 610, 10, 440, reversed, data, indices));
+
+		// including colors that are the same object as the background
+		Color[] shared = colors.clone();
+		shared[3] = shared[0];
+		shared[5] = Color.WHITE;
+		assertSame("shared", draw(plot, false, 10, 610, 10, 440, shared, data, indices),
+				draw(plot, true, 10, 610, 10, 440, shared, data, indices));
+
+		// and changed in place
+		indices[20][30] = (byte) ((indices[20][30] + 1) % colors.length);
+		assertSame("changed", draw(plot, false, 10, 610, 10, 440, colors, data, indices),
+				draw(plot, true, 10, 610, 10, 440, colors, data, indices));
+	}
+
+	public void testEpsExportUsesRectangles() throws IOException {
+		TilePlot plot = new TilePlot(new GregorianCalendar(), 3600000);
+		float[][] data = createData(40, 60, 11);
+		CountingEpsGraphics graphics = new CountingEpsGraphics();
+		plot.drawGridCells(graphics, 20, 620, 10, 410, 0, data.length - 1, 0, data[0].length - 1, levels,
+				colors, data, plot.calculateColorIndices(data, levels));
+		graphics.close();
+		assertEquals(0, graphics.images);
+		// the background, then the runs of other colors
+		assertTrue(graphics.rectangles > 1);
+	}
+
+	// counts the grid cells drawn as rectangles and as images
+	private static class CountingEpsGraphics extends EpsGraphics {
+
+		int rectangles = 0, images = 0;
+
+		CountingEpsGraphics() throws IOException {
+			super("test", new ByteArrayOutputStream(), 0, 0, IMAGE_WIDTH, IMAGE_HEIGHT, ColorMode.COLOR_RGB);
+		}
+
+		@Override
+		public void fillRect(int x, int y, int width, int height) {
+			rectangles++;
+			super.fillRect(x, y, width, height);
+		}
+
+		@Override
+		public boolean drawImage(Image image, int x, int y, ImageObserver observer) {
+			images++;
+			return super.drawImage(image, x, y, observer);
+		}
+	}
+}
@@ -0,0 +1,505 @@
+package anl.verdi.loaders;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.MAMath;
+import ucar.nc2.dataset.CoordinateAxis;
+import ucar.nc2.dataset.CoordinateAxis1DTime;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+import ucar.nc2.time.CalendarDate;
+import anl.verdi.data.AbstractDataset;
+import anl.verdi.data.Axes;
+import anl.verdi.data.AxisType;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.Dataset;
+import anl.verdi.data.DatasetMetadata;
+import anl.verdi.data.DefaultVariable;
+import anl.verdi.data.Variable;
+
+/**
+ * Dataset made of several netcdf files on the same grid that follow one
+ * another in time, such as the daily files of a month long model run. The
+ * files are presented as one dataset whose time axis is the time steps of
+ * all the files in order, so that a formula can span the whole run.
+ * <p>
+ * The grid, variables and metadata are those of the first file, which is
+ * kept open. The other files are checked against it when the dataset is
+ * created, and afterwards only opened when a read touches their time
+ * steps, a few at a time: the least recently read file is closed when
+ * more than {@link #getMaxOpenFiles()} are open. A time step a file shares
+ * with the file before it, like the hour 24 of a daily CMAQ file, is taken
+ * from the earlier file.
+ */
+public class AggregatedNetcdfDataset extends AbstractDataset {
+
+	/**
+	 * System property that sets how many of the aggregated
+	 * files, besides the first, may be open at once.
+	 */
+	public static final String MAX_OPEN_FILES_PROPERTY = "verdi.aggregate.maxOpenFiles";
+
+	static final Logger Logger = LogManager.getLogger(AggregatedNetcdfDataset.class.getName());
+
+	private static final int DEFAULT_MAX_OPEN_FILES = 4;
+
+	private List<URL> fileURLs;
+	private GridDataset template;
+	private GridNetcdfDataset templateSet;
+	// global index of the first step taken from each file, plus the total
+	private int[] firstStep;
+	// index in each file of its first step taken
+	private int[] skipped;
+	private String timeDimension;
+	private Map<String, String> dimensions = new LinkedHashMap<String, String>();
+	private Axes<CoordAxis> coordAxes;
+	private List<Variable> vars = new ArrayList<Variable>();
+	private OpenFiles openFiles = new OpenFiles(getMaxOpenFiles());
+	private String name = "";
+	private int conv = -1;
+
+	/**
+	 * Creates an AggregatedNetcdfDataset from the specified files. The files
+	 * are put in the order of their first time step.
+	 *
+	 * @param url      the url of the dataset, e.g. of the file listing the files
+	 * @param fileURLs the urls of the netcdf files
+	 * @throws IOException if a file cannot be read, has no time axis or is
+	 *                     not on the grid of the first file
+	 */
+	public AggregatedNetcdfDataset(URL url, List<URL> fileURLs) throws IOException {
+		super(url);
+		if (fileURLs.isEmpty()) throw new IOException("No files to aggregate in " + url);
+		// only the file the others are checked against is kept open
+		List<FileSteps> files = new ArrayList<FileSteps>();
+		FileSteps reference = null;
+		try {
+			for (URL fileURL : fileURLs) {
+				FileSteps file = readSteps(fileURL);
+				files.add(file);
+				if (reference == null) {
+					reference = file;
+				} else {
+					try {
+						checkGrid(reference, file);
+					} finally {
+						file.close();
+					}
+				}
+			}
+			Collections.sort(files, new Comparator<FileSteps>() {
+				public int compare(FileSteps o1, FileSteps o2) {
+					return Long.compare(o1.times[0], o2.times[0]);
+				}
+			});
+			FileSteps first = files.get(0);
+			if (first != reference) {
+				reference.close();
+				reference = first;
+				first.gridDataset = GridDataset.open(first.url.toExternalForm());
+			}
+			init(files);
+		} catch (IOException ex) {
+			if (reference != null) reference.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Gets how many of the aggregated files, besides the first,
+	 * may be open at once.
+	 *
+	 * @return the maximum number of open files.
+	 */
+	public static int getMaxOpenFiles() {
+		String val = System.getProperty(MAX_OPEN_FILES_PROPERTY);
+		if (val != null && !val.trim().isEmpty()) {
+			try {
+				return Math.max(1, Integer.parseInt(val.trim()));
+			} catch (NumberFormatException ex) {
+				Logger.warn("Invalid value '" + val + "' for " + MAX_OPEN_FILES_PROPERTY + ", using " + DEFAULT_MAX_OPEN_FILES);
+			}
+		}
+		return DEFAULT_MAX_OPEN_FILES;
+	}
+
+	// opens the file to read its time steps and grid
+	private FileSteps readSteps(URL fileURL) throws IOException {
+		GridDataset gridDataset = GridDataset.open(fileURL.toExternalForm());
+		try {
+			List<GridDatatype> grids = gridDataset.getGrids();
+			if (grids.isEmpty()) throw new IOException(fileURL + " has no gridded variables");
+			GridCoordSystem system = grids.get(0).getCoordinateSystem();
+			CoordinateAxis1DTime timeAxis = system.getTimeAxis1D();
+			if (timeAxis == null || timeAxis.getSize() == 0) throw new IOException(fileURL + " has no time axis");
+			List<CalendarDate> dates = timeAxis.getCalendarDates();
+			long[] times = new long[dates.size()];
+			for (int i = 0; i < times.length; i++) {
+				times[i] = dates.get(i).getMillis();
+			}
+			return new FileSteps(fileURL, gridDataset, times);
+		} catch (IOException ex) {
+			gridDataset.close();
+			throw ex;
+		} catch (RuntimeException ex) {
+			gridDataset.close();
+			throw new IOException("Error reading the time axis of " + fileURL, ex);
+		}
+	}
+
+	private void init(List<FileSteps> files) throws IOException {
+		FileSteps first = files.get(0);
+		template = first.gridDataset;
+		fileURLs = new ArrayList<URL>();
+		firstStep = new int[files.size() + 1];
+		skipped = new int[files.size()];
+		List<Long> times = new ArrayList<Long>();
+		for (int f = 0; f < files.size(); f++) {
+			FileSteps file = files.get(f);
+			fileURLs.add(file.url);
+			firstStep[f] = times.size();
+			int skip = 0;
+			while (skip < file.times.length && !times.isEmpty() && file.times[skip] <= times.get(times.size() - 1)) {
+				skip++;
+			}
+			skipped[f] = skip;
+			for (int i = skip; i < file.times.length; i++) {
+				times.add(file.times[i]);
+			}
+		}
+		firstStep[files.size()] = times.size();
+		long[] allTimes = new long[times.size()];
+		for (int i = 0; i < allTimes.length; i++) {
+			allTimes[i] = times.get(i);
+		}
+
+		List<GridDatatype> grids = new ArrayList<GridDatatype>();
+		GridCoordSystem system = ((GridDatatype) template.getGrids().get(0)).getCoordinateSystem();
+		for (GridDatatype grid : (List<GridDatatype>) template.getGrids()) {
+			if (grid.getCoordinateSystem() == system) grids.add(grid);
+		}
+		if (grids.size() < template.getGrids().size()) {
+			Logger.warn("Only the variables on the grid of " + grids.get(0).getName() + " are aggregated");
+		}
+		templateSet = new GridNetcdfDataset(first.url, grids, template);
+
+		NetcdfDataset netDataset = template.getNetcdfDataset();
+		List<CoordAxis> axes = new ArrayList<CoordAxis>();
+		for (CoordAxis axis : templateSet.getCoordAxes().getAxes()) {
+			CoordinateAxis ncAxis = netDataset.findCoordinateAxis(axis.getName());
+			String dimension = ncAxis.getDimension(0).getShortName();
+			dimensions.put(axis.getName(), dimension);
+			if (axis.getAxisType() == AxisType.TIME) {
+				timeDimension = dimension;
+				axes.add(new AggregatedTimeAxis((NetcdfTimeAxis) axis, allTimes));
+			} else {
+				axes.add(axis);
+			}
+		}
+		coordAxes = new Axes<CoordAxis>(axes, templateSet.getCoordAxes().getBoundingBoxer());
+		for (Variable var : templateSet.getVariables()) {
+			vars.add(new DefaultVariable(var.getName(), var.getDescription(), var.getUnit(), this));
+		}
+	}
+
+	// the file must have the first file's variables, on a grid of the same size
+	private void checkGrid(FileSteps reference, FileSteps file) throws IOException {
+		for (GridDatatype grid : (List<GridDatatype>) reference.gridDataset.getGrids()) {
+			GridDatatype other = file.gridDataset.findGridDatatype(grid.getName());
+			if (other == null) {
+				throw new IOException(file.url + " does not have the variable " + grid.getName()
+								+ " of " + reference.url);
+			}
+			if (grid.getXDimension() != null && other.getXDimension() == null
+							|| grid.getXDimension() != null && grid.getXDimension().getLength() != other.getXDimension().getLength()
+							|| grid.getYDimension() != null && other.getYDimension() == null
+							|| grid.getYDimension() != null && grid.getYDimension().getLength() != other.getYDimension().getLength()
+							|| grid.getZDimension() != null && other.getZDimension() == null
+							|| grid.getZDimension() != null && grid.getZDimension().getLength() != other.getZDimension().getLength()) {
+				throw new IOException(file.url + " is not on the same grid as " + reference.url);
+			}
+		}
+	}
+
+	/**
+	 * Gets the urls of the aggregated files, in time order.
+	 *
+	 * @return the urls of the aggregated files.
+	 */
+	public List<URL> getFileURLs() {
+		return Collections.unmodifiableList(fileURLs);
+	}
+
+	/**
+	 * Gets the list of variable names in this Dataset.
+	 *
+	 * @return the list of variable names in this Dataset.
+	 */
+	public List<String> getVariableNames() {
+		List<String> names = new ArrayList<String>();
+		for (Variable var : vars) {
+			names.add(var.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * Gets the named variable.
+	 *
+	 * @param name the name of the variable to get
+	 * @return the named variable
+	 */
+	@Override
+	public Variable getVariable(String name) {
+		for (Variable var : vars) {
+			if (var.getName().equals(name))
+				return var;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the variables contained by this dataset.
+	 *
+	 * @return the variables contained by this dataset.
+	 */
+	@Override
+	public List<Variable> getVariables() {
+		return vars;
+	}
+
+	/**
+	 * Gets the coordinate Axes for this Dataset.
+	 *
+	 * @return the coordinate Axes for this Dataset.
+	 */
+	@Override
+	public Axes<CoordAxis> getCoordAxes() {
+		return coordAxes;
+	}
+
+	/**
+	 * Sets the alias for this Dataset.
+	 *
+	 * @param alias the alias for this Dataset.
+	 */
+	@Override
+	public void setAlias(String alias) {
+		super.setAlias(alias);
+		name = url.toString();
+		name = getAlias() + " " + name.substring(name.lastIndexOf("/") + 1, name.length());
+	}
+
+	/**
+	 * Gets the name of this Dataset.
+	 *
+	 * @return the name of this Dataset.
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	public int getIndexInURL() {
+		return Dataset.SINGLE_DATASET;
+	}
+
+	/**
+	 * Gets the metadata of the first file.
+	 *
+	 * @return the DatasetMetadata object
+	 */
+	public DatasetMetadata getMetadata() {
+		return new NetcdfMetadata(template);
+	}
+
+	public int getNetcdfCovn() {
+		return conv;
+	}
+
+	public void setNetcdfConv(int conv) {
+		this.conv = conv;
+	}
+
+	/**
+	 * Gets the netcdf variable of the first file corresponding to the
+	 * specified Variable. Its shape is that of a single file.
+	 */
+	ucar.nc2.Variable getVariableDS(Variable var) {
+		return templateSet.getVariableDS(var);
+	}
+
+	/**
+	 * Gets the name of the netcdf dimension of the named axis.
+	 */
+	String getDimensionName(String axisName) {
+		return dimensions.get(axisName);
+	}
+
+	/**
+	 * Gets the name of the netcdf time dimension.
+	 */
+	String getTimeDimensionName() {
+		return timeDimension;
+	}
+
+	/**
+	 * Gets the number of time steps of all the files.
+	 */
+	int getTimeStepCount() {
+		return firstStep[firstStep.length - 1];
+	}
+
+	/**
+	 * Reads a section of a variable, from the files whose time steps
+	 * the section spans.
+	 *
+	 * @param varName   the name of the variable
+	 * @param origin    the origin of the section, in the aggregated steps
+	 * @param shape     the shape of the section
+	 * @param timeIndex the index of the time dimension in the variable
+	 * @return the section.
+	 */
+	Array read(String varName, int[] origin, int[] shape, int timeIndex) throws IOException, InvalidRangeException {
+		int start = origin[timeIndex], end = start + shape[timeIndex];
+		if (start < 0 || end > getTimeStepCount()) {
+			throw new InvalidRangeException("Time steps " + start + " to " + end + " outside of 0 to " + getTimeStepCount());
+		}
+		Array result = null;
+		for (int f = fileOf(start); f < fileURLs.size() && firstStep[f] < end; f++) {
+			int from = Math.max(start, firstStep[f]);
+			int to = Math.min(end, firstStep[f + 1]);
+			if (to <= from) continue;
+			int[] fileOrigin = origin.clone();
+			fileOrigin[timeIndex] = from - firstStep[f] + skipped[f];
+			int[] fileShape = shape.clone();
+			fileShape[timeIndex] = to - from;
+			Array part = readFile(f, varName, fileOrigin, fileShape);
+			if (from == start && to == end) return part;
+			if (result == null) result = Array.factory(part.getDataType(), shape);
+			int[] resultOrigin = new int[shape.length];
+			resultOrigin[timeIndex] = from - start;
+			MAMath.copy(result.sectionNoReduce(resultOrigin, fileShape, null), part);
+		}
+		return result;
+	}
+
+	// the file the global time step is taken from
+	private int fileOf(int step) {
+		int f = 0;
+		while (f < fileURLs.size() - 1 && firstStep[f + 1] <= step) f++;
+		return f;
+	}
+
+	private Array readFile(int f, String varName, int[] origin, int[] shape) throws IOException, InvalidRangeException {
+		synchronized (openFiles) {
+			NetcdfDataset dataset = f == 0 ? template.getNetcdfDataset() : openFiles.get(f);
+			ucar.nc2.Variable varDS = dataset.findVariable(varName);
+			if (varDS == null) throw new IOException(fileURLs.get(f) + " does not have the variable " + varName);
+			return varDS.read(origin, shape);
+		}
+	}
+
+	/**
+	 * Closes this dataset. It will have to be recreated to be used again.
+	 */
+	public void close() throws IOException {
+		synchronized (openFiles) {
+			openFiles.closeAll();
+		}
+		template.close();
+	}
+
+	/**
+	 * A file's time steps and, while it is being checked, its grid.
+	 */
+	private static class FileSteps {
+		URL url;
+		GridDataset gridDataset;
+		long[] times;
+
+		FileSteps(URL url, GridDataset gridDataset, long[] times) {
+			this.url = url;
+			this.gridDataset = gridDataset;
+			this.times = times;
+		}
+
+		void close() {
+			try {
+				if (gridDataset != null) gridDataset.close();
+			} catch (IOException e) {
+				Logger.warn("Error closing " + url + ": " + e.getMessage());
+			}
+			gridDataset = null;
+		}
+	}
+
+	/**
+	 * The files other than the first that are open, least recently read first.
+	 */
+	private class OpenFiles {
+
+		private int max;
+		private LinkedHashMap<Integer, NetcdfDataset> files = new LinkedHashMap<Integer, NetcdfDataset>(16, 0.75f, true);
+
+		OpenFiles(int max) {
+			this.max = max;
+		}
+
+		NetcdfDataset get(int f) throws IOException {
+			NetcdfDataset dataset = files.get(f);
+			if (dataset == null) {
+				if (files.size() >= max) {
+					Integer eldest = files.keySet().iterator().next();
+					close(eldest, files.remove(eldest));
+				}
+				Logger.debug("Opening aggregated file " + fileURLs.get(f));
+				dataset = NetcdfDataset.openDataset(fileURLs.get(f).toExternalForm());
+				files.put(f, dataset);
+			}
+			return dataset;
+		}
+
+		void closeAll() {
+			for (Map.Entry<Integer, NetcdfDataset> entry : files.entrySet()) {
+				close(entry.getKey(), entry.getValue());
+			}
+			files.clear();
+		}
+
+		private void close(int f, NetcdfDataset dataset) {
+			try {
+				dataset.close();
+			} catch (IOException e) {
+				Logger.warn("Error closing " + fileURLs.get(f) + ": " + e.getMessage());
+			}
+		}
+
+		int size() {
+			return files.size();
+		}
+	}
+
+	/**
+	 * Gets the number of files other than the first that are open.
+	 */
+	int getOpenFileCount() {
+		synchronized (openFiles) {
+			return openFiles.size();
+		}
+	}
+}
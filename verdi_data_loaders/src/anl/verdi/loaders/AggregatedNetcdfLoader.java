@@ -0,0 +1,122 @@
+package anl.verdi.loaders;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.data.DataLoader;
+import anl.verdi.data.DataReader;
+import anl.verdi.data.Dataset;
+
+/**
+ * Loads a list of netcdf files on the same grid as one dataset with their
+ * time steps one after another. The list is a text file whose first line is
+ * {@value #HEADER}, followed by the paths of the files, one per line.
+ * Relative paths are relative to the directory of the list, and blank lines
+ * and lines starting with # are ignored. For example:
+ *
+ * <pre>
+ * # VERDI time aggregation
+ * CCTM_CONC.20160701.nc
+ * CCTM_CONC.20160702.nc
+ * </pre>
+ *
+ * @see AggregatedNetcdfDataset
+ */
+public class AggregatedNetcdfLoader implements DataLoader {
+
+	/**
+	 * The first line of a list of files to aggregate.
+	 */
+	public static final String HEADER = "# VERDI time aggregation";
+
+	static final Logger Logger = LogManager.getLogger(AggregatedNetcdfLoader.class.getName());
+
+	/**
+	 * Returns whether or not this DataLoader can handle the data at the specified
+	 * url, i.e. whether it is a list of files to aggregate.
+	 *
+	 * @param url the location of the data
+	 * @return true if this DataLoader can handle loading the data, otherwise
+	 *         false.
+	 * @throws Exception
+	 */
+	public boolean canHandle(URL url) throws Exception {
+		if (!url.getProtocol().equals("file")) return false;
+		BufferedReader reader = new BufferedReader(new FileReader(toFile(url)));
+		try {
+			// a netcdf file may not have a line break for a long way
+			char[] start = new char[HEADER.length()];
+			int read = 0, count;
+			while (read < start.length && (count = reader.read(start, read, start.length - read)) > 0) read += count;
+			return new String(start, 0, read).equalsIgnoreCase(HEADER);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Creates a Dataset from the list of files at the specified URL.
+	 *
+	 * @param url the url of the list
+	 * @return a Dataset created from the listed files.
+	 */
+	public List<Dataset> createDatasets(URL url) throws IOException {
+		List<Dataset> sets = new ArrayList<Dataset>();
+		sets.add(new AggregatedNetcdfDataset(url, readList(url)));
+		return sets;
+	}
+
+	/**
+	 * Reads the urls of the files listed in the specified list.
+	 *
+	 * @param url the url of the list
+	 * @return the urls of the listed files, in the order listed.
+	 * @throws IOException if the list cannot be read
+	 */
+	public static List<URL> readList(URL url) throws IOException {
+		File list = toFile(url);
+		List<URL> urls = new ArrayList<URL>();
+		BufferedReader reader = new BufferedReader(new FileReader(list));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				File file = new File(line);
+				if (!file.isAbsolute()) file = new File(list.getParentFile(), line);
+				if (!file.exists()) throw new IOException("File " + file + " listed in " + list + " does not exist");
+				urls.add(file.toURI().toURL());
+			}
+		} finally {
+			reader.close();
+		}
+		return urls;
+	}
+
+	private static File toFile(URL url) throws IOException {
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Creates a DataReader that can read a particular type of Dataset.
+	 *
+	 * @param set the data set
+	 * @return a DataReader created for the dataset.
+	 */
+	public DataReader createReader(Dataset set) {
+		return new AggregatedNetcdfReader((AggregatedNetcdfDataset) set);
+	}
+}
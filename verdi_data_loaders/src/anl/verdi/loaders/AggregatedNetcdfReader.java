@@ -0,0 +1,80 @@
+package anl.verdi.loaders;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import anl.verdi.data.AbstractDataReader;
+import anl.verdi.data.AxisRange;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameAxis;
+import anl.verdi.data.DataFrameBuilder;
+import anl.verdi.data.Variable;
+
+/**
+ * Reads data from an AggregatedNetcdfDataset. The frames are built as by
+ * GridNetcdfReader, from the axes of the first file with the time axis
+ * spanning all the files, and the data of each time step is read from
+ * the file it comes from.
+ */
+public class AggregatedNetcdfReader extends AbstractDataReader<AggregatedNetcdfDataset> {
+
+	static final Logger Logger = LogManager.getLogger(AggregatedNetcdfReader.class.getName());
+
+	public AggregatedNetcdfReader(AggregatedNetcdfDataset set) {
+		super(set);
+	}
+
+	private void createDefaultAxes(DataFrameBuilder builder, AggregatedNetcdfDataset set, ucar.nc2.Variable variableDS) {
+		for (CoordAxis axis : set.getCoordAxes().getAxes()) {
+			int index = variableDS.findDimensionIndex(set.getDimensionName(axis.getName()));
+			builder.addAxis(DataFrameAxis.createDataFrameAxis(axis, index));
+		}
+	}
+
+	/**
+	 * get the values for the given data parameters
+	 */
+	public DataFrame getValues(AggregatedNetcdfDataset set, List<AxisRange> ranges, Variable variable) {
+		ucar.nc2.Variable varDS = set.getVariableDS(variable);
+		if (varDS == null) return null;
+		try {
+			DataFrameBuilder builder = new DataFrameBuilder();
+			builder.addDataset(set).setVariable(variable);
+			createDefaultAxes(builder, set, varDS);
+			int rank = varDS.getRank();
+			int[] origin = new int[rank];
+			int[] shape = new int[rank];
+			// default the shape array to the extent of each rank in the
+			// variable, and of all the files for the time dimension.
+			System.arraycopy(varDS.getShape(), 0, shape, 0, rank);
+			int timeIndex = varDS.findDimensionIndex(set.getTimeDimensionName());
+			if (timeIndex >= 0) shape[timeIndex] = set.getTimeStepCount();
+			for (AxisRange axis : ranges) {
+				int dimIndex = varDS.findDimensionIndex(set.getDimensionName(axis.getName()));
+				origin[dimIndex] = axis.getOrigin();
+				shape[dimIndex] = axis.getExtent();
+				DataFrameAxis frameAxis = DataFrameAxis.createDataFrameAxis(axis.getAxis(), axis.getOrigin(), axis.getExtent(), dimIndex);
+				builder.addAxis(frameAxis);
+			}
+
+			Array array;
+			if (timeIndex >= 0) array = set.read(varDS.getShortName(), origin, shape, timeIndex);
+			else array = varDS.read(origin, shape);
+			builder.setArray(array);
+			return builder.createDataFrame();
+		} catch (IOException ie) {
+			Logger.error("IOException " + ie.getMessage());
+			ie.printStackTrace();
+		} catch (InvalidRangeException e) {
+			Logger.error("InvalidRangeException " + e.getMessage());
+			e.printStackTrace();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,104 @@
+package anl.verdi.loaders;
+
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.unitsofmeasurement.unit.Unit;
+
+import ucar.nc2.time.CalendarDateUnit;
+import anl.verdi.data.Axes;
+import anl.verdi.data.AxisType;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.Range;
+import anl.verdi.data.TimeCoordAxis;
+
+/**
+ * Time axis made of the time steps of several files, one after another.
+ * The name, description and units are those of the first file's time
+ * axis, and the values are expressed in those units.
+ */
+public class AggregatedTimeAxis implements TimeCoordAxis {
+
+	private NetcdfTimeAxis template;
+	private long[] times;
+	private double[] values;
+	private Range range;
+
+	/**
+	 * Creates an AggregatedTimeAxis.
+	 *
+	 * @param template the time axis of the first file
+	 * @param times    the time of each step, in milliseconds since the epoch
+	 */
+	public AggregatedTimeAxis(NetcdfTimeAxis template, long[] times) {
+		this.template = template;
+		this.times = times;
+		this.range = new Range(0, times.length);
+		values = new double[times.length];
+		CalendarDateUnit unit = null;
+		try {
+			unit = CalendarDateUnit.of(null, template.axis.getUnitsString());
+		} catch (IllegalArgumentException ex) {
+			// not a udunits time, the step index will have to do
+		}
+		for (int i = 0; i < times.length; i++) {
+			if (unit == null) values[i] = i;
+			else values[i] = (times[i] - unit.getBaseCalendarDate().getMillis()) / unit.getTimeUnit().getValueInMillisecs();
+		}
+	}
+
+	public GregorianCalendar getDate(int timestep) {
+		if (timestep < 0 || timestep >= times.length) return null;
+		GregorianCalendar date = new GregorianCalendar();
+		date.setTimeInMillis(times[timestep]);
+		return date;
+	}
+
+	public int getTimeStep(GregorianCalendar date) {
+		return getTimeStep(date.getTimeInMillis());
+	}
+
+	public int getTimeStep(Date date) {
+		return getTimeStep(date.getTime());
+	}
+
+	private int getTimeStep(long time) {
+		for (int i = 0; i < times.length; i++) {
+			if (times[i] == time) return i;
+		}
+		return Axes.TIME_STEP_NOT_FOUND;
+	}
+
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	public Unit getUnits() {
+		return template.getUnits();
+	}
+
+	/**
+	 * Two axes are compatible if they are both time axes of the same extent,
+	 * as for the time axis of a single file.
+	 */
+	public boolean isCompatible(CoordAxis axis) {
+		if (axis == this) return true;
+		return axis.getAxisType().equals(getAxisType()) && axis.getRange().getExtent() == range.getExtent();
+	}
+
+	public String getDescription() {
+		return template.getDescription();
+	}
+
+	public String getName() {
+		return template.getName();
+	}
+
+	public Range getRange() {
+		return range;
+	}
+
+	public AxisType getAxisType() {
+		return AxisType.TIME;
+	}
+}
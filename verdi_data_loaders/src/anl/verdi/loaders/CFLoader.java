@@ -1,12 +1,12 @@
 package anl.verdi.loaders;
 
-import anl.verdi.data.DataLoader;
 import anl.verdi.data.DataReader;
 import anl.verdi.data.Dataset;
+import anl.verdi.data.FormatProbe;
+import anl.verdi.data.ProbingDataLoader;
 import ucar.nc2.Attribute;
 import ucar.nc2.NetcdfFile;
 
-import java.net.URI;
 import java.net.URL;
 import java.util.List;
 
@@ -14,7 +14,7 @@ import java.util.List;
  * @author Todd Plessel
  * @version $Revision$ $Date$
  */
-public class CFLoader implements DataLoader {
+public class CFLoader implements ProbingDataLoader {
 
 
 	/**
@@ -25,17 +25,26 @@ public class CFLoader implements DataLoader {
 	 * @throws Exception 
 	 */
 	public boolean canHandle(URL url) throws Exception {
-		NetcdfFile file = null;
-		boolean result = false;
-
+		FormatProbe probe = new FormatProbe(url);
 		try {
-			String urlString = url.toExternalForm();
+			return canHandle(probe);
+		} finally {
+			probe.close();
+		}
+	}
 
-			if (url.getProtocol().equals("file")) {
-				urlString = new URI(urlString).getPath();
-			}
+	/**
+	 * Returns whether or not this DataLoader can read the data at the probe's url.
+	 *
+	 * @param probe the probe of the data
+	 * @return true if this DataLoader can read the data, otherwise false.
+	 * @throws Exception 
+	 */
+	public boolean canHandle(FormatProbe probe) throws Exception {
+		boolean result = false;
 
-			file = NetcdfFile.open(urlString);
+		try {
+			final NetcdfFile file = NetcdfProbe.getFile(probe);
 			final Attribute attribute =
 				file.findGlobalAttribute( "Conventions" );
 			result =
@@ -48,9 +57,6 @@ public class CFLoader implements DataLoader {
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
-		finally {
-			try { if ( file != null ) file.close(); } catch ( Exception e ) {}
-		}
 
 		return result;
 	}
@@ -63,7 +69,21 @@ public class CFLoader implements DataLoader {
 	 */
 	public List<Dataset> createDatasets(URL url) {
 		NetcdfDatasetFactory factory = new NetcdfDatasetFactory();
-		final List<Dataset> result = factory.createCFDatasets(url);
+		return removeEmpty(factory.createCFDatasets(url));
+	}
+
+	/**
+	 * Creates a Dataset from the netcdf file opened by the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return a Dataset created from the data at the probe's URL.
+	 */
+	public List<Dataset> createDatasets(FormatProbe probe) {
+		NetcdfDatasetFactory factory = new NetcdfDatasetFactory();
+		return removeEmpty(factory.createCFDatasets(probe.getURL(), NetcdfProbe.takeFile(probe)));
+	}
+
+	private List<Dataset> removeEmpty(final List<Dataset> result) {
 
 		// Remove any datasets that contain no variables:
 
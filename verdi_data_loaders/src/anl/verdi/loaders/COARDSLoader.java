@@ -1,7 +1,6 @@
 package anl.verdi.loaders;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
@@ -15,15 +14,16 @@ import ucar.nc2.Attribute;
 //import simphony.util.messages.MessageCenter;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.dataset.conv.COARDSConvention;
-import anl.verdi.data.DataLoader;
 import anl.verdi.data.DataReader;
 import anl.verdi.data.Dataset;
+import anl.verdi.data.FormatProbe;
+import anl.verdi.data.ProbingDataLoader;
 
 /**
  * @author Tony Howard
  * @version $Revision$ $Date$
  */
-public class COARDSLoader implements DataLoader {
+public class COARDSLoader implements ProbingDataLoader {
 	static final Logger Logger = LogManager.getLogger(COARDSLoader.class.getName());
 
 //	private static final MessageCenter msgCenter = MessageCenter.getMessageCenter(WRFLoader.class);
@@ -38,14 +38,27 @@ public class COARDSLoader implements DataLoader {
 	 * @throws Exception 
 	 */
 	public boolean canHandle(URL url) throws Exception {
+		FormatProbe probe = new FormatProbe(url);
+		try {
+			return canHandle(probe);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Returns whether or not this DataLoader can handle the data at the
+	 * probe's url.
+	 *
+	 * @param probe the probe of the data
+	 * @return true if this DataLoader can handle loading the data, otherwise
+	 *         false.
+	 * @throws Exception 
+	 */
+	public boolean canHandle(FormatProbe probe) throws Exception {
 		//  try to open up the file
-		NetcdfFile file = null;
 		try {
-			String urlString = url.toExternalForm();
-			if (url.getProtocol().equals("file")) {
-				urlString = new URI(urlString).getPath();
-			}
-			file = NetcdfFile.open(urlString);
+			NetcdfFile file = NetcdfProbe.getFile(probe);
 			List<Attribute> attrs = file.getGlobalAttributes();
 			for (Attribute attr : attrs) {
 				if (attr.getFullName().equalsIgnoreCase("Conventions"))
@@ -66,11 +79,6 @@ public class COARDSLoader implements DataLoader {
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
-		finally {
-			try {
-				if (file != null) file.close();
-			} catch (IOException e) {}
-		}
 
 		return false;
 	}
@@ -86,6 +94,17 @@ public class COARDSLoader implements DataLoader {
 		return factory.createCOARDSDatasets(url);
 	}
 
+	/**
+	 * Creates a Dataset from the netcdf file opened by the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return a Dataset created from the data at the probe's URL.
+	 */
+	public List<Dataset> createDatasets(FormatProbe probe) {
+		NetcdfDatasetFactory factory = new NetcdfDatasetFactory();
+		return factory.createCOARDSDatasets(probe.getURL(), NetcdfProbe.takeFile(probe));
+	}
+
 
 	/**
 	 * Creates a DataReader that can read a particular type of Dataset.
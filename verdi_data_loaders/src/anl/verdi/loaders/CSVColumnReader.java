@@ -0,0 +1,223 @@
+package anl.verdi.loaders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads selected numeric columns of a CSV file in a single pass. The file
+ * is scanned straight from a byte buffer, the values of the selected
+ * columns are parsed without creating a String for each of them and are
+ * kept in primitive arrays, and the other columns are skipped unparsed.
+ * <p>
+ * As with the StringTokenizer this replaces, empty fields are skipped, and
+ * the fields of a row that has fewer than the header are 0.
+ *
+ * @version $Revision$ $Date$
+ */
+class CSVColumnReader {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int INITIAL_ROWS = 1024;
+
+	private InputStream in;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int pos, limit;
+	private byte[] field = new byte[64];
+	private int line;
+
+	/**
+	 * Creates a CSVColumnReader reading from the specified stream. The
+	 * header is decoded with the platform's default charset.
+	 *
+	 * @param in the stream, closed by {@link #close()}
+	 */
+	CSVColumnReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads the next line as a header.
+	 *
+	 * @return the names of the columns, or null at the end of the file.
+	 * @throws IOException if the file cannot be read
+	 */
+	List<String> readHeader() throws IOException {
+		if (!fill()) return null;
+		line++;
+		List<String> names = new ArrayList<String>();
+		ByteArrayOutputStream name = new ByteArrayOutputStream();
+		while (fill()) {
+			byte c = buffer[pos++];
+			if (c == '\n') break;
+			if (c == ',' || c == '\r') {
+				if (name.size() > 0) names.add(name.toString());
+				name.reset();
+			} else {
+				name.write(c);
+			}
+		}
+		if (name.size() > 0) names.add(name.toString());
+		return names;
+	}
+
+	/**
+	 * Reads the rest of the file, keeping the values of the specified columns.
+	 * A column may be asked for more than once.
+	 *
+	 * @param columns the indices of the columns to keep
+	 * @return the values of each of the columns, in the order asked for.
+	 * @throws IOException if the file cannot be read
+	 * @throws NumberFormatException if a value to keep is not a number
+	 */
+	Column[] readColumns(int[] columns) throws IOException {
+		Column[] result = new Column[columns.length];
+		for (int i = 0; i < columns.length; i++) result[i] = new Column();
+
+		while (fill()) {
+			line++;
+			int column = 0;
+			boolean blank = true;
+			while (fill()) {
+				byte c = buffer[pos];
+				if (c == '\n') {
+					pos++;
+					break;
+				}
+				if (c == ',' || c == '\r') {
+					pos++;
+					continue;
+				}
+				blank = false;
+				boolean keep = false;
+				for (int i = 0; i < columns.length && !keep; i++) keep = columns[i] == column;
+				if (keep) {
+					double value = parseField();
+					for (int i = 0; i < columns.length; i++) {
+						if (columns[i] == column) result[i].set(value);
+					}
+				} else {
+					skipField();
+				}
+				column++;
+			}
+			if (blank) continue;
+			for (Column col : result) col.endRow();
+		}
+		return result;
+	}
+
+	private void skipField() throws IOException {
+		while (fill() && !isDelimiter(buffer[pos])) pos++;
+	}
+
+	private static boolean isDelimiter(byte c) {
+		return c == ',' || c == '\n' || c == '\r';
+	}
+
+	// parses the number at the current position
+	private double parseField() throws IOException {
+		int start = pos;
+		while (pos < limit && !isDelimiter(buffer[pos])) pos++;
+		byte[] text = buffer;
+		int end = pos;
+		if (pos == limit) {
+			// a field split across two buffers is copied as it is read
+			int length = 0;
+			while (true) {
+				int count = pos - start;
+				if (length + count > field.length) field = Arrays.copyOf(field, Math.max(field.length * 2, length + count));
+				System.arraycopy(buffer, start, field, length, count);
+				length += count;
+				if (pos < limit || !fill()) break;
+				start = pos;
+				while (pos < limit && !isDelimiter(buffer[pos])) pos++;
+			}
+			text = field;
+			start = 0;
+			end = length;
+		}
+		try {
+			return NumberParser.parse(text, start, end);
+		} catch (NumberFormatException ex) {
+			throw new NumberFormatException("Invalid number '" + new String(text, start, end - start).trim() + "' at line " + line);
+		}
+	}
+
+	// makes sure there is a byte at pos, returning false at the end of the file
+	private boolean fill() throws IOException {
+		if (pos < limit) return true;
+		int count = 0;
+		while (count == 0) count = in.read(buffer, 0, buffer.length);
+		pos = 0;
+		limit = Math.max(count, 0);
+		return count > 0;
+	}
+
+	/**
+	 * Gets the number of lines read so far.
+	 *
+	 * @return the number of lines read so far.
+	 */
+	int getLineNumber() {
+		return line;
+	}
+
+	void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * The values of a column, in a primitive array that grows as rows are
+	 * added.
+	 */
+	static class Column {
+
+		private double[] values = new double[INITIAL_ROWS];
+		private int size;
+		private double current;
+
+		void set(double value) {
+			current = value;
+		}
+
+		void endRow() {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = current;
+			current = 0;
+		}
+
+		/**
+		 * Gets the number of values in the column.
+		 *
+		 * @return the number of values in the column.
+		 */
+		int size() {
+			return size;
+		}
+
+		double get(int row) {
+			return values[row];
+		}
+
+		/**
+		 * Gets the distinct values of the column in ascending order, as
+		 * ordered by Arrays.sort.
+		 *
+		 * @return the distinct values of the column.
+		 */
+		double[] uniqueValues() {
+			double[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			int count = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				if (count == 0 || Double.doubleToLongBits(sorted[i]) != Double.doubleToLongBits(sorted[count - 1]))
+					sorted[count++] = sorted[i];
+			}
+			return Arrays.copyOf(sorted, count);
+		}
+	}
+}
@@ -1,18 +1,12 @@
 package anl.verdi.loaders;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.StringTokenizer;
 
 import org.apache.logging.log4j.LogManager;		// 2014
 import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println with logger messages
@@ -62,12 +56,9 @@ public class CSVDataset extends AbstractDataset {
   private Map<String,String> columnNameMap;
   private String[] fields = {"Time Axis Column","X Axis Column","Y Axis Column","Layer Axis Column","Value Axis Column"};
 	
-	Map<String,Double[]> dataMap;
 	Map<String,Double[]> axesMap;
 	private ArrayDouble.D4 array;
 
-	Map<String,Map<Double,Integer>> axesPosMap;
-
 	/**
 	 * Creates a CSVDataset from the specified url,
 	 *
@@ -111,25 +102,17 @@ public class CSVDataset extends AbstractDataset {
 
 	
 	private void loadColumnHeaders(URL url) throws IOException {
-		// Read in the column headers from the CSV file and check
-		// the size of the data in the file (rows and columns)
-		
-		BufferedReader buf  = new BufferedReader(new InputStreamReader(url.openStream()));
-		columnNames = new ArrayList<String>();
-
-		// Grab the column names from the first line
-		String line = buf.readLine();
-		StringTokenizer st = new StringTokenizer(line,","); 
-
-		while (st.hasMoreTokens())
-			columnNames.add(st.nextToken());
-
-		// count num of rows to allocate storage  
-		while (buf.readLine() != null)
-			numRows++;
+		// Read in the column headers from the CSV file, the data
+		// is only read once the columns to use are known
+		CSVColumnReader reader = new CSVColumnReader(url.openStream());
+		try {
+			columnNames = reader.readHeader();
+		} finally {
+			reader.close();
+		}
+		if (columnNames == null)
+			throw new IOException("No column headers in " + url);
 		numCols = columnNames.size();
-
-		buf.close();
 	}
 
 	private void load(URL url) throws IOException {
@@ -137,104 +120,50 @@ public class CSVDataset extends AbstractDataset {
 		// Loads data from the CSV file and create the NetCDF Array object 
 		// based on the user's data mappings from the CSV dialog.
 		
-		// Read in the data from the CSV file and store in a 2D
-		// double array 
-		double data[][] = new double[numRows][numCols];
-
-		BufferedReader buf  = new BufferedReader(new InputStreamReader(url.openStream()));
-		String line;
-		StringTokenizer st;
-  
-		buf  = new BufferedReader(new InputStreamReader(url.openStream()));  
-		buf.readLine();                     // skip column headers
-
-		int row = 0;
-		int col = 0;
-		while((line = buf.readLine()) != null){
-			st = new StringTokenizer(line,",");
-			col = 0;
-			while (st.hasMoreTokens()){
-				data[row][col] = new Double(st.nextToken());
-				col++;
-			}
-			row++;
-		}
-		buf.close(); 
-
-
-		// build a map of <name, data> for easier access
-		dataMap = new HashMap<String,Double[]>();
-		col = 0;
-		for (String varName : columnNames){
-			Double d[] = new Double[numRows];
-
-			for (int i=0; i<numRows; i++)
-				d[i] = data[i][col];
-
-			dataMap.put(varName, d);
-
-			col++;
+		// Read in the columns mapped to the fields in a single pass,
+		// skipping the others
+		int[] columns = new int[fields.length];
+		for (int i = 0; i < fields.length; i++)
+			columns[i] = columnNames.lastIndexOf(columnNameMap.get(fields[i]));
+
+		CSVColumnReader reader = new CSVColumnReader(url.openStream());
+		CSVColumnReader.Column[] data;
+		try {
+			reader.readHeader();                // skip column headers
+			data = reader.readColumns(columns);
+		} finally {
+			reader.close();
 		}
+		numRows = data[0].size();
 
-		// Create the NetCDF Array object
-		ArrayList<Double> list;
-		axesMap = new HashMap<String,Double[]>();
-		axesPosMap = new HashMap<String, Map<Double,Integer>>();
-		Double[] axesData;
-		Map<Double,Integer> posMap;
-		int cnt;
-		int[] dim = new int[4];
-		
-		
 		// Loop over all axis and build a unique set for each.  Since the
 		// CSV data will probably contain multiple entries for each axis data,
 		// we should build an array containing only the unique values,
 		// ie [1,2,3...etc].
+		axesMap = new HashMap<String,Double[]>();
+		double[][] axesData = new double[fields.length - 1][];
+		int[] dim = new int[4];
 		for (int i=0; i< fields.length-1; i++){  // Don't grab the value field
-					
-			// Get the entire axis column data from the data map (raw CSV data)
-			list = new ArrayList(Arrays.asList(dataMap.get(columnNameMap.get(fields[i]))));
-		
-			// Make a unique set
-			Set<Double> set = new HashSet<Double>();
-			set.addAll(list);
-			list.clear();
-			list.addAll(set);
-			Collections.sort(list);
-			dim[i] = list.size();  // new array of size of unique axis data values
-
-			// Also record the position of the data in the list for later retrieval
-			// since the data in the CSV file may not be ordered sequentially wrt
-			// the axis data
-			axesData = new Double[dim[i]];
-			posMap = new HashMap<Double,Integer>();
-			cnt=0;
-			for (Double d : list){
-				axesData[cnt] = d;
-				posMap.put(d, cnt);
-				cnt++;
-			}
-			axesMap.put(columnNameMap.get(fields[i]), axesData);
-			axesPosMap.put(columnNameMap.get(fields[i]), posMap);
+			axesData[i] = data[i].uniqueValues();
+			dim[i] = axesData[i].length;
+
+			Double[] values = new Double[dim[i]];
+			for (int j = 0; j < dim[i]; j++)
+				values[j] = axesData[i][j];
+			axesMap.put(columnNameMap.get(fields[i]), values);
 		}
 		
 		array = new ArrayDouble.D4(dim[0],dim[1],dim[2],dim[3]);
 		
-		// Now actually build the NetCDF Array object
-		
-		double[] csvData = new double[5];
-		int[] csvDataLoc = new int[5];
-		
+		// Now actually build the NetCDF Array object, finding the position
+		// of each row on the axes since the data in the CSV file may not be
+		// ordered sequentially wrt the axis data
+		double[] storage = (double[]) array.getStorage();
 		for (int i=0; i<numRows; i++){   // loop over each row in csv data
-		
-			for (int j=0; j< csvData.length; j++){
-				csvData[j] = dataMap.get(columnNameMap.get(fields[j]))[i];
-				if (j < csvData.length - 1)
-				  csvDataLoc[j] = (Integer)((Map)(axesPosMap.get(columnNameMap.get(fields[j])))).get(csvData[j]);
-			}
-				
-			// Set the data in the CDF Array type
-			array.set(csvDataLoc[0],csvDataLoc[1],csvDataLoc[2],csvDataLoc[3], csvData[4]);
+			int index = 0;
+			for (int j = 0; j < dim.length; j++)
+				index = index * dim[j] + Arrays.binarySearch(axesData[j], data[j].get(i));
+			storage[index] = data[4].get(i);
 		}
 	}
 
@@ -364,10 +293,6 @@ public class CSVDataset extends AbstractDataset {
 		return name;
 	}
 
-	public Map<String, Double[]> getDataMap() {
-		return dataMap;
-	}
-
 	public ArrayDouble.D4 getArray() {
 		return array;
 	}
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -44,6 +45,7 @@ import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dataset.NetcdfDataset;
 import anl.verdi.area.target.TargetCalculator;
 import anl.verdi.data.AbstractDataset;
+import anl.verdi.data.ArrayCache;
 import anl.verdi.data.ArrayReader;
 import anl.verdi.data.Axes;
 import anl.verdi.data.AxisType;
@@ -870,15 +872,17 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		KNOWN_UNITS.put("xice", "-");		
 	}
 	
-	Map<String, Array> arrayCache = new HashMap<String, Array>();
+	// shared with the other datasets and bounded in size, so slices read
+	// for animations etc. don't accumulate until the dataset is closed
+	ArrayCache arrayCache = ArrayCache.getInstance();
 	public Array read(String name) throws IOException {
-		Array ret = arrayCache.get(name);
+		Array ret = arrayCache.get(this, name);
 		if (ret != null)
 			return ret;
 		ucar.nc2.Variable var = getVariableDS(getVariable(name));
 		if (var != null) {
 			ret = var.read();
-			arrayCache.put(name, ret);
+			arrayCache.put(this, name, ret);
 		}
 		return ret;
 	}
@@ -886,17 +890,17 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	public Array read(String name, int[] origin, int[] shape) throws IOException, InvalidRangeException {
 		if (origin == null && shape == null)
 			return read(name);
-		String key = name;
-		if (origin != null)
-			key += "." + Arrays.toString(origin);
-		if (shape != null)
-			key += "." + Arrays.toString(shape);
-		Array ret = arrayCache.get(key);
+		ucar.nc2.Variable var = getVariableDS(getVariable(name));
+		if (origin == null)
+			origin = new int[var.getRank()];
+		if (shape == null)
+			shape = var.getShape();
+		// served from any cached slice, or the whole variable, that contains it
+		Array ret = arrayCache.get(this, name, origin, shape);
 		if (ret != null)
 			return ret;
-		ucar.nc2.Variable var = getVariableDS(getVariable(name));
 		ret = var.read(origin, shape);
-		arrayCache.put(key, ret);
+		arrayCache.put(this, name, origin, shape, ret);
 		return ret;
 	}
 	
@@ -1373,7 +1377,8 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		cellsToRenderList = null;
 		allCells = null;
 		splitCells = null;
-		arrayCache.clear();
+		arrayCache.clear(this);
+		Logger.debug(arrayCache);
 		// BUG: since gridDataset can be shared among several GridNetcdfDataset objects,
 		// it needs a reference count to avoid closing the Netcdf file when the user deletes
 		// one of the Datasets.
@@ -1491,6 +1496,14 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		return calculator.getMinMaxInfo(listener);
 	}
 
+	@Override
+	public Future<MinMaxInfo> getFinalPlotMinMax(DataFrame variable) {
+		MPASMinMaxCalculator calculator = getLevelCalculator(variable);
+		if (calculator == null)
+			return null;
+		return calculator.getFinalMinMaxInfo();
+	}
+
 	@Override
 	public MinMaxInfo getLayerMinMax(DataFrame variable, int layer, MinMaxLevelListener listener) {
 		MPASMinMaxCalculator calculator = getLevelCalculator(variable);
@@ -1507,6 +1520,13 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		return calculator.getTimestepMinMax(layer, timestep);
 	}
 
+	@Override
+	public void prioritizeMinMax(DataFrame variable, int layer, int timestep) {
+		MPASMinMaxCalculator calculator = getLevelCalculator(variable);
+		if (calculator != null)
+			calculator.prioritizeLayer(layer, timestep);
+	}
+
 	@Override
 	public CoordAxis getTimeAxis(String variable) {
 		List<CoordAxis> axisList = coordAxes.getAxes();
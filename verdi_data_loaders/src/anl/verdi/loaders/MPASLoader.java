@@ -8,7 +8,6 @@
 package anl.verdi.loaders;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.List;
@@ -22,15 +21,16 @@ import ucar.nc2.Dimension;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.conv.MPASConvention;
-import anl.verdi.data.DataLoader;
 import anl.verdi.data.DataReader;
 import anl.verdi.data.Dataset;
+import anl.verdi.data.FormatProbe;
+import anl.verdi.data.ProbingDataLoader;
 
 /**
  * @author Tony Howard
  * @version $Revision$ $Date$
  */
-public class MPASLoader implements DataLoader {
+public class MPASLoader implements ProbingDataLoader {
 	static final Logger Logger = LogManager.getLogger(MPASLoader.class.getName());
 
 //	private static final MessageCenter msgCenter = MessageCenter.getMessageCenter(Models3Loader.class);
@@ -45,22 +45,28 @@ public class MPASLoader implements DataLoader {
 	 * @throws Exception 
 	 */
 	public boolean canHandle(URL url) throws Exception {
-		//  try to open up the file
-		NetcdfFile file = null;
+		FormatProbe probe = new FormatProbe(url);
 		try {
-			String urlString = url.toExternalForm();
-			if (url.getProtocol().equals("file")) {
-				urlString = new URI(urlString).getPath();
-			}
-			file = NetcdfFile.open(urlString);
-			return (MPASConvention.isMine(file) && hasDimensions(file)) || hasAllAttributes(file);
-		}
-		finally {
-			try {
-				if (file != null) file.close();
-			} catch (IOException e) {}
+			return canHandle(probe);
+		} finally {
+			probe.close();
 		}
 	}
+
+	/**
+	 * Returns whether or not this DataLoader can handle the data at the
+	 * probe's url.
+	 *
+	 * @param probe the probe of the data
+	 * @return true if this DataLoader can handle loading the data, otherwise
+	 *         false.
+	 * @throws Exception 
+	 */
+	public boolean canHandle(FormatProbe probe) throws Exception {
+		//  try to open up the file
+		NetcdfFile file = NetcdfProbe.getFile(probe);
+		return (MPASConvention.isMine(file) && hasDimensions(file)) || hasAllAttributes(file);
+	}
 	
 	private static Set<String> requiredVarList = new HashSet<String>();
 	
@@ -132,6 +138,18 @@ public class MPASLoader implements DataLoader {
 		return factory.createMPASDatasets(url);
 	}
 
+	/**
+	 * Creates a Dataset from the netcdf file opened by the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return a Dataset created from the data at the probe's URL.
+	 * @throws IOException 
+	 */
+	public List<Dataset> createDatasets(FormatProbe probe) throws IOException {
+		NetcdfDatasetFactory factory = new NetcdfDatasetFactory();
+		return factory.createMPASDatasets(probe.getURL(), NetcdfProbe.takeFile(probe));
+	}
+
 	/**
 	 * Creates a DataReader that can read a particular type of Dataset.
 	 *
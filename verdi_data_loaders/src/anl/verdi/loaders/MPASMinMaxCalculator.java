@@ -1,5 +1,5 @@
 /**
- * MPASMinMaxCalculator - Calculates minimum and maximum values of an unstructured grid in a background thread
+ * MPASMinMaxCalculator - Calculates minimum and maximum values of an unstructured grid in the background
  * 			and notifies listeners as min/max values are updated
  *
  * @author Tony Howard
@@ -8,9 +8,19 @@
 
 package anl.verdi.loaders;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
@@ -18,218 +28,373 @@ import anl.verdi.data.MPASDataFrameIndex;
 import anl.verdi.plot.data.IMPASDataset;
 import anl.verdi.plot.data.MinMaxInfo;
 import anl.verdi.plot.data.MinMaxLevelListener;
+import anl.verdi.util.SharedPool;
+
+/**
+ * The min/max of each layer and timestep of a frame is calculated as a
+ * separate step on threads shared by all calculators, so opening several
+ * plots at once shares the processors rather than starting a thread each.
+ * Each step is its own task, and a task queues the next step of its
+ * calculator behind the steps already queued, so the steps of several
+ * calculators take turns rather than one plot waiting for another. Steps
+ * are claimed with a compare and set on their state and their results are
+ * kept in primitive arrays indexed by step, so reading them takes no lock.
+ * The steps callers have asked for, most recent first, are taken before
+ * the rest in order. Listeners are told of each step in the order the steps
+ * are merged, by one thread at a time and without holding a lock, and are
+ * never waited for; callers that need the final min/max wait on
+ * getFinalMinMaxInfo.
+ */
+public class MPASMinMaxCalculator {
+
+	/**
+	 * System property that sets the default number of steps calculated at
+	 * once by all calculators together.
+	 */
+	public static final String PARALLELISM_PROPERTY = "verdi.minmax.parallelism";
+
+	static final Logger Logger = LogManager.getLogger(MPASMinMaxCalculator.class.getName());
+
+	private static final int PENDING = 0, RUNNING = 1, DONE = 2;
+
+	private static final SharedPool pool = new SharedPool("MPAS min/max", PARALLELISM_PROPERTY, false);
 
-public class MPASMinMaxCalculator implements Runnable {
-		
 	IMPASDataset ds = null;
-	
-	int timeOrigin = 0;
+
 	int numTimesteps = 1;
-	int layerOrigin = 0;
 	int numLayers = 1;
 	int numCells = 1;
-	
-	int cellsInLayer = 1;
-		
+	int steps = 1;
+
 	MinMaxInfo plotInfo = null;
+	MinMaxInfo[] layerInfo = null;
 	DataFrame dataFrame = null;
-	
-	boolean calcDone = false;
-	
-	long layerUpdate = 0;
-	long plotUpdate = 0;
-	
+
+	volatile long layerUpdate = 0;
+	volatile long plotUpdate = 0;
+
 	boolean isLog = false;
-	
-	Vector<MinMaxLevelListener> listeners = new Vector<MinMaxLevelListener>();
-	
+
+	// per step, indexed by layer * numTimesteps + timestep. The min/max
+	// of a step are written before its state is set to DONE.
+	private AtomicIntegerArray state;
+	private double[] stepMin, stepMax;
+	private int[] stepMinIndex, stepMaxIndex;
+	// notified when a step is done, for callers waiting on a step
+	private Object stepLock = new Object();
+
+	// the next step to take in order, and steps asked for by callers
+	private AtomicInteger nextStep = new AtomicInteger();
+	private ConcurrentLinkedDeque<Integer> priority = new ConcurrentLinkedDeque<Integer>();
+	private AtomicInteger remaining;
+	// run once the last step has been told to the listeners
+	private FutureTask<MinMaxInfo> completion = new FutureTask<MinMaxInfo>(new Callable<MinMaxInfo>() {
+		public MinMaxInfo call() {
+			return plotInfo;
+		}
+	});
+
+	List<MinMaxLevelListener> listeners = new CopyOnWriteArrayList<MinMaxLevelListener>();
+	// held while a step is merged and its update queued, so updates are
+	// queued in the order the steps are merged
+	private Object fireLock = new Object();
+	private ConcurrentLinkedQueue<Update> updates = new ConcurrentLinkedQueue<Update>();
+	private AtomicBoolean delivering = new AtomicBoolean();
+
 	public MPASMinMaxCalculator(IMPASDataset ds, DataFrame frame) {
 		this.ds = ds;
 		this.dataFrame = frame;
 		this.isLog = frame.getArray().getClass().getName().endsWith("Log");
 
 		CoordAxis axis = frame.getAxes().getTimeAxis();
-		if (axis != null) {
-			timeOrigin = (int)axis.getRange().getOrigin();
+		if (axis != null)
 			numTimesteps = (int)axis.getRange().getExtent();
-		}
 		axis = frame.getAxes().getZAxis();
-		if (axis != null) {
-			layerOrigin = (int)axis.getRange().getOrigin();
+		if (axis != null)
 			numLayers = (int)axis.getRange().getExtent();
-		}
 		axis = frame.getAxes().getCellAxis();
 		numCells = (int)axis.getRange().getExtent();
-		cellsInLayer = numCells * numTimesteps;
+		steps = numLayers * numTimesteps;
+
 		plotInfo = new MinMaxInfo(numCells * numLayers * numTimesteps);
-		new Thread(this).start();
+		layerInfo = new MinMaxInfo[numLayers];
+		for (int i = 0; i < numLayers; ++i)
+			layerInfo[i] = new MinMaxInfo(numCells * numTimesteps);
+		state = new AtomicIntegerArray(steps);
+		stepMin = new double[steps];
+		stepMax = new double[steps];
+		stepMinIndex = new int[steps];
+		stepMaxIndex = new int[steps];
+		remaining = new AtomicInteger(steps);
+		if (steps == 0)
+			completion.run();
+
+		int count = Math.min(steps, pool.getParallelism());
+		for (int i = 0; i < count; ++i)
+			pool.execute(new StepTask());
 	}
-	
-	public MinMaxInfo getMinMaxInfo(MinMaxLevelListener listener) {
-		if (!calcDone)
-			addLevelListener(listener);
-		return plotInfo;
+
+	/**
+	 * Gets the number of steps calculated at once by all calculators.
+	 *
+	 * @return the number of steps calculated at once.
+	 */
+	public static int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Sets the number of steps calculated at once by all calculators.
+	 *
+	 * @param level the number of steps
+	 */
+	public static void setParallelism(int level) {
+		pool.setParallelism(level);
+	}
+
+	// calculates one step, then queues itself for the next
+	private class StepTask implements Runnable {
+		private MPASDataFrameIndex index = new MPASDataFrameIndex(dataFrame);
+
+		public void run() {
+			int step = claimStep();
+			if (step < 0)
+				return;
+			calculateStep(index, step);
+			pool.execute(this);
+		}
+	}
+
+	// claims the next step to calculate, or returns -1 if there are none
+	private int claimStep() {
+		Integer requested;
+		while ((requested = priority.pollFirst()) != null) {
+			if (state.compareAndSet(requested, PENDING, RUNNING))
+				return requested;
+		}
+		int step;
+		while ((step = nextStep.getAndIncrement()) < steps) {
+			if (state.compareAndSet(step, PENDING, RUNNING))
+				return step;
+		}
+		return -1;
 	}
-	
-	private double getValue(MPASDataFrameIndex dataFrameIndex, int layer, int step, int cell) {	
+
+	private boolean isStep(int layer, int timestep) {
+		return layer >= 0 && layer < numLayers && timestep >= 0 && timestep < numTimesteps;
+	}
+
+	private double getValue(MPASDataFrameIndex dataFrameIndex, int layer, int step, int cell) {
 		dataFrameIndex.set(step, layer, cell);
 		return dataFrame.getFloat(dataFrameIndex);
 	}
-	
-	Map<Integer, MinMaxInfo> layerCache = new HashMap<Integer, MinMaxInfo>();
-	Map<Integer, Map<Integer, MinMaxInfo>> timestepCache = new HashMap<Integer, Map<Integer, MinMaxInfo>>();
-	
-	//callers are aware they may be getting incomplete info, and will register for updates
-	public MinMaxInfo getLayerInfo(int layer, MinMaxLevelListener listener) {
-		final MPASDataFrameIndex index = new MPASDataFrameIndex(dataFrame);
-		MinMaxInfo layerInfo = resolveLayerInfo(layer);
-		//All callers require at least the first timestep calculated
-		getTimestep(index, layer, 0);
-		if (!calcDone)
-			addLevelListener(listener);
-		return layerInfo;
-	}
-	
-	private MinMaxInfo resolveLayerInfo(int layer) {
-		MinMaxInfo info = null;
-		synchronized (layerCache) {
-			info = layerCache.get(layer);
-			if (info == null) {
-				info = new MinMaxInfo(numCells * numTimesteps);
-				layerCache.put(layer, info);
+
+	private void calculateStep(MPASDataFrameIndex index, int step) {
+		int layer = step / numTimesteps;
+		int timestep = step % numTimesteps;
+		MinMaxInfo stepInfo = new MinMaxInfo(numCells);
+		try {
+			for (int i = 0; i < numCells; ++i) {
+				stepInfo.visitValue(getValue(index, layer, timestep, i), i);
 			}
+		} catch (RuntimeException e) {
+			//Count the step as done so that waiting callers are released
+			Logger.error("Error calculating min/max of layer " + layer + ", timestep " + timestep, e);
 		}
-		return info;
-	}
-	
-	private void calculateLayer(MPASDataFrameIndex index, int layer) {
-		for (int i = timeOrigin; i < numTimesteps; ++i) {
-			getTimestep(index, layer, i);
+		stepInfo.incrementCount(numCells);
+		stepMin[step] = stepInfo.getMin();
+		stepMax[step] = stepInfo.getMax();
+		stepMinIndex[step] = stepInfo.getMinIndex();
+		stepMaxIndex[step] = stepInfo.getMaxIndex();
+		state.set(step, DONE);
+		synchronized (stepLock) {
+			stepLock.notifyAll();
+		}
+
+		synchronized (fireLock) {
+			MinMaxInfo info = layerInfo[layer];
+			info.merge(stepInfo.getMin(), stepInfo.getMinIndex(), stepInfo.getMax(), stepInfo.getMaxIndex(), numCells);
+			plotInfo.merge(stepInfo.getMin(), stepInfo.getMinIndex(), stepInfo.getMax(), stepInfo.getMaxIndex(), numCells);
+			updates.add(new Update(layer, info, plotInfo, remaining.decrementAndGet() == 0));
 		}
-		return;
+		deliverUpdates();
 	}
-	
-	//Possibly return null if timestep hasn't been calculated yet
-	public MinMaxInfo getTimestepMinMax(int layer, int timestep) {
-		MinMaxInfo layerInfo = null;
-		MinMaxInfo stepInfo = null;
-		synchronized (layerCache) {
-			layerInfo = layerCache.get(layer);
-			if (layerInfo != null) {
-				synchronized (timestepCache) {
-					Map<Integer, MinMaxInfo> layerMap = timestepCache.get(layer);
-					if (layerMap != null) {
-						synchronized (layerMap) {
-							stepInfo = layerMap.get(timestep);
-						}
-					}
-				}
-			}
+
+	// the min/max of a layer and of the frame as they were once a step was
+	// merged
+	private static class Update {
+		final int layer;
+		final double layerMin, layerMax, layerCompletion;
+		final int layerMinIndex, layerMaxIndex;
+		final double plotMin, plotMax, plotCompletion;
+		final int plotMinIndex, plotMaxIndex;
+		// whether it is the update of the last step
+		final boolean last;
+
+		Update(int layer, MinMaxInfo layerInfo, MinMaxInfo plotInfo, boolean last) {
+			this.layer = layer;
+			layerMin = layerInfo.getMin();
+			layerMinIndex = layerInfo.getMinIndex();
+			layerMax = layerInfo.getMax();
+			layerMaxIndex = layerInfo.getMaxIndex();
+			layerCompletion = layerInfo.getCompletion();
+			plotMin = plotInfo.getMin();
+			plotMinIndex = plotInfo.getMinIndex();
+			plotMax = plotInfo.getMax();
+			plotMaxIndex = plotInfo.getMaxIndex();
+			plotCompletion = plotInfo.getCompletion();
+			this.last = last;
 		}
-		return stepInfo;
 	}
 
-	
-	private MinMaxInfo getTimestep(MPASDataFrameIndex index, int layer, int timestep) {
-		Map<Integer, MinMaxInfo> layerMap = null;
-		MinMaxInfo layerInfo = resolveLayerInfo(layer);
-		synchronized (timestepCache) {
-			layerMap = timestepCache.get(layer);
-			if (layerMap == null) {
-				layerMap = new HashMap<Integer, MinMaxInfo>();
-				timestepCache.put(layer,  layerMap);
+	// tells the listeners of the queued updates, unless another thread is
+	// doing so, in which case that thread tells them of these too
+	private void deliverUpdates() {
+		while (!updates.isEmpty() && delivering.compareAndSet(false, true)) {
+			try {
+				Update update;
+				while ((update = updates.poll()) != null)
+					deliver(update);
+			} finally {
+				delivering.set(false);
 			}
 		}
-		MinMaxInfo stepInfo = null;
-		synchronized (layerMap) {
-			stepInfo = layerMap.get(timestep);
-			if (stepInfo == null) {
-				stepInfo = new MinMaxInfo(numCells);
-				layerMap.put(timestep,  stepInfo);
+	}
+
+	private void deliver(Update update) {
+		try {
+			fireLayerUpdated(update);
+			fireDatasetUpdated(update);
+		} catch (RuntimeException e) {
+			Logger.error("Error updating min/max listeners", e);
+		} finally {
+			if (update.last) {
+				listeners.clear();
+				completion.run();
 			}
 		}
-		synchronized (stepInfo) {
-			calculateStep(index, layer, timestep, layerInfo, stepInfo);
-		}
-		return stepInfo;
 	}
-	
-	//Returns true if the timestep was just calculated and needs to be added to the layer
-	private boolean calculateStep(MPASDataFrameIndex index, int layer, int step, MinMaxInfo layerInfo, MinMaxInfo stepInfo) {
-		if (stepInfo.getCount() == numCells) //Already calculated
-			return false;
-		for (int i = 0; i < numCells; ++i) {
-			stepInfo.visitValue(getValue(index, layer, step, i), i);
+
+	private MinMaxInfo getStepInfo(int step) {
+		MinMaxInfo info = new MinMaxInfo(numCells);
+		info.merge(stepMin[step], stepMinIndex[step], stepMax[step], stepMaxIndex[step], numCells);
+		return info;
+	}
+
+	/**
+	 * Asks for the specified layer and timestep to be calculated before the
+	 * steps that have not been asked for.
+	 */
+	public void prioritize(int layer, int timestep) {
+		if (isStep(layer, timestep) && state.get(layer * numTimesteps + timestep) == PENDING)
+			priority.offerFirst(layer * numTimesteps + timestep);
+	}
+
+	/**
+	 * Asks for the timesteps of the specified layer to be calculated before
+	 * the steps that have not been asked for, starting with the specified
+	 * timestep and then in order.
+	 */
+	public void prioritizeLayer(int layer, int timestep) {
+		if (!isStep(layer, timestep))
+			return;
+		for (int i = numTimesteps - 1; i >= 0; --i) {
+			if (i != timestep)
+				prioritize(layer, i);
 		}
-		stepInfo.incrementCount(numCells);
-		
-		layerInfo.visitValue(stepInfo.getMin(), stepInfo.getMinIndex());
-		layerInfo.visitValue(stepInfo.getMax(), stepInfo.getMaxIndex());
-		layerInfo.incrementCount(numCells);
-		
-		plotInfo.visitValue(layerInfo.getMin(), layerInfo.getMinIndex());
-		plotInfo.visitValue(layerInfo.getMax(), layerInfo.getMaxIndex());
-		plotInfo.incrementCount(numCells);
-
-		fireLayerUpdated(layer, layerInfo);
-		fireDatasetUpdated(plotInfo);
-		return true;
-	}
-	
-	public void run() {
-		final MPASDataFrameIndex index = new MPASDataFrameIndex(dataFrame);
-		for (int i = layerOrigin; i < numLayers; ++i) {
-			calculateLayer(index, i);
-		}
-		synchronized(this) {
-			calcDone = true;
-			notifyAll();
-		}
-	}
-	
-	
-	private void addLevelListener(MinMaxLevelListener listener) {
-		if (listeners.indexOf(listener) == -1)
-			listeners.add(listener);
-		if (!listener.isAsyncListener()) {
-			synchronized (this) {
-				while (!calcDone) {
-					try {
-						this.wait(5000);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
+		prioritize(layer, timestep);
+	}
+
+	public MinMaxInfo getMinMaxInfo(MinMaxLevelListener listener) {
+		addLevelListener(listener);
+		return plotInfo;
+	}
 
+	/**
+	 * Gets the min/max of the whole frame once every step has been
+	 * calculated and told to the listeners.
+	 *
+	 * @return the future min/max of the whole frame.
+	 */
+	public Future<MinMaxInfo> getFinalMinMaxInfo() {
+		return completion;
+	}
+
+	//callers are aware they may be getting incomplete info, and will register for updates
+	public MinMaxInfo getLayerInfo(int layer, MinMaxLevelListener listener) {
+		if (layer < 0 || layer >= numLayers)
+			return new MinMaxInfo(numCells * numTimesteps);
+		//All callers require at least the first timestep calculated
+		calculateNow(layer * numTimesteps);
+		addLevelListener(listener);
+		return layerInfo[layer];
+	}
+
+	//Returns null if timestep hasn't been calculated yet, and asks for it to be calculated next
+	public MinMaxInfo getTimestepMinMax(int layer, int timestep) {
+		if (!isStep(layer, timestep))
+			return null;
+		int step = layer * numTimesteps + timestep;
+		if (state.get(step) == DONE)
+			return getStepInfo(step);
+		prioritize(layer, timestep);
+		return null;
+	}
+
+	// calculates the step on the calling thread, or waits for the worker calculating it
+	private void calculateNow(int step) {
+		if (state.compareAndSet(step, PENDING, RUNNING)) {
+			calculateStep(new MPASDataFrameIndex(dataFrame), step);
+			return;
+		}
+		synchronized (stepLock) {
+			while (state.get(step) != DONE) {
+				try {
+					stepLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
 				}
 			}
 		}
 	}
-	
-	private void fireLayerUpdated(int layer, MinMaxInfo info) {
+
+	public boolean isDone() {
+		return completion.isDone();
+	}
+
+	private void addLevelListener(MinMaxLevelListener listener) {
+		if (listener == null)
+			return;
+		// a listener added after the last step has fired would never hear of it
+		synchronized (fireLock) {
+			if (remaining.get() == 0)
+				return;
+			if (!listeners.contains(listener))
+				listeners.add(listener);
+		}
+	}
+
+	private void fireLayerUpdated(Update update) {
 		if (listeners.isEmpty())
 			return;
-		if (System.currentTimeMillis() - layerUpdate < listeners.get(0).getRenderTime() * 3 && info.getCompletion() < 100)
+		if (System.currentTimeMillis() - layerUpdate < listeners.get(0).getRenderTime() * 3 && update.layerCompletion < 100)
 			return;
-		for (int i = 0; i < listeners.size(); ++i) {
-			listeners.get(i).layerUpdated(layer, info.getMin(), info.getMinIndex(), info.getMax(), info.getMaxIndex(), info.getCompletion(), isLog);
+		for (MinMaxLevelListener listener : listeners) {
+			listener.layerUpdated(update.layer, update.layerMin, update.layerMinIndex, update.layerMax, update.layerMaxIndex, update.layerCompletion, isLog);
 		}
 		layerUpdate = System.currentTimeMillis();
 	}
-	
-	private void fireDatasetUpdated(MinMaxInfo info) {
+
+	private void fireDatasetUpdated(Update update) {
 		if (listeners.isEmpty())
 			return;
 
-		if (System.currentTimeMillis() - plotUpdate < listeners.get(0).getRenderTime() * 1.5 && info.getCompletion() < 100)
+		if (System.currentTimeMillis() - plotUpdate < listeners.get(0).getRenderTime() * 1.5 && update.plotCompletion < 100)
 			return;
-		for (int i = 0; i < listeners.size(); ++i) {
-			listeners.get(i).datasetUpdated(info.getMin(), info.getMinIndex(), info.getMax(), info.getMaxIndex(), info.getCompletion(), isLog);
+		for (MinMaxLevelListener listener : listeners) {
+			listener.datasetUpdated(update.plotMin, update.plotMinIndex, update.plotMax, update.plotMaxIndex, update.plotCompletion, isLog);
 		}
 		plotUpdate = System.currentTimeMillis();
-		if (info.getCompletion() == 100)
-			listeners.clear();
-		else if (info.getCompletion() > 100)
-			System.out.println("How???");
 	}
-
 }
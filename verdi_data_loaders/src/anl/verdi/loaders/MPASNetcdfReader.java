@@ -23,6 +23,7 @@ import ucar.ma2.Array;
 import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Dimension;
 import ucar.nc2.dataset.NetcdfDataset;
+import anl.verdi.data.AbstractDataFrame;
 import anl.verdi.data.AbstractDataReader;
 import anl.verdi.data.Axes;
 import anl.verdi.data.AxisRange;
@@ -46,7 +47,8 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 		super(set);
 	}
 
-	private void createDefaultAxes(DataFrameBuilder builder, MPASDataset set, ucar.nc2.Variable variableDS) {
+	private List<DataFrameAxis> createDefaultAxes(MPASDataset set, ucar.nc2.Variable variableDS) {
+		List<DataFrameAxis> frameAxes = new ArrayList<DataFrameAxis>();
 		/*From NetCDF
 		for (CoordAxis axis : set.getCoordAxes().getAxes()) {
 			int index = variableDS.findDimensionIndex(set.getNetDataset().
@@ -69,14 +71,14 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 			if (!dimSet.contains(axis.getName()))
 				continue;
 			if (axis.getAxisType().equals(AxisType.TIME))
-				builder.addAxis(DataFrameAxis.createDataFrameAxis(axis, indexMap.get(axis.getName())));
+				frameAxes.add(DataFrameAxis.createDataFrameAxis(axis, indexMap.get(axis.getName())));
 			else if (axis.getAxisType().equals(AxisType.X_AXIS)) { //MPAS has "virtual"  x/y axes, which can't be referenced within the data.  Use cell index as axis, and include simulated x/y axes
 				CoordAxis yAxis = set.getCoordAxes().getYAxis();
 				CoordAxis cellAxis = new MPASCellCoordAxis(axis, yAxis, set.numCells, "nCells", "nCells", set);
-				builder.addAxis(DataFrameAxis.createDataFrameAxis(cellAxis, indexMap.get("nCells")));
+				frameAxes.add(DataFrameAxis.createDataFrameAxis(cellAxis, indexMap.get("nCells")));
 			}
 			else if (axis.getAxisType().equals(AxisType.LAYER)) {
-				builder.addAxis(DataFrameAxis.createDataFrameAxis(axis, indexMap.get(axis.getName())));
+				frameAxes.add(DataFrameAxis.createDataFrameAxis(axis, indexMap.get(axis.getName())));
 			}
 
 		}
@@ -90,6 +92,7 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 			builder.addAxis(frameAxis);
 		}
 		*/
+		return frameAxes;
 	}
 	
 	private class MPASDataFrame implements DataFrame {
@@ -97,6 +100,8 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 		MPASDataset dataset;
 		NetcdfDataset netDs;
 		String currentVar = null;
+		Variable variable = null;
+		Axes<DataFrameAxis> axes = new Axes<DataFrameAxis>();
 		List<Dataset> setList = new ArrayList<Dataset>();
 		Map<String, ucar.nc2.Variable> varMap;
 		
@@ -117,7 +122,9 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 		}
 		
 		public void setVariable(Variable var) {
+			variable = var;
 			currentVar = var.getName();
+			axes = new Axes<DataFrameAxis>(createDefaultAxes(dataset, dataset.getVariableDS(var)));
 		}
 
 		@Override
@@ -132,22 +139,22 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 
 		@Override
 		public Axes<DataFrameAxis> getAxes() {
-			throw new UnsupportedOperationException();
+			return axes;
 		}
 
 		@Override
 		public List<Dataset> getDataset() {
-			throw new UnsupportedOperationException();
+			return setList;
 		}
 
 		@Override
 		public Variable getVariable() {
-			throw new UnsupportedOperationException();
+			return variable;
 		}
 
 		@Override
 		public Class getArrayType() {
-			throw new UnsupportedOperationException();
+			return varMap.get(currentVar).getDataType().getPrimitiveClassType();
 		}
 
 		@Override
@@ -194,6 +201,14 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 		public DataFrame sliceCopy(Slice slice) throws InvalidRangeException {
 			throw new UnsupportedOperationException();
 		}
+
+		@Override
+		public void copy(Slice slice, boolean invertRows, float[] result) {
+			Array array = getArray();
+			if (array == null)
+				throw new IllegalStateException("Unable to read " + currentVar);
+			AbstractDataFrame.copy(array, axes, slice, invertRows, result);
+		}
 		
 	}
 	
@@ -211,6 +226,18 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 		public double getDouble(DataFrameIndex index) {
 			return value;
 		}
+
+		@Override
+		public Class getArrayType() {
+			return double.class;
+		}
+
+		@Override
+		public void copy(Slice slice, boolean invertRows, float[] result) {
+			if (result.length < 1)
+				throw new IllegalArgumentException("Result array of length 0 is too small for 1 value");
+			result[0] = (float) value;
+		}
 		
 	}
 	
@@ -238,7 +265,8 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 		try {
 			DataFrameBuilder builder = new MPASDataFrameBuilder();
 			builder.addDataset(set).setVariable(variable);
-			createDefaultAxes(builder, set, varDS);
+			for (DataFrameAxis axis : createDefaultAxes(set, varDS))
+				builder.addAxis(axis);
 			int rank = varDS.getRank();
 			int[] origin = new int[rank];
 			int[] shape = new int[rank];
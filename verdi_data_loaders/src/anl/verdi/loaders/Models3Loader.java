@@ -1,7 +1,6 @@
 package anl.verdi.loaders;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
@@ -14,16 +13,17 @@ import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.dataset.conv.M3IOConvention;
-import anl.verdi.data.DataLoader;
 import anl.verdi.data.DataReader;
 import anl.verdi.data.Dataset;
+import anl.verdi.data.FormatProbe;
+import anl.verdi.data.ProbingDataLoader;
 
 /**
  * @author Nick Collier
  * @author Mary Ann Bitz
  * @version $Revision$ $Date$
  */
-public class Models3Loader implements DataLoader {
+public class Models3Loader implements ProbingDataLoader {
 	static final Logger Logger = LogManager.getLogger(Models3Loader.class.getName());
 
 //	private static final MessageCenter msgCenter = MessageCenter.getMessageCenter(Models3Loader.class);
@@ -38,14 +38,27 @@ public class Models3Loader implements DataLoader {
 	 * @throws Exception 
 	 */
 	public boolean canHandle(URL url) throws Exception {
+		FormatProbe probe = new FormatProbe(url);
+		try {
+			return canHandle(probe);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Returns whether or not this DataLoader can handle the data at the
+	 * probe's url.
+	 *
+	 * @param probe the probe of the data
+	 * @return true if this DataLoader can handle loading the data, otherwise
+	 *         false.
+	 * @throws Exception 
+	 */
+	public boolean canHandle(FormatProbe probe) throws Exception {
 		//  try to open up the file
-		NetcdfFile file = null;
 		try {
-			String urlString = url.toExternalForm();
-			if (url.getProtocol().equals("file")) {
-				urlString = new URI(urlString).getPath();
-			}
-			file = NetcdfFile.open(urlString);
+			NetcdfFile file = NetcdfProbe.getFile(probe);
 			return M3IOConvention.isMine(file) && hasRowCol(file) && notCustom(file);
 
 		} catch (IOException io) {
@@ -63,11 +76,6 @@ public class Models3Loader implements DataLoader {
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
-		finally {
-			try {
-				if (file != null) file.close();
-			} catch (IOException e) {}
-		}
 		return false;
 	}
 	
@@ -110,6 +118,17 @@ public class Models3Loader implements DataLoader {
 		return factory.createModels3Datasets(url);
 	}
 
+	/**
+	 * Creates a Dataset from the netcdf file opened by the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return a Dataset created from the data at the probe's URL.
+	 */
+	public List<Dataset> createDatasets(FormatProbe probe) throws IOException {
+		NetcdfDatasetFactory factory = new NetcdfDatasetFactory();
+		return factory.createModels3Datasets(probe.getURL(), NetcdfProbe.takeFile(probe));
+	}
+
 	/**
 	 * Creates a DataReader that can read a particular type of Dataset.
 	 *
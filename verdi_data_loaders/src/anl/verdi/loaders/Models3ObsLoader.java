@@ -1,7 +1,6 @@
 package anl.verdi.loaders;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -15,9 +14,10 @@ import ucar.nc2.Attribute;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.conv.M3IOConvention;
-import anl.verdi.data.DataLoader;
 import anl.verdi.data.DataReader;
 import anl.verdi.data.Dataset;
+import anl.verdi.data.FormatProbe;
+import anl.verdi.data.ProbingDataLoader;
 
 /**
  * Loader for Models3 observation data files.
@@ -25,7 +25,7 @@ import anl.verdi.data.Dataset;
  * @author Nick Collier
  * @version $Revision$ $Date$
  */
-public class Models3ObsLoader implements DataLoader {
+public class Models3ObsLoader implements ProbingDataLoader {
 	static final Logger Logger = LogManager.getLogger(Models3ObsLoader.class.getName());
 
 //	private static final MessageCenLoggernter = MessageCenter.getMessageCenter(Models3ObsLoader.class);
@@ -40,14 +40,27 @@ public class Models3ObsLoader implements DataLoader {
 	 * @throws Exception 
 	 */
 	public boolean canHandle(URL url) throws Exception {
+		FormatProbe probe = new FormatProbe(url);
+		try {
+			return canHandle(probe);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Returns whether or not this DataLoader can handle the data at the
+	 * probe's url.
+	 *
+	 * @param probe the probe of the data
+	 * @return true if this DataLoader can handle loading the data, otherwise
+	 *         false.
+	 * @throws Exception 
+	 */
+	public boolean canHandle(FormatProbe probe) throws Exception {
 		//  try to open up the file
-		NetcdfFile file = null;
 		try {
-			String urlString = url.toExternalForm();
-			if (url.getProtocol().equals("file")) {
-				urlString = new URI(urlString).getPath();
-			}
-			file = NetcdfFile.open(urlString);
+			NetcdfFile file = NetcdfProbe.getFile(probe);
 			return M3IOConvention.isMine(file) && (hasLatLon(file) || hasRowCol(file)) && isCustom(file);
 
 		} catch (IOException io) {
@@ -63,11 +76,6 @@ public class Models3ObsLoader implements DataLoader {
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
-		finally {
-			try {
-				if (file != null) file.close();
-			} catch (IOException e) {}
-		}
 
 		return false;
 	}
@@ -126,6 +134,20 @@ public class Models3ObsLoader implements DataLoader {
 		return sets;
 	}
 
+	/**
+	 * Creates a Dataset from the netcdf file opened by the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return a Dataset created from the data at the probe's URL.
+	 */
+	public List<Dataset> createDatasets(FormatProbe probe) {
+		NetcdfDatasetFactory factory = new NetcdfDatasetFactory();
+		Dataset set = factory.createObsDataset(probe.getURL(), NetcdfProbe.takeFile(probe));
+		List<Dataset> sets = new ArrayList<Dataset>();
+		sets.add(set);
+		return sets;
+	}
+
 	/**
 	 * Creates a DataReader that can read a particular type of Dataset.
 	 *
@@ -48,15 +48,28 @@ public class NetcdfDatasetFactory {
 	 * @return a list of Datasets from the specified URL
 	 */
 	public List<Dataset> createCFDatasets(URL url) {
+		return createCFDatasets(url, null);
+	}
+
+	/**
+	 * Creates a list of Datasets from the specified already open netcdf
+	 * file conforming to the CF convention. The datasets take ownership
+	 * of the file.
+	 *
+	 * @param url  the url of the file
+	 * @param file the open file, or null to open it from the url
+	 * @return a list of Datasets from the specified file
+	 */
+	public List<Dataset> createCFDatasets(URL url, NetcdfFile file) {
 		Logger.debug("in NetcdfDatasetFactory.createCFDatasets, url = " + url);
 		GridDataset gridDataset = null;
 		try {
 			Logger.debug("ready to call openNetcdfGridDataset");
-			gridDataset = openNetcdfGridDataset(url);
+			gridDataset = openNetcdfGridDataset(url, file);
 			Logger.debug("in NetcdfDatasetFactory.createCFDatasets, back from openNetcdfGridDataset");
-			final NetcdfFile file = gridDataset.getNetcdfFile();
-			Logger.debug("in NetcdfDatasetFactory.createCFDatasets, now have file = " + file);
-			final Attribute attribute = file.findGlobalAttribute("Conventions");
+			final NetcdfFile gridFile = gridDataset.getNetcdfFile();
+			Logger.debug("in NetcdfDatasetFactory.createCFDatasets, now have file = " + gridFile);
+			final Attribute attribute = gridFile.findGlobalAttribute("Conventions");
 			Logger.debug("in NetcdfDatasetFactory.createCFDatasets, now have attribute = " + attribute);
 			final boolean isMine = attribute != null && attribute.getStringValue().startsWith( "CF-" );
 			Logger.debug("isMine = " + isMine);
@@ -90,13 +103,31 @@ public class NetcdfDatasetFactory {
 	 * @throws IOException 
 	 */
 	public List<Dataset> createMPASDatasets(URL url) throws IOException {
+		return createMPASDatasets(url, null);
+	}
+
+	/**
+	 * Creates a list of Datasets from the specified already open netcdf
+	 * file conforming to the MPAS convention. The datasets take ownership
+	 * of the file.
+	 *
+	 * @param url  the url of the file
+	 * @param file the open file, or null to open it from the url
+	 * @return a list of Datasets from the specified file
+	 * @throws IOException 
+	 */
+	public List<Dataset> createMPASDatasets(URL url, NetcdfFile file) throws IOException {
 		Logger.debug("in NetcdfDatasetFactory.createModels3Datasets, url = " + url);
 		NetcdfDataset netcdfDataset = null;
 		List<Dataset> setList = new ArrayList<Dataset>();
 		try {
 			Logger.debug("ready to call openNetcdfGridDataset");
 			String urlString = url.toExternalForm();
-			netcdfDataset = NetcdfDataset.openDataset(urlString);
+			if (file != null) {
+				netcdfDataset = wrap(file);
+			} else {
+				netcdfDataset = NetcdfDataset.openDataset(urlString);
+			}
 			Logger.debug("in NetcdfDatasetFactory.createModels3Datasets, back from openNetcdfGridDataset");
 			//Already check in MPASLoader
 			/*if (!MPASConvention.isMine(netcdfDataset)) {
@@ -110,6 +141,8 @@ public class NetcdfDatasetFactory {
 			try {
 				if (netcdfDataset != null)
 					netcdfDataset.close();
+				else if (file != null)
+					file.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -156,11 +189,24 @@ public class NetcdfDatasetFactory {
 	 * @return a list of Datasets from the specified URL
 	 */
 	public List<Dataset> createModels3Datasets(URL url) {
+		return createModels3Datasets(url, null);
+	}
+
+	/**
+	 * Creates a list of Datasets from the specified already open netcdf
+	 * file conforming to the Models-3 convention. The datasets take ownership
+	 * of the file.
+	 *
+	 * @param url  the url of the file
+	 * @param file the open file, or null to open it from the url
+	 * @return a list of Datasets from the specified file
+	 */
+	public List<Dataset> createModels3Datasets(URL url, NetcdfFile file) {
 		Logger.debug("in NetcdfDatasetFactory.createModels3Datasets, url = " + url);
 		GridDataset gridDataset = null;
 		try {
 			Logger.debug("ready to call openNetcdfGridDataset");
-			gridDataset = openNetcdfGridDataset(url);
+			gridDataset = openNetcdfGridDataset(url, file);
 			Logger.debug("in NetcdfDatasetFactory.createModels3Datasets, back from openNetcdfGridDataset");
 			if (!M3IOConvention.isMine(gridDataset.getNetcdfDataset())) {
 				Logger.debug("M3IOConvention.isMine == false");
@@ -183,8 +229,29 @@ public class NetcdfDatasetFactory {
 	}
 
 	public Dataset createObsDataset(URL url) {
+		return createObsDataset(url, null);
+	}
+
+	/**
+	 * Creates an observation Dataset from the specified already open
+	 * Models-3 netcdf file. The dataset takes ownership of the file.
+	 *
+	 * @param url  the url of the file
+	 * @param file the open file, or null to open it from the url
+	 * @return the Dataset, or null if it could not be created
+	 */
+	public Dataset createObsDataset(URL url, NetcdfFile file) {
 		NetcdfDataset dataset = null;
 		try {
+			if (file != null) {
+				try {
+					dataset = new NetcdfDataset(file, false);
+				} catch (IOException e) {
+					file.close();
+					throw e;
+				}
+				return new Models3ObsDataset(url, dataset);
+			}
 			String urlString = url.toExternalForm();
 			Logger.debug("External url string " + urlString + " path " + new URI(urlString).getPath());
 			//if (url.getProtocol().equals("file")) {  DEBUG
@@ -223,11 +290,24 @@ public class NetcdfDatasetFactory {
 	 * @return a list of Datasets from the specified URL
 	 */
 	public List<Dataset> createWRFDatasets(URL url) {
+		return createWRFDatasets(url, null);
+	}
+
+	/**
+	 * Creates a list of Datasets from the specified already open netcdf
+	 * file conforming to the WRF convention. The datasets take ownership
+	 * of the file.
+	 *
+	 * @param url  the url of the file
+	 * @param file the open file, or null to open it from the url
+	 * @return a list of Datasets from the specified file
+	 */
+	public List<Dataset> createWRFDatasets(URL url, NetcdfFile file) {
 		Logger.debug("in NetcdfDatasetFactory.createWRFDatasets for url = " + url);
 		GridDataset gridDataset = null;
 		try {
 			Logger.debug("ready to call openNetcdfGridDataset");
-			gridDataset = openNetcdfGridDataset(url); // JIZHEN-SHIFT
+			gridDataset = openNetcdfGridDataset(url, file); // JIZHEN-SHIFT
 			Logger.debug("in NetcdfDatasetFactory.craeteWRFDatasets, back from openNetcdfGridDataset");
 			if (!WRFConvention.isMine(gridDataset.getNetcdfDataset())) {
 				Logger.debug("isMine == false");
@@ -257,11 +337,24 @@ public class NetcdfDatasetFactory {
 	 * @return a list of Datasets from the specified URL
 	 */
 	public List<Dataset> createCOARDSDatasets(URL url) {
+		return createCOARDSDatasets(url, null);
+	}
+
+	/**
+	 * Creates a list of Datasets from the specified already open netcdf
+	 * file conforming to the COARDS convention. The datasets take ownership
+	 * of the file.
+	 *
+	 * @param url  the url of the file
+	 * @param file the open file, or null to open it from the url
+	 * @return a list of Datasets from the specified file
+	 */
+	public List<Dataset> createCOARDSDatasets(URL url, NetcdfFile file) {
 		Logger.debug("in NetcdfDatasetFactory.createCOARDSDatasets for url = " + url);
 		GridDataset gridDataset = null;
 		try {
 			Logger.debug("ready to call openNetcdfGridDataset");
-			gridDataset = openNetcdfGridDataset(url); // JIZHEN-SHIFT
+			gridDataset = openNetcdfGridDataset(url, file); // JIZHEN-SHIFT
 			Logger.debug("in NetcdfDatasetFactory.createCOARDSDatasets, back from openNetcdfGridDataset");
 			/*if (!COARDSConvention.isMine(gridDataset.getNetcdfDataset())) {
 				Logger.debug("isMine == false");
@@ -322,6 +415,26 @@ public class NetcdfDatasetFactory {
 		return sets;
 	}
 
+	private GridDataset openNetcdfGridDataset(URL url, NetcdfFile file) throws URISyntaxException, IOException {
+		if (file == null) return openNetcdfGridDataset(url);
+		// the file was opened, and so found valid, when probing its format
+		Logger.debug("in NetcdfDatasetFactory.openNetcdfGridDataset, wrapping open file for url = " + url);
+		try {
+			return new GridDataset(wrap(file));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Enhances an open netcdf file the same way NetcdfDataset.openDataset
+	 * would have had it been opened by location.
+	 */
+	private NetcdfDataset wrap(NetcdfFile file) throws IOException {
+		return NetcdfDataset.wrap(file, NetcdfDataset.getDefaultEnhanceMode());
+	}
+
 	private GridDataset openNetcdfGridDataset(URL url) throws URISyntaxException, IOException {
 		Logger.debug("in NetcdfDatasetFactory.openNetcdfGridDataset, url = " + url);
 		String urlString = url.toExternalForm();
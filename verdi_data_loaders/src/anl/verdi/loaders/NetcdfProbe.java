@@ -0,0 +1,78 @@
+package anl.verdi.loaders;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import ucar.nc2.NetcdfFile;
+import anl.verdi.data.FormatProbe;
+
+/**
+ * Opens the netcdf file at a FormatProbe's url once for all the netcdf
+ * loaders. The open file's header (dimensions, variables and global
+ * attributes) is what the loaders inspect to decide whether they can
+ * handle the file, and the loader that does takes the file to build its
+ * datasets from.
+ */
+class NetcdfProbe {
+
+	private static final String FILE_KEY = NetcdfProbe.class.getName() + ".file";
+
+	private NetcdfProbe() {
+	}
+
+	/**
+	 * Gets the netcdf file at the probe's url, opening it the first time
+	 * it is asked for. The file stays owned by the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return the open netcdf file.
+	 * @throws IOException if the file could not be opened, this and every later time.
+	 * @throws URISyntaxException if the url is not a valid URI
+	 */
+	static NetcdfFile getFile(FormatProbe probe) throws IOException, URISyntaxException {
+		synchronized (probe) {
+			Object value = probe.get(FILE_KEY);
+			if (value == null) {
+				try {
+					value = NetcdfFile.open(getPath(probe.getURL()));
+				} catch (IOException e) {
+					value = e;
+				} catch (URISyntaxException e) {
+					value = e;
+				}
+				probe.put(FILE_KEY, value);
+			}
+			if (value instanceof IOException) throw (IOException) value;
+			if (value instanceof URISyntaxException) throw (URISyntaxException) value;
+			return (NetcdfFile) value;
+		}
+	}
+
+	/**
+	 * Takes the netcdf file opened by {@link #getFile(FormatProbe)} from the
+	 * probe, so that it is no longer closed with the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return the open netcdf file, or null if it has not been opened.
+	 */
+	static NetcdfFile takeFile(FormatProbe probe) {
+		synchronized (probe) {
+			Object value = probe.get(FILE_KEY);
+			if (value instanceof NetcdfFile) {
+				probe.take(FILE_KEY);
+				return (NetcdfFile) value;
+			}
+			return null;
+		}
+	}
+
+	private static String getPath(URL url) throws URISyntaxException {
+		String urlString = url.toExternalForm();
+		if (url.getProtocol().equals("file")) {
+			urlString = new URI(urlString).getPath();
+		}
+		return urlString;
+	}
+}
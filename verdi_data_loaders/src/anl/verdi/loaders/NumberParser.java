@@ -0,0 +1,87 @@
+package anl.verdi.loaders;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses numbers straight from the bytes of a file, without creating a
+ * String for each of them, for the readers of text data files.
+ *
+ * @version $Revision$ $Date$
+ */
+final class NumberParser {
+
+	// the powers of ten that are exact doubles
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private NumberParser() {
+	}
+
+	/**
+	 * Parses the text from start to end as Double.parseDouble would,
+	 * ignoring leading and trailing whitespace. Numbers with no more than
+	 * 15 significant digits and a small exponent are the result of a single
+	 * exact operation on two exact doubles, so are what Double.parseDouble
+	 * would give. Anything else is handed over to Double.parseDouble.
+	 *
+	 * @param text  the ASCII text
+	 * @param start the index of the first byte of the number
+	 * @param end   the index after the last byte of the number
+	 * @return the number.
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	static double parse(byte[] text, int start, int end) {
+		while (start < end && text[start] <= ' ') start++;
+		while (end > start && text[end - 1] <= ' ') end--;
+		int index = start;
+		boolean negative = false;
+		if (index < end && (text[index] == '-' || text[index] == '+')) negative = text[index++] == '-';
+		long mantissa = 0;
+		int digits = 0, scale = 0;
+		boolean seenDigit = false, seenPoint = false;
+		for (; index < end; index++) {
+			byte c = text[index];
+			if (c >= '0' && c <= '9') {
+				seenDigit = true;
+				if (mantissa == 0 && c == '0') {
+					if (seenPoint) scale--;
+				} else if (digits < 15) {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if (seenPoint) scale--;
+				} else {
+					break;
+				}
+			} else if (c == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (seenDigit && index < end && (text[index] == 'e' || text[index] == 'E')) {
+			index++;
+			boolean negativeExponent = false;
+			if (index < end && (text[index] == '-' || text[index] == '+')) negativeExponent = text[index++] == '-';
+			int exponentStart = index;
+			int exponent = 0;
+			for (; index < end && exponent < 1000; index++) {
+				int digit = text[index] - '0';
+				if (digit < 0 || digit > 9) break;
+				exponent = exponent * 10 + digit;
+			}
+			if (index == exponentStart) seenDigit = false; // no exponent digits
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		if (seenDigit && index == end && scale >= -22 && scale <= 22) {
+			double value = mantissa;
+			if (scale < 0) value /= POWERS_OF_TEN[-scale];
+			else value *= POWERS_OF_TEN[scale];
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(new String(text, start, end - start, StandardCharsets.ISO_8859_1));
+	}
+}
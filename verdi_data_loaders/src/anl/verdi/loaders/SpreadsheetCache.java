@@ -0,0 +1,199 @@
+/**
+ * SpreadsheetCache.java - Binary copies of parsed ASCII spreadsheet data files.
+ * @version $Revision$ $Date$
+ */
+
+package anl.verdi.loaders;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.util.CacheFile;
+
+/**
+ * Keeps a binary copy of each parsed spreadsheet file, so that opening the
+ * same file again reads its columns back in bulk instead of parsing the
+ * text. The cache is off unless the {@value #CACHE_DIR_PROPERTY} system
+ * property sets the directory of the copies, as nothing removes them. A
+ * copy is only used while the file's path, length and modification time
+ * match, and is replaced when the file changes.
+ */
+class SpreadsheetCache {
+
+	/**
+	 * System property that sets the directory of the cached copies.
+	 */
+	public static final String CACHE_DIR_PROPERTY = "verdi.spreadsheet.cacheDir";
+
+	static final Logger Logger = LogManager.getLogger(SpreadsheetCache.class.getName());
+
+	private static final int MAGIC = 0x56455344; // "VESD"
+	private static final int VERSION = 1;
+	private static final int CHUNK_SIZE = 1 << 20;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Gets the directory of the cached copies.
+	 *
+	 * @return the directory of the cached copies, or null if the cache is
+	 *         turned off.
+	 */
+	static File getCacheDir() {
+		return CacheFile.getDir(CACHE_DIR_PROPERTY, null);
+	}
+
+	private static File getCacheFile(File dir, File source) {
+		final String path = source.getAbsolutePath();
+		return new File(dir, source.getName() + "." + Integer.toHexString(path.hashCode()) + ".sheet");
+	}
+
+	/**
+	 * Reads the cached copy of the specified file.
+	 *
+	 * @param source the spreadsheet file
+	 * @return the contents of the file, or null if there is no up to date copy.
+	 */
+	static SpreadsheetParser.Contents read(File source) {
+		final File dir = getCacheDir();
+		if (dir == null) return null;
+		final File file = getCacheFile(dir, source);
+		if (!file.isFile()) return null;
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				return read(in.getChannel(), source);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Logger.warn("Error reading cached copy " + file + " of " + source + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static SpreadsheetParser.Contents read(FileChannel channel, File source) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+		buffer.limit(0);
+		fill(channel, buffer, 4 + 4);
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+		final String path = getString(channel, buffer);
+		fill(channel, buffer, 8 + 8);
+		if (!path.equals(source.getAbsolutePath()) || buffer.getLong() != source.length() ||
+				buffer.getLong() != source.lastModified()) {
+			return null;
+		}
+		final String header = getString(channel, buffer);
+
+		fill(channel, buffer, 4);
+		final int hours = buffer.getInt();
+		if (hours < 0 || hours > channel.size()) throw new IOException("Corrupt cache file");
+		final int[] points = new int[hours];
+		for (int hour = 0; hour < points.length; ++hour) {
+			fill(channel, buffer, 4);
+			points[hour] = buffer.getInt();
+		}
+		fill(channel, buffer, 4 + 4);
+		final int columns = buffer.getInt();
+		final int rows = buffer.getInt();
+		if (columns < 0 || rows < 0 || (long) columns * rows * 8 > channel.size()) throw new IOException("Corrupt cache file");
+		final double[][] data = new double[columns][rows];
+		for (double[] column : data) {
+			int row = 0;
+			while (row < column.length) {
+				fill(channel, buffer, 8);
+				final int count = Math.min(buffer.remaining() / 8, column.length - row);
+				buffer.asDoubleBuffer().get(column, row, count);
+				buffer.position(buffer.position() + count * 8);
+				row += count;
+			}
+		}
+		return new SpreadsheetParser.Contents(header, points, data);
+	}
+
+	// makes sure the buffer has at least count bytes remaining, reading as needed
+	private static void fill(FileChannel channel, ByteBuffer buffer, int count) throws IOException {
+		if (buffer.remaining() >= count) return;
+		if (count > buffer.capacity()) throw new IOException("Corrupt cache file");
+		buffer.compact();
+		while (buffer.position() < count) {
+			if (channel.read(buffer) < 0) throw new IOException("Truncated cache file");
+		}
+		buffer.flip();
+	}
+
+	private static String getString(FileChannel channel, ByteBuffer buffer) throws IOException {
+		fill(channel, buffer, 4);
+		final int length = buffer.getInt();
+		if (length < 0) throw new IOException("Corrupt cache file");
+		fill(channel, buffer, length);
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Writes a cached copy of the specified file. Errors are logged, leaving
+	 * the file uncached.
+	 *
+	 * @param source   the spreadsheet file
+	 * @param contents the contents of the file
+	 */
+	static void write(final File source, final SpreadsheetParser.Contents contents) {
+		final File dir = getCacheDir();
+		if (dir == null) return;
+		final File file = getCacheFile(dir, source);
+		try {
+			CacheFile.write(file, new CacheFile.Contents() {
+				public void write(FileOutputStream out) throws IOException {
+					SpreadsheetCache.write(out.getChannel(), source, contents);
+				}
+			});
+		} catch (IOException e) {
+			Logger.warn("Error caching " + source + " in " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static void write(FileChannel channel, File source, SpreadsheetParser.Contents contents) throws IOException {
+		final byte[] path = source.getAbsolutePath().getBytes(UTF8);
+		final byte[] header = contents.header.getBytes(UTF8);
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(CHUNK_SIZE, path.length + header.length + 64));
+		buffer.putInt(MAGIC).putInt(VERSION);
+		buffer.putInt(path.length).put(path);
+		buffer.putLong(source.length()).putLong(source.lastModified());
+		buffer.putInt(header.length).put(header);
+
+		buffer.putInt(contents.points.length);
+		for (int points : contents.points) {
+			if (buffer.remaining() < 4) drain(channel, buffer);
+			buffer.putInt(points);
+		}
+		if (buffer.remaining() < 8) drain(channel, buffer);
+		final int rows = contents.data.length == 0 ? 0 : contents.data[0].length;
+		buffer.putInt(contents.data.length).putInt(rows);
+		for (double[] column : contents.data) {
+			int row = 0;
+			while (row < column.length) {
+				if (buffer.remaining() < 8) drain(channel, buffer);
+				final int count = Math.min(buffer.remaining() / 8, column.length - row);
+				buffer.asDoubleBuffer().put(column, row, count);
+				buffer.position(buffer.position() + count * 8);
+				row += count;
+			}
+		}
+		drain(channel, buffer);
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+}
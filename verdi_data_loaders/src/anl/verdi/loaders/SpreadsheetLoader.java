@@ -82,7 +82,7 @@ public class SpreadsheetLoader implements DataLoader {
 	 */
 	public DataReader createReader( Dataset dataset ) {
 		final DataReader result =
-			new SpreadsheetReader( ( (SpreadsheetDataset) dataset ).getFileName() );
+			new SpreadsheetReader( (SpreadsheetDataset) dataset );
 		return result;
 	}
 }
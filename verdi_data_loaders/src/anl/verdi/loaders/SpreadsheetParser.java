@@ -0,0 +1,232 @@
+/**
+ * SpreadsheetParser.java - Parses tab-delimited ASCII spreadsheet data files.
+ * @version $Revision$ $Date$
+ */
+
+package anl.verdi.loaders;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Parses a tab-delimited ASCII spreadsheet data file in a single pass.
+ * The file is read through a buffered channel a line at a time, the fields
+ * are split on tabs and parsed in place, and the values are written
+ * straight to primitive column arrays. The number of points in each hour
+ * is counted on the way. The columns are parsed as by the previous
+ * StringBuffer based reader: the timestamp column as YYYYMMDD.HHMMSS, and
+ * other values that are not numbers as 0.
+ */
+class SpreadsheetParser {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int INITIAL_ROWS = 1024;
+	private static final int HOUR_LENGTH = 13; // "2006-07-03T18".length().
+	private static final int TIMESTAMP_LENGTH = 24; // "2006-07-03T18:15:37-0000".length().
+
+	/**
+	 * The contents of a spreadsheet file.
+	 */
+	static class Contents {
+
+		/** the header line, in lower case */
+		final String header;
+		/** the number of points in each hour */
+		final int[] points;
+		/** the values, as data[ column ][ row ] */
+		final double[][] data;
+
+		Contents(String header, int[] points, double[][] data) {
+			this.header = header;
+			this.points = points;
+			this.data = data;
+		}
+	}
+
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private byte[] bytes = buffer.array();
+	private int pos, limit;
+	private byte[] line = new byte[256];
+	private int lineLength;
+
+	private SpreadsheetParser(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Reads the contents of the specified file, from the cache if it
+	 * holds an up to date copy, otherwise by parsing the file and then
+	 * caching the result.
+	 *
+	 * @param fileName the name of the file
+	 * @return the contents of the file, or null if its data is invalid.
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file's header is invalid
+	 */
+	static Contents read(String fileName) throws IOException {
+		File file = new File(fileName);
+		Contents contents = SpreadsheetCache.read(file);
+		if (contents == null) {
+			contents = parse(file);
+			if (contents != null) SpreadsheetCache.write(file, contents);
+		}
+		return contents;
+	}
+
+	/**
+	 * Parses the specified file.
+	 *
+	 * @param file the file
+	 * @return the contents of the file, or null if a line does not have as
+	 *         many fields as the header.
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file's header is invalid
+	 */
+	static Contents parse(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return new SpreadsheetParser(in.getChannel()).parse();
+		} finally {
+			in.close();
+		}
+	}
+
+	private Contents parse() throws IOException {
+		if (!readLine() || lineLength == 0) throw new IllegalArgumentException("Invalid header!");
+		final String header = new String(line, 0, lineLength).toLowerCase();
+		try {
+			SpreadsheetReader.validateHeaderAndGetTimezone(header);
+		} catch (Exception e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		final int columns = header.split("\t").length;
+
+		double[][] data = new double[columns][INITIAL_ROWS];
+		int[] points = new int[16];
+		int hours = 0;
+		byte[] hour = new byte[HOUR_LENGTH];
+		int hourLength = -1;
+		int rows = 0;
+
+		while (readLine()) {
+			if (lineLength == 0) continue;
+			if (rows == data[0].length) {
+				for (int column = 0; column < columns; ++column) data[column] = Arrays.copyOf(data[column], rows * 2);
+			}
+
+			int column = 0;
+			int start = 0;
+			boolean valid = false;
+			for (int index = 0; index <= lineLength; ++index) {
+				if (index < lineLength && line[index] != '\t') continue;
+				if (column < columns) {
+					if (column == 0) {
+						// the values of a line are only parsed if it has a UTC timestamp
+						valid = isTimestamp(start, index);
+						if (valid) {
+							try {
+								data[0][rows] = parseTimestamp(start);
+							} catch (NumberFormatException ex) {
+								return null;
+							}
+						}
+						// the points of an hour are the consecutive lines
+						// whose timestamps start with the same hour
+						final int length = Math.min(index - start, HOUR_LENGTH);
+						if (!sameHour(hour, hourLength, start, length)) {
+							if (hours == points.length) points = Arrays.copyOf(points, hours * 2);
+							++hours;
+							System.arraycopy(line, start, hour, 0, length);
+							hourLength = length;
+						}
+						++points[hours - 1];
+					} else if (valid) {
+						data[column][rows] = parseNumber(start, index);
+					}
+				}
+				++column;
+				start = index + 1;
+			}
+
+			if (column != columns) return null;
+			++rows;
+		}
+
+		for (int column = 0; column < columns; ++column) data[column] = Arrays.copyOf(data[column], rows);
+		return new Contents(header, Arrays.copyOf(points, hours), data);
+	}
+
+	private boolean sameHour(byte[] hour, int hourLength, int start, int length) {
+		if (length != hourLength) return false;
+		for (int index = 0; index < length; ++index) {
+			if (hour[index] != line[start + index]) return false;
+		}
+		return true;
+	}
+
+	private boolean isTimestamp(int start, int end) {
+		return end - start == TIMESTAMP_LENGTH && line[end - 5] == '-' && line[end - 4] == '0' &&
+				line[end - 3] == '0' && line[end - 2] == '0' && line[end - 1] == '0';
+	}
+
+	// E.g., 2006-07-03T18:15:37-0000 to 20060703.181537.
+	private double parseTimestamp(int start) {
+		final int yyyy = parseInt(start, start + 4);
+		final int mo = parseInt(start + 5, start + 7);
+		final int dd = parseInt(start + 8, start + 10);
+		final int hh = parseInt(start + 11, start + 13);
+		final int mm = parseInt(start + 14, start + 16);
+		final int ss = parseInt(start + 17, start + 19);
+		return yyyy * 1e4 + mo * 1e2 + dd + hh * 1e-2 + mm * 1e-4 + ss * 1e-6;
+	}
+
+	private int parseInt(int start, int end) {
+		int result = 0;
+		for (int index = start; index < end; ++index) {
+			final int digit = line[index] - '0';
+			if (digit < 0 || digit > 9) throw new NumberFormatException("Invalid timestamp");
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+
+	// values that are not numbers are 0
+	private double parseNumber(int start, int end) {
+		try {
+			return NumberParser.parse(line, start, end);
+		} catch (NumberFormatException ex) {
+			//do nothing for now, just leave as zero....since we don't
+			//know how to parse alphanumeric strings...
+			return 0.0;
+		}
+	}
+
+	// reads the next line, without any '\r', into line
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		boolean read = false;
+		while (true) {
+			if (pos == limit) {
+				buffer.clear();
+				int count = 0;
+				while (count == 0) count = channel.read(buffer);
+				if (count < 0) return read;
+				pos = 0;
+				limit = count;
+			}
+			read = true;
+			while (pos < limit) {
+				final byte c = bytes[pos++];
+				if (c == '\n') return true;
+				if (c == '\r') continue;
+				if (lineLength == line.length) line = Arrays.copyOf(line, lineLength * 2);
+				line[lineLength++] = c;
+			}
+		}
+	}
+}
@@ -10,8 +10,7 @@ import java.util.Calendar;
 import java.util.TimeZone;
 import java.util.List;
 import java.util.ArrayList;
-import java.io.File;
-import java.io.RandomAccessFile;
+import java.io.IOException;
 
 import ucar.ma2.ArrayDouble;
 
@@ -33,7 +32,6 @@ public class SpreadsheetReader implements DataReader<SpreadsheetDataset> {
 	private static final String headerStart =
 		"timestamp(utc)\tlongitude(deg)\tlatitude(deg)\t";
 	private static final int requiredColumns = headerStart.split("\t").length;
-	private static final String EOL = "\n"; // '\r' characters have been filtered.
 	
 	private static final String[] supportedTimeZones = 
 	{"EST", "EDT", "PST", "PDT", "MST", "MDT", 
@@ -85,74 +83,74 @@ public class SpreadsheetReader implements DataReader<SpreadsheetDataset> {
 	}
 
 	public SpreadsheetReader( final String fileName ) {
-		final StringBuffer buffer = readFile( fileName );
-
-		if ( buffer != null ) {
-			final int endOfLine = buffer.indexOf( EOL );
-
-			if ( endOfLine > 0 ) {
-				final String header =
-					buffer.substring( 0, endOfLine ).toLowerCase();
-				try {
-					timezone = validateHeaderAndGetTimezone( header);
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					throw new IllegalArgumentException( fileName +
-					" is not a valid tab-delimited ASCII Spreadsheet data file: " + e.getMessage() );
-				}
+		SpreadsheetParser.Contents contents = null;
+
+		try {
+			contents = SpreadsheetParser.read( fileName );
+		} catch ( IllegalArgumentException e ) {
+			throw new IllegalArgumentException( fileName +
+			" is not a valid tab-delimited ASCII Spreadsheet data file: " + e.getMessage() );
+		} catch ( IOException unused ) {
+		}
 
-				//if ( header.startsWith( headerStart ) ) {
-					final String[] words = header.split( "\t" );
-					final int columns = words.length;
-
-					if ( columns > requiredColumns  ) {
-			 			final boolean hasElevation =
-			 				words[ requiredColumns ].equals( "elevation(m)" );
-			 			final int[] points = computePointsPerHour( buffer );
-			 			final int rows = countLines( buffer ) - 1;
-			 			final double[][] data = new double[ columns ][ rows ];
-			 				
-			 			if ( parseData( buffer, data ) ) {
-				 			final Axes<CoordAxis> axes =
-				 				createAxes( hasElevation, points, data );
-			 				dataset =
-			 					new SpreadsheetDataset(fileName, axes, points,
-			 											data );
-
-			 				final List<Variable> variables =
-			 					new ArrayList<Variable>( columns );
-
-			 				final Variable timestamp =
-			 					new DefaultVariable("timestamp",
-			 										"YYYYMMDD.HHMMSS.",
-			 										VUnits.createUnit( timezone), // "UTC" ),
-			 										dataset );
-			 				final Variable longitude =
-			 					new DefaultVariable("longitude",
-			 										"Longitude [-180, 180].",
-			 										VUnits.createUnit( "deg" ),
-			 										dataset );
-			 				final Variable latitude =
-			 					new DefaultVariable("latitude",
-			 										"Latitude [-90, 90].",
-			 										VUnits.createUnit( "deg" ),
-				 									dataset );
-					 		variables.add( 0, timestamp );
-					 		variables.add( 1, longitude );
-					 		variables.add( 2, latitude );
-					 		parseDataVariablesAndUnits( words, variables,
-					 									dataset );
-					 		
-					 		if ( variables.size() == columns ) {
-					 			dataset.setVariables( variables );
-					 		} else {
-					 			dataset = null;
-					 		}
-			 			}
+		if ( contents != null ) {
+			final String header = contents.header;
+			try {
+				timezone = validateHeaderAndGetTimezone( header);
+			} catch (Exception e) {
+				throw new IllegalArgumentException( fileName +
+				" is not a valid tab-delimited ASCII Spreadsheet data file: " + e.getMessage() );
+			}
+
+			//if ( header.startsWith( headerStart ) ) {
+			final String[] words = header.split( "\t" );
+			final int columns = words.length;
+
+			if ( columns > requiredColumns  ) {
+				final boolean hasElevation =
+					words[ requiredColumns ].equals( "elevation(m)" );
+				final int[] points = contents.points;
+				final double[][] data = contents.data;
+
+				if ( points.length > 0 ) {
+					final Axes<CoordAxis> axes =
+						createAxes( hasElevation, points, data );
+					dataset =
+						new SpreadsheetDataset(fileName, axes, points,
+												data );
+
+					final List<Variable> variables =
+						new ArrayList<Variable>( columns );
+
+					final Variable timestamp =
+						new DefaultVariable("timestamp",
+											"YYYYMMDD.HHMMSS.",
+											VUnits.createUnit( timezone), // "UTC" ),
+											dataset );
+					final Variable longitude =
+						new DefaultVariable("longitude",
+											"Longitude [-180, 180].",
+											VUnits.createUnit( "deg" ),
+											dataset );
+					final Variable latitude =
+						new DefaultVariable("latitude",
+											"Latitude [-90, 90].",
+											VUnits.createUnit( "deg" ),
+											dataset );
+					variables.add( 0, timestamp );
+					variables.add( 1, longitude );
+					variables.add( 2, latitude );
+					parseDataVariablesAndUnits( words, variables,
+												dataset );
+
+					if ( variables.size() == columns ) {
+						dataset.setVariables( variables );
+					} else {
+						dataset = null;
 					}
 				}
 			}
+		}
 		//}
 
 		if ( dataset == null ) {
@@ -161,6 +159,15 @@ public class SpreadsheetReader implements DataReader<SpreadsheetDataset> {
 		}
 	}
 
+	/**
+	 * Creates a SpreadsheetReader reading from an already loaded dataset.
+	 *
+	 * @param dataset the dataset
+	 */
+	public SpreadsheetReader( final SpreadsheetDataset dataset ) {
+		this.dataset = dataset;
+	}
+
 	public Dataset getDataset() {
 		final Dataset result = dataset;
 		return result;
@@ -330,224 +337,4 @@ System.err.println( "ranges: axis = " + axis +
     	return result;
     }
 
-    // int result[ hours ] counts number of data points in each hour.
-
-    private static int[] computePointsPerHour( final StringBuffer buffer ) {
-      int[] result = null;
-      final int hours = computeHours( buffer );
-
-      if ( hours > 0 ) {
-        final int bufferLength = buffer.length();
-        final int length = 13; // "2006-07-03T18".length().
-        int start = 0;
-        String hour = "";
-        boolean done = false;
-        result = new int[ hours ];
-
-        // Compute number of points in each hour:
-
-        start = 0;
-        hour = null;
-        int index = 0;
-
-        do {
-          final int thisHourStart = buffer.indexOf( EOL, start ) + 1;
-          done = thisHourStart <= 0 || thisHourStart + length >= bufferLength;
-          
-          if ( ! done ) {
-            final String thisHour = // E.g., "2006-07-03T18".
-              buffer.substring( thisHourStart, thisHourStart + length );
-
-            if ( hour == null ) {
-              hour = thisHour; // Initialize to first hour.
-              result[ index ] = 1;
-            } else if ( thisHour.equals( hour ) ) {
-              result[ index ] += 1;
-            } else { // New hour:
-              ++index;
-              result[ index ] = 1;
-              hour = thisHour;
-            }
-
-            start = thisHourStart;
-          }
-
-        } while ( ! done );
-      }
-
-      return result;
-    }
-
-
-    private static int computeHours( final StringBuffer buffer ) {
-      final int bufferLength = buffer.length();
-      final int length = 13; // "2006-07-03T18".length().
-      int result = 0;
-      int start = 0;
-      String hour = null;
-      boolean done = false;
-
-      do {
-        final int thisHourStart = buffer.indexOf( EOL, start ) + 1;
-        done = thisHourStart <= 0 || thisHourStart + length >= bufferLength;
-
-        if ( ! done ) {
-          final String thisHour = // E.g., "2006-07-03T18".
-            buffer.substring( thisHourStart, thisHourStart + length );
-
-          if ( hour == null || ! thisHour.equals( hour ) ) {
-            ++result;
-            hour = thisHour;
-          }
-
-          start = thisHourStart;
-        }
-
-      } while ( ! done );
-
-      return result;
-    }
-
-
-    // double data[ columns ][ rows ] has values parsed.
-
-    private static boolean parseData( final StringBuffer buffer,
-                                      final double[][] data ) {
-      final int bufferLength = buffer.length();
-      final int columns = data.length;
-      final int rows = data[ 0 ].length;
-      int row = 0;
-      int index = 0;
-
-      while ( ( index = buffer.indexOf( EOL, index ) + 1 ) > 0 &&
-              index < bufferLength &&
-              buffer.charAt( index ) != '\0' ) {
-        final int end = buffer.indexOf( EOL, index + 1 ) + 1;
-        String line = null;
-
-        if ( end > 0 ) {
-          line = buffer.substring( index, end );
-        } else {
-          line = buffer.substring( index );
-        }
-
-        final String[] words = line.split( "\t" );
-
-        if ( words.length == columns ) {
-          final String timestamp = words[ 0 ];
-
-          // First convert timestamp
-          // E.g., 2006-07-03T18:15:37-0000 to 20060703.181537:
-
-          if ( timestamp.length() == 24 && timestamp.endsWith( "-0000" ) ) {
-            final int yyyy = Integer.valueOf( timestamp.substring( 0, 4 ) );
-            final int mo = Integer.valueOf( timestamp.substring( 5, 7 ) );
-            final int dd = Integer.valueOf( timestamp.substring( 8, 10 ) );
-            final int hh = Integer.valueOf( timestamp.substring( 11, 13 ) );
-            final int mm = Integer.valueOf( timestamp.substring( 14, 16 ) );
-            final int ss = Integer.valueOf( timestamp.substring( 17, 19 ) );
-            final double value =
-              yyyy * 1e4 + mo * 1e2 + dd + hh * 1e-2 + mm * 1e-4 + ss * 1e-6;
-            data[ 0 ][ row ] = value;
-
-            for ( int column = 1; column < columns; ++column ) {
-            	try {
-                    data[ column ][ row ] = Double.valueOf( words[ column ] );
-            	} catch (NumberFormatException ex) {
-            		//do nothing for now, just leave as zero....since we don't 
-            		//know how to parse alphanumeric strings...
-            	}
-            }
-          }
-
-          ++row;
-        }
-      }
-
-      final boolean result = row == rows;
-      return result;
-    }
-
-
-
-    private static int countLines( final StringBuffer buffer ) {
-    	int result = 0;
-    	int index = 0;
-
-    	while ( ( index = buffer.indexOf( EOL, index ) + 1 ) > 0 ) {
-    		++result;
-    	}
-
-    	return result;
-    }
-
-
-    private static StringBuffer readFile( final String name ) {
-		StringBuffer result = null;
-		final int totalBytesToRead = fileSize( name );
-
-		if ( totalBytesToRead > 0 ) {
-			RandomAccessFile file = null;
-			byte[] readBuffer = null;
-
-			try {
-				readBuffer = new byte[ totalBytesToRead ];
-				file = new RandomAccessFile( name, "r" );
-				int totalBytesRead = 0;
-			    int bytesRead = 0;
-
-				do {
-					final int bytesToReadNow = totalBytesToRead-totalBytesRead;
-			        bytesRead =
-			        	file.read( readBuffer, totalBytesRead, bytesToReadNow );
-					totalBytesRead += bytesRead;
-				} while ( bytesRead > 0 && totalBytesRead < totalBytesToRead );
-
-				if ( totalBytesRead == totalBytesToRead ) {
-
-					// Filter any DOS control-M characters:
-
-					int w = 0;
-
-					for ( int r = 0; r < totalBytesRead; ++r ) {
-						final byte c = readBuffer[ r ];
-
-						if ( c != '\r' ) {
-							readBuffer[ w ] = c;
-							++w;
-						}
-					}
-
-					result = new StringBuffer( new String( readBuffer, 0, w ) );
-				}
-
-			} catch ( Exception unused ) {
-			} finally {
-				try { if ( file != null ) file.close();} catch (Exception e) {}
-				readBuffer = null;
-			}
-		}
-
-		return result;
-    }
-
-
-    private static int fileSize( final String name ) {
-    	int result = 0;
-    	final File file = new File( name );
-
-        if ( file.exists() && file.isFile() && file.canRead() ) {
-        	final long length = file.length();
-
-        	if ( length > 0 && length < 2147483647 ) {
-        		result = (int) length;
-        	}
-        }
-
-    	return result;
-    }
-
 }
-
-
-
@@ -1,7 +1,6 @@
 package anl.verdi.loaders;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
@@ -12,16 +11,17 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 //import simphony.util.messages.MessageCenter;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.dataset.conv.WRFConvention;
-import anl.verdi.data.DataLoader;
 import anl.verdi.data.DataReader;
 import anl.verdi.data.Dataset;
+import anl.verdi.data.FormatProbe;
+import anl.verdi.data.ProbingDataLoader;
 
 /**
  * @author Nick Collier
  * @author Mary Ann Bitz
  * @version $Revision$ $Date$
  */
-public class WRFLoader implements DataLoader {
+public class WRFLoader implements ProbingDataLoader {
 	static final Logger Logger = LogManager.getLogger(WRFLoader.class.getName());
 
 //	private static final MessageCenter msgCenter = MessageCenter.getMessageCenter(WRFLoader.class);
@@ -36,14 +36,27 @@ public class WRFLoader implements DataLoader {
 	 * @throws Exception 
 	 */
 	public boolean canHandle(URL url) throws Exception {
+		FormatProbe probe = new FormatProbe(url);
+		try {
+			return canHandle(probe);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Returns whether or not this DataLoader can handle the data at the
+	 * probe's url.
+	 *
+	 * @param probe the probe of the data
+	 * @return true if this DataLoader can handle loading the data, otherwise
+	 *         false.
+	 * @throws Exception 
+	 */
+	public boolean canHandle(FormatProbe probe) throws Exception {
 		//  try to open up the file
-		NetcdfFile file = null;
 		try {
-			String urlString = url.toExternalForm();
-			if (url.getProtocol().equals("file")) {
-				urlString = new URI(urlString).getPath();
-			}
-			file = NetcdfFile.open(urlString);
+			NetcdfFile file = NetcdfProbe.getFile(probe);
 			return WRFConvention.isMine(file);
 
 		} catch (IOException io) {
@@ -59,11 +72,6 @@ public class WRFLoader implements DataLoader {
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
-		finally {
-			try {
-				if (file != null) file.close();
-			} catch (IOException e) {}
-		}
 
 		return false;
 	}
@@ -79,6 +87,17 @@ public class WRFLoader implements DataLoader {
 		return factory.createWRFDatasets(url);
 	}
 
+	/**
+	 * Creates a Dataset from the netcdf file opened by the probe.
+	 *
+	 * @param probe the probe of the data
+	 * @return a Dataset created from the data at the probe's URL.
+	 */
+	public List<Dataset> createDatasets(FormatProbe probe) {
+		NetcdfDatasetFactory factory = new NetcdfDatasetFactory();
+		return factory.createWRFDatasets(probe.getURL(), NetcdfProbe.takeFile(probe));
+	}
+
 
 	/**
 	 * Creates a DataReader that can read a particular type of Dataset.
@@ -0,0 +1,195 @@
+package anl.verdi.loaders;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import anl.verdi.data.Axes;
+import anl.verdi.data.AxisRange;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameIndex;
+import anl.verdi.data.DataReader;
+import anl.verdi.data.Dataset;
+import anl.verdi.data.Variable;
+
+/**
+ * Tests aggregating netcdf files along time.
+ */
+public class AggregatedNetcdfDatasetTest extends TestCase {
+
+	private static final int LATS = 4, LONS = 5;
+
+	private File dir;
+	private List<Dataset> sets = new ArrayList<Dataset>();
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("aggregate", "");
+		dir.delete();
+		dir.mkdir();
+		// the second file repeats the last hour of the first, as CMAQ files do
+		writeFile("a.nc", new int[] {0, 1, 2}, 0);
+		writeFile("b.nc", new int[] {2, 3, 4}, 1000);
+		writeFile("c.nc", new int[] {5, 6}, 0);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (Dataset set : sets) set.close();
+		for (File file : dir.listFiles()) file.delete();
+		dir.delete();
+	}
+
+	// each value encodes its hour and cell, plus an offset telling the files apart
+	private static float value(int hour, int lat, int lon, int offset) {
+		return offset + hour * 100 + lat * 10 + lon;
+	}
+
+	private void writeFile(String name, int[] hours, int offset) throws Exception {
+		NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, new File(dir, name).getPath());
+		writer.addDimension(null, "time", hours.length);
+		writer.addDimension(null, "lat", LATS);
+		writer.addDimension(null, "lon", LONS);
+		ucar.nc2.Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+		writer.addVariableAttribute(time, new Attribute("units", "hours since 2016-07-01 00:00:00"));
+		ucar.nc2.Variable lat = writer.addVariable(null, "lat", DataType.DOUBLE, "lat");
+		writer.addVariableAttribute(lat, new Attribute("units", "degrees_north"));
+		ucar.nc2.Variable lon = writer.addVariable(null, "lon", DataType.DOUBLE, "lon");
+		writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+		ucar.nc2.Variable o3 = writer.addVariable(null, "O3", DataType.FLOAT, "time lat lon");
+		writer.addVariableAttribute(o3, new Attribute("units", "ppmV"));
+		writer.addVariableAttribute(o3, new Attribute("long_name", "ozone"));
+		writer.create();
+
+		ArrayDouble.D1 times = new ArrayDouble.D1(hours.length);
+		for (int i = 0; i < hours.length; i++) times.set(i, hours[i]);
+		writer.write(time, times);
+		ArrayDouble.D1 lats = new ArrayDouble.D1(LATS);
+		for (int i = 0; i < LATS; i++) lats.set(i, 30 + i);
+		writer.write(lat, lats);
+		ArrayDouble.D1 lons = new ArrayDouble.D1(LONS);
+		for (int i = 0; i < LONS; i++) lons.set(i, -100 + i);
+		writer.write(lon, lons);
+		ArrayFloat.D3 data = new ArrayFloat.D3(hours.length, LATS, LONS);
+		for (int t = 0; t < hours.length; t++)
+			for (int y = 0; y < LATS; y++)
+				for (int x = 0; x < LONS; x++)
+					data.set(t, y, x, value(hours[t], y, x, offset));
+		writer.write(o3, data);
+		writer.close();
+	}
+
+	private URL writeList(String... names) throws Exception {
+		File list = new File(dir, "files.txt");
+		FileWriter writer = new FileWriter(list);
+		writer.write(AggregatedNetcdfLoader.HEADER + "\n");
+		// listed out of order, the dataset orders the files by time
+		for (int i = names.length - 1; i >= 0; i--) writer.write(names[i] + "\n");
+		writer.close();
+		return list.toURI().toURL();
+	}
+
+	private Dataset load(AggregatedNetcdfLoader loader, URL url) throws Exception {
+		assertTrue(loader.canHandle(url));
+		List<Dataset> loaded = loader.createDatasets(url);
+		sets.addAll(loaded);
+		assertEquals(1, loaded.size());
+		return loaded.get(0);
+	}
+
+	public void testCanHandle() throws Exception {
+		AggregatedNetcdfLoader loader = new AggregatedNetcdfLoader();
+		assertTrue(loader.canHandle(writeList("a.nc")));
+		assertFalse(loader.canHandle(new File(dir, "a.nc").toURI().toURL()));
+	}
+
+	public void testTimeAxis() throws Exception {
+		Dataset set = load(new AggregatedNetcdfLoader(), writeList("a.nc", "b.nc", "c.nc"));
+		Axes<CoordAxis> axes = set.getCoordAxes();
+		CoordAxis time = axes.getTimeAxis();
+		assertEquals(0, time.getRange().getOrigin());
+		assertEquals(7, time.getRange().getExtent());
+		for (int i = 0; i < 7; i++) {
+			GregorianCalendar date = axes.getDate(i);
+			GregorianCalendar expected = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+			expected.clear();
+			expected.set(2016, GregorianCalendar.JULY, 1, i, 0);
+			assertEquals(expected.getTimeInMillis(), date.getTimeInMillis());
+			assertEquals(i, time.getValue(i), 0);
+			assertEquals(i, axes.getTimeStep(date));
+		}
+		// only the first file is kept open after the headers are read
+		assertEquals(0, ((AggregatedNetcdfDataset) set).getOpenFileCount());
+	}
+
+	public void testRead() throws Exception {
+		AggregatedNetcdfLoader loader = new AggregatedNetcdfLoader();
+		Dataset set = load(loader, writeList("a.nc", "b.nc", "c.nc"));
+		Variable o3 = set.getVariable("O3");
+		assertNotNull(o3);
+		DataReader reader = loader.createReader(set);
+
+		// hours 1 to 5 span all three files, hour 2 comes from the first
+		List<AxisRange> ranges = new ArrayList<AxisRange>();
+		ranges.add(new AxisRange(set.getCoordAxes().getTimeAxis(), 1, 5));
+		DataFrame frame = reader.getValues(set, ranges, o3);
+		assertEquals(5, frame.getShape()[0]);
+		assertEquals(1, frame.getAxes().getTimeAxis().getOrigin());
+		DataFrameIndex index = frame.getIndex();
+		for (int t = 0; t < 5; t++) {
+			for (int y = 0; y < LATS; y++) {
+				for (int x = 0; x < LONS; x++) {
+					index.set(t, 0, x, y);
+					int offset = t + 1 == 3 || t + 1 == 4 ? 1000 : 0;
+					assertEquals(value(t + 1, y, x, offset), frame.getFloat(index), 0);
+				}
+			}
+		}
+	}
+
+	public void testOnlyTouchedFilesOpened() throws Exception {
+		AggregatedNetcdfLoader loader = new AggregatedNetcdfLoader();
+		AggregatedNetcdfDataset set = (AggregatedNetcdfDataset) load(loader, writeList("a.nc", "b.nc", "c.nc"));
+		List<AxisRange> ranges = new ArrayList<AxisRange>();
+		ranges.add(new AxisRange(set.getCoordAxes().getTimeAxis(), 0, 2));
+		loader.createReader(set).getValues(set, ranges, set.getVariable("O3"));
+		assertEquals(0, set.getOpenFileCount());
+
+		ranges.set(0, new AxisRange(set.getCoordAxes().getTimeAxis(), 6, 1));
+		DataFrame frame = loader.createReader(set).getValues(set, ranges, set.getVariable("O3"));
+		assertEquals(1, set.getOpenFileCount());
+		assertEquals(value(6, 0, 0, 0), frame.getArray().getFloat(0), 0);
+	}
+
+	public void testGridMismatch() throws Exception {
+		NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, new File(dir, "d.nc").getPath());
+		writer.addDimension(null, "time", 1);
+		writer.addDimension(null, "lat", LATS + 1);
+		writer.addDimension(null, "lon", LONS);
+		writer.addVariableAttribute(writer.addVariable(null, "time", DataType.DOUBLE, "time"), new Attribute("units", "hours since 2016-07-02 00:00:00"));
+		writer.addVariableAttribute(writer.addVariable(null, "lat", DataType.DOUBLE, "lat"), new Attribute("units", "degrees_north"));
+		writer.addVariableAttribute(writer.addVariable(null, "lon", DataType.DOUBLE, "lon"), new Attribute("units", "degrees_east"));
+		writer.addVariable(null, "O3", DataType.FLOAT, "time lat lon");
+		writer.create();
+		writer.close();
+		try {
+			new AggregatedNetcdfLoader().createDatasets(writeList("a.nc", "d.nc"));
+			fail("files on different grids should not be aggregated");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+}
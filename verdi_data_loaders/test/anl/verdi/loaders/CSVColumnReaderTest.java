@@ -0,0 +1,88 @@
+package anl.verdi.loaders;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests reading the columns of CSV files.
+ */
+public class CSVColumnReaderTest extends TestCase {
+
+	private CSVColumnReader reader(String csv) {
+		return new CSVColumnReader(new ByteArrayInputStream(csv.getBytes()));
+	}
+
+	private CSVColumnReader.Column[] read(String csv, int... columns) throws Exception {
+		CSVColumnReader reader = reader(csv);
+		reader.readHeader();
+		return reader.readColumns(columns);
+	}
+
+	public void testHeader() throws Exception {
+		CSVColumnReader reader = reader("time,x, y,,value\r\n1,2,3,4\r\n");
+		List<String> names = reader.readHeader();
+		assertEquals(Arrays.asList("time", "x", " y", "value"), names);
+		assertNull(reader("").readHeader());
+	}
+
+	public void testColumns() throws Exception {
+		String csv = "a,b,c,d\r\n1,2.5,-3e2,skipped\r\n\r\n4, 5 ,,6\n7\n";
+		CSVColumnReader.Column[] columns = read(csv, 2, 0, 1, 0);
+		assertEquals(3, columns[0].size());
+		// empty fields are skipped, as by a StringTokenizer
+		assertEquals(-300.0, columns[0].get(0));
+		assertEquals(6.0, columns[0].get(1));
+		assertEquals(0.0, columns[0].get(2));
+		assertEquals(1.0, columns[1].get(0));
+		assertEquals(4.0, columns[1].get(1));
+		assertEquals(7.0, columns[1].get(2));
+		assertEquals(2.5, columns[2].get(0));
+		assertEquals(5.0, columns[2].get(1));
+		assertEquals(0.0, columns[2].get(2));
+		assertEquals(7.0, columns[3].get(2));
+	}
+
+	public void testParsedAsByParseDouble() throws Exception {
+		Random random = new Random(42);
+		StringBuilder csv = new StringBuilder("value\n");
+		String[] texts = new String[200000];
+		for (int i = 0; i < texts.length; i++) {
+			double value = random.nextGaussian() * Math.pow(10, random.nextInt(30) - 15);
+			switch (i % 5) {
+			case 0: texts[i] = Double.toString(value); break;
+			case 1: texts[i] = String.format(Locale.ROOT, "%.6f", value); break;
+			case 2: texts[i] = String.format(Locale.ROOT, "%.17e", value); break;
+			case 3: texts[i] = Long.toString(random.nextLong()); break;
+			default: texts[i] = Integer.toString(random.nextInt(1000)) + "." + random.nextInt(100); break;
+			}
+			csv.append(texts[i]).append('\n');
+		}
+		// values spanning the reader's buffers are read whole
+		CSVColumnReader.Column column = read(csv.toString(), 0)[0];
+		assertEquals(texts.length, column.size());
+		for (int i = 0; i < texts.length; i++)
+			assertEquals(texts[i], Double.doubleToLongBits(Double.parseDouble(texts[i])), Double.doubleToLongBits(column.get(i)));
+	}
+
+	public void testInvalidNumber() throws Exception {
+		try {
+			read("a,b\n1,2\n3,4x\n", 1);
+			fail("4x is not a number");
+		} catch (NumberFormatException ex) {
+			assertTrue(ex.getMessage().contains("line 3"));
+		}
+		// an unused column need not be a number
+		assertEquals(2, read("a,b\n1,x\n3,y\n", 0)[0].size());
+	}
+
+	public void testUniqueValues() throws Exception {
+		CSVColumnReader.Column column = read("a\n3\n1\n2\n3\n1\n-0\n0\n", 0)[0];
+		double[] unique = column.uniqueValues();
+		assertTrue(Arrays.equals(new double[] {-0.0, 0, 1, 2, 3}, unique));
+	}
+}
@@ -0,0 +1,316 @@
+package anl.verdi.loaders;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.unitsofmeasurement.unit.Unit;
+
+import ucar.ma2.Array;
+import anl.verdi.data.AxisType;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameAxis;
+import anl.verdi.data.DataFrameBuilder;
+import anl.verdi.data.Range;
+import anl.verdi.data.TimeCoordAxis;
+import anl.verdi.plot.data.MinMaxInfo;
+import anl.verdi.plot.data.MinMaxLevelListener;
+
+/**
+ * Compares the min/max calculated by MPASMinMaxCalculator against a serial
+ * scan of a frame of random values.
+ */
+public class MPASMinMaxCalculatorTest extends TestCase {
+
+	private static final int TIMESTEPS = 12, LAYERS = 5, CELLS = 3000;
+
+	private float[][][] values = new float[TIMESTEPS][LAYERS][CELLS];
+	private DataFrame frame;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(17);
+		Array array = Array.factory(float.class, new int[]{TIMESTEPS, LAYERS, CELLS});
+		int i = 0;
+		for (int timestep = 0; timestep < TIMESTEPS; timestep++) {
+			for (int layer = 0; layer < LAYERS; layer++) {
+				for (int cell = 0; cell < CELLS; cell++) {
+					float value = (float) random.nextGaussian() * 10;
+					if (cell % 11 == 0) value = -9.999E36f;
+					values[timestep][layer][cell] = value;
+					array.setFloat(i++, value);
+				}
+			}
+		}
+		frame = createFrame(array, TIMESTEPS, LAYERS, CELLS);
+	}
+
+	private static DataFrame createFrame(Array array, int timesteps, int layers, int cells) {
+		return new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.TIME, timesteps), 0)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.LAYER, layers), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestAxis(AxisType.CELL_AXIS, cells), 2)).
+						createDataFrame();
+	}
+
+	private MinMaxInfo expected(int fromLayer, int toLayer, int fromTimestep, int toTimestep) {
+		MinMaxInfo info = new MinMaxInfo(0);
+		for (int layer = fromLayer; layer < toLayer; layer++) {
+			for (int timestep = fromTimestep; timestep < toTimestep; timestep++) {
+				for (int cell = 0; cell < CELLS; cell++) {
+					info.visitValue(values[timestep][layer][cell], cell);
+				}
+			}
+		}
+		return info;
+	}
+
+	private void assertMinMax(MinMaxInfo expected, MinMaxInfo actual) {
+		assertEquals(expected.getMin(), actual.getMin());
+		assertEquals(expected.getMax(), actual.getMax());
+		assertEquals(100.0, actual.getCompletion(), 1e-9);
+	}
+
+	// holds back the pool's workers until start is counted down, which
+	// the test thread also does when it reads the frame itself
+	private DataFrame gate(final DataFrame frame, final CountDownLatch start) {
+		final Thread test = Thread.currentThread();
+		return (DataFrame) Proxy.newProxyInstance(DataFrame.class.getClassLoader(),
+						new Class<?>[]{DataFrame.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getFloat")) {
+					if (Thread.currentThread() == test)
+						start.countDown();
+					else
+						start.await();
+				}
+				try {
+					return method.invoke(frame, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+	}
+
+	public void testFinalMinMaxInfo() throws Exception {
+		// the listener is registered before the workers may finish
+		CountDownLatch start = new CountDownLatch(1);
+		MPASMinMaxCalculator calculator = new MPASMinMaxCalculator(null, gate(frame, start));
+		TestListener listener = new TestListener(false);
+		calculator.getMinMaxInfo(listener);
+		// even listeners that are not asynchronous are not waited for
+		assertFalse(calculator.isDone());
+		start.countDown();
+		MinMaxInfo info = calculator.getFinalMinMaxInfo().get(30, TimeUnit.SECONDS);
+		assertTrue(calculator.isDone());
+		assertMinMax(expected(0, LAYERS, 0, TIMESTEPS), info);
+		for (int layer = 0; layer < LAYERS; layer++) {
+			assertMinMax(expected(layer, layer + 1, 0, TIMESTEPS), calculator.getLayerInfo(layer, listener));
+			for (int timestep = 0; timestep < TIMESTEPS; timestep++) {
+				MinMaxInfo step = calculator.getTimestepMinMax(layer, timestep);
+				MinMaxInfo stepExpected = expected(layer, layer + 1, timestep, timestep + 1);
+				assertMinMax(stepExpected, step);
+				assertEquals(stepExpected.getMinIndex(), step.getMinIndex());
+				assertEquals(stepExpected.getMaxIndex(), step.getMaxIndex());
+			}
+		}
+		assertEquals(100.0, listener.datasetCompletion, 1e-9);
+	}
+
+	public void testPrioritizedLayer() throws Exception {
+		MPASMinMaxCalculator calculator = new MPASMinMaxCalculator(null, frame);
+		calculator.prioritizeLayer(3, 7);
+		long end = System.currentTimeMillis() + 30000;
+		MinMaxInfo step;
+		while ((step = calculator.getTimestepMinMax(3, 7)) == null && System.currentTimeMillis() < end)
+			Thread.sleep(1);
+		assertNotNull(step);
+		assertMinMax(expected(3, 4, 7, 8), step);
+		assertNull(calculator.getTimestepMinMax(LAYERS, 0));
+		// asking for a layer that does not exist is ignored
+		calculator.prioritizeLayer(LAYERS, 0);
+	}
+
+	public void testCalculatorsShareThreads() throws Exception {
+		int parallelism = MPASMinMaxCalculator.getParallelism();
+		MPASMinMaxCalculator.setParallelism(1);
+		try {
+			// each calculator's steps are queued behind the others', so
+			// both finish even with a single step running at a time
+			MPASMinMaxCalculator first = new MPASMinMaxCalculator(null, frame);
+			MPASMinMaxCalculator second = new MPASMinMaxCalculator(null, frame);
+			assertMinMax(expected(0, LAYERS, 0, TIMESTEPS), second.getFinalMinMaxInfo().get(30, TimeUnit.SECONDS));
+			assertMinMax(expected(0, LAYERS, 0, TIMESTEPS), first.getFinalMinMaxInfo().get(30, TimeUnit.SECONDS));
+		} finally {
+			MPASMinMaxCalculator.setParallelism(parallelism);
+		}
+	}
+
+	public void testLayerInfoHasFirstTimestep() {
+		MPASMinMaxCalculator calculator = new MPASMinMaxCalculator(null, frame);
+		MinMaxInfo info = calculator.getLayerInfo(2, new TestListener(true));
+		// at least the first timestep has been merged into the layer
+		assertTrue(info.getMinIndex() >= 0);
+		assertTrue(info.getMin() <= expected(2, 3, 0, 1).getMin());
+		assertNotNull(calculator.getTimestepMinMax(2, 0));
+	}
+
+	public void testEveryLayerCompletes() throws Exception {
+		// many single step layers, so that layers finish alongside the last step
+		final int layers = 64, cells = 100;
+		Array array = Array.factory(float.class, new int[]{1, layers, cells});
+		for (int i = 0; i < layers * cells; i++)
+			array.setFloat(i, i % 37);
+		final DataFrame layered = createFrame(array, 1, layers, cells);
+		int parallelism = MPASMinMaxCalculator.getParallelism();
+		MPASMinMaxCalculator.setParallelism(8);
+		try {
+			for (int round = 0; round < 50; round++) {
+				CountDownLatch start = new CountDownLatch(1);
+				MPASMinMaxCalculator calculator = new MPASMinMaxCalculator(null, gate(layered, start));
+				// a long render time throttles all but the final updates
+				TestListener listener = new TestListener(true, 60000, layers);
+				calculator.getMinMaxInfo(listener);
+				start.countDown();
+				long end = System.currentTimeMillis() + 30000;
+				while (!calculator.isDone() && System.currentTimeMillis() < end)
+					Thread.sleep(1);
+				assertTrue(calculator.isDone());
+				for (int layer = 0; layer < layers; layer++)
+					assertEquals("layer " + layer, 100.0, listener.layerCompletion[layer], 1e-9);
+				assertEquals(100.0, listener.datasetCompletion, 1e-9);
+			}
+		} finally {
+			MPASMinMaxCalculator.setParallelism(parallelism);
+		}
+	}
+
+	public void testListenerMayWaitOnOtherThreads() throws Exception {
+		final MPASMinMaxCalculator calculator = new MPASMinMaxCalculator(null, frame);
+		final TestListener other = new TestListener(true);
+		// registers another listener on another thread while being updated,
+		// as a listener that waits on the Swing event thread may
+		TestListener listener = new TestListener(true) {
+			public void datasetUpdated(double min, int minIndex, double max, int maxIndex, double percentComplete,
+							boolean isLog) {
+				super.datasetUpdated(min, minIndex, max, maxIndex, percentComplete, isLog);
+				Thread thread = new Thread() {
+					public void run() {
+						calculator.getMinMaxInfo(other);
+					}
+				};
+				thread.start();
+				try {
+					thread.join(10000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (thread.isAlive())
+					blocked = true;
+			}
+		};
+		calculator.getMinMaxInfo(listener);
+		calculator.getFinalMinMaxInfo().get(60, TimeUnit.SECONDS);
+		assertFalse(listener.blocked);
+		assertEquals(100.0, listener.datasetCompletion, 1e-9);
+	}
+
+	private static class TestListener implements MinMaxLevelListener {
+
+		private boolean async;
+		private long renderTime;
+		volatile double datasetCompletion;
+		volatile boolean blocked;
+		double[] layerCompletion;
+
+		TestListener(boolean async) {
+			this(async, 0, LAYERS);
+		}
+
+		TestListener(boolean async, long renderTime, int layers) {
+			this.async = async;
+			this.renderTime = renderTime;
+			layerCompletion = new double[layers];
+		}
+
+		public synchronized void layerUpdated(int level, double min, int minIndex, double max, int maxIndex,
+						double percentComplete, boolean isLog) {
+			layerCompletion[level] = Math.max(layerCompletion[level], percentComplete);
+		}
+
+		public void datasetUpdated(double min, int minIndex, double max, int maxIndex, double percentComplete,
+						boolean isLog) {
+			datasetCompletion = percentComplete;
+		}
+
+		public long getRenderTime() {
+			return renderTime;
+		}
+
+		public boolean isAsyncListener() {
+			return async;
+		}
+	}
+
+	private static class TestAxis implements TimeCoordAxis {
+
+		private AxisType type;
+		private Range range;
+
+		TestAxis(AxisType type, int extent) {
+			this.type = type;
+			range = new Range(0, extent);
+		}
+
+		public String getName() {
+			return type.toString();
+		}
+
+		public String getDescription() {
+			return null;
+		}
+
+		public Range getRange() {
+			return range;
+		}
+
+		public AxisType getAxisType() {
+			return type;
+		}
+
+		public double getValue(int index) {
+			return index;
+		}
+
+		public Unit getUnits() {
+			return null;
+		}
+
+		public boolean isCompatible(CoordAxis axis) {
+			return true;
+		}
+
+		public GregorianCalendar getDate(int timestep) {
+			return null;
+		}
+
+		public int getTimeStep(GregorianCalendar date) {
+			return -1;
+		}
+
+		public int getTimeStep(Date date) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package anl.verdi.loaders;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests parsing numbers from the bytes of a file.
+ */
+public class NumberParserTest extends TestCase {
+
+	private double parse(String text) {
+		// the number is surrounded by other fields
+		byte[] bytes = ("x," + text + ",y").getBytes();
+		return NumberParser.parse(bytes, 2, bytes.length - 2);
+	}
+
+	private void assertParsed(String text) {
+		assertEquals(text, Double.doubleToLongBits(Double.parseDouble(text)), Double.doubleToLongBits(parse(text)));
+	}
+
+	public void testParsedAsByParseDouble() {
+		String[] texts = {"0", "-0", "+1", "1.", ".5", "-3e2", "1.5E-2", "0.000123", "007", "1e22", "1e23",
+						"1e-22", "1e-23", "123456789012345", "1234567890123456", "0.123456789012345678",
+						"9007199254740993", "4.9e-324", "1.7976931348623157E308", "1e400", "NaN", "-Infinity",
+						"0x1p3", "2d", " 4 ", "\t5\t"};
+		for (String text : texts) assertParsed(text);
+
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			double value = random.nextGaussian() * Math.pow(10, random.nextInt(30) - 15);
+			assertParsed(Double.toString(value));
+			assertParsed(Long.toString(random.nextLong()));
+			assertParsed(Integer.toString(random.nextInt(1000)) + "." + random.nextInt(100));
+		}
+	}
+
+	public void testInvalid() {
+		String[] texts = {"", " ", "-", ".", "e5", "1e", "1e+", "4x", "1 2", "1..2", "--1"};
+		for (String text : texts) {
+			try {
+				parse(text);
+				fail("'" + text + "' is not a number");
+			} catch (NumberFormatException ex) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package anl.verdi.loaders;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests parsing and caching tab-delimited spreadsheet files.
+ */
+public class SpreadsheetParserTest extends TestCase {
+
+	private static final String SHEET =
+		"Timestamp(UTC)\tLONGITUDE(deg)\tLATITUDE(deg)\tSTATION(-)\tozone(ppm)\r\n" +
+		"2006-07-03T00:00:00-0000\t-124.9250\t41.3297\t69990042\t0.04\r\n" +
+		"2006-07-03T00:30:15-0000\t-124.9100\t40.8033\tABC\t1.5e-2\r\n" +
+		"2006-07-03T01:00:00-0000\t-124.6997\t39.9656\t69990040\t\r\n" +
+		"2006-07-03T01:00:00-0500\t-124.6847\t41.9283\t69990043\t0.04\r\n" +
+		"2006-07-03T02:00:00-0000\t-124.2942\t39.2953\t69990039\t0.123456789012345678\r\n";
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("sheet", "");
+		dir.delete();
+		dir.mkdir();
+		System.setProperty(SpreadsheetCache.CACHE_DIR_PROPERTY, new File(dir, "cache").getPath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		System.clearProperty(SpreadsheetCache.CACHE_DIR_PROPERTY);
+		delete(dir);
+	}
+
+	private void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) for (File child : files) delete(child);
+		file.delete();
+	}
+
+	private File write(String name, String text) throws Exception {
+		File file = new File(dir, name);
+		FileWriter writer = new FileWriter(file);
+		writer.write(text);
+		writer.close();
+		return file;
+	}
+
+	public void testParse() throws Exception {
+		SpreadsheetParser.Contents contents = SpreadsheetParser.parse(write("obs.txt", SHEET));
+		assertEquals("timestamp(utc)\tlongitude(deg)\tlatitude(deg)\tstation(-)\tozone(ppm)", contents.header);
+		assertTrue(Arrays.equals(new int[] {2, 2, 1}, contents.points));
+		assertEquals(5, contents.data.length);
+		assertEquals(5, contents.data[0].length);
+		assertEquals(20060703.003015, contents.data[0][1], 1e-9);
+		assertEquals(-124.91, contents.data[1][1]);
+		// values that are not numbers are 0
+		assertEquals(0.0, contents.data[3][1]);
+		assertEquals(0.015, contents.data[4][1]);
+		assertEquals(0.0, contents.data[4][2]);
+		// lines not in UTC are left as 0
+		assertEquals(0.0, contents.data[0][3]);
+		assertEquals(0.0, contents.data[1][3]);
+		assertEquals(Double.valueOf("0.123456789012345678"), contents.data[4][4]);
+	}
+
+	public void testInvalid() throws Exception {
+		try {
+			SpreadsheetParser.parse(write("bad.txt", "time\tx\ty\tz\n"));
+			fail("the header is invalid");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+		assertNull(SpreadsheetParser.parse(write("short.txt", SHEET + "2006-07-03T02:00:00-0000\t1\t2\n")));
+	}
+
+	public void testCache() throws Exception {
+		File file = write("obs.txt", SHEET);
+		assertNull(SpreadsheetCache.read(file));
+		SpreadsheetParser.Contents parsed = SpreadsheetParser.read(file.getPath());
+		SpreadsheetParser.Contents cached = SpreadsheetCache.read(file);
+		assertNotNull(cached);
+		assertEquals(parsed.header, cached.header);
+		assertTrue(Arrays.equals(parsed.points, cached.points));
+		for (int column = 0; column < parsed.data.length; column++)
+			assertTrue(Arrays.equals(parsed.data[column], cached.data[column]));
+
+		// a changed file is parsed again
+		file = write("obs.txt", SHEET + "2006-07-03T03:00:00-0000\t1\t2\t3\t4\n");
+		file.setLastModified(file.lastModified() + 2000);
+		assertNull(SpreadsheetCache.read(file));
+		assertEquals(4, SpreadsheetParser.read(file.getPath()).points.length);
+		assertEquals(4, SpreadsheetCache.read(file).points.length);
+	}
+
+	public void testCacheOffByDefault() throws Exception {
+		System.clearProperty(SpreadsheetCache.CACHE_DIR_PROPERTY);
+		assertNull(SpreadsheetCache.getCacheDir());
+		File file = write("obs.txt", SHEET);
+		assertEquals(3, SpreadsheetParser.read(file.getPath()).points.length);
+		assertNull(SpreadsheetCache.read(file));
+		assertFalse(new File(dir, "cache").exists());
+	}
+}